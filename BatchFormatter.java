@@ -0,0 +1,289 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Formats many files at once, each on its own thread (a virtual thread,
+ *  where the JVM provides them), with at most a fixed number in progress
+ *  at a time.  Each file gets its own Controller, InputParser, and
+ *  PageAssembler, and its own Diagnostics, and is written to a file
+ *  of the same name in an output directory.
+ */
+class BatchFormatter {
+
+    /** Default limit on the number of files formatted at once. */
+    static final int DEFAULT_LIMIT = 64;
+
+    /** A new BatchFormatter that formats at most LIMIT files at once,
+     *  reading them by mapping them into memory iff MMAP, and laying
+     *  out their paragraphs on POOL, unless it is null, breaking them
+     *  optimally iff OPTIMAL.  Errors are printed on ERRORS, as JSON
+     *  lines iff JSON, and at most MAXERRORS of each kind are printed
+     *  for each file. */
+    BatchFormatter(int limit, boolean mmap, ForkJoinPool pool,
+                   boolean optimal, boolean json, int maxErrors,
+                   PrintStream errors) {
+        this(limit, mmap, pool, optimal, json, maxErrors, errors, null);
+    }
+
+    /** A new BatchFormatter as above, that also looks up paragraphs in
+     *  CACHE, unless it is null, which all files share. */
+    BatchFormatter(int limit, boolean mmap, ForkJoinPool pool,
+                   boolean optimal, boolean json, int maxErrors,
+                   PrintStream errors, ParagraphCache cache) {
+        _limit = new Semaphore(limit);
+        _mmap = mmap;
+        _pool = pool;
+        _optimal = optimal;
+        _json = json;
+        _maxErrors = maxErrors;
+        _errors = errors;
+        _cache = cache;
+    }
+
+    /** Return the input files denoted by SOURCE, in order: if SOURCE
+     *  names a directory, the regular files in it; if it is '@' followed
+     *  by a file name, the files listed in that file, one per line
+     *  (ignoring blank lines); if it contains any of '*?[{', the regular
+     *  files matching it as a glob pattern; and otherwise, SOURCE
+     *  itself. */
+    static List<Path> inputs(String source) throws IOException {
+        if (source.startsWith("@")) {
+            try (Stream<String> lines =
+                 Files.lines(Paths.get(source.substring(1)))) {
+                return lines.map(String::trim).filter(s -> !s.isEmpty())
+                    .map(Paths::get).collect(Collectors.toList());
+            }
+        }
+        Path path = Paths.get(source);
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                return files.filter(Files::isRegularFile).sorted()
+                    .collect(Collectors.toList());
+            }
+        }
+        int wild = firstWildcard(source);
+        if (wild == -1) {
+            return List.of(path);
+        }
+        int sep = source.lastIndexOf(File.separatorChar, wild);
+        Path base = Paths.get(sep == -1 ? "." : source.substring(0, sep + 1));
+        PathMatcher matcher = FileSystems.getDefault()
+            .getPathMatcher("glob:" + (sep == -1 ? "./" : "") + source);
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(p -> Files.isRegularFile(p)
+                                && matcher.matches(p))
+                .map(p -> sep == -1 ? base.relativize(p) : p)
+                .sorted().collect(Collectors.toList());
+        }
+    }
+
+    /** Return the index of the first glob metacharacter in PATTERN, or
+     *  -1 if there is none. */
+    private static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i += 1) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Format each of INPUTS into the file of the same name in OUTDIR,
+     *  returning the outcome of each, in the same order. */
+    List<Result> run(List<Path> inputs, Path outDir) {
+        List<Result> results = new ArrayList<>();
+        List<Future<Result>> jobs = new ArrayList<>();
+        Set<Path> outputs = new HashSet<>();
+        ExecutorService executor = newExecutor();
+        try {
+            for (Path input : inputs) {
+                Path output = outDir.resolve(input.getFileName());
+                if (!outputs.add(output)) {
+                    jobs.add(null);
+                    continue;
+                }
+                _limit.acquireUninterruptibly();
+                jobs.add(executor.submit(() -> {
+                    try {
+                        return format(input, output);
+                    } finally {
+                        _limit.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < jobs.size(); i += 1) {
+                Future<Result> job = jobs.get(i);
+                if (job == null) {
+                    results.add(new Result(inputs.get(i), 0,
+                                           "duplicate output file name"));
+                } else {
+                    results.add(job.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("batch interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    /** Format INPUT into OUTPUT on the current thread, returning the
+     *  outcome. */
+    private Result format(Path input, Path output) {
+        Diagnostics diagnostics =
+            new Diagnostics(input.toString(), _errors, _json, _maxErrors);
+        try {
+            if (Files.isSameFile(input, output)) {
+                return new Result(input, 0, "output would overwrite input");
+            }
+        } catch (IOException e) {
+            /* OUTPUT does not exist yet. */
+        }
+        try (Reader reader = _mmap ? new MappedFileReader(input.toFile())
+                 : new FileReader(input.toFile());
+             FileChannel channel =
+                 FileChannel.open(output, StandardOpenOption.WRITE,
+                                  StandardOpenOption.CREATE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            Controller cntrl =
+                new Controller(new ChannelPagePrinter(channel), _pool,
+                               diagnostics, _cache);
+            cntrl.setOptimalDefault(_optimal);
+            new InputParser(reader, cntrl).process();
+            return new Result(input, diagnostics.total(), null);
+        } catch (IOException e) {
+            return new Result(input, diagnostics.total(), e.toString());
+        } catch (UncheckedIOException e) {
+            return new Result(input, diagnostics.total(),
+                              e.getCause().toString());
+        } catch (RuntimeException e) {
+            return new Result(input, diagnostics.total(), e.toString());
+        }
+    }
+
+    /** Return an executor that runs each task on a new virtual thread if
+     *  this JVM supports them, and otherwise on a pooled platform
+     *  thread.  (_limit bounds the number of threads either way.) */
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtual =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Print a line summarizing each of RESULTS on OUT, followed by
+     *  totals. */
+    static void summarize(List<Result> results, PrintStream out) {
+        int ok, withErrors, failed;
+        ok = withErrors = failed = 0;
+        for (Result result : results) {
+            out.println(result);
+            if (result.failure != null) {
+                failed += 1;
+            } else if (result.errors > 0) {
+                withErrors += 1;
+            } else {
+                ok += 1;
+            }
+        }
+        out.printf("%d files: %d ok, %d with errors, %d failed%n",
+                   results.size(), ok, withErrors, failed);
+    }
+
+    /** Return the exit code for a batch with outcomes RESULTS: 0 if all
+     *  files were formatted without error, and otherwise 1. */
+    static int exitCode(List<Result> results) {
+        for (Result result : results) {
+            if (!result.ok()) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /** The outcome of formatting one file. */
+    static class Result {
+        /** The outcome of formatting INPUT: ERRORS errors in its text, and
+         *  a description of the FAILURE that stopped it, or null if it
+         *  was formatted completely. */
+        Result(Path input, int errors, String failure) {
+            this.input = input;
+            this.errors = errors;
+            this.failure = failure;
+        }
+
+        /** Return true iff the file was formatted without error. */
+        boolean ok() {
+            return errors == 0 && failure == null;
+        }
+
+        @Override
+        public String toString() {
+            if (failure != null) {
+                return String.format("%s: failed (%s)", input, failure);
+            } else if (errors > 0) {
+                return String.format("%s: %d error%s", input, errors,
+                                     errors == 1 ? "" : "s");
+            } else {
+                return String.format("%s: ok", input);
+            }
+        }
+
+        /** The input file. */
+        final Path input;
+        /** Number of errors in its text. */
+        final int errors;
+        /** Reason formatting stopped, or null. */
+        final String failure;
+    }
+
+    /** Limits the number of files being formatted. */
+    private final Semaphore _limit;
+    /** True iff input files are mapped into memory. */
+    private final boolean _mmap;
+    /** Pool on which paragraphs are laid out, or null. */
+    private final ForkJoinPool _pool;
+    /** True iff paragraphs are broken optimally by default. */
+    private final boolean _optimal;
+    /** True iff errors are printed as JSON lines. */
+    private final boolean _json;
+    /** Maximum number of errors of each kind printed per file. */
+    private final int _maxErrors;
+    /** Where errors are printed. */
+    private final PrintStream _errors;
+    /** Where paragraphs are looked up first, or null. */
+    private final ParagraphCache _cache;
+
+}
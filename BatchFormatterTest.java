@@ -0,0 +1,100 @@
+package tex61;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of BatchFormatters.
+ *  @author Eric Escobar
+ */
+
+public class BatchFormatterTest {
+
+    /** Pieces of input from which test documents are made: the usual
+     *  ones, with bad commands and arguments. */
+    private static final String[] PIECES = TestDocuments.piecesWith(
+        "\\nofill", "\\indent{-1}", "\\textheight{5}", "\\bogus",
+        "\\parskip{}", "\\parskip{x}");
+
+    /** Format INPUT into OUTPUT on the current thread, returning the
+     *  number of errors reported. */
+    private int format(String input, Path output) throws IOException {
+        Diagnostics diagnostics = TestDocuments.quiet();
+        try (FileChannel channel =
+             FileChannel.open(output, StandardOpenOption.WRITE,
+                              StandardOpenOption.CREATE)) {
+            Controller cntrl =
+                new Controller(new ChannelPagePrinter(channel), null,
+                               diagnostics);
+            new InputParser(new StringReader(input), cntrl).process();
+        }
+        return diagnostics.total();
+    }
+
+    @Test
+    public void testBatchMatchesSingle() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        Path in = Files.createDirectory(dir.resolve("in"));
+        Path out = dir.resolve("out");
+        Files.createDirectory(out);
+        Random r = new Random(61);
+        List<Integer> errors = new ArrayList<>();
+        for (int k = 0; k < 50; k += 1) {
+            String input = TestDocuments.makeInput(r, 1 + r.nextInt(500),
+                                                   PIECES);
+            Path file = in.resolve(String.format("doc%02d.tex", k));
+            Files.write(file, input.getBytes());
+            errors.add(format(input, dir.resolve("expected" + k)));
+        }
+        List<Path> inputs = BatchFormatter.inputs(in.toString());
+        assertEquals("wrong number of inputs", 50, inputs.size());
+        List<BatchFormatter.Result> results =
+            new BatchFormatter(4, false, null, false, false,
+                               Diagnostics.DEFAULT_LIMIT,
+                               TestDocuments.NOWHERE).run(inputs, out);
+        for (int k = 0; k < 50; k += 1) {
+            BatchFormatter.Result result = results.get(k);
+            assertEquals("wrong order", inputs.get(k), result.input);
+            assertNull("failed", result.failure);
+            assertEquals("wrong error count", (int) errors.get(k),
+                         result.errors);
+            assertArrayEquals("wrong output",
+                              Files.readAllBytes(dir.resolve("expected" + k)),
+                              Files.readAllBytes(out.resolve(inputs.get(k)
+                                                             .getFileName())));
+        }
+        assertEquals("wrong exit code",
+                     errors.stream().allMatch(e -> e == 0) ? 0 : 1,
+                     BatchFormatter.exitCode(results));
+    }
+
+    @Test
+    public void testInputs() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        Files.createDirectory(dir.resolve("sub"));
+        for (String name : new String[] { "a.tex", "b.txt", "sub/c.tex" }) {
+            Files.write(dir.resolve(name), new byte[0]);
+        }
+        Path list = dir.resolve("list");
+        Files.write(list, ("b.txt\n\n" + dir.resolve("a.tex") + "\n")
+                    .getBytes());
+        assertEquals(List.of(dir.resolve("a.tex"), dir.resolve("b.txt"),
+                             list),
+                     BatchFormatter.inputs(dir.toString()));
+        assertEquals(List.of(dir.resolve("a.tex"), dir.resolve("sub/c.tex")),
+                     BatchFormatter.inputs(dir + "/**.tex"));
+        assertEquals(List.of(dir.resolve("b.txt").getFileName(),
+                             dir.resolve("a.tex")),
+                     BatchFormatter.inputs("@" + list));
+    }
+
+}
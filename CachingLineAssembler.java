@@ -0,0 +1,32 @@
+package tex61;
+
+/** A LineAssembler that looks up each of its paragraphs in a
+ *  ParagraphCache, laying out only those it does not find there.  It
+ *  records the calls made on it as Paragraphs (see
+ *  RecordingLineAssembler), and sends the lines of each, laid out or
+ *  cached, to the real PageAssembler, which paginates them as if one
+ *  LineAssembler had done all the work.
+ */
+class CachingLineAssembler extends RecordingLineAssembler {
+
+    /** A new CachingLineAssembler with default settings, sending finished
+     *  lines to PAGES, using default endnote settings iff ENDNOTES, and
+     *  looking up paragraphs in CACHE. */
+    CachingLineAssembler(PageAssembler pages, boolean endnotes,
+                         ParagraphCache cache) {
+        super(endnotes);
+        _pages = pages;
+        _cache = cache;
+    }
+
+    @Override
+    void finish(Paragraph paragraph, boolean last) {
+        _cache.layout(paragraph).replay(_pages);
+    }
+
+    /** Destination of finished lines. */
+    private final PageAssembler _pages;
+    /** Where paragraphs are looked up. */
+    private final ParagraphCache _cache;
+
+}
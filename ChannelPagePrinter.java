@@ -0,0 +1,218 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A PageAssembler that encodes lines (in UTF-8, with terminating line
+ *  separators) into a set of reusable direct buffers, and writes them to
+ *  a WritableByteChannel with a single gathering write whenever a
+ *  threshold number of whole pages or of bytes has accumulated, and on
+ *  flush().
+ */
+class ChannelPagePrinter extends PageAssembler {
+
+    /** Default number of pages accumulated between writes. */
+    static final int FLUSH_PAGES = 4;
+    /** Default number of bytes accumulated before writing. */
+    static final int FLUSH_BYTES = 1 << 20;
+    /** Size of each direct buffer. */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /** Line separator, as for PrintWriter.println. */
+    private static final char[] NL = System.lineSeparator().toCharArray();
+
+    /** A new ChannelPagePrinter that sends lines to OUT, with default
+     *  thresholds. */
+    ChannelPagePrinter(WritableByteChannel out) {
+        this(out, FLUSH_PAGES, FLUSH_BYTES);
+    }
+
+    /** A new ChannelPagePrinter that sends lines to OUT, writing after
+     *  each FLUSHPAGES complete pages, or when at least FLUSHBYTES bytes
+     *  are waiting, whichever comes first. */
+    ChannelPagePrinter(WritableByteChannel out, int flushPages,
+                       int flushBytes) {
+        _out = out;
+        _flushPages = Math.max(flushPages, 1);
+        _flushBytes = Math.max(flushBytes, 1);
+        _chunks = new ByteBuffer[] {
+            ByteBuffer.allocateDirect(CHUNK_SIZE)
+        };
+        _encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** Encode LINE and a line separator into my buffers.  A line
+     *  starting with a form feed begins a new page, so the previous pages
+     *  are written first if there are enough of them. */
+    @Override
+    void write(String line) {
+        int len = line.length();
+        if (len > _chars.length) {
+            _chars = new char[Math.max(len, 2 * _chars.length)];
+        }
+        line.getChars(0, len, _chars, 0);
+        write(_chars, 0, len);
+    }
+
+    /** Encode the line in BUF[OFF .. OFF+LEN-1] as for write(String),
+     *  without first making a String of it. */
+    @Override
+    void write(char[] buf, int off, int len) {
+        if (len > 0 && buf[off] == '\f') {
+            _pages += 1;
+            if (_pages >= _flushPages) {
+                flush();
+            }
+        }
+        encode(buf, off, len);
+        encode(NL, 0, NL.length);
+        if (_bytes >= _flushBytes) {
+            flush();
+        }
+    }
+
+    /** Add the encoding of BUF[OFF .. OFF+LEN-1] to my buffers. */
+    private void encode(char[] buf, int off, int len) {
+        if (len > _scratch.length) {
+            _scratch = new byte[Math.max(len, 2 * _scratch.length)];
+        }
+        byte[] scratch = _scratch;
+        int i;
+        for (i = 0; i < len; i += 1) {
+            char c = buf[off + i];
+            if (c >= 0x80) {
+                break;
+            }
+            scratch[i] = (byte) c;
+        }
+        ByteBuffer out = _chunks[_last];
+        for (int k = 0; k < i; ) {
+            if (!out.hasRemaining()) {
+                out = nextChunk();
+            }
+            int m = Math.min(i - k, out.remaining());
+            out.put(scratch, k, m);
+            k += m;
+        }
+        _bytes += i;
+        if (i < len) {
+            encodeSlow(CharBuffer.wrap(buf, off + i, len - i));
+        }
+    }
+
+    /** Add the encoding of CHARS, which starts with a non-ASCII
+     *  character, to my buffers. */
+    private void encodeSlow(CharBuffer chars) {
+        ByteBuffer buf = _chunks[_last];
+        while (true) {
+            int start = buf.position();
+            boolean overflow =
+                _encoder.encode(chars, buf, true).isOverflow();
+            _bytes += buf.position() - start;
+            if (!overflow) {
+                break;
+            }
+            buf = nextChunk();
+        }
+        _encoder.reset();
+    }
+
+    /** Make the buffer after the current one current, creating it if
+     *  needed, and return it. */
+    private ByteBuffer nextChunk() {
+        _last += 1;
+        if (_last == _chunks.length) {
+            _chunks = Arrays.copyOf(_chunks, 2 * _chunks.length);
+        }
+        if (_chunks[_last] == null) {
+            _chunks[_last] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        return _chunks[_last];
+    }
+
+    /** Write all accumulated bytes to my channel. */
+    @Override
+    void flush() {
+        if (_bytes == 0) {
+            return;
+        }
+        int count = _last + 1;
+        for (int i = 0; i < count; i += 1) {
+            _chunks[i].flip();
+        }
+        Metrics metrics = metrics();
+        if (metrics != null) {
+            metrics.add(Metrics.BYTES_OUT, _bytes);
+        }
+        try {
+            if (_out instanceof GatheringByteChannel) {
+                GatheringByteChannel out = (GatheringByteChannel) _out;
+                int first = 0;
+                while (first < count) {
+                    out.write(_chunks, first, count - first);
+                    while (first < count && !_chunks[first].hasRemaining()) {
+                        first += 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i += 1) {
+                    while (_chunks[i].hasRemaining()) {
+                        _out.write(_chunks[i]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (int i = 0; i < count; i += 1) {
+                _chunks[i].clear();
+            }
+            _last = 0;
+            _bytes = 0;
+            _pages = 0;
+        }
+    }
+
+    /** Discard the bytes not yet written, and start again as if new. */
+    @Override
+    void reset() {
+        super.reset();
+        for (int i = 0; i <= _last; i += 1) {
+            _chunks[i].clear();
+        }
+        _last = 0;
+        _bytes = 0;
+        _pages = 0;
+    }
+
+    /** Destination of my output. */
+    private final WritableByteChannel _out;
+    /** Number of complete pages that trigger a write. */
+    private final int _flushPages;
+    /** Number of bytes that trigger a write. */
+    private final int _flushBytes;
+    /** Encoder for non-ASCII text. */
+    private final CharsetEncoder _encoder;
+    /** Staging area for ASCII text. */
+    private byte[] _scratch = new byte[256];
+    /** Staging area for lines passed as Strings. */
+    private char[] _chars = new char[256];
+    /** Output buffers.  _chunks[0 .. _last] hold unwritten bytes. */
+    private ByteBuffer[] _chunks;
+    /** Index of the buffer being filled. */
+    private int _last;
+    /** Number of bytes waiting in _chunks. */
+    private long _bytes;
+    /** Number of pages completed since the last write. */
+    private int _pages;
+
+}
@@ -0,0 +1,191 @@
+package tex61;
+
+import java.util.Arrays;
+
+import static tex61.FormatException.error;
+
+/** Maps the names of commands to the actions that carry them out.  A
+ *  name is looked up directly from the characters of the input, by a
+ *  hash computed once for each name registered and once for each command
+ *  read, in an open-addressed table, giving the command's ID (its slot),
+ *  so that finding a command allocates nothing.  A new table holds the
+ *  standard commands; others may be added, or standard ones replaced,
+ *  with register.
+ */
+class CommandTable {
+
+    /** The action of a command. */
+    interface Command {
+        /** Carry out the command just read by PARSER, whose argument, if
+         *  any, PARSER provides, on OUT.  Throws FormatException if the
+         *  argument is invalid. */
+        void execute(InputParser parser, Controller out);
+    }
+
+    /** Initial number of slots. */
+    private static final int INITIAL_SIZE = 32;
+
+    /** A new table holding the standard commands. */
+    CommandTable() {
+        _names = new char[INITIAL_SIZE][];
+        _hashes = new int[INITIAL_SIZE];
+        _commands = new Command[INITIAL_SIZE];
+        register("indent", (p, out) -> out.setIndentation(p.intArgument()));
+        register("parindent",
+                 (p, out) -> out.setParIndentation(p.intArgument()));
+        register("textwidth", (p, out) -> out.setTextWidth(p.intArgument()));
+        register("textheight",
+                 (p, out) -> out.setTextHeight(p.intArgument()));
+        register("parskip", (p, out) -> out.setParSkip(p.intArgument()));
+        register("nofill", (p, out) -> out.setFill(false));
+        register("fill", (p, out) -> out.setFill(true));
+        register("justify", (p, out) -> out.setJustify(true));
+        register("nojustify", (p, out) -> out.setJustify(false));
+        register("hyphenate", (p, out) -> out.setHyphenate(true));
+        register("nohyphenate", (p, out) -> out.setHyphenate(false));
+        register("linebreak",
+                 (p, out) -> out.setOptimal(optimal(p.argument())));
+        register("endnote", (p, out) -> {
+                if (!p.hasArgument()) {
+                    throw error("error: missing endnote");
+                }
+                out.formatEndnote(p.argument(), p.argumentLine(),
+                                  p.argumentColumn());
+            });
+    }
+
+    /** Make COMMAND the action of the command \NAME, replacing any
+     *  action it had. */
+    void register(String name, Command command) {
+        char[] chars = name.toCharArray();
+        int hash = hash(chars, 0, chars.length);
+        int slot = find(chars, 0, chars.length, hash);
+        if (_names[slot] == null) {
+            if (2 * (_size + 1) > _names.length) {
+                grow();
+                slot = find(chars, 0, chars.length, hash);
+            }
+            _names[slot] = chars;
+            _hashes[slot] = hash;
+            _size += 1;
+        }
+        _commands[slot] = command;
+    }
+
+    /** Return the ID of the command whose name is BUF[OFF .. OFF+LEN-1],
+     *  or -1 if there is none.  An ID is valid until the next call to
+     *  register. */
+    int id(char[] buf, int off, int len) {
+        int slot = find(buf, off, len, hash(buf, off, len));
+        return _names[slot] == null ? -1 : slot;
+    }
+
+    /** Return the ID of the command \NAME, or -1 if there is none. */
+    int id(String name) {
+        return id(name.toCharArray(), 0, name.length());
+    }
+
+    /** Return the action of the command whose ID is ID. */
+    Command command(int id) {
+        return _commands[id];
+    }
+
+    /** Return the name of the command whose ID is ID. */
+    String name(int id) {
+        return new String(_names[id]);
+    }
+
+    /** Return the slot holding the name BUF[OFF .. OFF+LEN-1], whose
+     *  hash is HASH, or the empty slot where it would go. */
+    private int find(char[] buf, int off, int len, int hash) {
+        int mask = _names.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            char[] name = _names[slot];
+            if (name == null
+                || (_hashes[slot] == hash
+                    && Arrays.equals(name, 0, name.length,
+                                     buf, off, off + len))) {
+                return slot;
+            }
+        }
+    }
+
+    /** Double the number of slots. */
+    private void grow() {
+        char[][] names = _names;
+        Command[] commands = _commands;
+        _names = new char[2 * names.length][];
+        _hashes = new int[_names.length];
+        _commands = new Command[_names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            if (names[i] != null) {
+                int hash = hash(names[i], 0, names[i].length);
+                int slot = find(names[i], 0, names[i].length, hash);
+                _names[slot] = names[i];
+                _hashes[slot] = hash;
+                _commands[slot] = commands[i];
+            }
+        }
+    }
+
+    /** Return the hash of the name BUF[OFF .. OFF+LEN-1]. */
+    private static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i += 1) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 7) ^ (h >>> 16);
+    }
+
+    /** Return true iff ARG, the argument of \linebreak, selects optimal
+     *  line breaking, and false if it selects greedy line breaking. */
+    private static boolean optimal(String arg) {
+        if ("optimal".equals(arg)) {
+            return true;
+        } else if ("greedy".equals(arg)) {
+            return false;
+        } else {
+            throw error("error: wrong line breaking");
+        }
+    }
+
+    /** Return the decimal integer BUF[OFF .. OFF+LEN-1], which, as for
+     *  Integer.parseInt, is an optional sign followed by one or more
+     *  digits.  Throws FormatException if it is not one, or is out of
+     *  range. */
+    static int parseInt(char[] buf, int off, int len) {
+        int end = off + len;
+        int i = off;
+        boolean negative = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i += 1;
+        }
+        if (i == end) {
+            throw error("error: bad number");
+        }
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < end; i += 1) {
+            char c = buf[i];
+            int digit = c >= '0' && c <= '9' ? c - '0'
+                : Character.digit(c, 10);
+            if (digit < 0 || result < limit / 10
+                || result * 10 < limit + digit) {
+                throw error("error: bad number");
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /** The names of commands, by slot; null in empty slots. */
+    private char[][] _names;
+    /** The hashes of _names. */
+    private int[] _hashes;
+    /** The actions of _names. */
+    private Command[] _commands;
+    /** Number of commands. */
+    private int _size;
+
+}
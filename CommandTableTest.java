@@ -0,0 +1,75 @@
+package tex61;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of CommandTables.
+ *  @author Eric Escobar
+ */
+
+public class CommandTableTest {
+
+    /** Does nothing. */
+    private static final CommandTable.Command NOTHING = (p, out) -> { };
+
+    @Test
+    public void testStandardCommands() {
+        CommandTable table = new CommandTable();
+        for (String name : new String[] {
+                "indent", "parindent", "textwidth", "textheight", "parskip",
+                "nofill", "fill", "justify", "nojustify", "linebreak",
+                "endnote" }) {
+            int id = table.id(name);
+            assertTrue("missing " + name, id >= 0);
+            assertEquals(name, table.name(id));
+        }
+        assertEquals(-1, table.id("bogus"));
+        assertEquals(-1, table.id("inden"));
+        assertEquals(-1, table.id("indents"));
+    }
+
+    @Test
+    public void testRegister() {
+        CommandTable table = new CommandTable();
+        int fill = table.id("fill");
+        table.register("fill", NOTHING);
+        assertSame(NOTHING, table.command(table.id("fill")));
+        assertEquals(fill, table.id("fill"));
+        for (int i = 0; i < 500; i += 1) {
+            table.register("cmd" + i, NOTHING);
+        }
+        char[] buf = "xxcmd317yy".toCharArray();
+        int id = table.id(buf, 2, 6);
+        assertEquals("cmd317", table.name(id));
+        assertSame(NOTHING, table.command(id));
+        assertSame(NOTHING, table.command(table.id("fill")));
+        assertTrue(table.id("indent") >= 0);
+        assertEquals(-1, table.id("cmd500"));
+    }
+
+    @Test
+    public void testParseInt() {
+        String[] numbers = {
+            "0", "7", "-7", "+7", "007", "2147483647", "-2147483648",
+            "\u0663\u0660",
+        };
+        for (String s : numbers) {
+            char[] buf = ("{" + s + "}").toCharArray();
+            assertEquals(s, Integer.parseInt(s),
+                         CommandTable.parseInt(buf, 1, s.length()));
+        }
+        String[] bad = {
+            "", "-", "+", "2147483648", "-2147483649", "99999999999",
+            "1 ", " 1", "1x", "--1", "0x10", "\\}",
+        };
+        for (String s : bad) {
+            try {
+                CommandTable.parseInt(s.toCharArray(), 0, s.length());
+                fail("accepted " + s);
+            } catch (FormatException e) {
+                /* Expected. */
+            }
+        }
+    }
+
+}
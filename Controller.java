@@ -1,6 +1,8 @@
 package tex61;
 
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
 
 
 /** Receives (partial) words and commands, performs commands, and
@@ -14,27 +16,130 @@ import java.io.PrintWriter;
 
 class Controller {
     /** new page printer object. */
-    private PagePrinter pagePrinterObj;
+    private PageAssembler pagePrinterObj;
     /** new line assembler object. */
     private LineAssembler lineAssemblerObj;
     /** new endnoted object. */
     private LineAssembler endNotesObj;
+    /** Formatted endnote lines, held until the main text is finished
+     *  (null if they are sent elsewhere). */
+    private LineSpool _endnoteLines;
+    /** Parser of endnotes, reused for each endnote (null until the
+     *  first). */
+    private InputParser _endnoteParser;
+    /** Endnotes found in the endnote being parsed, in order, to be
+     *  formatted after it. */
+    private final ArrayDeque<Endnote> _nestedEndnotes = new ArrayDeque<>();
     /** new print writer object. */
     private PrintWriter _out;
     /** boolean endnote. */
     private boolean _endnoteMode;
     /** Number of next endnote. */
     private int _refNum;
+    /** Where errors in my input are reported. */
+    private final Diagnostics _diagnostics;
+    /** The commands my parsers know. */
+    private final CommandTable _commands = new CommandTable();
+    /** Where what I do is counted, or null if it is not. */
+    private Metrics _metrics;
 
     /** A new Controller that sends formatted output to OUT. */
     Controller(PrintWriter out) {
+        this(new PagePrinter(out));
         _out = out;
+    }
+
+    /** A new Controller that sends formatted lines to PAGES. */
+    Controller(PageAssembler pages) {
+        this(pages, null);
+    }
+
+    /** A new Controller that sends formatted lines to PAGES, laying out
+     *  paragraphs in parallel on POOL, unless it is null. */
+    Controller(PageAssembler pages, ForkJoinPool pool) {
+        this(pages, pool, new Diagnostics());
+    }
+
+    /** A new Controller that sends formatted lines to PAGES, laying out
+     *  paragraphs in parallel on POOL, unless it is null, and reporting
+     *  errors in its input to DIAGNOSTICS. */
+    Controller(PageAssembler pages, ForkJoinPool pool,
+               Diagnostics diagnostics) {
+        this(pages, pool, diagnostics, null);
+    }
+
+    /** A new Controller as above, that also looks up each paragraph in
+     *  CACHE, unless it is null, before laying it out. */
+    Controller(PageAssembler pages, ForkJoinPool pool,
+               Diagnostics diagnostics, ParagraphCache cache) {
+        _diagnostics = diagnostics;
         _refNum = 1;
         _endnoteMode = false;
-        pagePrinterObj = new PagePrinter(out);
+        pagePrinterObj = pages;
+        _endnoteLines = new LineSpool();
+        PageAssembler endnotePages = _endnoteLines;
+        if (pool != null) {
+            lineAssemblerObj =
+                new ParallelLineAssembler(pagePrinterObj, false, pool, cache);
+            endNotesObj =
+                new ParallelLineAssembler(endnotePages, true, pool, cache);
+        } else if (cache != null) {
+            lineAssemblerObj =
+                new CachingLineAssembler(pagePrinterObj, false, cache);
+            endNotesObj = new CachingLineAssembler(endnotePages, true, cache);
+        } else {
+            lineAssemblerObj = new LineAssembler(pagePrinterObj);
+            endNotesObj = new LineAssembler(endnotePages, true);
+        }
+    }
+
+    /** A new Controller that formats the main text with MAIN, which sends
+     *  its lines on as it sees fit, and sends the lines of the endnotes to
+     *  PAGES after it, reporting errors in its input to DIAGNOSTICS. */
+    Controller(LineAssembler main, PageAssembler pages,
+               Diagnostics diagnostics) {
+        _diagnostics = diagnostics;
+        _refNum = 1;
+        _endnoteMode = false;
+        pagePrinterObj = pages;
+        _endnoteLines = new LineSpool();
+        lineAssemblerObj = main;
+        endNotesObj = new LineAssembler(_endnoteLines, true);
+    }
+
+    /** A new Controller that sends the formatted lines of the main text to
+     *  PAGES, reporting errors in its input to DIAGNOSTICS, and sends the
+     *  lines of the endnotes to ENDNOTEPAGES, rather than after the main
+     *  text.  Such a Controller formats part of a document at a time: see
+     *  restore and endText. */
+    Controller(PageAssembler pages, Diagnostics diagnostics,
+               PageAssembler endnotePages) {
+        _diagnostics = diagnostics;
+        _refNum = 1;
+        _endnoteMode = false;
+        pagePrinterObj = pages;
         lineAssemblerObj = new LineAssembler(pagePrinterObj);
-        endNotesObj = new LineAssembler(pagePrinterObj, true);
+        endNotesObj = new LineAssembler(endnotePages, true);
+    }
+
+    /** Start again on a new document, as if new, with default settings,
+     *  reusing my LineAssemblers and PageAssemblers and the space they
+     *  have allocated.  Only for Controllers whose LineAssemblers hold no
+     *  text beyond that of LineAssembler (see LineAssembler.reset), and
+     *  that have no endnote in progress.  My Diagnostics are not
+     *  reset. */
+    void reset() {
+        lineAssemblerObj.reset();
+        endNotesObj.reset();
+        pagePrinterObj.reset();
+        if (_endnoteLines != null) {
+            _endnoteLines.reset();
+        }
+        _refNum = 1;
+        _endnoteMode = false;
+        _nestedEndnotes.clear();
     }
+
     /** Add TEXT to the end of the word of formatted text currently
      *  being accumulated. */
     void addText(String text) {
@@ -45,6 +150,18 @@ class Controller {
         }
     }
 
+    /** Add the text in BUF[OFF .. OFF+LEN-1] to the end of the word of
+     *  formatted text currently being accumulated.  The characters are
+     *  copied straight into the line being built; BUF need not stay
+     *  unchanged after this call. */
+    void addText(char[] buf, int off, int len) {
+        if (_endnoteMode) {
+            endNotesObj.addText(buf, off, len);
+        } else {
+            lineAssemblerObj.addText(buf, off, len);
+        }
+    }
+
     /** Finish any current word of text and, if present, add to the
      *  list of words for the next line.  Has no effect if no unfinished
      *  word is being accumulated. */
@@ -76,18 +193,92 @@ class Controller {
         }
     }
 
+    /** Return where errors in my input are to be reported. */
+    Diagnostics diagnostics() {
+        return _diagnostics;
+    }
+
+    /** Return the commands known to the parsers that send me their
+     *  input, including those of endnotes.  Commands registered here
+     *  take effect in all of them. */
+    CommandTable commands() {
+        return _commands;
+    }
+
+    /** Count what I, my LineAssemblers and my PageAssemblers do in
+     *  METRICS, or nothing if it is null.  Parsers made with me after
+     *  this count their tokens there too.  Only for Controllers whose
+     *  LineAssemblers lay out their own lines, rather than recording
+     *  them (see RecordingLineAssembler). */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+        lineAssemblerObj.setMetrics(metrics);
+        endNotesObj.setMetrics(metrics);
+        pagePrinterObj.setMetrics(metrics);
+        if (_endnoteLines != null) {
+            _endnoteLines.setMetrics(metrics);
+        }
+    }
+
+    /** Measure the widths of words in my LineAssemblers with MEASURER.
+     *  Only for Controllers whose LineAssemblers lay out their own lines,
+     *  rather than recording them (see RecordingLineAssembler), which
+     *  always use DisplayWidth.DEFAULT. */
+    void setMeasurer(WidthMeasurer measurer) {
+        lineAssemblerObj.setMeasurer(measurer);
+        endNotesObj.setMeasurer(measurer);
+    }
+
+    /** Hyphenate words in my LineAssemblers with HYPHENATOR.  Only for
+     *  Controllers whose LineAssemblers lay out their own lines, as for
+     *  setMeasurer; others use Hyphenator.DEFAULT. */
+    void setHyphenator(Hyphenator hyphenator) {
+        lineAssemblerObj.setHyphenator(hyphenator);
+        endNotesObj.setHyphenator(hyphenator);
+    }
+
+    /** Return where what I do is counted, or null if it is not. */
+    Metrics metrics() {
+        return _metrics;
+    }
+
     /** If valid, process TEXT into an endnote, first appending a reference
-     *  to it to the line currently being accumulated. */
-    void formatEndnote(String text) {
-        InputParser endNotesParseObj = new InputParser(text, this);
-        lineAssemblerObj.addText("[" + _refNum + "]");
+     *  to it to the word currently being accumulated.  TEXT starts at
+     *  LINE and COLUMN of the input.  An endnote within an endnote is
+     *  numbered where it occurs and formatted after the one containing
+     *  it. */
+    void formatEndnote(String text, int line, int column) {
+        Endnote note = new Endnote(text, line, column, _refNum);
+        _refNum += 1;
+        if (_endnoteMode) {
+            endNotesObj.addText(note.reference());
+            _nestedEndnotes.add(note);
+            return;
+        }
+        lineAssemblerObj.addText(note.reference());
         setEndnoteMode();
-        endNotesObj.addWord("[" + _refNum + "]");
-        endNotesParseObj.process();
+        formatEndnote(note);
+        while (!_nestedEndnotes.isEmpty()) {
+            formatEndnote(_nestedEndnotes.remove());
+        }
+        setNormalMode();
+    }
+
+    /** Parse NOTE into a paragraph of the endnotes. */
+    private void formatEndnote(Endnote note) {
+        if (_endnoteParser == null) {
+            _endnoteParser =
+                new InputParser(note.text, this, note.line, note.column);
+        } else {
+            _endnoteParser.reset(note.text, note.line, note.column);
+        }
+        endNotesObj.addWord(note.reference());
+        _endnoteParser.parse();
         endNotesObj.finishWord();
         endNotesObj.endParagraph();
-        setNormalMode();
-        _refNum += 1;
+        if (_metrics != null) {
+            _metrics.add(Metrics.ENDNOTES, 1);
+        }
     }
 
     /** Set the current text height (number of lines per page) to VAL, if
@@ -159,12 +350,96 @@ class Controller {
         }
     }
 
+    /** Iff ON, break filled paragraphs into lines so as to minimize their
+     *  total badness, rather than greedily. */
+    void setOptimal(boolean on) {
+        if (_endnoteMode) {
+            endNotesObj.setOptimal(on);
+        } else {
+            lineAssemblerObj.setOptimal(on);
+        }
+    }
+
+    /** Iff ON, hyphenate words that do not fit on a line of a filled
+     *  paragraph. */
+    void setHyphenate(boolean on) {
+        if (_endnoteMode) {
+            endNotesObj.setHyphenate(on);
+        } else {
+            lineAssemblerObj.setHyphenate(on);
+        }
+    }
+
+    /** Iff ON, hyphenate the main text and the endnotes, until changed
+     *  by setHyphenate. */
+    void setHyphenateDefault(boolean on) {
+        lineAssemblerObj.setHyphenate(on);
+        endNotesObj.setHyphenate(on);
+    }
+
+    /** Iff ON, break filled paragraphs of both the main text and the
+     *  endnotes optimally, until changed by setOptimal. */
+    void setOptimalDefault(boolean on) {
+        lineAssemblerObj.setOptimal(on);
+        endNotesObj.setOptimal(on);
+    }
+
+    /** Return the current formatting parameters of the main text. */
+    Parameters parameters() {
+        return lineAssemblerObj.parameters();
+    }
+
+    /** Return the current formatting parameters of the endnotes. */
+    Parameters endnoteParameters() {
+        return endNotesObj.parameters();
+    }
+
+    /** Return the number of the next endnote. */
+    int nextEndnote() {
+        return _refNum;
+    }
+
+    /** Continue formatting at the start of a paragraph, with formatting
+     *  parameters MAIN for the main text and ENDNOTES for the endnotes,
+     *  and REFNUM as the number of the next endnote. */
+    void restore(Parameters main, Parameters endnotes, int refNum) {
+        lineAssemblerObj.setParameters(main);
+        endNotesObj.setParameters(endnotes);
+        _refNum = refNum;
+    }
+
+    /** Format and output all pending text of the main text and the
+     *  endnotes, each to its own PageAssembler. */
+    void endText() {
+        lineAssemblerObj.finalOutput();
+        endNotesObj.finalOutput();
+    }
+
     /** Finish the current formatted document or endnote (depending on mode).
-     *  Formats and outputs all pending text. */
+     *  Formats and outputs all pending text.  The main text has been
+     *  streamed to the page printer as it was formatted; the endnotes
+     *  follow it.  Finally, prints any errors reported. */
     void close() {
         if (!_endnoteMode) {
-            lineAssemblerObj.finalOutput();
-            endNotesObj.finalOutput();
+            try {
+                endText();
+                int stage = _metrics == null ? 0
+                    : _metrics.enter(Metrics.OUTPUT);
+                if (_endnoteLines != null) {
+                    _endnoteLines.endPage();
+                    _endnoteLines.drainTo(pagePrinterObj);
+                }
+                pagePrinterObj.endPage();
+                pagePrinterObj.flush();
+                if (_metrics != null) {
+                    _metrics.enter(stage);
+                }
+            } finally {
+                if (_endnoteLines != null) {
+                    _endnoteLines.discard();
+                }
+                _diagnostics.flush();
+            }
         }
     }
 
@@ -178,4 +453,28 @@ class Controller {
         _endnoteMode = false;
     }
 
+    /** An endnote awaiting formatting. */
+    private static final class Endnote {
+        /** The endnote numbered NUMBER whose text, TEXT, starts at LINE
+         *  and COLUMN of the input. */
+        Endnote(String text, int line, int column, int number) {
+            this.text = text;
+            this.line = line;
+            this.column = column;
+            this.number = number;
+        }
+
+        /** Return the reference to me in the text. */
+        String reference() {
+            return "[" + number + "]";
+        }
+
+        /** The text of the endnote. */
+        private final String text;
+        /** Line and column of the input at which text starts. */
+        private final int line, column;
+        /** Number of the endnote. */
+        private final int number;
+    }
+
 }
@@ -24,5 +24,7 @@ class Defaults {
     static final int ENDNOTE_PARAGRAPH_INDENTATION = -4;
     /** Default setting for \textwidth in endnotes. */
     static final int ENDNOTE_TEXT_WIDTH = 72;
+    /** Maximum length of a command argument, in characters. */
+    static final int MAX_ARGUMENT = 1 << 24;
 
 }
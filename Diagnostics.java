@@ -0,0 +1,262 @@
+package tex61;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/** Collects the errors found in the input of one formatting run.  Each
+ *  is recorded as a kind (one of the constants below), the line and
+ *  column where it occurred, and an optional detail (such as the
+ *  offending command), at the cost of a few array stores.  Only the
+ *  first few errors of each kind are kept; the rest are just counted.
+ *  In text mode, the errors kept are printed together by flush(), as
+ *  SOURCE:LINE:COLUMN: MESSAGE lines.  In JSON mode, each is printed as
+ *  a JSON object on its own line as it occurs (in chunks of whole lines),
+ *  and flush() adds a final summary object.
+ */
+class Diagnostics {
+
+    /** Kinds of error. */
+    static final int
+        /** Missing or empty command argument. */
+        WRONG_ARGUMENTS = 0,
+        /** A character that may not appear in the input. */
+        WRONG_INPUT = 1,
+        /** An unknown command. */
+        WRONG_COMMAND = 2,
+        /** A command with an invalid argument. */
+        COMMAND_FAILED = 3;
+
+    /** Number of kinds. */
+    private static final int KINDS = 4;
+
+    /** Messages for each kind, as printed in text mode. */
+    private static final String[] MESSAGES = {
+        "Wrong arguments.", "error: wrong input", "error: wrong command",
+        "error: command failed",
+    };
+
+    /** Names of each kind, as printed in JSON mode and in totals. */
+    private static final String[] NAMES = {
+        "wrong arguments", "wrong input", "wrong command", "command failed",
+    };
+
+    /** Default number of errors of each kind that are kept. */
+    static final int DEFAULT_LIMIT = 100;
+
+    /** Size at which buffered JSON output is written. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** A Diagnostics that prints errors in text mode on the standard
+     *  error, without a source name. */
+    Diagnostics() {
+        this(null, System.err, false, DEFAULT_LIMIT);
+    }
+
+    /** A Diagnostics for input named SOURCE (null if it has no name) that
+     *  prints to OUT, in JSON mode iff JSON, and keeps at most LIMIT >= 0
+     *  errors of each kind.  Space for them is allocated as they come,
+     *  so LIMIT may be as large as an int allows. */
+    Diagnostics(String source, PrintStream out, boolean json, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative error limit");
+        }
+        _source = source;
+        _out = out;
+        _json = json;
+        _limit = limit;
+        int n = json ? 0 : Math.min(limit, 64 / KINDS) * KINDS;
+        _kinds = new int[n];
+        _lines = new int[n];
+        _columns = new int[n];
+        _details = new String[n];
+    }
+
+    /** Forget all errors, and start again as if new, for input named
+     *  SOURCE (null if it has no name). */
+    void reset(String source) {
+        _source = source;
+        Arrays.fill(_counts, 0);
+        Arrays.fill(_suppressedShown, 0);
+        Arrays.fill(_details, 0, _kept, null);
+        _total = 0;
+        _kept = 0;
+        _text.setLength(0);
+    }
+
+    /** Record an error of kind KIND at LINE and COLUMN (both 0 if
+     *  unknown), with detail DETAIL (null if none). */
+    void report(int kind, int line, int column, String detail) {
+        _counts[kind] += 1;
+        _total += 1;
+        if (_counts[kind] > _limit) {
+            return;
+        }
+        if (_json) {
+            appendJson(kind, line, column, detail);
+            if (_text.length() >= CHUNK_SIZE) {
+                _out.print(_text);
+                _text.setLength(0);
+            }
+        } else {
+            if (_kept == _kinds.length) {
+                grow();
+            }
+            _kinds[_kept] = kind;
+            _lines[_kept] = line;
+            _columns[_kept] = column;
+            _details[_kept] = detail;
+            _kept += 1;
+        }
+    }
+
+    /** Print all errors not yet printed, followed by a note of how many
+     *  of each kind were not kept (in text mode) or a summary object (in
+     *  JSON mode). */
+    void flush() {
+        if (_json) {
+            _text.append("{\"summary\":true");
+            appendString(",\"source\":", _source);
+            _text.append(",\"total\":").append(_total);
+            for (int k = 0; k < KINDS; k += 1) {
+                appendString(",", NAMES[k]);
+                _text.append(':').append(_counts[k]);
+            }
+            _text.append("}\n");
+        } else {
+            for (int i = 0; i < _kept; i += 1) {
+                appendText(_kinds[i], _lines[i], _columns[i], _details[i]);
+            }
+            _kept = 0;
+            for (int k = 0; k < KINDS; k += 1) {
+                int suppressed = _counts[k] - _limit - _suppressedShown[k];
+                if (suppressed > 0) {
+                    if (_source != null) {
+                        _text.append(_source).append(": ");
+                    }
+                    _text.append(suppressed).append(" more '")
+                        .append(NAMES[k]).append("' errors not shown\n");
+                    _suppressedShown[k] += suppressed;
+                }
+            }
+        }
+        if (_text.length() > 0) {
+            _out.print(_text);
+            _text.setLength(0);
+        }
+        _out.flush();
+    }
+
+    /** Return the total number of errors reported. */
+    int total() {
+        return _total;
+    }
+
+    /** Return the number of errors of kind KIND reported. */
+    int count(int kind) {
+        return _counts[kind];
+    }
+
+    /** Return a summary of the errors reported, such as "3 errors (2
+     *  wrong input, 1 wrong command)", or "no errors". */
+    String totals() {
+        if (_total == 0) {
+            return "no errors";
+        }
+        StringBuilder s = new StringBuilder();
+        s.append(_total).append(_total == 1 ? " error (" : " errors (");
+        String sep = "";
+        for (int k = 0; k < KINDS; k += 1) {
+            if (_counts[k] > 0) {
+                s.append(sep).append(_counts[k]).append(' ').append(NAMES[k]);
+                sep = ", ";
+            }
+        }
+        return s.append(')').toString();
+    }
+
+    /** Append the text-mode line for an error of kind KIND at LINE and
+     *  COLUMN, with DETAIL, to _text. */
+    private void appendText(int kind, int line, int column, String detail) {
+        if (_source != null) {
+            _text.append(_source).append(':');
+        }
+        if (line > 0) {
+            _text.append(line).append(':').append(column).append(':');
+        }
+        if (_source != null || line > 0) {
+            _text.append(' ');
+        }
+        _text.append(MESSAGES[kind]);
+        if (detail != null) {
+            _text.append(" (").append(detail).append(')');
+        }
+        _text.append('\n');
+    }
+
+    /** Append the JSON object for an error of kind KIND at LINE and
+     *  COLUMN, with DETAIL, to _text. */
+    private void appendJson(int kind, int line, int column, String detail) {
+        _text.append('{');
+        appendString("\"kind\":", NAMES[kind]);
+        appendString(",\"source\":", _source);
+        _text.append(",\"line\":").append(line)
+            .append(",\"column\":").append(column);
+        appendString(",\"detail\":", detail);
+        _text.append("}\n");
+    }
+
+    /** Append PREFIX and then S as a JSON string (or null) to _text. */
+    private void appendString(String prefix, String s) {
+        _text.append(prefix);
+        if (s == null) {
+            _text.append("null");
+            return;
+        }
+        _text.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                _text.append('\\').append(c);
+            } else if (c < ' ') {
+                _text.append(String.format("\\u%04x", (int) c));
+            } else {
+                _text.append(c);
+            }
+        }
+        _text.append('"');
+    }
+
+    /** Double the space for kept errors. */
+    private void grow() {
+        int n = Math.max(16, 2 * _kinds.length);
+        _kinds = Arrays.copyOf(_kinds, n);
+        _lines = Arrays.copyOf(_lines, n);
+        _columns = Arrays.copyOf(_columns, n);
+        _details = Arrays.copyOf(_details, n);
+    }
+
+    /** Name of the input, or null. */
+    private String _source;
+    /** Destination of messages. */
+    private final PrintStream _out;
+    /** True iff printing JSON lines. */
+    private final boolean _json;
+    /** Maximum number of errors of each kind kept. */
+    private final int _limit;
+    /** Number of errors reported, by kind. */
+    private final int[] _counts = new int[KINDS];
+    /** Number of errors of each kind beyond _limit already noted. */
+    private final int[] _suppressedShown = new int[KINDS];
+    /** Total errors reported. */
+    private int _total;
+    /** Kinds, lines, columns and details of the errors kept (text
+     *  mode). */
+    private int[] _kinds, _lines, _columns;
+    /** Details of the errors kept. */
+    private String[] _details;
+    /** Number of errors kept and not yet printed. */
+    private int _kept;
+    /** Output not yet printed. */
+    private final StringBuilder _text = new StringBuilder();
+
+}
@@ -0,0 +1,221 @@
+package tex61;
+
+import java.util.Arrays;
+
+/** The WidthMeasurer that LineAssemblers use unless told otherwise: the
+ *  width of a word as a terminal shows it.  A word is measured by
+ *  grapheme clusters, each being a base character and what extends it
+ *  (combining marks, variation selectors, emoji modifiers and tags, and
+ *  characters joined with ZERO WIDTH JOINER), or a pair of regional
+ *  indicators (a flag).  A cluster takes two columns if its base is East
+ *  Asian Wide or Fullwidth, or is shown as an emoji, one if it is any
+ *  other printing character or ASCII, and none if it is a format
+ *  character, some other control character, or a mark with nothing
+ *  before it to extend.
+ *
+ *  Words of ASCII alone, which are most of them, are measured by their
+ *  length, after one pass that looks at no character more than once
+ *  and does not branch on any of them.  Words of Latin-1 and Latin
+ *  Extended letters are measured as they come, with no lookups.  The
+ *  widths of other words of up to CACHED_LENGTH chars are kept in a
+ *  fixed-size table, indexed by hash, where a new word replaces
+ *  whatever word had its slot, so that frequent words are measured
+ *  once.  Entries are immutable, and may be seen or lost by other
+ *  threads without harm, so the table needs no locking.
+ */
+final class DisplayWidth implements WidthMeasurer {
+
+    /** The measurer shared by all LineAssemblers by default. */
+    static final DisplayWidth DEFAULT = new DisplayWidth(4096);
+
+    /** Longest word, in chars, whose width is kept. */
+    static final int CACHED_LENGTH = 64;
+
+    /** Ranges of code points, first and last, that are East Asian Wide
+     *  or Fullwidth or are shown as emoji by default (Unicode 15),
+     *  sorted. */
+    private static final int[] WIDE = {
+        0x1100, 0x115f, 0x231a, 0x231b, 0x2329, 0x232a, 0x23e9, 0x23ec,
+        0x23f0, 0x23f0, 0x23f3, 0x23f3, 0x25fd, 0x25fe, 0x2614, 0x2615,
+        0x2648, 0x2653, 0x267f, 0x267f, 0x2693, 0x2693, 0x26a1, 0x26a1,
+        0x26aa, 0x26ab, 0x26bd, 0x26be, 0x26c4, 0x26c5, 0x26ce, 0x26ce,
+        0x26d4, 0x26d4, 0x26ea, 0x26ea, 0x26f2, 0x26f3, 0x26f5, 0x26f5,
+        0x26fa, 0x26fa, 0x26fd, 0x26fd, 0x2705, 0x2705, 0x270a, 0x270b,
+        0x2728, 0x2728, 0x274c, 0x274c, 0x274e, 0x274e, 0x2753, 0x2755,
+        0x2757, 0x2757, 0x2795, 0x2797, 0x27b0, 0x27b0, 0x27bf, 0x27bf,
+        0x2b1b, 0x2b1c, 0x2b50, 0x2b50, 0x2b55, 0x2b55, 0x2e80, 0x303e,
+        0x3041, 0x33ff, 0x3400, 0x4dbf, 0x4e00, 0x9fff, 0xa000, 0xa4cf,
+        0xa960, 0xa97f, 0xac00, 0xd7a3, 0xf900, 0xfaff, 0xfe10, 0xfe19,
+        0xfe30, 0xfe6f, 0xff00, 0xff60, 0xffe0, 0xffe6, 0x16fe0, 0x16fe4,
+        0x17000, 0x18aff, 0x1b000, 0x1b2ff, 0x1f004, 0x1f004,
+        0x1f0cf, 0x1f0cf, 0x1f18e, 0x1f18e, 0x1f191, 0x1f19a,
+        0x1f200, 0x1f202, 0x1f210, 0x1f23b, 0x1f240, 0x1f248,
+        0x1f250, 0x1f251, 0x1f260, 0x1f265, 0x1f300, 0x1f320,
+        0x1f32d, 0x1f335, 0x1f337, 0x1f37c, 0x1f37e, 0x1f393,
+        0x1f3a0, 0x1f3ca, 0x1f3cf, 0x1f3d3, 0x1f3e0, 0x1f3f0,
+        0x1f3f4, 0x1f3f4, 0x1f3f8, 0x1f43e, 0x1f440, 0x1f440,
+        0x1f442, 0x1f4fc, 0x1f4ff, 0x1f53d, 0x1f54b, 0x1f54e,
+        0x1f550, 0x1f567, 0x1f57a, 0x1f57a, 0x1f595, 0x1f596,
+        0x1f5a4, 0x1f5a4, 0x1f5fb, 0x1f64f, 0x1f680, 0x1f6c5,
+        0x1f6cc, 0x1f6cc, 0x1f6d0, 0x1f6d2, 0x1f6d5, 0x1f6d7,
+        0x1f6eb, 0x1f6ec, 0x1f6f4, 0x1f6fc, 0x1f7e0, 0x1f7eb,
+        0x1f90c, 0x1f93a, 0x1f93c, 0x1f945, 0x1f947, 0x1f9ff,
+        0x1fa70, 0x1faff, 0x20000, 0x2fffd, 0x30000, 0x3fffd,
+    };
+
+    /** The first combining mark.  No character before it extends a
+     *  cluster or takes more than one column. */
+    private static final int COMBINING = 0x300;
+
+    /** ZERO WIDTH JOINER, which joins the characters either side of it
+     *  into one cluster. */
+    private static final int ZWJ = 0x200d;
+
+    /** VARIATION SELECTOR-16, which asks for a character to be shown as
+     *  an emoji. */
+    private static final int EMOJI_PRESENTATION = 0xfe0f;
+
+    /** A DisplayWidth keeping the widths of about SIZE words, rounded up
+     *  to a power of two. */
+    DisplayWidth(int size) {
+        int n = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        _table = new Entry[n];
+    }
+
+    @Override
+    public int width(char[] buf, int off, int len) {
+        int bits = 0;
+        for (int i = off, end = off + len; i < end; i += 1) {
+            bits |= buf[i];
+        }
+        if (bits < 0x80) {
+            return len;
+        }
+        if (bits < COMBINING || len > CACHED_LENGTH) {
+            return measure(buf, off, len);
+        }
+        int hash = 0;
+        for (int i = off, end = off + len; i < end; i += 1) {
+            hash = 31 * hash + buf[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (_table.length - 1);
+        Entry entry = _table[slot];
+        if (entry != null && entry.hash == hash
+            && Arrays.equals(entry.chars, 0, entry.chars.length,
+                             buf, off, off + len)) {
+            return entry.width;
+        }
+        int width = measure(buf, off, len);
+        _table[slot] = new Entry(Arrays.copyOfRange(buf, off, off + len),
+                                 hash, width);
+        return width;
+    }
+
+    /** Return the width of BUF[OFF .. OFF+LEN-1], cluster by cluster.
+     *  Characters before COMBINING are one column each, bar those
+     *  controls not in ASCII and SOFT HYPHEN, and are counted without
+     *  looking them up. */
+    static int measure(char[] buf, int off, int len) {
+        int total = 0;
+        int cluster = 0;
+        int prev = -1;
+        int indicators = 0;
+        for (int i = off, end = off + len; i < end; ) {
+            int c = Character.codePointAt(buf, i, end);
+            i += Character.charCount(c);
+            if (c < COMBINING) {
+                total += cluster;
+                cluster = c > 0x7f && c < 0xa0 || c == 0xad ? 0 : 1;
+                indicators = 0;
+            } else if (prev == -1 || !(prev == ZWJ || continues(c)
+                                || isIndicator(c) && indicators == 1)) {
+                total += cluster;
+                cluster = columns(c);
+                indicators = 0;
+            } else if (c == EMOJI_PRESENTATION && cluster == 1) {
+                cluster = 2;
+            }
+            if (isIndicator(c)) {
+                indicators += 1;
+                cluster = indicators == 2 ? 2 : cluster;
+            }
+            prev = c;
+        }
+        return total + cluster;
+    }
+
+    /** Return true iff C continues the grapheme cluster before it:
+     *  marks, ZERO WIDTH JOINER, variation selectors, emoji modifiers
+     *  and tags, and Hangul vowel and final jamo. */
+    private static boolean continues(int c) {
+        switch (Character.getType(c)) {
+        case Character.NON_SPACING_MARK:
+        case Character.ENCLOSING_MARK:
+        case Character.COMBINING_SPACING_MARK:
+            return true;
+        default:
+            return c == ZWJ || c >= 0x1f3fb && c <= 0x1f3ff
+                || c >= 0xe0020 && c <= 0xe007f
+                || c >= 0x1160 && c <= 0x11ff
+                || c >= 0xd7b0 && c <= 0xd7ff;
+        }
+    }
+
+    /** Return true iff C is a regional indicator, half of a flag. */
+    private static boolean isIndicator(int c) {
+        return c >= 0x1f1e6 && c <= 0x1f1ff;
+    }
+
+    /** Return the number of columns taken by C as the base of a
+     *  cluster. */
+    static int columns(int c) {
+        switch (Character.getType(c)) {
+        case Character.CONTROL:
+        case Character.FORMAT:
+        case Character.NON_SPACING_MARK:
+        case Character.ENCLOSING_MARK:
+        case Character.LINE_SEPARATOR:
+        case Character.PARAGRAPH_SEPARATOR:
+            return 0;
+        default:
+            break;
+        }
+        if (c < WIDE[0]) {
+            return 1;
+        }
+        int lo = 0, hi = WIDE.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < WIDE[2 * mid]) {
+                hi = mid - 1;
+            } else if (c > WIDE[2 * mid + 1]) {
+                lo = mid + 1;
+            } else {
+                return 2;
+            }
+        }
+        return 1;
+    }
+
+    /** A word and its width. */
+    private static final class Entry {
+        /** An Entry for the word CHARS, whose hash is HASH, of width
+         *  WIDTH. */
+        Entry(char[] chars, int hash, int width) {
+            this.chars = chars;
+            this.hash = hash;
+            this.width = width;
+        }
+
+        /** The word. */
+        final char[] chars;
+        /** Its hash. */
+        final int hash;
+        /** Its width. */
+        final int width;
+    }
+
+    /** Widths of recently measured words, by hash. */
+    private final Entry[] _table;
+
+}
@@ -0,0 +1,104 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of DisplayWidth, and of lines filled and justified by the
+ *  display widths of their words.
+ *  @author Eric Escobar
+ */
+
+public class DisplayWidthTest {
+
+    /** Return the width of S as measured by MEASURER. */
+    private static int width(WidthMeasurer measurer, String s) {
+        return measurer.width(s.toCharArray(), 0, s.length());
+    }
+
+    /** Return the lines of INPUT, formatted with widths measured by
+     *  MEASURER. */
+    private static List<String> format(String input,
+                                       WidthMeasurer measurer) {
+        List<String> lines = new ArrayList<>();
+        Controller cntrl =
+            new Controller(new PageCollector(lines), null, new Diagnostics());
+        cntrl.setMeasurer(measurer);
+        new InputParser(input, cntrl).process();
+        return lines;
+    }
+
+    @Test
+    public void testWidths() {
+        WidthMeasurer m = new DisplayWidth(16);
+        assertEquals(0, width(m, ""));
+        assertEquals(5, width(m, "hello"));
+        assertEquals(4, width(m, "caf\u00e9"));
+        assertEquals(4, width(m, "cafe\u0301"));
+        assertEquals(4, width(m, "\u65e5\u672c"));
+        assertEquals(7, width(m, "\u65e5\u672ca\u3002"));
+        assertEquals(4, width(m, "\uff21\uff22"));
+        assertEquals(2, width(m, "\ud55c"));
+        assertEquals(2, width(m, "\u1112\u1161\u11ab"));
+        assertEquals(2, width(m, "\ud83d\ude00"));
+        assertEquals(2, width(m, "\ud83d\udc4d\ud83c\udffd"));
+        assertEquals(2, width(m, "\ud83d\udc68\u200d\ud83d\udc69\u200d"
+                              + "\ud83d\udc67"));
+        assertEquals(2, width(m, "\u2764\ufe0f"));
+        assertEquals(1, width(m, "\u2764"));
+        assertEquals(2, width(m, "\ud83c\uddef\ud83c\uddf5"));
+        assertEquals(3, width(m, "\ud83c\uddef\ud83c\uddf5\ud83c\uddfa"));
+        assertEquals(0, width(m, "\u0301"));
+        assertEquals(2, width(m, "a\u00adb\u200b"));
+        assertEquals(1, width(m, "\ud800"));
+        assertEquals(3, width(WidthMeasurer.CHARS, "e\u0301\u0301"));
+    }
+
+    @Test
+    public void testCache() {
+        DisplayWidth m = new DisplayWidth(4);
+        String[] words = {
+            "caf\u00e9", "\u65e5\u672c\u8a9e", "nai\u0308ve", "\u00fcber",
+            "\u4e2d\u6587", "ma\u00f1ana", "x\u0301",
+        };
+        int[] widths = { 4, 6, 5, 4, 4, 6, 1 };
+        for (int k = 0; k < 50; k += 1) {
+            for (int i = 0; i < words.length; i += 1) {
+                char[] buf = ("  " + words[i] + " ").toCharArray();
+                assertEquals(words[i], widths[i],
+                             m.width(buf, 2, words[i].length()));
+            }
+        }
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i <= DisplayWidth.CACHED_LENGTH; i += 1) {
+            s.append("\u65e5");
+        }
+        assertEquals(2 * s.length(), width(m, s.toString()));
+    }
+
+    @Test
+    public void testJustifiedWide() {
+        String input = "\\textwidth{15}\\parindent{0}"
+            + "\u65e5\u672c \u8a9e\u306e \u6587\u7ae0 \u3067\u3059\n";
+        List<String> lines = format(input, DisplayWidth.DEFAULT);
+        assertEquals("\u65e5\u672c  \u8a9e\u306e \u6587\u7ae0",
+                     lines.get(0));
+        assertEquals("\u3067\u3059", lines.get(lines.size() - 1));
+        assertEquals(Arrays.asList("\u65e5\u672c \u8a9e\u306e "
+                                   + "\u6587\u7ae0 \u3067\u3059"),
+                     format(input, WidthMeasurer.CHARS));
+    }
+
+    @Test
+    public void testCombiningMarks() {
+        String input = "\\textwidth{11}\\parindent{0}"
+            + "cafe\u0301 cafe\u0301 cafe\u0301\n";
+        List<String> lines = format(input, DisplayWidth.DEFAULT);
+        assertEquals("cafe\u0301   cafe\u0301", lines.get(0));
+        assertEquals("cafe\u0301", lines.get(lines.size() - 1));
+    }
+
+}
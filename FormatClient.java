@@ -0,0 +1,149 @@
+package tex61;
+
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** A client of a FormatServer: formats a file as Main would, but by
+ *  sending it to a server, so that it does without most of the start-up
+ *  costs of Main.  It loads no other class of the formatter.
+ */
+public class FormatClient {
+
+    /** Usage: java tex61.FormatClient SOCKET [OPTIONS] INFILE [OUTFILE].
+     *  Send INFILE to the FormatServer listening on SOCKET, and write the
+     *  result to OUTFILE (default: the standard output) and the errors
+     *  to the standard error, exiting with the server's status.  OPTIONS
+     *  are --NAME=VALUE, which overrides setting NAME (see FormatServer)
+     *  for this file. */
+    public static void main(String[] args) {
+        int first;
+        StringBuilder header = new StringBuilder();
+        for (first = 1; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            if (args[first].indexOf('=') < 0) {
+                usage();
+                System.exit(1);
+            }
+            header.append(args[first].substring(2)).append('\n');
+        }
+        int nargs = args.length - first;
+        if (args.length == 0 || nargs < 1 || nargs > 2) {
+            usage();
+            System.exit(1);
+        }
+        header.append("source=").append(args[first]).append('\n');
+        UnixDomainSocketAddress address =
+            UnixDomainSocketAddress.of(Paths.get(args[0]));
+        try (SocketChannel channel =
+                 SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            byte[] document = Files.readAllBytes(Paths.get(args[first]));
+            channel.connect(address);
+            WritableByteChannel output;
+            if (nargs == 2) {
+                Path out = Paths.get(args[first + 1]);
+                output =
+                    FileChannel.open(out, StandardOpenOption.WRITE,
+                                     StandardOpenOption.CREATE,
+                                     StandardOpenOption.TRUNCATE_EXISTING);
+            } else {
+                output =
+                    new FileOutputStream(FileDescriptor.out).getChannel();
+            }
+            int status = format(channel, header.toString(),
+                                ByteBuffer.wrap(document), output,
+                                System.err);
+            output.close();
+            System.exit(status);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Send DOCUMENT, with the settings in HEADER (lines of the form
+     *  NAME=VALUE), to the FormatServer connected to CHANNEL.  Write the
+     *  formatted text to OUT as it arrives, and the error messages to
+     *  ERR, and return the exit status.  CHANNEL may be used for further
+     *  requests if the status is not FormatServer.BAD_REQUEST. */
+    static int format(SocketChannel channel, String header,
+                      ByteBuffer document, WritableByteChannel out,
+                      OutputStream err) throws IOException {
+        byte[] head = header.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.allocate(8 + head.length);
+        request.putInt(head.length).put(head).putInt(document.remaining())
+            .flip();
+        writeFully(channel, request);
+        writeFully(channel, document);
+        ByteBuffer frame = ByteBuffer.allocate(5);
+        ByteBuffer contents = ByteBuffer.allocate(1 << 16);
+        while (true) {
+            frame.clear();
+            readFully(channel, frame, false);
+            frame.flip();
+            byte kind = frame.get();
+            int length = frame.getInt();
+            if (length > contents.capacity()) {
+                contents = ByteBuffer.allocate(length);
+            }
+            contents.clear().limit(length);
+            readFully(channel, contents, false);
+            contents.flip();
+            if (kind == FormatServer.OUTPUT) {
+                while (contents.hasRemaining()) {
+                    out.write(contents);
+                }
+            } else if (kind == FormatServer.ERRORS) {
+                err.write(contents.array(), 0, length);
+                err.flush();
+            } else {
+                return contents.getInt();
+            }
+        }
+    }
+
+    /** Fill BUF from CHANNEL.  Returns false if CHANNEL ends before any
+     *  byte is read and ATSTART; throws EOFException if it ends
+     *  otherwise. */
+    static boolean readFully(SocketChannel channel, ByteBuffer buf,
+                             boolean atStart) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                if (atStart && buf.position() == start) {
+                    return false;
+                }
+                throw new EOFException("connection closed in mid-message");
+            }
+        }
+        return true;
+    }
+
+    /** Write all of BUF to CHANNEL. */
+    static void writeFully(SocketChannel channel, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /** Print usage message. */
+    private static void usage() {
+        System.err.printf("Usage: java tex61.FormatClient SOCKET "
+                          + "[--NAME=VALUE...] INFILE [OUTFILE]%n");
+    }
+
+}
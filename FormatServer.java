@@ -0,0 +1,383 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static tex61.FormatException.error;
+
+/** A server that formats the documents sent to it over a Unix domain
+ *  socket, so that formatting a small document costs neither the start
+ *  of a JVM nor the warming of its compiler, as running Main does.
+ *  Each connection is served on a thread from a fixed pool, with a
+ *  Session (a Controller, its assemblers, parser and Diagnostics) taken
+ *  from a pool of idle ones and reset for each document, so that their
+ *  buffers are reused.  FormatClient is a client.
+ *
+ *  A connection carries any number of requests, one after another.  A
+ *  request is an int H, H bytes of header, an int N, and N bytes of
+ *  document.  The header is lines of the form NAME=VALUE, in UTF-8,
+ *  that override the server's settings for this document: source (the
+ *  name used in error messages), linebreak (optimal or greedy), and
+ *  the initial values of indent, parindent, textwidth, textheight and
+ *  parskip.  The document is in UTF-8.  The response is a series of
+ *  frames, each a kind (one byte), an int length, and that many bytes:
+ *  OUTPUT frames carrying the formatted text, in order, as Main would
+ *  write it; at most one ERRORS frame, carrying the messages Main would
+ *  print on the standard error; and a DONE frame, carrying the int exit
+ *  status (as from Main: 0, or 1 if there were errors in the input; or
+ *  2 if the request was bad, after which the connection is closed).
+ *  All ints are 4-byte big-endian.
+ */
+class FormatServer implements Closeable {
+
+    /** Kinds of response frame. */
+    static final byte OUTPUT = 1, ERRORS = 2, DONE = 3;
+
+    /** Exit status of a bad request. */
+    static final int BAD_REQUEST = 2;
+
+    /** Largest header accepted, in bytes. */
+    static final int MAX_HEADER = 1 << 16;
+
+    /** Largest document accepted, in bytes. */
+    static final int MAX_DOCUMENT = 1 << 28;
+
+    /** Size of the header of a response frame. */
+    private static final int FRAME_HEADER = 5;
+
+    /** A server listening on a new socket at SOCKET, serving at most
+     *  THREADS connections at once, that breaks lines optimally by
+     *  default iff OPTIMAL, and reports at most MAXERRORS errors of each
+     *  kind.  If SOCKET exists and no server answers on it, it is taken
+     *  to be left over from an earlier server and replaced. */
+    FormatServer(Path socket, int threads, boolean optimal, int maxErrors)
+        throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            boolean live;
+            try {
+                SocketChannel.open(address).close();
+                live = true;
+            } catch (IOException e) {
+                live = false;
+            }
+            if (live) {
+                throw new IOException(socket + ": server already running");
+            }
+            Files.delete(socket);
+        }
+        _socket = socket;
+        _optimal = optimal;
+        _maxErrors = maxErrors;
+        _listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        _listener.bind(address);
+        _workers = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "tex61-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        _idle = new ArrayBlockingQueue<>(threads);
+    }
+
+    /** Accept and serve connections until I am closed. */
+    void serve() throws IOException {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = _listener.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            _workers.execute(() -> serve(channel));
+        }
+    }
+
+    /** Stop accepting connections, wait briefly for those being served,
+     *  and remove my socket. */
+    @Override
+    public void close() throws IOException {
+        _listener.close();
+        _workers.shutdown();
+        try {
+            _workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(_socket);
+    }
+
+    /** Serve the requests on CHANNEL until it is closed, with a Session
+     *  from the pool, and then close it. */
+    private void serve(SocketChannel channel) {
+        Session session = _idle.poll();
+        if (session == null) {
+            session = new Session();
+        }
+        try (channel) {
+            while (session.serve(channel)) {
+                continue;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            /* The client has gone; so does the connection. */
+        } finally {
+            _idle.offer(session);
+        }
+    }
+
+    /** A Controller, with all that it formats with, reused for one
+     *  document after another. */
+    private final class Session {
+
+        /** A new Session, with my server's settings. */
+        Session() {
+            _errorBytes = new ByteArrayOutputStream();
+            _diagnostics =
+                new Diagnostics(null, new PrintStream(_errorBytes, false,
+                                                      StandardCharsets.UTF_8),
+                                false, _maxErrors);
+            _pages = new ChannelPagePrinter(_frames);
+            _controller = new Controller(_pages, null, _diagnostics);
+            _parser = new InputParser("", _controller);
+            _decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /** Read one request from CHANNEL and send the response.  Returns
+         *  false if CHANNEL has ended, or is no longer usable. */
+        boolean serve(SocketChannel channel) throws IOException {
+            _frames.target = channel;
+            _head.clear();
+            if (!FormatClient.readFully(channel, _head, true)) {
+                return false;
+            }
+            int headerLength = _head.flip().getInt();
+            if (headerLength < 0 || headerLength > MAX_HEADER) {
+                return refuse("header too long");
+            }
+            String header = new String(read(channel, headerLength), 0,
+                                       headerLength, StandardCharsets.UTF_8);
+            _head.clear();
+            FormatClient.readFully(channel, _head, false);
+            int length = _head.flip().getInt();
+            if (length < 0 || length > MAX_DOCUMENT) {
+                return refuse("document too long");
+            }
+            byte[] document = read(channel, length);
+            _controller.reset();
+            _diagnostics.reset(null);
+            _errorBytes.reset();
+            try {
+                configure(header);
+            } catch (FormatException e) {
+                return refuse(e.getMessage());
+            }
+            _parser.reset(decode(document, length), 1, 1);
+            _parser.process();
+            if (_diagnostics.total() > 0) {
+                String totals = _diagnostics.totals();
+                _errorBytes.writeBytes(
+                    ((_source == null ? totals : _source + ": " + totals)
+                     + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            if (_errorBytes.size() > 0) {
+                respond(ERRORS, _errorBytes.toByteArray());
+            }
+            respond(_diagnostics.total() == 0 ? 0 : 1);
+            return true;
+        }
+
+        /** Apply the settings in HEADER (see FormatServer).  Throws
+         *  FormatException if one is bad. */
+        private void configure(String header) {
+            _source = null;
+            _controller.setOptimalDefault(_optimal);
+            for (String line : header.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                try {
+                    if (eq < 0) {
+                        throw error("no value");
+                    }
+                    set(line.substring(0, eq), line.substring(eq + 1));
+                } catch (FormatException | NumberFormatException e) {
+                    throw error("bad setting: %s", line);
+                }
+            }
+        }
+
+        /** Set the setting NAME to VALUE. */
+        private void set(String name, String value) {
+            switch (name) {
+            case "source":
+                _source = value;
+                _diagnostics.reset(value);
+                break;
+            case "linebreak":
+                if (!value.equals("optimal") && !value.equals("greedy")) {
+                    throw error("bad line breaking");
+                }
+                _controller.setOptimalDefault(value.equals("optimal"));
+                break;
+            case "indent":
+                _controller.setIndentation(Integer.parseInt(value));
+                break;
+            case "parindent":
+                _controller.setParIndentation(Integer.parseInt(value));
+                break;
+            case "textwidth":
+                _controller.setTextWidth(Integer.parseInt(value));
+                break;
+            case "textheight":
+                _controller.setTextHeight(Integer.parseInt(value));
+                break;
+            case "parskip":
+                _controller.setParSkip(Integer.parseInt(value));
+                break;
+            default:
+                throw error("unknown setting");
+            }
+        }
+
+        /** Send a bad-request response with message MSG, and return
+         *  false, as the connection is then closed. */
+        private boolean refuse(String msg) throws IOException {
+            respond(ERRORS, ("bad request: " + msg + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8));
+            respond(BAD_REQUEST);
+            return false;
+        }
+
+        /** Return a buffer whose first LENGTH bytes are read from
+         *  CHANNEL.  The buffer is reused. */
+        private byte[] read(SocketChannel channel, int length)
+            throws IOException {
+            if (length > _bytes.length) {
+                _bytes = new byte[Math.max(length, 2 * _bytes.length)];
+            }
+            FormatClient.readFully(channel, ByteBuffer.wrap(_bytes, 0, length),
+                                   false);
+            return _bytes;
+        }
+
+        /** Return the characters decoded from the first LENGTH bytes of
+         *  BYTES, in a reused buffer. */
+        private CharBuffer decode(byte[] bytes, int length) {
+            if (length > _chars.capacity()) {
+                _chars = CharBuffer.allocate(Math.max(length,
+                                                      2 * _chars.capacity()));
+            }
+            _chars.clear();
+            _decoder.reset();
+            _decoder.decode(ByteBuffer.wrap(bytes, 0, length), _chars, true);
+            _decoder.flush(_chars);
+            return _chars.flip();
+        }
+
+        /** Send a DONE frame with exit status STATUS. */
+        private void respond(int status) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + 4);
+            frame.put(DONE).putInt(4).putInt(status).flip();
+            FormatClient.writeFully(_frames.target, frame);
+        }
+
+        /** Send a frame of kind KIND holding CONTENTS. */
+        private void respond(byte kind, byte[] contents) throws IOException {
+            ByteBuffer frame =
+                ByteBuffer.allocate(FRAME_HEADER + contents.length);
+            frame.put(kind).putInt(contents.length).put(contents).flip();
+            FormatClient.writeFully(_frames.target, frame);
+        }
+
+        /** Receives the formatted text and sends it as OUTPUT frames. */
+        private final FrameChannel _frames = new FrameChannel();
+        /** Where my Diagnostics print. */
+        private final ByteArrayOutputStream _errorBytes;
+        /** Where errors in the current document are reported. */
+        private final Diagnostics _diagnostics;
+        /** Where formatted text goes. */
+        private final ChannelPagePrinter _pages;
+        /** Formats the current document. */
+        private final Controller _controller;
+        /** Parses the current document. */
+        private final InputParser _parser;
+        /** Decodes documents. */
+        private final CharsetDecoder _decoder;
+        /** Holds an int read from the client. */
+        private final ByteBuffer _head = ByteBuffer.allocate(4);
+        /** Holds the header or document being read. */
+        private byte[] _bytes = new byte[1 << 16];
+        /** Holds the decoded document. */
+        private CharBuffer _chars = CharBuffer.allocate(1 << 16);
+        /** Source named by the current request, or null. */
+        private String _source;
+    }
+
+    /** A channel that sends each buffer written to it as an OUTPUT
+     *  frame to TARGET. */
+    private static final class FrameChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n = src.remaining();
+            _header.clear();
+            _header.put(OUTPUT).putInt(n).flip();
+            ByteBuffer[] buffers = { _header, src };
+            while (src.hasRemaining() || _header.hasRemaining()) {
+                target.write(buffers);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** Where frames go. */
+        private SocketChannel target;
+        /** The header of the frame being sent. */
+        private final ByteBuffer _header = ByteBuffer.allocate(FRAME_HEADER);
+    }
+
+    /** Where I listen. */
+    private final Path _socket;
+    /** True iff lines are broken optimally by default. */
+    private final boolean _optimal;
+    /** Most errors of each kind reported. */
+    private final int _maxErrors;
+    /** Accepts connections. */
+    private final ServerSocketChannel _listener;
+    /** Serves connections. */
+    private final ExecutorService _workers;
+    /** Sessions not in use. */
+    private final BlockingQueue<Session> _idle;
+
+}
@@ -0,0 +1,231 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of FormatServers and FormatClients.
+ *  @author Eric Escobar
+ */
+
+public class FormatServerTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, a command without its blank, a word that is not ASCII, and
+     *  commands that fail. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("\\nofill", "\u00e9t\u00e9", "\\bad",
+                                 "\\indent{x}");
+
+    /** The result of formatting a document: its output, error messages
+     *  and exit status. */
+    private static class Result {
+        /** The Result with output OUT, error messages ERR, and exit status
+         *  STATUS. */
+        Result(String out, String err, int status) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Result r = (Result) obj;
+            return out.equals(r.out) && err.equals(r.err)
+                && status == r.status;
+        }
+
+        @Override
+        public int hashCode() {
+            return out.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return status + "\n" + err + out;
+        }
+
+        /** Output. */
+        final String out;
+        /** Error messages. */
+        final String err;
+        /** Exit status. */
+        final int status;
+    }
+
+    /** Return the Result of formatting INPUT, named SOURCE, as Main does,
+     *  with text width WIDTH. */
+    private static Result format(String input, String source, int width) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Diagnostics diagnostics =
+            new Diagnostics(source, new PrintStream(err, true), false,
+                            Diagnostics.DEFAULT_LIMIT);
+        Controller cntrl =
+            new Controller(new ChannelPagePrinter(Channels.newChannel(out)),
+                           null, diagnostics);
+        cntrl.setTextWidth(width);
+        new InputParser(input, cntrl).process();
+        String errors = err.toString();
+        if (diagnostics.total() > 0) {
+            errors += source + ": " + diagnostics.totals()
+                + System.lineSeparator();
+        }
+        return new Result(new String(out.toByteArray(),
+                                     StandardCharsets.UTF_8),
+                          errors, diagnostics.total() == 0 ? 0 : 1);
+    }
+
+    /** Return the Result of formatting INPUT on my server over CHANNEL,
+     *  with the settings in HEADER. */
+    private static Result serve(SocketChannel channel, String header,
+                                String input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status =
+            FormatClient.format(channel, header,
+                                ByteBuffer.wrap(input.getBytes(
+                                                    StandardCharsets.UTF_8)),
+                                Channels.newChannel(out), err);
+        return new Result(new String(out.toByteArray(),
+                                     StandardCharsets.UTF_8),
+                          err.toString(), status);
+    }
+
+    /** Return a new connection to my server. */
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel =
+            SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(_socket));
+        return channel;
+    }
+
+    @Before
+    public void start() throws IOException {
+        _dir = Files.createTempDirectory("tex61-test");
+        _socket = _dir.resolve("socket");
+        _server = new FormatServer(_socket, 2, false,
+                                   Diagnostics.DEFAULT_LIMIT);
+        Thread thread = new Thread(() -> {
+                try {
+                    _server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        _server.close();
+        assertFalse(Files.exists(_socket));
+        Files.delete(_dir);
+    }
+
+    @Test
+    public void testMatchesMain() throws IOException {
+        Random r = new Random(61);
+        try (SocketChannel channel = connect()) {
+            for (int k = 0; k < 40; k += 1) {
+                int size = r.nextInt(k < 30 ? 300 : 20000);
+                String input = TestDocuments.makeInput(r, size, PIECES);
+                int width = 20 + r.nextInt(60);
+                assertEquals(format(input, "doc" + k, width),
+                             serve(channel, "source=doc" + k
+                                   + "\ntextwidth=" + width + "\n", input));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < 4; c += 1) {
+            int seed = c;
+            results.add(clients.submit(() -> {
+                        Random r = new Random(seed);
+                        for (int k = 0; k < 10; k += 1) {
+                            String input =
+                                TestDocuments.makeInput(r, r.nextInt(500),
+                                                        PIECES);
+                            try (SocketChannel channel = connect()) {
+                                assertEquals(format(input, "in",
+                                                    Defaults.TEXT_WIDTH),
+                                             serve(channel, "source=in",
+                                                   input));
+                            }
+                        }
+                        return null;
+                    }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        clients.shutdown();
+    }
+
+    @Test
+    public void testBadRequest() throws IOException {
+        try (SocketChannel channel = connect()) {
+            Result result = serve(channel, "textwidth=-1\n", "some text");
+            assertEquals(FormatServer.BAD_REQUEST, result.status);
+            assertTrue(result.err.startsWith(
+                           "bad request: bad setting: textwidth=-1"));
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+        try (SocketChannel channel = connect()) {
+            assertEquals(FormatServer.BAD_REQUEST,
+                         serve(channel, "color=blue", "text").status);
+        }
+        try (SocketChannel channel = connect()) {
+            assertEquals(format("some text\n\n", "in", Defaults.TEXT_WIDTH),
+                         serve(channel, "source=in", "some text\n\n"));
+        }
+    }
+
+    @Test
+    public void testStaleSocket() throws IOException {
+        try {
+            new FormatServer(_socket, 1, false, 1);
+            fail("two servers on one socket");
+        } catch (IOException e) {
+            /* Expected. */
+        }
+        Path stale = _dir.resolve("stale");
+        FormatServer server = new FormatServer(stale, 1, false, 1);
+        server.close();
+        Files.createFile(stale);
+        server = new FormatServer(stale, 1, false, 1);
+        server.close();
+    }
+
+    /** Directory holding the socket. */
+    private Path _dir;
+    /** The server's socket. */
+    private Path _socket;
+    /** The server. */
+    private FormatServer _server;
+
+}
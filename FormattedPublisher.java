@@ -0,0 +1,273 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/** A Flow.Publisher of the formatted lines of a document, as a
+ *  PageAssembler would receive them (each line that starts a page
+ *  begins with a form feed).  Formatting advances only as far as the
+ *  subscriber's demand requires: the input is parsed a token at a time
+ *  while too few lines are waiting, so that no more is held in memory
+ *  than the lines requested, those of the paragraph in progress, and the
+ *  endnotes (which go to a LineSpool, and so to disk when they are many).
+ *  Lines are delivered on an Executor, by one task at a time for each
+ *  subscriber; errors in the input are reported to a Diagnostics, as
+ *  usual, and only failures to read it end the stream with onError.
+ *
+ *  A publisher made from a String formats it anew for each subscriber.
+ *  One made from a Reader has a single subscriber; it closes the Reader
+ *  when the document is done or the subscription is cancelled.
+ */
+class FormattedPublisher implements Flow.Publisher<String> {
+
+    /** Most lines of endnotes read from their LineSpool at once. */
+    private static final int ENDNOTE_BATCH = 256;
+
+    /** Stages of formatting a document. */
+    private static final int MAIN_TEXT = 0, ENDNOTES = 1, DONE = 2;
+
+    /** A publisher of the lines formatted from TEXT, delivered on the
+     *  common ForkJoinPool, with errors reported on the standard
+     *  error. */
+    FormattedPublisher(String text) {
+        this(text, ForkJoinPool.commonPool(), Diagnostics::new);
+    }
+
+    /** A publisher of the lines formatted from TEXT, delivered on
+     *  EXECUTOR, with errors reported to a Diagnostics from DIAGNOSTICS
+     *  for each subscriber. */
+    FormattedPublisher(String text, Executor executor,
+                       Supplier<Diagnostics> diagnostics) {
+        _text = text;
+        _reader = new AtomicReference<>();
+        _executor = executor;
+        _diagnostics = diagnostics;
+    }
+
+    /** A publisher of the lines formatted from the input read from
+     *  READER, delivered on EXECUTOR, with errors reported to
+     *  DIAGNOSTICS. */
+    FormattedPublisher(Reader reader, Executor executor,
+                       Diagnostics diagnostics) {
+        _text = null;
+        _reader = new AtomicReference<>(reader);
+        _executor = executor;
+        _diagnostics = () -> diagnostics;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("null subscriber");
+        }
+        Reader reader = null;
+        if (_text == null) {
+            reader = _reader.getAndSet(null);
+            if (reader == null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(
+                    new IllegalStateException("already subscribed"));
+                return;
+            }
+        }
+        Subscription subscription = new Subscription(subscriber, reader);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /** The formatting of the document for one subscriber. */
+    private final class Subscription implements Flow.Subscription, Runnable {
+
+        /** The formatting for SUBSCRIBER of my text, or, if it is null,
+         *  of the input from READER. */
+        Subscription(Flow.Subscriber<? super String> subscriber,
+                     Reader reader) {
+            _subscriber = subscriber;
+            _input = reader;
+            _diagnosticsOut = _diagnostics.get();
+            _lines = new ArrayDeque<>();
+            _endnotes = new LineSpool();
+            _pages = new PageAssembler() {
+                @Override
+                void write(String line) {
+                    _lines.add(line);
+                }
+            };
+            _controller = new Controller(_pages, _diagnosticsOut, _endnotes);
+            _parser = reader == null ? new InputParser(_text, _controller)
+                : new InputParser(reader, _controller);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _badRequest = true;
+            } else {
+                _demand.getAndAccumulate(n, (a, b) -> a + b < 0
+                                         ? Long.MAX_VALUE : a + b);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            schedule();
+        }
+
+        /** Deliver lines, as demanded, until no request or cancellation
+         *  has arrived since the last pass. */
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!_finished) {
+                    try {
+                        deliver();
+                    } catch (RuntimeException e) {
+                        finish(e);
+                    }
+                }
+                missed = _wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /** Arrange for run to be called, unless it is running. */
+        private void schedule() {
+            if (_wip.getAndIncrement() == 0) {
+                _executor.execute(this);
+            }
+        }
+
+        /** Format and deliver lines until demand is met, the document is
+         *  done, or the subscription is cancelled. */
+        private void deliver() {
+            while (true) {
+                if (_cancelled) {
+                    finish(null);
+                    return;
+                } else if (_badRequest) {
+                    finish(new IllegalArgumentException(
+                               "non-positive request"));
+                    return;
+                } else if (!_lines.isEmpty()) {
+                    if (_demand.get() == 0) {
+                        return;
+                    }
+                    _demand.decrementAndGet();
+                    _subscriber.onNext(_lines.poll());
+                } else if (_stage == MAIN_TEXT) {
+                    if (_demand.get() == 0) {
+                        return;
+                    }
+                    if (!_parser.step()) {
+                        IOException e = _parser.ioException();
+                        if (e != null) {
+                            finish(e);
+                            return;
+                        }
+                        _controller.endText();
+                        _stage = ENDNOTES;
+                    }
+                } else if (_stage == ENDNOTES) {
+                    long demand = _demand.get();
+                    if (demand == 0) {
+                        return;
+                    }
+                    int max = (int) Math.min(demand, ENDNOTE_BATCH);
+                    if (_endnotes.drainTo(_pages, max) < max) {
+                        _stage = DONE;
+                    }
+                } else {
+                    finish(null);
+                    return;
+                }
+            }
+        }
+
+        /** Stop formatting, releasing what I hold, and, unless the
+         *  subscription is cancelled, tell my subscriber of ERROR, or that
+         *  the lines are complete if ERROR is null. */
+        private void finish(Throwable error) {
+            _finished = true;
+            _lines.clear();
+            try {
+                _endnotes.discard();
+                if (_input != null) {
+                    _input.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (error == null && !_cancelled) {
+                    error = e;
+                }
+            }
+            if (!_cancelled) {
+                _diagnosticsOut.flush();
+            }
+            if (_cancelled) {
+                return;
+            } else if (error != null) {
+                _subscriber.onError(error);
+            } else {
+                _subscriber.onComplete();
+            }
+        }
+
+        /** The subscriber. */
+        private final Flow.Subscriber<? super String> _subscriber;
+        /** The source of input, if it is a Reader. */
+        private final Reader _input;
+        /** Where errors in the input are reported. */
+        private final Diagnostics _diagnosticsOut;
+        /** Lines formatted and not yet delivered. */
+        private final ArrayDeque<String> _lines;
+        /** Adds the lines of the main text, and of the endnotes, to
+         *  _lines. */
+        private final PageAssembler _pages;
+        /** Lines of endnotes, held until the main text is done. */
+        private final LineSpool _endnotes;
+        /** Formats the document into _lines and _endnotes. */
+        private final Controller _controller;
+        /** Parses the document. */
+        private final InputParser _parser;
+        /** Current stage of formatting; only touched by run. */
+        private int _stage = MAIN_TEXT;
+        /** True once I have stopped formatting and delivering lines; only
+         *  touched by run. */
+        private boolean _finished;
+        /** Lines requested and not yet delivered. */
+        private final AtomicLong _demand = new AtomicLong();
+        /** Number of calls to schedule not yet handled by run. */
+        private final AtomicInteger _wip = new AtomicInteger();
+        /** True once the subscription is cancelled. */
+        private volatile boolean _cancelled;
+        /** True once a non-positive number of lines is requested. */
+        private volatile boolean _badRequest;
+    }
+
+    /** The document, if it is a String. */
+    private final String _text;
+    /** The document, if it is read from a Reader and has had no
+     *  subscriber. */
+    private final AtomicReference<Reader> _reader;
+    /** Where lines are delivered. */
+    private final Executor _executor;
+    /** Supplies a Diagnostics for each subscriber. */
+    private final Supplier<Diagnostics> _diagnostics;
+
+}
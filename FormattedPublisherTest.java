@@ -0,0 +1,188 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of FormattedPublishers.
+ *  @author Eric Escobar
+ */
+
+public class FormattedPublisherTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, a command without its blank, and an unknown command. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("\\nofill", "\\bad");
+
+    /** Runs tasks in the thread that submits them. */
+    private static final Executor DIRECT = Runnable::run;
+
+    /** A Subscriber that collects lines, requesting them in batches of
+     *  random sizes chosen with R. */
+    private static class Collector implements Flow.Subscriber<String> {
+        /** A Collector that requests at most MAX lines at a time, chosen
+         *  with R. */
+        Collector(Random r, int max) {
+            _r = r;
+            _max = max;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            requestMore();
+        }
+
+        @Override
+        public void onNext(String line) {
+            lines.add(line);
+            _wanted -= 1;
+            if (_wanted == 0) {
+                requestMore();
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        /** Request another batch. */
+        private void requestMore() {
+            _wanted = 1 + _r.nextInt(_max);
+            subscription.request(_wanted);
+        }
+
+        /** Lines received. */
+        final List<String> lines = new ArrayList<>();
+        /** Counted down when the stream ends. */
+        final CountDownLatch done = new CountDownLatch(1);
+        /** The subscription. */
+        Flow.Subscription subscription;
+        /** Error received, if any. */
+        Throwable error;
+        /** True iff onComplete has been called. */
+        boolean completed;
+        /** Source of batch sizes. */
+        private final Random _r;
+        /** Largest batch size. */
+        private final int _max;
+        /** Lines requested and not yet received. */
+        private long _wanted;
+    }
+
+    @Test
+    public void testMatchesController() throws InterruptedException {
+        Random r = new Random(61);
+        for (int k = 0; k < 40; k += 1) {
+            String input = TestDocuments.makeInput(r, r.nextInt(400), PIECES);
+            Executor executor = k % 2 == 0 ? DIRECT
+                : ForkJoinPool.commonPool();
+            FormattedPublisher publisher =
+                new FormattedPublisher(input, executor,
+                                       TestDocuments::quiet);
+            Collector collector = new Collector(r, 1 + r.nextInt(10));
+            publisher.subscribe(collector);
+            assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+            assertNull(collector.error);
+            assertTrue(collector.completed);
+            assertEquals(TestDocuments.format(input), collector.lines);
+        }
+    }
+
+    @Test
+    public void testParsingFollowsDemand() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 20000; i += 1) {
+            s.append("Paragraph ").append(i).append(" of the text.\n\n");
+        }
+        int[] read = new int[1];
+        Reader input = new StringReader(s.toString()) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                read[0] += Math.max(n, 0);
+                return n;
+            }
+        };
+        List<String> lines = new ArrayList<>();
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        new FormattedPublisher(input, DIRECT, TestDocuments.quiet())
+            .subscribe(new Flow.Subscriber<String>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription sub) {
+                        subscription[0] = sub;
+                    }
+
+                    @Override
+                    public void onNext(String line) {
+                        lines.add(line);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        fail(e.toString());
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        fail("completed early");
+                    }
+                });
+        assertEquals(0, read[0]);
+        subscription[0].request(10);
+        assertEquals(10, lines.size());
+        assertTrue("read too far: " + read[0], read[0] <= 1 << 14);
+        subscription[0].cancel();
+        subscription[0].request(10);
+        assertEquals(10, lines.size());
+    }
+
+    @Test
+    public void testSecondSubscriberToReader() {
+        FormattedPublisher publisher =
+            new FormattedPublisher(new StringReader("some text\n\n"),
+                                   DIRECT, TestDocuments.quiet());
+        Collector first = new Collector(new Random(61), 5);
+        publisher.subscribe(first);
+        assertTrue(first.completed);
+        assertEquals(TestDocuments.format("some text\n\n"), first.lines);
+        Collector second = new Collector(new Random(61), 5);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testBadRequest() {
+        Collector collector = new Collector(new Random(61), 5) {
+            @Override
+            public void onNext(String line) {
+                subscription.request(0);
+            }
+        };
+        new FormattedPublisher("a\n\nb", DIRECT, TestDocuments::quiet)
+            .subscribe(collector);
+        assertTrue(collector.error instanceof IllegalArgumentException);
+        assertFalse(collector.completed);
+    }
+
+}
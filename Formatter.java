@@ -0,0 +1,415 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/** The formatter, for use as a library: formats documents with fixed
+ *  Settings, returning their lines or writing them to a Writer, together
+ *  with the errors found in them.  A Formatter may be shared by any
+ *  number of threads, which may format documents with it at once.  It
+ *  keeps no state between documents, and none outside itself, but a
+ *  pool of idle Sessions (a Controller, its assemblers, parser and
+ *  Diagnostics, as in FormatServer), each used by one thread at a time
+ *  and reset for each document, so that their buffers are reused.  The
+ *  pool grows to the number of documents formatted at once, and is
+ *  taken from last in, first out, so that the buffers used most
+ *  recently, which are most likely to be cached, are used next.
+ */
+public final class Formatter {
+
+    /** Line separator written after each line, as for
+     *  PrintWriter.println. */
+    private static final String NL = System.lineSeparator();
+
+    /** A Formatter with the default Settings. */
+    public Formatter() {
+        this(Settings.DEFAULT);
+    }
+
+    /** A Formatter that formats documents with SETTINGS. */
+    public Formatter(Settings settings) {
+        if (settings == null) {
+            throw new NullPointerException("settings");
+        }
+        _settings = settings;
+    }
+
+    /** Return my Settings. */
+    public Settings settings() {
+        return _settings;
+    }
+
+    /** Return the result of formatting TEXT. */
+    public Result format(CharSequence text) {
+        Session session = take();
+        List<String> lines = new ArrayList<>();
+        session.sink.lines = lines;
+        Result result = session.format(text);
+        release(session);
+        return result.withLines(lines);
+    }
+
+    /** Return the result of formatting the text read from INPUT, which
+     *  is not closed. */
+    public Result format(Reader input) throws IOException {
+        Session session = take();
+        List<String> lines = new ArrayList<>();
+        session.sink.lines = lines;
+        Result result = session.format(input);
+        release(session);
+        return result.withLines(lines);
+    }
+
+    /** Format TEXT, writing its lines to OUTPUT, each followed by a line
+     *  separator, and return the result, which has no lines.  OUTPUT is
+     *  flushed but not closed. */
+    public Result format(CharSequence text, Writer output)
+        throws IOException {
+        Session session = take();
+        session.sink.out = output;
+        Result result;
+        try {
+            result = session.format(text);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        release(session);
+        return result;
+    }
+
+    /** Format the text read from INPUT, which is not closed, writing its
+     *  lines to OUTPUT as for format(CharSequence, Writer), and return
+     *  the result, which has no lines. */
+    public Result format(Reader input, Writer output) throws IOException {
+        Session session = take();
+        session.sink.out = output;
+        Result result;
+        try {
+            result = session.format(input);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        release(session);
+        return result;
+    }
+
+    /** Return an idle Session, or a new one if there is none. */
+    private Session take() {
+        Session session = _idle.pollFirst();
+        return session == null ? new Session() : session;
+    }
+
+    /** Return SESSION, having formatted a document to the end, to the
+     *  pool.  A Session that threw is not returned, lest it be left in
+     *  the middle of some document. */
+    private void release(Session session) {
+        session.sink.lines = null;
+        session.sink.out = null;
+        _idle.offerFirst(session);
+    }
+
+    /** The settings with which a Formatter formats: the initial values of
+     *  the formatting parameters, which a document may change with
+     *  commands, whether lines are broken optimally and words hyphenated
+     *  from the start, and how many errors of each kind are described in
+     *  a Result.  Settings are immutable; each with method returns new
+     *  Settings differing from these in one value. */
+    public static final class Settings {
+
+        /** The settings of a document formatted by Main with no
+         *  options. */
+        public static final Settings DEFAULT =
+            new Settings(Defaults.TEXT_WIDTH, Defaults.TEXT_HEIGHT,
+                         Defaults.INDENTATION,
+                         Defaults.PARAGRAPH_INDENTATION,
+                         Defaults.PARAGRAPH_SKIP, false, false,
+                         Diagnostics.DEFAULT_LIMIT);
+
+        /** Settings as described by the fields below. */
+        private Settings(int textWidth, int textHeight, int indent,
+                         int parIndent, int parSkip, boolean optimal,
+                         boolean hyphenate, int maxErrors) {
+            this.textWidth = textWidth;
+            this.textHeight = textHeight;
+            this.indent = indent;
+            this.parIndent = parIndent;
+            this.parSkip = parSkip;
+            this.optimal = optimal;
+            this.hyphenate = hyphenate;
+            this.maxErrors = maxErrors;
+        }
+
+        /** Return these Settings with initial text width VAL >= 0
+         *  (\textwidth). */
+        public Settings withTextWidth(int val) {
+            return new Settings(check(val, 0, "text width"), textHeight,
+                                indent, parIndent, parSkip, optimal,
+                                hyphenate, maxErrors);
+        }
+
+        /** Return these Settings with initial text height VAL > 0
+         *  (\textheight). */
+        public Settings withTextHeight(int val) {
+            return new Settings(textWidth, check(val, 1, "text height"),
+                                indent, parIndent, parSkip, optimal,
+                                hyphenate, maxErrors);
+        }
+
+        /** Return these Settings with initial indentation VAL >= 0
+         *  (\indent). */
+        public Settings withIndent(int val) {
+            return new Settings(textWidth, textHeight,
+                                check(val, 0, "indentation"), parIndent,
+                                parSkip, optimal, hyphenate, maxErrors);
+        }
+
+        /** Return these Settings with initial paragraph indentation
+         *  VAL >= 0 (\parindent). */
+        public Settings withParIndent(int val) {
+            return new Settings(textWidth, textHeight, indent,
+                                check(val, 0, "paragraph indentation"),
+                                parSkip, optimal, hyphenate, maxErrors);
+        }
+
+        /** Return these Settings with initial paragraph skip VAL >= 0
+         *  (\parskip). */
+        public Settings withParSkip(int val) {
+            return new Settings(textWidth, textHeight, indent, parIndent,
+                                check(val, 0, "paragraph skip"), optimal,
+                                hyphenate, maxErrors);
+        }
+
+        /** Return these Settings, breaking lines optimally from the start
+         *  iff ON (--linebreak=optimal). */
+        public Settings withOptimal(boolean on) {
+            return new Settings(textWidth, textHeight, indent, parIndent,
+                                parSkip, on, hyphenate, maxErrors);
+        }
+
+        /** Return these Settings, hyphenating words from the start iff ON
+         *  (--hyphenate). */
+        public Settings withHyphenate(boolean on) {
+            return new Settings(textWidth, textHeight, indent, parIndent,
+                                parSkip, optimal, on, maxErrors);
+        }
+
+        /** Return these Settings, describing at most VAL >= 0 errors of
+         *  each kind (--max-errors). */
+        public Settings withMaxErrors(int val) {
+            return new Settings(textWidth, textHeight, indent, parIndent,
+                                parSkip, optimal, hyphenate,
+                                check(val, 0, "error limit"));
+        }
+
+        /** Return VAL, after checking that it is at least MIN.  Throws
+         *  IllegalArgumentException, naming it WHAT, if it is not. */
+        private static int check(int val, int min, String what) {
+            if (val < min) {
+                throw new IllegalArgumentException("wrong " + what + ": "
+                                                   + val);
+            }
+            return val;
+        }
+
+        /** Initial text width. */
+        final int textWidth;
+        /** Initial text height. */
+        final int textHeight;
+        /** Initial indentation. */
+        final int indent;
+        /** Initial paragraph indentation. */
+        final int parIndent;
+        /** Initial paragraph skip. */
+        final int parSkip;
+        /** True iff lines are broken optimally from the start. */
+        final boolean optimal;
+        /** True iff words are hyphenated from the start. */
+        final boolean hyphenate;
+        /** Most errors of each kind described. */
+        final int maxErrors;
+    }
+
+    /** The outcome of formatting a document: its lines, unless they were
+     *  written to a Writer, and the errors found in it. */
+    public static final class Result {
+
+        /** A Result with lines LINES, ERRORS errors, and MESSAGES
+         *  describing them. */
+        private Result(List<String> lines, int errors,
+                       List<String> messages) {
+            _lines = lines;
+            _errors = errors;
+            _messages = messages;
+        }
+
+        /** Return this Result with lines LINES. */
+        private Result withLines(List<String> lines) {
+            return new Result(Collections.unmodifiableList(lines), _errors,
+                              _messages);
+        }
+
+        /** Return the formatted lines, without line separators, or no
+         *  lines if they were written to a Writer. */
+        public List<String> lines() {
+            return _lines;
+        }
+
+        /** Return the number of errors found. */
+        public int errors() {
+            return _errors;
+        }
+
+        /** Return descriptions of the errors found, as Main prints them
+         *  (LINE:COLUMN: MESSAGE), of at most the Settings' maximum number
+         *  of errors of each kind, followed by notes of how many of each
+         *  kind were not described. */
+        public List<String> messages() {
+            return _messages;
+        }
+
+        /** The lines. */
+        private final List<String> _lines;
+        /** The number of errors. */
+        private final int _errors;
+        /** Their descriptions. */
+        private final List<String> _messages;
+    }
+
+    /** A Controller, with all that it formats with, reused for one
+     *  document after another by one thread at a time. */
+    private final class Session {
+
+        /** A new Session, with my Formatter's settings. */
+        Session() {
+            _errorBytes = new ByteArrayOutputStream();
+            _diagnostics =
+                new Diagnostics(null, new PrintStream(_errorBytes, false,
+                                                      StandardCharsets.UTF_8),
+                                false, _settings.maxErrors);
+            _controller = new Controller(sink, null, _diagnostics);
+            _parser = new InputParser("", _controller);
+        }
+
+        /** Return the result, with no lines, of formatting TEXT. */
+        Result format(CharSequence text) {
+            start();
+            _parser.reset(text, 1, 1);
+            _parser.process();
+            return result();
+        }
+
+        /** Return the result, with no lines, of formatting the text read
+         *  from INPUT. */
+        Result format(Reader input) throws IOException {
+            start();
+            InputParser parser = new InputParser(input, _controller);
+            parser.process();
+            if (parser.ioException() != null) {
+                throw parser.ioException();
+            }
+            return result();
+        }
+
+        /** Start again on a new document, with my Formatter's
+         *  settings. */
+        private void start() {
+            _controller.reset();
+            _diagnostics.reset(null);
+            _errorBytes.reset();
+            _controller.setTextWidth(_settings.textWidth);
+            _controller.setTextHeight(_settings.textHeight);
+            _controller.setIndentation(_settings.indent);
+            _controller.setParIndentation(_settings.parIndent);
+            _controller.setParSkip(_settings.parSkip);
+            _controller.setOptimalDefault(_settings.optimal);
+            _controller.setHyphenateDefault(_settings.hyphenate);
+        }
+
+        /** Return the result, with no lines, of the document just
+         *  formatted. */
+        private Result result() {
+            if (_diagnostics.total() == 0) {
+                return new Result(Collections.emptyList(), 0,
+                                  Collections.emptyList());
+            }
+            String messages = _errorBytes.toString(StandardCharsets.UTF_8);
+            return new Result(Collections.emptyList(), _diagnostics.total(),
+                              List.of(messages.split("\\R")));
+        }
+
+        /** Where formatted lines go. */
+        final Sink sink = new Sink();
+        /** Where my Diagnostics print. */
+        private final ByteArrayOutputStream _errorBytes;
+        /** Where errors in the current document are reported. */
+        private final Diagnostics _diagnostics;
+        /** Formats the current document. */
+        private final Controller _controller;
+        /** Parses the current document, if it is text. */
+        private final InputParser _parser;
+    }
+
+    /** A PageAssembler that adds its lines to LINES or writes them to
+     *  OUT, whichever is not null. */
+    private static final class Sink extends PageAssembler {
+        @Override
+        void write(String line) {
+            if (lines != null) {
+                lines.add(line);
+                return;
+            }
+            try {
+                out.write(line);
+                out.write(NL);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        void write(char[] buf, int off, int len) {
+            if (lines != null) {
+                lines.add(new String(buf, off, len));
+                return;
+            }
+            try {
+                out.write(buf, off, len);
+                out.write(NL);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        void flush() {
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /** Where lines go, or null if they are written to OUT. */
+        List<String> lines;
+        /** Where lines are written, unless LINES is not null. */
+        Writer out;
+    }
+
+    /** My settings. */
+    private final Settings _settings;
+    /** Sessions not in use. */
+    private final ConcurrentLinkedDeque<Session> _idle =
+        new ConcurrentLinkedDeque<>();
+
+}
@@ -0,0 +1,160 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Formatter: its results against those of a Controller
+ *  made for each document, alone and on several threads at once.
+ *  @author Eric Escobar
+ */
+
+public class FormatterTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, a long word to hyphenate, and commands that hyphenate, that
+     *  lack their blank, or that fail. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("commencement", "\\nofill",
+                                 "\\hyphenate ", "\\bogus ",
+                                 "\\indent{-1}");
+
+    @Test
+    public void testLines() throws IOException {
+        Formatter formatter = new Formatter();
+        Random r = new Random(61);
+        for (int k = 0; k < 20; k += 1) {
+            String input = TestDocuments.makeInput(r, 1 + r.nextInt(500),
+                                                   PIECES);
+            List<String> expected = TestDocuments.format(input);
+            assertEquals(expected, formatter.format(input).lines());
+            assertEquals(expected,
+                         formatter.format(new StringReader(input)).lines());
+            StringWriter out = new StringWriter();
+            Formatter.Result result = formatter.format(input, out);
+            assertTrue(result.lines().isEmpty());
+            StringBuilder joined = new StringBuilder();
+            for (String line : expected) {
+                joined.append(line).append(System.lineSeparator());
+            }
+            assertEquals(joined.toString(), out.toString());
+        }
+    }
+
+    @Test
+    public void testSettings() {
+        String text = "The committee announced the commencement of the "
+            + "international \\endnote{a note} attention to happiness.\n\n"
+            + "Another paragraph.\n";
+        Formatter.Settings settings = Formatter.Settings.DEFAULT
+            .withTextWidth(20).withTextHeight(3).withIndent(1)
+            .withParIndent(0).withParSkip(2).withHyphenate(true);
+        assertEquals(TestDocuments.format("\\textwidth{20}\\textheight{3}"
+                                          + "\\indent{1}\\parindent{0}"
+                                          + "\\parskip{2}\\hyphenate "
+                                          + text),
+                     new Formatter(settings).format(text).lines());
+        assertEquals(TestDocuments.format("\\linebreak{optimal}" + text),
+                     new Formatter(Formatter.Settings.DEFAULT
+                                   .withOptimal(true)).format(text).lines());
+        try {
+            settings.withTextHeight(0);
+            fail("text height 0 accepted");
+        } catch (IllegalArgumentException e) {
+            /* OK */
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        Formatter formatter =
+            new Formatter(Formatter.Settings.DEFAULT.withMaxErrors(1));
+        Formatter.Result result =
+            formatter.format("one \\bogus two\n\\bogus \\indent{-1}\n");
+        assertEquals(3, result.errors());
+        assertEquals(List.of("1:5: error: wrong command (\\bogus)",
+                             "2:8: error: command failed (\\indent)",
+                             "1 more 'wrong command' errors not shown"),
+                     result.messages());
+        result = formatter.format("one two\n");
+        assertEquals(0, result.errors());
+        assertEquals(List.of(), result.messages());
+        assertEquals(List.of("   one two"), result.lines());
+    }
+
+    @Test
+    public void testWriterFails() {
+        Writer broken = new Writer() {
+                @Override
+                public void write(char[] buf, int off, int len)
+                    throws IOException {
+                    throw new IOException("broken");
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        Formatter formatter = new Formatter();
+        try {
+            formatter.format("some text\n", broken);
+            fail("no exception");
+        } catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals(List.of("   some text"),
+                     formatter.format("some text\n").lines());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Formatter formatter = new Formatter();
+        Random r = new Random(61);
+        List<String> inputs = new ArrayList<>();
+        List<List<String>> expected = new ArrayList<>();
+        for (int k = 0; k < 40; k += 1) {
+            String input = TestDocuments.makeInput(r, 1 + r.nextInt(3000),
+                                                   PIECES);
+            inputs.add(input);
+            expected.add(TestDocuments.format(input));
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t += 1) {
+                int seed = t;
+                results.add(threads.submit(() -> {
+                    Random order = new Random(seed);
+                    for (int i = 0; i < 100; i += 1) {
+                        int k = order.nextInt(inputs.size());
+                        if (!formatter.format(inputs.get(k)).lines()
+                            .equals(expected.get(k))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+}
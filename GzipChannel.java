@@ -0,0 +1,222 @@
+package tex61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** A WritableByteChannel that gzips what is written to it onto another,
+ *  compressing on a ForkJoinPool, in the manner of pigz.  The bytes
+ *  written are cut into blocks of a fixed size, and each block is
+ *  deflated as a separate task, primed with the last 32K of the block
+ *  before as its dictionary, so that little is lost to the cuts.  Each
+ *  block but the last ends with a sync flush, which leaves it on a byte
+ *  boundary, so that the blocks, written in order behind one gzip header
+ *  and followed by the CRC and length of the whole, form a single valid
+ *  gzip stream.  The CRC is computed as bytes are written.  At most a few
+ *  blocks per worker are in flight at once.  Closing writes the last
+ *  block and the trailer, and closes the other channel.
+ */
+class GzipChannel implements WritableByteChannel {
+
+    /** Default size of a block, in uncompressed bytes. */
+    static final int BLOCK_SIZE = 1 << 17;
+    /** Size of the dictionary taken from the previous block. */
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    /** Gzip header: deflate, with no flags, time or extra flags, and OS
+     *  0, as GZIPOutputStream writes it. */
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    /** A GzipChannel writing to OUT at compression level LEVEL (0-9, or
+     *  Deflater.DEFAULT_COMPRESSION), with blocks of the default size,
+     *  compressed on POOL. */
+    GzipChannel(WritableByteChannel out, int level, ForkJoinPool pool) {
+        this(out, level, pool, BLOCK_SIZE);
+    }
+
+    /** A GzipChannel as above, with blocks of BLOCKSIZE bytes. */
+    GzipChannel(WritableByteChannel out, int level, ForkJoinPool pool,
+                int blockSize) {
+        if (level < Deflater.DEFAULT_COMPRESSION
+            || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("bad compression level");
+        }
+        _out = out;
+        _level = level;
+        _pool = pool;
+        _block = new byte[Math.max(blockSize, 1)];
+        _maxPending = 2 * pool.getParallelism() + 1;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!_open) {
+            throw new ClosedChannelException();
+        }
+        int n = src.remaining();
+        while (src.hasRemaining()) {
+            int m = Math.min(src.remaining(), _block.length - _filled);
+            src.get(_block, _filled, m);
+            _crc.update(_block, _filled, m);
+            _filled += m;
+            if (_filled == _block.length) {
+                submitBlock(false);
+                while (_pending.size() > _maxPending) {
+                    writeBlock();
+                }
+            }
+        }
+        _size += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return _open;
+    }
+
+    /** Compress and write all that has been written to me, then the
+     *  gzip trailer, and close my channel. */
+    @Override
+    public void close() throws IOException {
+        if (!_open) {
+            return;
+        }
+        _open = false;
+        try {
+            submitBlock(true);
+            while (!_pending.isEmpty()) {
+                writeBlock();
+            }
+            ByteBuffer trailer =
+                ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) _crc.getValue()).putInt((int) _size);
+            trailer.flip();
+            writeFully(trailer);
+        } finally {
+            _out.close();
+        }
+    }
+
+    /** Start compressing the current block, the last iff LAST, and start
+     *  a new one. */
+    private void submitBlock(boolean last) {
+        final byte[] input = _block;
+        final int length = _filled;
+        final byte[] dictionary = _dictionary;
+        final int level = _level;
+        _pending.add(_pool.submit(() -> deflate(input, length, dictionary,
+                                                level, last)));
+        if (length >= DICTIONARY_SIZE) {
+            _dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE,
+                                             length);
+        } else if (length > 0) {
+            byte[] previous = _dictionary == null ? new byte[0] : _dictionary;
+            int keep = Math.min(previous.length, DICTIONARY_SIZE - length);
+            _dictionary = Arrays.copyOfRange(previous, previous.length - keep,
+                                             previous.length + length);
+            System.arraycopy(input, 0, _dictionary, keep, length);
+        }
+        _block = _free.isEmpty() ? new byte[input.length] : _free.remove();
+        _filled = 0;
+        _blocks.add(input);
+    }
+
+    /** Wait for the oldest block to be compressed, and write it, preceded
+     *  by the gzip header if it is the first. */
+    private void writeBlock() throws IOException {
+        ByteBuffer output = _pending.remove().join();
+        byte[] input = _blocks.remove();
+        if (_free.size() < _maxPending) {
+            _free.add(input);
+        }
+        if (!_started) {
+            writeFully(ByteBuffer.wrap(HEADER));
+            _started = true;
+        }
+        writeFully(output);
+    }
+
+    /** Return INPUT[0 .. LENGTH-1] deflated raw at compression level
+     *  LEVEL, with dictionary DICTIONARY (if not null), ending with a sync
+     *  flush, or as the final block iff LAST. */
+    private static ByteBuffer deflate(byte[] input, int length,
+                                      byte[] dictionary, int level,
+                                      boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] out = new byte[length + (length >> 8) + 64];
+            int n = 0;
+            while (true) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, 2 * out.length);
+                }
+                n += deflater.deflate(out, n, out.length - n,
+                                      last ? Deflater.NO_FLUSH
+                                      : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished()
+                    : n < out.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return ByteBuffer.wrap(out, 0, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Write all of BUF to my channel. */
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            _out.write(buf);
+        }
+    }
+
+    /** Destination of the compressed stream. */
+    private final WritableByteChannel _out;
+    /** Compression level. */
+    private final int _level;
+    /** Pool on which blocks are compressed. */
+    private final ForkJoinPool _pool;
+    /** Maximum number of blocks in flight. */
+    private final int _maxPending;
+    /** The block being filled. */
+    private byte[] _block;
+    /** Number of bytes in _block. */
+    private int _filled;
+    /** The last DICTIONARY_SIZE bytes (or fewer, at the start) written
+     *  before _block, or null if none. */
+    private byte[] _dictionary;
+    /** Compression tasks of the blocks submitted, oldest first. */
+    private final ArrayDeque<ForkJoinTask<ByteBuffer>> _pending =
+        new ArrayDeque<>();
+    /** The blocks of _pending, in the same order. */
+    private final ArrayDeque<byte[]> _blocks = new ArrayDeque<>();
+    /** Blocks written, for reuse. */
+    private final ArrayDeque<byte[]> _free = new ArrayDeque<>();
+    /** CRC of all bytes written to me. */
+    private final CRC32 _crc = new CRC32();
+    /** Number of bytes written to me. */
+    private long _size;
+    /** True once the header has been written. */
+    private boolean _started;
+    /** False once I am closed. */
+    private boolean _open = true;
+
+}
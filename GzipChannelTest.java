@@ -0,0 +1,118 @@
+package tex61;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of GzipChannel: its output, unzipped, against its input.
+ *  @author Eric Escobar
+ */
+
+public class GzipChannelTest {
+
+    /** Return DATA, written to a GzipChannel with blocks of BLOCKSIZE
+     *  bytes at compression level LEVEL on POOL, in pieces of at most
+     *  CHUNK bytes. */
+    private static byte[] gzip(byte[] data, int level, ForkJoinPool pool,
+                               int blockSize, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GzipChannel channel =
+            new GzipChannel(Channels.newChannel(out), level, pool, blockSize);
+        for (int i = 0; i < data.length; i += chunk) {
+            int n = Math.min(chunk, data.length - i);
+            assertEquals(n, channel.write(ByteBuffer.wrap(data, i, n)));
+        }
+        channel.close();
+        assertFalse(channel.isOpen());
+        return out.toByteArray();
+    }
+
+    /** Return the gzip stream DATA, unzipped. */
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in =
+                 new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Return N bytes of formatter output, more or less, made with R. */
+    private static byte[] text(Random r, int n) {
+        String[] words = {
+            "the", "quick", "brown", "fox", "caf\u00e9", "\u65e5\u672c",
+            "\n", "\f\n", "   ",
+        };
+        StringBuilder s = new StringBuilder();
+        while (s.length() < n) {
+            s.append(words[r.nextInt(words.length)]).append(' ');
+        }
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random r = new Random(61);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int k = 0; k < 30; k += 1) {
+                byte[] data = k % 3 == 0 ? new byte[r.nextInt(100000)]
+                    : text(r, r.nextInt(200000));
+                if (k % 3 == 0) {
+                    r.nextBytes(data);
+                }
+                int level = r.nextInt(11) - 1;
+                int blockSize = 1 + r.nextInt(70000);
+                byte[] zipped = gzip(data, level, k % 2 == 0 ? pool
+                                     : ForkJoinPool.commonPool(),
+                                     blockSize, 1 + r.nextInt(50000));
+                assertArrayEquals("level " + level + ", blocks of "
+                                  + blockSize, data, gunzip(zipped));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] zipped = gzip(new byte[0], Deflater.DEFAULT_COMPRESSION,
+                             ForkJoinPool.commonPool(),
+                             GzipChannel.BLOCK_SIZE, 1);
+        assertEquals(0, gunzip(zipped).length);
+    }
+
+    @Test
+    public void testDictionary() throws IOException {
+        byte[] data = text(new Random(1), 1 << 20);
+        byte[] primed = gzip(data, 6, ForkJoinPool.commonPool(),
+                             GzipChannel.BLOCK_SIZE, 8192);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream serial = new GZIPOutputStream(out)) {
+            serial.write(data);
+        }
+        assertArrayEquals(data, gunzip(primed));
+        assertTrue(primed.length < out.size() * 1.02);
+    }
+
+    @Test
+    public void testBadLevel() {
+        try {
+            new GzipChannel(Channels.newChannel(new ByteArrayOutputStream()),
+                            10, ForkJoinPool.commonPool());
+            fail("level 10 accepted");
+        } catch (IllegalArgumentException e) {
+            /* OK */
+        }
+    }
+
+}
@@ -0,0 +1,437 @@
+package tex61;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Finds the points at which words may be hyphenated, by Liang's method,
+ *  as in TeX: from a set of patterns, each a string of letters with
+ *  digits between them, and dots for the ends of words (1tion, .un1,
+ *  b1b), every pattern that occurs in a word votes at each point it
+ *  covers, and a word may be broken where the highest vote is odd.
+ *  Words listed as exceptions (as-so-ciate) are broken where listed.
+ *
+ *  The patterns are kept in a double-array trie: the child of state S
+ *  on the letter with code C is state T = _base[S] + C if _check[T] is
+ *  S, so that a step costs two array reads.  The digits of the pattern
+ *  ending at each state are in _digits, from _value[S].  A Hyphenator is
+ *  immutable but for its memo of the break points of recent words,
+ *  kept like DisplayWidth's table of widths, so it may be shared
+ *  between threads.
+ */
+final class Hyphenator {
+
+    /** Fewest letters before a break, and after one. */
+    static final int LEFT_MIN = 2, RIGHT_MIN = 3;
+
+    /** Longest word, in chars, whose break points are kept. */
+    static final int CACHED_LENGTH = 64;
+
+    /** No break points. */
+    private static final int[] NONE = {};
+
+    /** A small set of English patterns, used when no others are loaded:
+     *  breaks before common suffixes, and between doubled consonants but
+     *  l and s, where the suffix often takes both.  It is deliberately
+     *  cautious; load TeX's hyphen.tex (see load) for real work. */
+    static final Hyphenator DEFAULT =
+        parse("\\patterns{1tion 1sion 1ment 1ness 1less 1ful "
+              + "b1b c1c d1d f1f g1g m1m n1n p1p r1r t1t z1z}");
+
+    /** Return a Hyphenator made from TEXT, in the format of TeX's
+     *  pattern files: \patterns{...} and \hyphenation{...} groups of
+     *  patterns and exceptions, with comments from % to the end of a
+     *  line.  Text with no \patterns group is taken to be patterns
+     *  alone.  Throws IllegalArgumentException if a pattern is
+     *  malformed. */
+    static Hyphenator parse(CharSequence text) {
+        String source = text.toString().replaceAll("%[^\n]*", "");
+        String patterns = group(source, "\\patterns");
+        String exceptions = group(source, "\\hyphenation");
+        return new Hyphenator(words(patterns == null ? source : patterns),
+                              words(exceptions == null ? "" : exceptions));
+    }
+
+    /** Return a Hyphenator made from the TeX pattern file FILE, in
+     *  UTF-8. */
+    static Hyphenator load(Path file) throws IOException {
+        return parse(new String(Files.readAllBytes(file),
+                                StandardCharsets.UTF_8));
+    }
+
+    /** Return the contents of the group following the first occurrence
+     *  of COMMAND in SOURCE, or null if there is none. */
+    private static String group(String source, String command) {
+        int start = source.indexOf(command + "{");
+        if (start == -1) {
+            return null;
+        }
+        start += command.length() + 1;
+        int end = source.indexOf('}', start);
+        if (end == -1) {
+            throw new IllegalArgumentException("unclosed " + command);
+        }
+        return source.substring(start, end);
+    }
+
+    /** Return the words of TEXT, separated by whitespace. */
+    private static List<String> words(String text) {
+        List<String> result = new ArrayList<>();
+        for (String word : text.trim().split("\\s+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** A Hyphenator with patterns PATTERNS and exceptions EXCEPTIONS. */
+    private Hyphenator(List<String> patterns, List<String> exceptions) {
+        TreeSet<Character> letters = new TreeSet<>();
+        letters.add('.');
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                if (!Character.isDigit(c)) {
+                    letters.add(Character.toLowerCase(c));
+                }
+            }
+        }
+        _alphabet = new char[letters.size()];
+        int k = 0;
+        for (char c : letters) {
+            _alphabet[k] = c;
+            k += 1;
+        }
+        Arrays.fill(_ascii, (byte) -1);
+        for (int i = 0; i < _alphabet.length && _alphabet[i] < 128; i += 1) {
+            _ascii[_alphabet[i]] = (byte) i;
+        }
+
+        Node root = new Node();
+        ByteList digits = new ByteList();
+        for (String pattern : patterns) {
+            root.add(pattern, this, digits);
+        }
+        _digits = digits.toArray();
+        Packer packer = new Packer(root.count() + _alphabet.length);
+        packer.pack(root);
+        _base = packer.base;
+        _check = packer.check;
+        _value = packer.value;
+
+        for (String exception : exceptions) {
+            StringBuilder word = new StringBuilder();
+            List<Integer> points = new ArrayList<>();
+            for (int i = 0; i < exception.length(); i += 1) {
+                char c = exception.charAt(i);
+                if (c == '-') {
+                    points.add(word.length());
+                } else {
+                    word.append(Character.toLowerCase(c));
+                }
+            }
+            int[] breaks = new int[points.size()];
+            for (int i = 0; i < breaks.length; i += 1) {
+                breaks[i] = points.get(i);
+            }
+            _exceptions.put(word.toString(), breaks);
+        }
+        _table = new Entry[4096];
+    }
+
+    /** Return the code of letter C, from 1, or 0 if no pattern has it. */
+    private int code(char c) {
+        if (c < 128) {
+            return _ascii[c] + 1;
+        }
+        int k = Arrays.binarySearch(_alphabet, c);
+        return k < 0 ? 0 : k + 1;
+    }
+
+    /** Return the points at which the word BUF[OFF .. OFF+LEN-1] may be
+     *  hyphenated, in increasing order, each the number of chars before
+     *  the hyphen.  Only the letters of the word are hyphenated, after
+     *  any leading, and before any trailing, chars that are not
+     *  letters; a word with such chars among its letters is not.  The
+     *  result must not be changed. */
+    int[] breaks(char[] buf, int off, int len) {
+        if (len > CACHED_LENGTH) {
+            return find(buf, off, len);
+        }
+        int hash = 0;
+        for (int i = off, end = off + len; i < end; i += 1) {
+            hash = 31 * hash + buf[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (_table.length - 1);
+        Entry entry = _table[slot];
+        if (entry != null && entry.hash == hash
+            && Arrays.equals(entry.chars, 0, entry.chars.length,
+                             buf, off, off + len)) {
+            return entry.breaks;
+        }
+        int[] breaks = find(buf, off, len);
+        _table[slot] = new Entry(Arrays.copyOfRange(buf, off, off + len),
+                                 hash, breaks);
+        return breaks;
+    }
+
+    /** Return breaks(BUF, OFF, LEN), working it out. */
+    private int[] find(char[] buf, int off, int len) {
+        int start = off, end = off + len;
+        while (start < end && !Character.isLetter(buf[start])) {
+            start += 1;
+        }
+        while (end > start && !Character.isLetter(buf[end - 1])) {
+            end -= 1;
+        }
+        int n = end - start;
+        if (n < LEFT_MIN + RIGHT_MIN) {
+            return NONE;
+        }
+        char[] word = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            char c = buf[start + i];
+            if (!Character.isLetter(c)) {
+                return NONE;
+            }
+            word[i] = Character.toLowerCase(c);
+        }
+        int[] listed = _exceptions.get(new String(word));
+        if (listed != null) {
+            int[] breaks = listed.clone();
+            for (int i = 0; i < breaks.length; i += 1) {
+                breaks[i] += start - off;
+            }
+            return breaks;
+        }
+
+        int[] codes = new int[n + 2];
+        codes[0] = codes[n + 1] = code('.');
+        for (int i = 0; i < n; i += 1) {
+            codes[i + 1] = code(word[i]);
+        }
+        byte[] votes = new byte[n + 3];
+        for (int i = 0; i < codes.length; i += 1) {
+            int state = 0;
+            for (int j = i; j < codes.length; j += 1) {
+                int next = _base[state] + codes[j];
+                if (codes[j] == 0 || next >= _check.length
+                    || _check[next] != state) {
+                    break;
+                }
+                state = next;
+                int value = _value[state];
+                if (value >= 0) {
+                    for (int k = 0; k <= j - i + 1; k += 1) {
+                        if (_digits[value + k] > votes[i + k]) {
+                            votes[i + k] = _digits[value + k];
+                        }
+                    }
+                }
+            }
+        }
+        int count = 0;
+        int[] breaks = new int[n];
+        for (int m = LEFT_MIN; m <= n - RIGHT_MIN; m += 1) {
+            if ((votes[m + 1] & 1) != 0) {
+                breaks[count] = m + start - off;
+                count += 1;
+            }
+        }
+        return count == 0 ? NONE : Arrays.copyOf(breaks, count);
+    }
+
+    /** A node of the trie as it is built. */
+    private static final class Node {
+        /** Children, by letter code. */
+        final TreeMap<Integer, Node> children = new TreeMap<>();
+        /** Index in _digits of the digits of the pattern ending here, or
+         *  -1 if none does. */
+        int value = -1;
+        /** State of this node in the double array. */
+        int state;
+
+        /** Add PATTERN under me, whose letters are coded by HYPHENATOR,
+         *  putting its digits in DIGITS. */
+        void add(String pattern, Hyphenator hyphenator, ByteList digits) {
+            Node node = this;
+            int letters = 0;
+            byte[] values = new byte[pattern.length() + 1];
+            for (int i = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    values[letters] = (byte) (c - '0');
+                } else {
+                    int code = hyphenator.code(Character.toLowerCase(c));
+                    node = node.children.computeIfAbsent(code,
+                                                         x -> new Node());
+                    letters += 1;
+                }
+            }
+            if (letters == 0) {
+                throw new IllegalArgumentException("bad pattern: "
+                                                   + pattern);
+            }
+            node.value = digits.size();
+            digits.add(values, letters + 1);
+        }
+
+        /** Return the number of nodes under me, and me. */
+        int count() {
+            int n = 1;
+            for (Node child : children.values()) {
+                n += child.count();
+            }
+            return n;
+        }
+    }
+
+    /** Lays out a trie as a double array. */
+    private static final class Packer {
+        /** A Packer with room for about SIZE states to start with. */
+        Packer(int size) {
+            base = new int[2 * size + 1];
+            check = new int[base.length];
+            value = new int[base.length];
+            Arrays.fill(check, -1);
+            Arrays.fill(value, -1);
+        }
+
+        /** Lay out the trie under ROOT, as state 0, leaving the arrays
+         *  no longer than they need be. */
+        void pack(Node root) {
+            check[0] = 0;
+            root.state = 0;
+            int free = 1;
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                Node node = queue.remove();
+                value[node.state] = node.value;
+                if (node.children.isEmpty()) {
+                    continue;
+                }
+                while (free < check.length && check[free] != -1) {
+                    free += 1;
+                }
+                int b = Math.max(free - node.children.firstKey(), 1);
+                while (!fits(b, node)) {
+                    b += 1;
+                }
+                base[node.state] = b;
+                for (Map.Entry<Integer, Node> child
+                         : node.children.entrySet()) {
+                    int state = b + child.getKey();
+                    check[state] = node.state;
+                    child.getValue().state = state;
+                    queue.add(child.getValue());
+                }
+            }
+            int used = check.length;
+            while (used > 1 && check[used - 1] == -1) {
+                used -= 1;
+            }
+            base = Arrays.copyOf(base, used);
+            check = Arrays.copyOf(check, used);
+            value = Arrays.copyOf(value, used);
+        }
+
+        /** Return true iff the children of NODE may be placed from B,
+         *  growing the arrays to hold them if need be. */
+        private boolean fits(int b, Node node) {
+            int last = b + node.children.lastKey();
+            if (last >= check.length) {
+                int size = Math.max(last + 1, 2 * check.length);
+                int old = check.length;
+                base = Arrays.copyOf(base, size);
+                check = Arrays.copyOf(check, size);
+                value = Arrays.copyOf(value, size);
+                Arrays.fill(check, old, size, -1);
+                Arrays.fill(value, old, size, -1);
+            }
+            for (int c : node.children.keySet()) {
+                if (check[b + c] != -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Bases, owners (-1 for free slots), and digit indices (-1 for
+         *  none) of the states. */
+        int[] base, check, value;
+    }
+
+    /** A growing array of bytes. */
+    private static final class ByteList {
+        /** Add the first N of VALUES. */
+        void add(byte[] values, int n) {
+            if (_size + n > _bytes.length) {
+                _bytes = Arrays.copyOf(_bytes,
+                                       Math.max(_size + n, 2 * _bytes.length));
+            }
+            System.arraycopy(values, 0, _bytes, _size, n);
+            _size += n;
+        }
+
+        /** Return my number of bytes. */
+        int size() {
+            return _size;
+        }
+
+        /** Return my bytes. */
+        byte[] toArray() {
+            return Arrays.copyOf(_bytes, _size);
+        }
+
+        /** The bytes, in _bytes[0 .. _size-1]. */
+        private byte[] _bytes = new byte[256];
+        /** Number of bytes. */
+        private int _size;
+    }
+
+    /** A word and its break points. */
+    private static final class Entry {
+        /** An Entry for the word CHARS, whose hash is HASH, with break
+         *  points BREAKS. */
+        Entry(char[] chars, int hash, int[] breaks) {
+            this.chars = chars;
+            this.hash = hash;
+            this.breaks = breaks;
+        }
+
+        /** The word. */
+        final char[] chars;
+        /** Its hash. */
+        final int hash;
+        /** Its break points. */
+        final int[] breaks;
+    }
+
+    /** The letters of the patterns, sorted: letter K has code K+1. */
+    private final char[] _alphabet;
+    /** Codes less one of ASCII letters, or -1 for those in no pattern. */
+    private final byte[] _ascii = new byte[128];
+    /** The double array: bases and owners of the states, by state. */
+    private final int[] _base, _check;
+    /** Index in _digits of the digits of the pattern ending at each
+     *  state, or -1. */
+    private final int[] _value;
+    /** Digits of the patterns, one more than its letters for each. */
+    private final byte[] _digits;
+    /** The exceptions: their break points, by word. */
+    private final Map<String, int[]> _exceptions = new HashMap<>();
+    /** Break points of recently hyphenated words, by hash. */
+    private final Entry[] _table;
+
+}
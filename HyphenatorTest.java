@@ -0,0 +1,189 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Hyphenators, and of lines filled with words hyphenated
+ *  by them.
+ *  @author Eric Escobar
+ */
+
+public class HyphenatorTest {
+
+    /** Return the break points of WORD by HYPHENATOR. */
+    private static int[] breaks(Hyphenator hyphenator, String word) {
+        char[] buf = ("  " + word + " ").toCharArray();
+        return hyphenator.breaks(buf, 2, word.length());
+    }
+
+    /** Return the break points of WORD by PATTERNS, found by trying
+     *  every pattern at every place in WORD. */
+    private static int[] naiveBreaks(List<String> patterns, String word) {
+        String dotted = "." + word + ".";
+        int[] votes = new int[dotted.length() + 1];
+        for (String pattern : patterns) {
+            String letters = pattern.replaceAll("[0-9]", "");
+            int[] digits = new int[letters.length() + 1];
+            for (int i = 0, k = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                if (Character.isDigit(c)) {
+                    digits[k] = c - '0';
+                } else {
+                    k += 1;
+                }
+            }
+            for (int i = dotted.indexOf(letters); i >= 0;
+                 i = dotted.indexOf(letters, i + 1)) {
+                for (int k = 0; k < digits.length; k += 1) {
+                    votes[i + k] = Math.max(votes[i + k], digits[k]);
+                }
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int m = Hyphenator.LEFT_MIN;
+             m <= word.length() - Hyphenator.RIGHT_MIN; m += 1) {
+            if (votes[m + 1] % 2 == 1) {
+                result.add(m);
+            }
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void testBreaks() {
+        Hyphenator h = Hyphenator.parse(
+            "% patterns\n\\patterns{1tion 1ment .un1 b1b n1n}\n"
+            + "\\hyphenation{as-so-ciate % an exception\n}");
+        assertArrayEquals(new int[] { 2, 7 },
+                          breaks(h, "unattention"));
+        assertArrayEquals(new int[] { 3, 8 },
+                          breaks(h, "(Unattention),"));
+        assertArrayEquals(new int[] { 4, 9 },
+                          breaks(h, "\"(Unattention),"));
+        assertArrayEquals(new int[] { 2, 4 }, breaks(h, "associate"));
+        assertArrayEquals(new int[] { 3, 5 }, breaks(h, "\"Associate."));
+        assertArrayEquals(new int[] { 2 }, breaks(h, "ebbing"));
+        assertArrayEquals(new int[] { 2 }, breaks(h, "nation"));
+        assertArrayEquals(new int[0], breaks(h, "ation"));
+        assertArrayEquals(new int[0], breaks(h, "ebb"));
+        assertArrayEquals(new int[0], breaks(h, "un-attention"));
+        assertArrayEquals(new int[0], breaks(h, "...."));
+        assertArrayEquals(new int[0], breaks(h, ""));
+        assertArrayEquals(new int[] { 3 },
+                          breaks(Hyphenator.parse("b1b"), "rubbing"));
+    }
+
+    @Test
+    public void testDefault() {
+        Hyphenator h = Hyphenator.DEFAULT;
+        assertArrayEquals(new int[] { 7 }, breaks(h, "international"));
+        assertArrayEquals(new int[] { 3, 8 }, breaks(h, "commencement"));
+        assertArrayEquals(new int[] { 3, 5 }, breaks(h, "happiness"));
+        for (int k = 0; k < 3; k += 1) {
+            assertArrayEquals(new int[] { 2, 5 }, breaks(h, "attention"));
+        }
+    }
+
+    @Test
+    public void testMatchesNaive() {
+        Random r = new Random(61);
+        String letters = "abcde\u00e9";
+        for (int t = 0; t < 50; t += 1) {
+            List<String> patterns = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            for (int p = 1 + r.nextInt(40); p > 0; p -= 1) {
+                StringBuilder pattern = new StringBuilder();
+                if (r.nextInt(5) == 0) {
+                    pattern.append('.');
+                }
+                for (int k = 1 + r.nextInt(4); k > 0; k -= 1) {
+                    if (r.nextInt(2) == 0) {
+                        pattern.append((char) ('0' + r.nextInt(6)));
+                    }
+                    pattern.append(letters.charAt(r.nextInt(5)));
+                }
+                if (r.nextInt(2) == 0) {
+                    pattern.append((char) ('0' + r.nextInt(6)));
+                }
+                if (r.nextInt(5) == 0) {
+                    pattern.append('.');
+                }
+                String key = pattern.toString().replaceAll("[0-9]", "");
+                if (keys.add(key)) {
+                    patterns.add(pattern.toString());
+                }
+            }
+            Hyphenator h =
+                Hyphenator.parse("\\patterns{" + String.join(" ", patterns)
+                                 + "}");
+            for (int w = 0; w < 50; w += 1) {
+                StringBuilder word = new StringBuilder();
+                for (int k = r.nextInt(12); k > 0; k -= 1) {
+                    word.append(letters.charAt(r.nextInt(letters.length())));
+                }
+                assertArrayEquals(patterns + " on " + word,
+                                  naiveBreaks(patterns, word.toString()),
+                                  breaks(h, word.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void testHyphenatedLines() {
+        String text = "The committee announced the commencement of the "
+            + "international attention to happiness, lessening nothing. ";
+        String input = "\\textwidth{20}\\parindent{0}\\hyphenate "
+            + text + text + "\n\n\\nohyphenate " + text + "\n";
+        List<String> lines = TestDocuments.format(input);
+        boolean hyphenated = false;
+        for (int i = 0; i < lines.size(); i += 1) {
+            String line = lines.get(i);
+            assertTrue(line, line.length() <= 20);
+            if (line.endsWith("-")) {
+                hyphenated = true;
+                assertTrue(line, line.length() > 1);
+            }
+        }
+        assertTrue(hyphenated);
+        List<String> unhyphenated = TestDocuments.format(
+            "\\textwidth{20}\\parindent{0}" + text + "\n");
+        unhyphenated.remove("");
+        assertEquals(unhyphenated,
+                     lines.subList(lines.size() - unhyphenated.size(),
+                                   lines.size()));
+        assertTrue(String.join(" ", lines).contains("com- mencement"));
+    }
+
+    @Test
+    public void testParallel() {
+        StringBuilder input = new StringBuilder("\\hyphenate ");
+        Random r = new Random(61);
+        String[] words = {
+            "international", "commencement", "happiness", "attention",
+            "the", "of", "a", "\n\n", "\\textwidth{15}", "\\textwidth{30}",
+            "\\nohyphenate ", "\\hyphenate ", "\\linebreak{optimal}",
+            "\\linebreak{greedy}", "\\endnote{committee announcement}",
+        };
+        for (int i = 0; i < 5000; i += 1) {
+            input.append(words[r.nextInt(words.length)]).append(' ');
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            List<String> expected = TestDocuments.format(input.toString());
+            assertTrue(expected.stream().anyMatch(s -> s.endsWith("-")));
+            assertEquals(expected,
+                         TestDocuments.format(input.toString(), pool,
+                                              TestDocuments.quiet()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
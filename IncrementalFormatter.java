@@ -0,0 +1,483 @@
+package tex61;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/** Keeps a document formatted while it is edited, as an editor would.
+ *  The document is held as a list of pieces, split just after each end
+ *  of paragraph in its text.  For each piece, it keeps the state in which
+ *  its layout starts (the formatting parameters of the main text and of
+ *  the endnotes, the number of the next endnote, and whether any lines
+ *  come before it), the lines and endnote lines laid out from it,
+ *  recorded in PageRecorders, and the same lines paginated, together with
+ *  the page positions at which they start.
+ *
+ *  An edit splits again and lays out again only the pieces it touches.
+ *  It continues with the pieces after them only until one starts in the
+ *  same state as before, since from there on the layout cannot change.
+ *  (A piece without endnotes needs laying out again only if the state of
+ *  the main text has changed, not just the endnote numbering.)
+ *  Where the following lines fall on pages may still change, so pieces
+ *  are paginated again, by replaying their recorded lines without
+ *  parsing or breaking them, until one starts at the same page positions
+ *  as before.  Thus the parsing and line breaking done for an edit
+ *  depends on the size of the edit, not of the document.  Apart from
+ *  that, an edit costs a pass over the list of pieces to renumber them,
+ *  and, if it changes the number of lines before a page break, a replay
+ *  of the lines up to the next place the page positions agree.
+ */
+class IncrementalFormatter {
+
+    /** Outcomes of split. */
+    private static final int SPLIT = 0, STOPPED = 1, UNFINISHED = 2;
+
+    /** Where errors are reported: nowhere, since they are only counted. */
+    private static final PrintStream QUIET =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /** A new IncrementalFormatter holding the document TEXT, formatted. */
+    IncrementalFormatter(String text) {
+        Controller cntrl =
+            new Controller(new PageRecorder(false), quiet(),
+                           new PageRecorder(false));
+        _initial = new State(cntrl.parameters(), cntrl.endnoteParameters(),
+                             cntrl.nextEndnote(), false, false);
+        _initialPosition = new PageRecorder(false).position();
+        _pieces.add(new Piece("", 0));
+        edit(0, 0, text);
+    }
+
+    /** Replace the characters of the document from START up to END with
+     *  REPLACEMENT, and format the result. */
+    void edit(int start, int end, String replacement) {
+        if (start < 0 || start > end || end > _length) {
+            throw new IndexOutOfBoundsException("bad edit range: "
+                                                + start + ".." + end);
+        }
+        int first = find(Math.max(start - 1, 0)), last = find(end);
+        for (int k = first - 1; k >= 0; k -= 1) {
+            Piece piece = _pieces.get(k);
+            if (piece.offset + piece.reach > start) {
+                first = k;
+            }
+        }
+        List<Piece> pieces = new ArrayList<>();
+        while (true) {
+            Piece from = _pieces.get(first);
+            StringBuilder region = new StringBuilder();
+            for (int k = first; k <= last; k += 1) {
+                region.append(_pieces.get(k).text);
+            }
+            region.replace(start - from.offset, end - from.offset,
+                           replacement);
+            pieces.clear();
+            int outcome = split(region.toString(), pieces);
+            if (last == _pieces.size() - 1) {
+                break;
+            } else if (outcome == STOPPED) {
+                last = _pieces.size() - 1;
+            } else if (outcome == SPLIT
+                       && pieces.get(pieces.size() - 1).text.isEmpty()) {
+                pieces.remove(pieces.size() - 1);
+                break;
+            } else {
+                last += 1;
+            }
+        }
+        List<Piece> replaced = _pieces.subList(first, last + 1);
+        replaced.clear();
+        replaced.addAll(pieces);
+        _length += replacement.length() - (end - start);
+        layout(first, pieces.size());
+        renumber(first);
+    }
+
+    /** Return the text of the document. */
+    String text() {
+        StringBuilder text = new StringBuilder(_length);
+        for (Piece piece : _pieces) {
+            text.append(piece.text);
+        }
+        return text.toString();
+    }
+
+    /** Return the formatted lines of the document: the main text followed
+     *  by the endnotes, as a Controller would send them to its
+     *  PageAssembler.  The result is a view that must not be used after
+     *  the next edit. */
+    List<String> lines() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                Objects.checkIndex(i, size());
+                if (i < _mainLines) {
+                    Piece piece = _pieces.get(findLine(i, true));
+                    return piece.mainLines.get(i - piece.mainIndex);
+                }
+                i -= _mainLines;
+                Piece piece = _pieces.get(findLine(i, false));
+                return piece.endnoteLines.get(i - piece.endnoteIndex);
+            }
+
+            @Override
+            public int size() {
+                return _mainLines + _endnoteLines;
+            }
+        };
+    }
+
+    /** Return the number of errors in the document. */
+    int errors() {
+        int errors = 0;
+        for (Piece piece : _pieces) {
+            errors += piece.errors;
+        }
+        return errors;
+    }
+
+    /** Return the number of paragraphs into which the document is
+     *  split. */
+    int paragraphs() {
+        return _pieces.size();
+    }
+
+    /** Return the number of paragraphs laid out by the last edit. */
+    int laidOut() {
+        return _laidOut;
+    }
+
+    /** Return the number of paragraphs paginated by the last edit. */
+    int paginated() {
+        return _paginated;
+    }
+
+    /** Add the paragraphs of TEXT to OUT, each ending just after an end
+     *  of paragraph, except the last, which holds the rest of TEXT (and
+     *  may be empty).  Returns SPLIT; or STOPPED if a character or an
+     *  over-long argument that stops the parser stopped the split too,
+     *  leaving everything after it in
+     *  the last paragraph; or UNFINISHED if TEXT ended inside a command
+     *  argument, which might go on in the text that follows.  Each
+     *  paragraph notes how far a malformed argument in it made the lexer
+     *  look, which may be beyond its own end. */
+    private static int split(String text, List<Piece> out) {
+        InputLexer lexer = new InputLexer(text);
+        int start = 0, reach = 0;
+        long far = 0;
+        while (true) {
+            switch (lexer.next()) {
+            case InputLexer.EOP:
+                int end = lexer.start() + lexer.length();
+                out.add(new Piece(text.substring(start, end), reach));
+                start = end;
+                reach = 0;
+                break;
+            case InputLexer.COMMAND:
+                int len = lexer.hasArgument() ? lexer.scanArgument() : 0;
+                if (len == InputLexer.TOO_LONG) {
+                    out.add(new Piece(text.substring(start), reach));
+                    return STOPPED;
+                } else if (len < 0) {
+                    far = Math.max(far, lexer.argumentReach());
+                    reach = Math.max(reach, (int) far - start);
+                }
+                break;
+            case InputLexer.ERROR:
+                out.add(new Piece(text.substring(start), reach));
+                return STOPPED;
+            case InputLexer.EOF:
+                out.add(new Piece(text.substring(start), reach));
+                return far > text.length() ? UNFINISHED : SPLIT;
+            default:
+                break;
+            }
+        }
+    }
+
+    /** Lay out and paginate the N new pieces starting at FIRST, and
+     *  then any later pieces that they affect. */
+    private void layout(int first, int n) {
+        Piece prev = first == 0 ? null : _pieces.get(first - 1);
+        State state = prev == null ? _initial : prev.after;
+        int end = first;
+        _laidOut = 0;
+        for (int k = first; k < _pieces.size(); k += 1) {
+            Piece piece = _pieces.get(k);
+            if (k >= first + n) {
+                if (state.equals(piece.before)) {
+                    break;
+                } else if (piece.before.refNum == piece.after.refNum
+                           && state.sameMainText(piece.before)) {
+                    piece.before = state;
+                    piece.after = piece.after.withEndnotesOf(state);
+                    state = piece.after;
+                    continue;
+                }
+            }
+            layout(piece, state, k == _pieces.size() - 1);
+            state = piece.after;
+            end = k + 1;
+            _laidOut += 1;
+        }
+        PageAssembler.Position main, endnotes;
+        main = prev == null ? _initialPosition : prev.mainEnd;
+        endnotes = prev == null ? _initialPosition : prev.endnoteEnd;
+        _paginated = 0;
+        for (int k = first; k < _pieces.size(); k += 1) {
+            Piece piece = _pieces.get(k);
+            if (k >= end && main.equals(piece.mainStart)
+                && endnotes.equals(piece.endnoteStart)) {
+                break;
+            }
+            if (paginate(piece, main, endnotes)) {
+                _paginated += 1;
+            }
+            main = piece.mainEnd;
+            endnotes = piece.endnoteEnd;
+        }
+    }
+
+    /** Lay out PIECE, starting in STATE, finishing all its text iff LAST
+     *  (it ends the document). */
+    private void layout(Piece piece, State state, boolean last) {
+        PageRecorder main = new PageRecorder(state.mainFollows),
+            endnotes = new PageRecorder(state.endnotesFollow);
+        Diagnostics diagnostics = quiet();
+        Controller cntrl = new Controller(main, diagnostics, endnotes);
+        cntrl.restore(state.main, state.endnotes, state.refNum);
+        new InputParser(piece.text, cntrl, piece.line, 1).parse();
+        if (last) {
+            cntrl.endText();
+        }
+        piece.before = state;
+        piece.after = new State(cntrl.parameters(),
+                                cntrl.endnoteParameters(),
+                                cntrl.nextEndnote(), main.lineCount() > 0,
+                                endnotes.lineCount() > 0);
+        piece.main = main;
+        piece.endnotes = endnotes;
+        piece.mainStart = piece.endnoteStart = null;
+        piece.errors = diagnostics.total();
+    }
+
+    /** Paginate the lines of PIECE, with its main text starting at MAIN
+     *  and its endnotes at ENDNOTES, where that has changed.  Returns
+     *  true iff any lines had to be replayed. */
+    private boolean paginate(Piece piece, PageAssembler.Position main,
+                             PageAssembler.Position endnotes) {
+        boolean replayed = false;
+        if (!main.equals(piece.mainStart)) {
+            piece.mainLines = new ArrayList<>();
+            piece.mainStart = main;
+            piece.mainEnd = replay(piece.main, main, piece.mainLines);
+            replayed = !piece.main.isEmpty();
+        }
+        if (!endnotes.equals(piece.endnoteStart)) {
+            piece.endnoteLines = new ArrayList<>();
+            piece.endnoteStart = endnotes;
+            piece.endnoteEnd =
+                replay(piece.endnotes, endnotes, piece.endnoteLines);
+            replayed |= !piece.endnotes.isEmpty();
+        }
+        return replayed;
+    }
+
+    /** Replay the lines recorded by RECORDER onto pages starting at
+     *  POSITION, adding them to LINES, and return the position after
+     *  them. */
+    private static PageAssembler.Position replay(PageRecorder recorder,
+                                                 PageAssembler.Position
+                                                 position,
+                                                 List<String> lines) {
+        if (recorder.isEmpty()) {
+            return position;
+        }
+        PageAssembler pages = new PageCollector(lines);
+        pages.setPosition(position);
+        recorder.replay(pages);
+        return pages.position();
+    }
+
+    /** Recompute the starts of the pieces from FIRST on. */
+    private void renumber(int first) {
+        Piece prev = first == 0 ? null : _pieces.get(first - 1);
+        int start = 0, line = 1, mainIndex = 0, endnoteIndex = 0;
+        if (prev != null) {
+            start = prev.offset + prev.text.length();
+            line = prev.line + prev.newlines;
+            mainIndex = prev.mainIndex + prev.mainLines.size();
+            endnoteIndex = prev.endnoteIndex + prev.endnoteLines.size();
+        }
+        for (int k = first; k < _pieces.size(); k += 1) {
+            Piece piece = _pieces.get(k);
+            piece.offset = start;
+            piece.line = line;
+            piece.mainIndex = mainIndex;
+            piece.endnoteIndex = endnoteIndex;
+            start += piece.text.length();
+            line += piece.newlines;
+            mainIndex += piece.mainLines.size();
+            endnoteIndex += piece.endnoteLines.size();
+        }
+        _mainLines = mainIndex;
+        _endnoteLines = endnoteIndex;
+    }
+
+    /** Return the index of the piece containing character POS, or the
+     *  last piece if POS is the length of the document. */
+    private int find(int pos) {
+        int lo = 0, hi = _pieces.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (_pieces.get(mid).offset <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the index of the last piece whose main text (iff MAIN) or
+     *  endnotes start at or before formatted line I of either. */
+    private int findLine(int i, boolean main) {
+        int lo = 0, hi = _pieces.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            Piece piece = _pieces.get(mid);
+            if ((main ? piece.mainIndex : piece.endnoteIndex) <= i) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Return a Diagnostics that only counts errors. */
+    private static Diagnostics quiet() {
+        return new Diagnostics(null, QUIET, false, 0);
+    }
+
+    /** The state of formatting between two paragraphs, apart from the
+     *  pages: all that determines how the following paragraphs are laid
+     *  out. */
+    private static final class State {
+        /** The State with parameters MAIN and ENDNOTES, next endnote
+         *  REFNUM, and in which the main text and endnotes have some lines
+         *  already iff MAINFOLLOWS and ENDNOTESFOLLOW. */
+        State(Parameters main, Parameters endnotes, int refNum,
+              boolean mainFollows, boolean endnotesFollow) {
+            this.main = main;
+            this.endnotes = endnotes;
+            this.refNum = refNum;
+            this.mainFollows = mainFollows;
+            this.endnotesFollow = endnotesFollow;
+        }
+
+        /** Return true iff S has the same main text state as I do, so that
+         *  a paragraph without endnotes is laid out the same after
+         *  either. */
+        boolean sameMainText(State s) {
+            return main.equals(s.main) && mainFollows == s.mainFollows;
+        }
+
+        /** Return this State, but with the endnote state of S. */
+        State withEndnotesOf(State s) {
+            return new State(main, s.endnotes, s.refNum, mainFollows,
+                             s.endnotesFollow);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State s = (State) obj;
+            return main.equals(s.main) && endnotes.equals(s.endnotes)
+                && refNum == s.refNum && mainFollows == s.mainFollows
+                && endnotesFollow == s.endnotesFollow;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 31 * main.hashCode() + endnotes.hashCode();
+            return 4 * (31 * h + refNum) + (mainFollows ? 2 : 0)
+                + (endnotesFollow ? 1 : 0);
+        }
+
+        /** Parameters of the main text. */
+        private final Parameters main;
+        /** Parameters of the endnotes. */
+        private final Parameters endnotes;
+        /** Number of the next endnote. */
+        private final int refNum;
+        /** True iff the main text has lines. */
+        private final boolean mainFollows;
+        /** True iff the endnotes have lines. */
+        private final boolean endnotesFollow;
+    }
+
+    /** A paragraph of the document and its layout. */
+    private static final class Piece {
+        /** A Piece whose text is TEXT, not yet laid out, which is parsed
+         *  differently if any of the next REACH characters of the
+         *  document, starting with its own, changes. */
+        Piece(String text, int reach) {
+            this.text = text;
+            this.reach = Math.max(reach, text.length());
+            int n = 0;
+            for (int i = text.indexOf('\n'); i >= 0;
+                 i = text.indexOf('\n', i + 1)) {
+                n += 1;
+            }
+            newlines = n;
+            mainLines = endnoteLines = List.of();
+        }
+
+        /** The source text. */
+        private final String text;
+        /** Number of characters whose changes affect the parsing of
+         *  text (at least its length). */
+        private final int reach;
+        /** Number of ends of line in text. */
+        private final int newlines;
+        /** Offset of text in the document. */
+        private int offset;
+        /** Line of the document on which text starts. */
+        private int line = 1;
+        /** States before and after laying out text. */
+        private State before, after;
+        /** Lines of main text and endnotes laid out, unpaginated. */
+        private PageRecorder main, endnotes;
+        /** Number of errors in text. */
+        private int errors;
+        /** Page positions of the main text and endnotes before and after
+         *  paginating. */
+        private PageAssembler.Position mainStart, mainEnd,
+            endnoteStart, endnoteEnd;
+        /** The paginated lines of main text and endnotes. */
+        private List<String> mainLines, endnoteLines;
+        /** Indices of the first of mainLines and of endnoteLines among
+         *  the formatted lines of the main text and of the endnotes. */
+        private int mainIndex, endnoteIndex;
+    }
+
+    /** The state at the start of the document. */
+    private final State _initial;
+    /** The page position at the start of the document. */
+    private final PageAssembler.Position _initialPosition;
+    /** The document's paragraphs, in order. */
+    private final ArrayList<Piece> _pieces = new ArrayList<>();
+    /** Length of the document. */
+    private int _length;
+    /** Total lines of main text and of endnotes. */
+    private int _mainLines, _endnoteLines;
+    /** Paragraphs laid out and paginated by the last edit. */
+    private int _laidOut, _paginated;
+
+}
@@ -0,0 +1,88 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of IncrementalFormatters: formatting after edits against
+ *  formatting the edited document from scratch.
+ *  @author Eric Escobar
+ */
+
+public class IncrementalFormatterTest {
+
+    /** Pieces of input from which test documents and edits are made:
+     *  the usual ones, with more settings, some of them wrong, greedy
+     *  line breaking, stray backslashes and braces, and other line
+     *  ends. */
+    private static final String[] PIECES = TestDocuments.piecesWith(
+        "\\nofill", "\\parindent{-2}", "\\textwidth{72}", "\\parskip{0}",
+        "\\textheight{40}", "\\indent{-1}", "\\linebreak{greedy}", "\\",
+        "{", "}", "\r\n", "\n\r\n");
+
+    @Test
+    public void testEditsMatchFormatting() {
+        Random r = new Random(61);
+        for (int k = 0; k < 60; k += 1) {
+            String text = TestDocuments.makeInput(r, r.nextInt(k < 40 ? 40
+                                                               : 400),
+                                                  PIECES);
+            IncrementalFormatter doc = new IncrementalFormatter(text);
+            assertEquals(TestDocuments.format(text),
+                         new ArrayList<>(doc.lines()));
+            for (int e = 0; e < 30; e += 1) {
+                int start = r.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + r.nextInt(20));
+                String replacement =
+                    TestDocuments.makeInput(r, r.nextInt(4), PIECES);
+                text = text.substring(0, start) + replacement
+                    + text.substring(end);
+                doc.edit(start, end, replacement);
+                assertEquals(text, doc.text());
+                Diagnostics diagnostics = TestDocuments.quiet();
+                assertEquals("wrong lines after edit " + e + " of " + k,
+                             TestDocuments.format(text, null, diagnostics),
+                             new ArrayList<>(doc.lines()));
+                assertEquals("wrong error count", diagnostics.total(),
+                             doc.errors());
+            }
+        }
+    }
+
+    @Test
+    public void testSmallEditIsLocal() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 1000; i += 1) {
+            s.append("Paragraph ").append(i)
+                .append(" has a few words in it.\n\n");
+        }
+        String text = s.toString();
+        IncrementalFormatter doc = new IncrementalFormatter(text);
+        assertEquals(1001, doc.paragraphs());
+        int pos = text.indexOf("Paragraph 500 ") + "Paragraph 500".length();
+        doc.edit(pos, pos, " (edited)");
+        assertEquals(1, doc.laidOut());
+        assertEquals(1, doc.paginated());
+        doc.edit(pos, pos, "\\endnote{a note}");
+        assertEquals(1, doc.laidOut());
+        assertEquals(1, doc.paginated());
+        doc.edit(pos, pos, "\\parindent{5}");
+        assertEquals(1001 - 500, doc.laidOut());
+        assertEquals(TestDocuments.format(doc.text()),
+                     new ArrayList<>(doc.lines()));
+    }
+
+    @Test
+    public void testRenumberedEndnotesThenSettings() {
+        String text = "One\\endnote{a note}.\n\n\\parskip{2}\n\nTwo.\n"
+            + "\n\nThree.\n";
+        IncrementalFormatter doc = new IncrementalFormatter(text);
+        int pos = text.indexOf("\\endnote");
+        doc.edit(pos, pos + "\\endnote{a note}".length(), "");
+        assertEquals(TestDocuments.format(doc.text()),
+                     new ArrayList<>(doc.lines()));
+    }
+
+}
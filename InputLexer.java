@@ -0,0 +1,537 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/** A hand-written, single-pass lexer for formatter input.  It recognizes
+ *  the tokens listed below, and works directly on a reusable character
+ *  buffer, classifying characters through a table rather than a
+ *  regular expression, and allocates nothing per token.
+ *  After next() returns a token type, the token's text is
+ *  buffer()[start() .. start() + length() - 1]; it remains valid only
+ *  until the following call to next() or readArgument().
+ */
+class InputLexer {
+
+    /** Token types returned by next(). */
+    static final int
+        /** End of input. */
+        EOF = 0,
+        /** Run of blanks and tabs. */
+        BLANK = 1,
+        /** Single end of line. */
+        EOL = 2,
+        /** Two or more ends of line: end of paragraph. */
+        EOP = 3,
+        /** \{, \}, \\, or \ (blank or tab).  The escaped character is
+         *  the last character of the token. */
+        ESCAPED = 4,
+        /** \<alphabetic characters>, possibly followed by '{' (see
+         *  hasArgument).  The name is buffer()[start() + 1 ..
+         *  start() + nameLength()]. */
+        COMMAND = 5,
+        /** Segment of other text. */
+        TEXT = 6,
+        /** A character that should not be here. */
+        ERROR = 7;
+
+    /** Returned by scanArgument for an argument longer than the maximum
+     *  (see setMaxArgument). */
+    static final int TOO_LONG = -2;
+
+    /** Character classes, indexed by character (for characters < 128). */
+    private static final byte
+        C_TEXT = 0, C_BLANK = 1, C_NL = 2, C_CR = 3, C_BACKSLASH = 4,
+        C_LBRACE = 5, C_RBRACE = 6, C_ALPHA = 7;
+
+    /** Maps ASCII characters to their classes.  All other characters are
+     *  C_TEXT. */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        CLASSES[' '] = CLASSES['\t'] = C_BLANK;
+        CLASSES['\n'] = C_NL;
+        CLASSES['\r'] = C_CR;
+        CLASSES['\\'] = C_BACKSLASH;
+        CLASSES['{'] = C_LBRACE;
+        CLASSES['}'] = C_RBRACE;
+        for (char c = 'a'; c <= 'z'; c += 1) {
+            CLASSES[c] = CLASSES[Character.toUpperCase(c)] = C_ALPHA;
+        }
+    }
+
+    /** Initial size of the buffer for Reader input. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** A new lexer taking input from READER. */
+    InputLexer(Reader reader) {
+        this(reader, 1, 1);
+    }
+
+    /** A new lexer taking input from READER, which starts at line LINE
+     *  and column COLUMN of some larger input, for the purposes of line()
+     *  and column(). */
+    InputLexer(Reader reader, int line, int column) {
+        _reader = reader;
+        _buf = new char[BUFFER_SIZE];
+        _line = line;
+        _lineStart = 1 - column;
+    }
+
+    /** A new lexer whose input is TEXT. */
+    InputLexer(CharSequence text) {
+        this(text, 1, 1);
+    }
+
+    /** A new lexer whose input is TEXT, which starts at line LINE and
+     *  column COLUMN of some larger input, for the purposes of line()
+     *  and column(). */
+    InputLexer(CharSequence text, int line, int column) {
+        _reader = null;
+        _buf = new char[text.length()];
+        reset(text, line, column);
+    }
+
+    /** Start again on input TEXT, which starts at line LINE and column
+     *  COLUMN of some larger input, reusing my buffer if it is big
+     *  enough.  Only for lexers made with text rather than a Reader. */
+    void reset(CharSequence text, int line, int column) {
+        assert _reader == null;
+        int len = text.length();
+        if (len > _buf.length) {
+            _buf = new char[Math.max(len, 2 * _buf.length)];
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(0, len, _buf, 0);
+        } else if (text instanceof CharBuffer) {
+            ((CharBuffer) text).duplicate().get(_buf, 0, len);
+        } else {
+            for (int i = 0; i < len; i += 1) {
+                _buf[i] = text.charAt(i);
+            }
+        }
+        _limit = len;
+        _start = _pos = 0;
+        _nameLength = 0;
+        _hasArgument = false;
+        _reach = 0;
+        _unmatchedCount = 0;
+        _unmatchedFrom = Long.MAX_VALUE;
+        _discarded = 0;
+        _line = line;
+        _lineStart = 1 - column;
+    }
+
+    /** Return class of character C. */
+    private static int classOf(char c) {
+        return c < CLASSES.length ? CLASSES[c] : C_TEXT;
+    }
+
+    /** Scan the next token and return its type (one of the token
+     *  constants above; EOF at end of input). */
+    int next() {
+        _start = _pos;
+        _nameLength = 0;
+        _hasArgument = false;
+        if (!available(0)) {
+            return EOF;
+        }
+        char c = _buf[_pos];
+        switch (classOf(c)) {
+        case C_BLANK:
+            _pos += 1;
+            while (available(0) && classOf(_buf[_pos]) == C_BLANK) {
+                _pos += 1;
+            }
+            return BLANK;
+        case C_NL:
+        case C_CR:
+            return scanNewlines();
+        case C_BACKSLASH:
+            return scanBackslash();
+        case C_LBRACE:
+        case C_RBRACE:
+            _pos += 1;
+            return ERROR;
+        default:
+            _pos += 1;
+            while (available(0)) {
+                int k = classOf(_buf[_pos]);
+                if (k != C_TEXT && k != C_ALPHA) {
+                    break;
+                }
+                _pos += 1;
+            }
+            return TEXT;
+        }
+    }
+
+    /** Scan an end-of-line or end-of-paragraph token at _pos, returning
+     *  its type.  A carriage return not followed by a newline is an
+     *  ERROR. */
+    private int scanNewlines() {
+        int n = newline();
+        if (n == 0) {
+            _pos += 1;
+            return ERROR;
+        }
+        _pos += n;
+        int lines;
+        for (lines = 1; (n = newline()) > 0; lines += 1) {
+            _pos += n;
+        }
+        _line += lines;
+        _lineStart = _discarded + _pos;
+        return lines == 1 ? EOL : EOP;
+    }
+
+    /** Return the length of the line terminator (\n or \r\n) at _pos,
+     *  or 0 if there is none. */
+    private int newline() {
+        if (!available(0)) {
+            return 0;
+        } else if (_buf[_pos] == '\n') {
+            return 1;
+        } else if (_buf[_pos] == '\r' && available(1)
+                   && _buf[_pos + 1] == '\n') {
+            return 2;
+        } else {
+            return 0;
+        }
+    }
+
+    /** Scan an escaped character or command starting with the backslash
+     *  at _pos, returning its type. */
+    private int scanBackslash() {
+        _pos += 1;
+        if (!available(0)) {
+            return ERROR;
+        }
+        switch (classOf(_buf[_pos])) {
+        case C_BLANK:
+        case C_BACKSLASH:
+        case C_LBRACE:
+        case C_RBRACE:
+            _pos += 1;
+            return ESCAPED;
+        case C_ALPHA:
+            _pos += 1;
+            while (available(0) && classOf(_buf[_pos]) == C_ALPHA) {
+                _pos += 1;
+            }
+            _nameLength = _pos - _start - 1;
+            if (available(0) && _buf[_pos] == '{') {
+                _pos += 1;
+                _hasArgument = true;
+            }
+            return COMMAND;
+        default:
+            return ERROR;
+        }
+    }
+
+    /** Having just scanned a COMMAND token for which hasArgument() is
+     *  true, read the text up to the matching '}', which is consumed but
+     *  not returned.  The argument may contain escaped characters and
+     *  nested braces, to any depth.  If it is not well formed, consume
+     *  one character and return null. */
+    String readArgument() {
+        int len = scanArgument();
+        return len < 0 ? null : new String(_buf, _start, len);
+    }
+
+    /** As for readArgument, but leave the argument in the buffer and
+     *  return its length; or -1 if it has no matching '}'; or TOO_LONG,
+     *  consuming nothing, if it has more characters than the maximum.
+     *  The argument is then buffer()[start() .. start() + length - 1],
+     *  valid until the next call to next().  Each character is looked
+     *  at once, and once more for an argument with no matching '}', to
+     *  find with a stack the unmatched '{'s that follow; arguments that
+     *  start with one of those then fail at once.  Reading all the
+     *  arguments of an input thus takes time linear in its length. */
+    int scanArgument() {
+        _start = _pos;
+        long open = _discarded + _pos - 1;
+        if (open > _unmatchedFrom && !unmatched(open)) {
+            return scanMatched();
+        } else if (open > _unmatchedFrom) {
+            _reach = _unmatchedReach;
+            if (available(0)) {
+                _pos += 1;
+            }
+            return -1;
+        }
+        int line = _line;
+        long lineStart = _lineStart;
+        int depth = 0;
+        int max = _maxArgument;
+        while (available(0)) {
+            if (_pos - _start > max) {
+                _reach = _discarded + _pos;
+                _pos = _start;
+                _line = line;
+                _lineStart = lineStart;
+                return TOO_LONG;
+            }
+            char c = _buf[_pos];
+            if (c == '\n') {
+                _line += 1;
+                _lineStart = _discarded + _pos + 1;
+                _pos += 1;
+            } else if (c == '\\') {
+                if (!available(1)) {
+                    break;
+                }
+                if (_buf[_pos + 1] == '\n') {
+                    _line += 1;
+                    _lineStart = _discarded + _pos + 2;
+                }
+                _pos += 2;
+            } else if (c == '{') {
+                depth += 1;
+                _pos += 1;
+            } else if (c == '}') {
+                _pos += 1;
+                if (depth == 0) {
+                    return _pos - 1 - _start;
+                }
+                depth -= 1;
+            } else {
+                _pos += 1;
+            }
+        }
+        findUnmatched(open);
+        _reach = _unmatchedReach = _discarded + _limit + 1;
+        _pos = _start;
+        _line = line;
+        _lineStart = lineStart;
+        if (available(0)) {
+            _pos += 1;
+        }
+        return -1;
+    }
+
+    /** As for scanArgument, for an argument known to have a matching
+     *  '}', which lies in the buffer already. */
+    private int scanMatched() {
+        int depth = 0;
+        while (true) {
+            char c = _buf[_pos];
+            if (c == '\n') {
+                _line += 1;
+                _lineStart = _discarded + _pos + 1;
+                _pos += 1;
+            } else if (c == '\\') {
+                if (_buf[_pos + 1] == '\n') {
+                    _line += 1;
+                    _lineStart = _discarded + _pos + 2;
+                }
+                _pos += 2;
+            } else if (c == '{') {
+                depth += 1;
+                _pos += 1;
+            } else if (c == '}') {
+                _pos += 1;
+                if (depth == 0) {
+                    return _pos - 1 - _start;
+                }
+                depth -= 1;
+            } else {
+                _pos += 1;
+            }
+        }
+    }
+
+    /** Having failed to find the '}' matching the '{' at offset OPEN,
+     *  which is at _buf[_start - 1], with all the rest of the input in
+     *  _buf, record the offsets of OPEN and the later '{'s that have no
+     *  match either.  Any other '{' that starts an argument has a match
+     *  (found by the same scan, since no escape can span a '{'). */
+    private void findUnmatched(long open) {
+        long[] stack = _unmatched;
+        int n = 0;
+        stack[n++] = open;
+        for (int i = _start; i < _limit; i += 1) {
+            char c = _buf[i];
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '{') {
+                if (n == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * n);
+                }
+                stack[n++] = _discarded + i;
+            } else if (c == '}' && n > 0) {
+                n -= 1;
+            }
+        }
+        _unmatched = stack;
+        _unmatchedCount = n;
+        _unmatchedNext = 0;
+        _unmatchedFrom = open;
+    }
+
+    /** Return true iff the '{' at offset OPEN, which is beyond
+     *  _unmatchedFrom and beyond that of any earlier query, has no
+     *  matching '}'. */
+    private boolean unmatched(long open) {
+        while (_unmatchedNext < _unmatchedCount
+               && _unmatched[_unmatchedNext] < open) {
+            _unmatchedNext += 1;
+        }
+        return _unmatchedNext < _unmatchedCount
+            && _unmatched[_unmatchedNext] == open;
+    }
+
+    /** Make MAX the maximum number of characters in a command argument
+     *  (initially Defaults.MAX_ARGUMENT).  Scanning a longer one fails
+     *  with TOO_LONG. */
+    void setMaxArgument(int max) {
+        _maxArgument = max;
+    }
+
+    /** Return true iff the character at _pos + K is available, reading
+     *  more input if necessary.  Reading may move the text from _start
+     *  on to the beginning of the buffer, adjusting _start and _pos, so
+     *  callers must hold only positions relative to these. */
+    private boolean available(int k) {
+        return _pos + k < _limit || fill(k);
+    }
+
+    /** Read input until _pos + K is in the buffer or input is exhausted,
+     *  first discarding the text before _start.  Returns true iff
+     *  _pos + K is then available. */
+    private boolean fill(int k) {
+        if (_reader == null || _eof) {
+            return false;
+        }
+        if (_start > 0) {
+            _discarded += _start;
+            System.arraycopy(_buf, _start, _buf, 0, _limit - _start);
+            _limit -= _start;
+            _pos -= _start;
+            _start = 0;
+        }
+        while (_pos + k >= _limit) {
+            if (_limit == _buf.length) {
+                char[] bigger = new char[2 * _buf.length];
+                System.arraycopy(_buf, 0, bigger, 0, _limit);
+                _buf = bigger;
+            }
+            int n;
+            try {
+                n = _reader.read(_buf, _limit, _buf.length - _limit);
+            } catch (IOException e) {
+                _ioException = e;
+                n = -1;
+            }
+            if (n < 0) {
+                _eof = true;
+                return false;
+            }
+            _limit += n;
+        }
+        return true;
+    }
+
+    /** Return the buffer holding the current token. */
+    char[] buffer() {
+        return _buf;
+    }
+
+    /** Return the index in buffer() of the start of the current token. */
+    int start() {
+        return _start;
+    }
+
+    /** Return the length of the current token. */
+    int length() {
+        return _pos - _start;
+    }
+
+    /** Return the length of the name of the current COMMAND token. */
+    int nameLength() {
+        return _nameLength;
+    }
+
+    /** Return the line number (from 1) of the start of the current
+     *  token. */
+    int line() {
+        return _line;
+    }
+
+    /** Return the column number (from 1) of the start of the current
+     *  token.  Each character, including a tab, counts as one column. */
+    int column() {
+        return (int) (_discarded + _start - _lineStart + 1);
+    }
+
+    /** Return the offset in the input (from 0) just past the current
+     *  token. */
+    long end() {
+        return _discarded + _pos;
+    }
+
+    /** Return true iff the current COMMAND token ended with '{'. */
+    boolean hasArgument() {
+        return _hasArgument;
+    }
+
+    /** Return the offset in the input just past the last character on
+     *  which the failure of the last failed readArgument depended,
+     *  counting the end of input as a character.  Changes to the input
+     *  at or beyond this offset could not have made it succeed. */
+    long argumentReach() {
+        return _reach;
+    }
+
+    /** Return the last IOException thrown by my Reader, or null if
+     *  there has been none.  Such an exception ends the input. */
+    IOException ioException() {
+        return _ioException;
+    }
+
+    /** Source of input, or null if all input is already in _buf. */
+    private final Reader _reader;
+    /** Input buffer.  _buf[_start .. _limit-1] is valid. */
+    private char[] _buf;
+    /** Start of the current token in _buf. */
+    private int _start;
+    /** Position of the next unscanned character in _buf. */
+    private int _pos;
+    /** End of valid input in _buf. */
+    private int _limit;
+    /** Length of the current command name. */
+    private int _nameLength;
+    /** True iff the current command has an argument. */
+    private boolean _hasArgument;
+    /** Reach of the last failed argument (see argumentReach). */
+    private long _reach;
+    /** Maximum length of an argument. */
+    private int _maxArgument = Defaults.MAX_ARGUMENT;
+    /** _unmatched[0 .. _unmatchedCount-1] are the offsets, in increasing
+     *  order, of the '{'s with no matching '}' from the last failed
+     *  argument to the end of input, starting with its own at offset
+     *  _unmatchedFrom (Long.MAX_VALUE if no argument has failed so).
+     *  _unmatchedNext is the first that may yet start an argument. */
+    private long[] _unmatched = new long[16];
+    /** See _unmatched. */
+    private int _unmatchedCount, _unmatchedNext;
+    /** See _unmatched. */
+    private long _unmatchedFrom = Long.MAX_VALUE;
+    /** Reach of the arguments that start at _unmatched. */
+    private long _unmatchedReach;
+    /** True when _reader is exhausted. */
+    private boolean _eof;
+    /** Number of characters discarded from the front of _buf. */
+    private long _discarded;
+    /** Line number of the current position. */
+    private int _line = 1;
+    /** Offset from the start of input (counting _discarded characters)
+     *  of the start of the current line. */
+    private long _lineStart;
+    /** Last exception from _reader. */
+    private IOException _ioException;
+
+}
@@ -1,12 +1,10 @@
 package tex61;
-import static java.lang.Integer.parseInt;
-import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.regex.MatchResult;
 
+import java.io.IOException;
 import java.io.Reader;
 
-import static tex61.FormatException.reportError;
+import static tex61.FormatException.error;
+
 
 /** Reads commands and text from an input source and send the results
  *  to a designated Controller. This essentially breaks the input down
@@ -16,171 +14,246 @@ import static tex61.FormatException.reportError;
 
 class InputParser {
 
-    /** Matches text between { } in a command, including the last
-     *  }, but not the opening {.  When matched, group 1 is the matched
-     *  text.  Always matches at least one character against a non-empty
-     *  string or input source. If it matches and group 1 is null, the
-     *  argument was not well-formed (the final } was missing or the
-     *  argument list was nested too deeply). */
-    private static final Pattern BALANCED_TEXT =
-        Pattern.compile("(?s)((?:\\\\.|[^\\\\{}]"
-                        + "|[{](?:\\\\.|[^\\\\{}])*[}])*)"
-                        + "\\}"
-                        + "|.");
-
-    /** Matches input to the text formatter.  Always matches something
-     *  in a non-empty string or input source.  After matching, one or
-     *  more of the groups described by *_TOKEN declarations will
-     *  be non-null.  See these declarations for descriptions of what
-     *  this pattern matches.  To test whether .group(*_TOKEN) is null
-     *  quickly, check for .end(*_TOKEN) > -1).  */
-    private static final Pattern INPUT_PATTERN =
-        Pattern.compile("(?s)(\\p{Blank}+)"
-                        + "|(\\r?\\n((?:\\r?\\n)+)?)"
-                        + "|\\\\([\\p{Blank}{}\\\\])"
-                        + "|\\\\(\\p{Alpha}+)([{]?)"
-                        + "|((?:[^\\p{Blank}\\r\\n\\\\{}]+))"
-                        + "|(.)");
-
-    /** Symbolic names for the groups in INPUT_PATTERN. */
-    private static final int
-        /** Blank or tab. */
-        BLANK_TOKEN = 1,
-        /** End of line or paragraph. */
-        EOL_TOKEN = 2,
-        /** End of paragraph (>1 newline). EOL_TOKEN group will also
-         *  be present. */
-        EOP_TOKEN = 3,
-        /** \{, \}, \\, or \ .  .group(ESCAPED_CHAR_TOKEN) will be the
-         *  character after the backslash. */
-        ESCAPED_CHAR_TOKEN = 4,
-        /** Command (\<alphabetic characters>).  .group(COMMAND_TOKEN)
-         *  will be the characters after the backslash.  */
-        COMMAND_TOKEN = 5,
-        /** A '{' immediately following a command. When this group is present,
-         *  .group(COMMAND_TOKEN) will also be present. */
-        COMMAND_ARG_TOKEN = 6,
-        /** Segment of other text (none of the above, not including
-         *  any of the special characters \, {, or }). */
-        TEXT_TOKEN = 7,
-        /** A character that should not be here. */
-        ERROR_TOKEN = 8;
-
     /** A new InputParser taking input from READER and sending tokens to
      *  OUT. */
     InputParser(Reader reader, Controller out) {
-        _input = new Scanner(reader);
+        this(reader, out, 1, 1);
+    }
+
+    /** A new InputParser taking input from READER, which starts at line
+     *  LINE and column COLUMN of some larger input, and sending tokens to
+     *  OUT. */
+    InputParser(Reader reader, Controller out, int line, int column) {
+        _lexer = new InputLexer(reader, line, column);
         _out = out;
+        _diagnostics = out.diagnostics();
+        _commands = out.commands();
+        _metrics = out.metrics();
     }
 
     /** A new InputParser whose input is TEXT and that sends tokens to
      *  OUT. */
     InputParser(String text, Controller out) {
-        _input = new Scanner(text);
+        this(text, out, 1, 1);
+    }
+
+    /** A new InputParser whose input is TEXT, found at line LINE and
+     *  column COLUMN of some larger input, and that sends tokens to
+     *  OUT. */
+    InputParser(String text, Controller out, int line, int column) {
+        _lexer = new InputLexer(text, line, column);
         _out = out;
+        _diagnostics = out.diagnostics();
+        _commands = out.commands();
+        _metrics = out.metrics();
+    }
+
+    /** Start again on input TEXT, found at line LINE and column COLUMN
+     *  of some larger input, reusing my lexer.  Only for parsers made
+     *  with text. */
+    void reset(CharSequence text, int line, int column) {
+        _lexer.reset(text, line, column);
+        _wrongInput = false;
+    }
+
+    /** Make MAX the maximum number of characters in a command argument
+     *  (initially Defaults.MAX_ARGUMENT).  A longer one is reported as
+     *  wrong, and ends the input. */
+    void setMaxArgument(int max) {
+        _lexer.setMaxArgument(max);
+    }
+
+    /** Report the start of each paragraph after the first to INDEX, or
+     *  to nothing if it is null.  Only for parsers of the main text. */
+    void setIndex(PageIndex.Builder index) {
+        _index = index;
     }
 
     /** Break all input source text into tokens, and send them to our
      *  output controller.  Finishes by calling .close on the controller.
      */
     void process() {
+        parse();
+        _out.close();
+    }
 
-        while (true) {
-            if (_input.findWithinHorizon(INPUT_PATTERN, 0) != null) {
-                MatchResult mat = _input.match();
-                String blankOrTab = mat.group(BLANK_TOKEN);
-                String endOfLineOrPar = mat.group(EOL_TOKEN);
-                String endOfPar = mat.group(EOP_TOKEN);
-                String escapedCharToken = mat.group(ESCAPED_CHAR_TOKEN);
-                String commandToken = mat.group(COMMAND_TOKEN);
-                String commandArgToken = mat.group(COMMAND_ARG_TOKEN);
-                String texToken = mat.group(TEXT_TOKEN);
-                String errorToken = mat.group(ERROR_TOKEN);
-                if (blankOrTab != null) {
-                    _out.endWord();
-                } else if (endOfLineOrPar != null
-                           && endOfPar == null) {
-                    _out.endWord();
-                } else if (endOfPar != null) {
-                    _out.endParagraph();
-                } else if (escapedCharToken != null) {
-                    _out.addText("\\" + escapedCharToken);
-                } else if (commandToken != null) {
-                    String command = commandToken;
-                    if (commandArgToken != null) {
-                        _input.findWithinHorizon(BALANCED_TEXT, 0);
-                        mat = _input.match();
-                        String args = mat.group(1);
-                        if (args == null || args.equals("")) {
-                            reportError("Wrong arguments.");
-                        } else {
-                            processCommand(command, args);
-                        }
-                    } else {
-                        processCommand(command, null);
-                    }
-                } else if (texToken != null) {
-                    _out.addText(texToken);
-                } else if (errorToken != null) {
-                    reportError("error: wrong input");
-                    break;
-                }
-            } else {
-                break;
+    /** Break all input source text into tokens, and send them to our
+     *  output controller, without closing it.  Returns false iff the
+     *  input ended early with a character that may not appear in it. */
+    boolean parse() {
+        while (step()) {
+            continue;
+        }
+        return !_wrongInput;
+    }
+
+    /** Process the next token of input, sending the results to our
+     *  output controller.  Returns false, having processed nothing, iff
+     *  the input has ended, either at its end or early, with a
+     *  character that may not appear in it. */
+    boolean step() {
+        InputLexer lexer = _lexer;
+        if (_wrongInput) {
+            return false;
+        }
+        int type = lexer.next();
+        if (_metrics != null) {
+            _metrics.add(Metrics.TOKENS + type, 1);
+        }
+        switch (type) {
+        case InputLexer.BLANK:
+        case InputLexer.EOL:
+            _out.endWord();
+            return true;
+        case InputLexer.EOP:
+            _out.endParagraph();
+            if (_index != null) {
+                _index.paragraphStarted(lexer.end(), lexer.line());
             }
+            return true;
+        case InputLexer.ESCAPED:
+        case InputLexer.TEXT:
+            _out.addText(lexer.buffer(), lexer.start(), lexer.length());
+            return true;
+        case InputLexer.COMMAND:
+            command();
+            return true;
+        case InputLexer.ERROR:
+            _wrongInput = true;
+            _line = lexer.line();
+            _column = lexer.column();
+            report(Diagnostics.WRONG_INPUT, null);
+            return false;
+        default:
+            return false;
         }
-        _out.close();
     }
 
+    /** Process the COMMAND token just scanned, and its argument, if
+     *  any.  The command is found, and its argument left, in the lexer's
+     *  buffer, so that nothing is allocated unless the command needs its
+     *  argument as a String or there is an error. */
+    private void command() {
+        InputLexer lexer = _lexer;
+        int nameLength = lexer.nameLength();
+        int id = _commands.id(lexer.buffer(), lexer.start() + 1, nameLength);
+        String unknown = id < 0
+            ? new String(lexer.buffer(), lexer.start() + 1, nameLength) : null;
+        _line = lexer.line();
+        _column = lexer.column();
+        _argBuf = null;
+        if (lexer.hasArgument()) {
+            _argLine = lexer.line();
+            _argColumn = _column + nameLength + 2;
+            int len = lexer.scanArgument();
+            if (len == InputLexer.TOO_LONG) {
+                _wrongInput = true;
+                _diagnostics.report(Diagnostics.WRONG_ARGUMENTS, _line,
+                                    _column,
+                                    "\\" + (id < 0 ? unknown
+                                             : _commands.name(id))
+                                    + ": too long");
+                return;
+            }
+            if (len <= 0) {
+                report(Diagnostics.WRONG_ARGUMENTS,
+                       id < 0 ? unknown : _commands.name(id));
+                return;
+            }
+            _argBuf = lexer.buffer();
+            _argStart = lexer.start();
+            _argLength = len;
+        }
+        if (id < 0) {
+            report(Diagnostics.WRONG_COMMAND, unknown);
+        } else {
+            execute(id);
+        }
+    }
 
-    /** Process \COMMAND{ARG} or (if ARG is null) \COMMAND.  Call the
-     *  appropriate methods in our Controller (_out). */
-    private void processCommand(String command, String arg) {
+    /** Return the IOException that ended my input early, or null if
+     *  there was none. */
+    IOException ioException() {
+        return _lexer.ioException();
+    }
+
+    /** Carry out the command whose ID in my CommandTable is ID, with the
+     *  argument, if any, set up by command. */
+    private void execute(int id) {
         try {
-            switch (command) {
-            case "indent":
-                _out.setIndentation(parseInt(arg));
-                break;
-            case "parindent":
-                _out.setParIndentation(parseInt(arg));
-                break;
-            case "textwidth":
-                _out.setTextWidth(parseInt(arg));
-                break;
-            case "textheight":
-                _out.setTextHeight(parseInt(arg));
-                break;
-            case "parskip":
-                _out.setParSkip(parseInt(arg));
-                break;
-            case "nofill":
-                _out.setFill(false);
-                break;
-            case "fill":
-                _out.setFill(true);
-                break;
-            case "justify":
-                _out.setJustify(true);
-                break;
-            case "nojustify":
-                _out.setJustify(false);
-                break;
-            case "endnote":
-                _out.formatEndnote(arg);
-                break;
-            default:
-                reportError("error: wrong command");
-                break;
-            }
-        } catch (FormatException e) {
-            reportError("error: command failed");
+            _commands.command(id).execute(this, _out);
+        } catch (FormatException | NumberFormatException e) {
+            report(Diagnostics.COMMAND_FAILED, _commands.name(id));
         }
+    }
+
+    /** Return true iff the command being executed has an argument. */
+    boolean hasArgument() {
+        return _argBuf != null;
+    }
+
+    /** Return the argument of the command being executed, or null if it
+     *  has none. */
+    String argument() {
+        return _argBuf == null ? null
+            : new String(_argBuf, _argStart, _argLength);
+    }
+
+    /** Return the argument of the command being executed as a decimal
+     *  integer, read without copying it.  Throws FormatException if
+     *  there is none, or it is not an integer. */
+    int intArgument() {
+        if (_argBuf == null) {
+            throw error("error: missing argument");
+        }
+        return CommandTable.parseInt(_argBuf, _argStart, _argLength);
+    }
+
+    /** Return the line of the argument of the command being executed (0
+     *  if unknown). */
+    int argumentLine() {
+        return _argLine;
+    }
+
+    /** Return the column of the argument of the command being executed
+     *  (0 if unknown). */
+    int argumentColumn() {
+        return _argColumn;
+    }
 
+    /** Report an error of kind KIND, with the name of COMMAND (if not
+     *  null) as its detail, at the start of the current token. */
+    private void report(int kind, String command) {
+        _diagnostics.report(kind, _line, _column,
+                            command == null ? null : "\\" + command);
     }
 
     /** My input source. */
-    private final Scanner _input;
+    private final InputLexer _lexer;
     /** The Controller to which I send input tokens. */
     private Controller _out;
+    /** Where I report errors. */
+    private final Diagnostics _diagnostics;
+    /** Line and column of the current token (0 if unknown). */
+    private int _line, _column;
+    /** Line and column of the current command's argument (0 if
+     *  unknown). */
+    private int _argLine, _argColumn;
+    /** True iff my input has ended early, with a character that may not
+     *  appear in it. */
+    private boolean _wrongInput;
+    /** The commands I know. */
+    private final CommandTable _commands;
+    /** Where I count my tokens, or null if I do not. */
+    private final Metrics _metrics;
+    /** Where I report the start of each paragraph, or null if
+     *  nowhere. */
+    private PageIndex.Builder _index;
+    /** The argument of the command being executed is
+     *  _argBuf[_argStart .. _argStart+_argLength-1]; _argBuf is null if
+     *  it has none. */
+    private char[] _argBuf;
+    /** See _argBuf. */
+    private int _argStart, _argLength;
 
 }
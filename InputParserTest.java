@@ -0,0 +1,285 @@
+package tex61;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of InputParsers, some against the PatternParser reference.
+ *  @author Eric Escobar
+ */
+
+public class InputParserTest {
+
+    /** Pieces of input from which test documents are made: the usual
+     *  ones, with other blanks and line ends, escapes, and bad
+     *  commands. */
+    private static final String[] PIECES = TestDocuments.piecesWith(
+        "\t", "\r\n", "\n \n\n", "\r\n\r\n", "\\{", "\\}", "\\\\", "\\ ",
+        "\\nofill", "\\parskip{0}", "\\indent{}", "\\indent{-1}",
+        "\\endnote{with {nested} \\} text}", "\\bogus");
+
+    /** Return the lines formatted from INPUT, read through READER, by
+     *  a PatternParser iff USEPATTERN, and otherwise by an InputParser.
+     *  Sets diagnostics to the errors reported. */
+    private List<String> format(Reader reader, boolean usePattern) {
+        List<String> lines = new ArrayList<>();
+        diagnostics = new Diagnostics(null, errors, false,
+                                      Diagnostics.DEFAULT_LIMIT);
+        Controller cntrl =
+            new Controller(new PageCollector(lines), null, diagnostics);
+        if (usePattern) {
+            new PatternParser(reader, cntrl).process();
+        } else {
+            new InputParser(reader, cntrl).process();
+        }
+        return lines;
+    }
+
+    /** A Reader that delivers its text one character at a time. */
+    private static class TrickleReader extends StringReader {
+        TrickleReader(String text) {
+            super(text);
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws
+            java.io.IOException {
+            return super.read(buf, off, Math.min(len, 1));
+        }
+    }
+
+    @Test
+    public void testLexerMatchesPattern() {
+        Random r = new Random(61);
+        for (int k = 0; k < 200; k += 1) {
+            String input =
+                TestDocuments.makeInput(r, 1 + r.nextInt(300), PIECES);
+            List<String> expected = format(new StringReader(input), true);
+            int errors1 = diagnostics.total();
+            assertEquals("wrong lines: " + input, expected,
+                         format(new StringReader(input), false));
+            int errors2 = diagnostics.total();
+            assertEquals("wrong error count: " + input, errors1, errors2);
+            assertEquals("wrong lines (trickle): " + input, expected,
+                         format(new TrickleReader(input), false));
+        }
+    }
+
+    @Test
+    public void testArgumentAtEnd() {
+        List<String> lines = format(new StringReader("a b \\fill"), false);
+        assertEquals("wrong output", 1, lines.size());
+        assertEquals("wrong output", "   a b", lines.get(0));
+        lines = format(new StringReader("a b \\indent{3 c "), false);
+        assertEquals("wrong output", "   a b c", lines.get(0));
+    }
+
+    @Test
+    public void testErrorPositions() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        errors = new PrintStream(bytes, true);
+        format(new StringReader("a \\bogus b\n  \\indent{x}\n\n"
+                                + "\\endnote{x\n y \\parskip{}} c\n}"),
+               false);
+        assertEquals("wrong errors",
+                     "1:3: error: wrong command (\\bogus)\n"
+                     + "2:3: error: command failed (\\indent)\n"
+                     + "5:4: Wrong arguments. (\\parskip)\n"
+                     + "6:1: error: wrong input\n",
+                     bytes.toString().replace("\r", ""));
+        assertEquals("wrong totals",
+                     "4 errors (1 wrong arguments, 1 wrong input, "
+                     + "1 wrong command, 1 command failed)",
+                     diagnostics.totals());
+    }
+
+    @Test
+    public void testErrorLimit() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        errors = new PrintStream(bytes, true);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i += 1) {
+            input.append("\\bogus ");
+        }
+        format(new StringReader(input.toString()), false);
+        assertEquals("wrong count", 1000,
+                     diagnostics.count(Diagnostics.WRONG_COMMAND));
+        String[] lines = bytes.toString().split("\r?\n");
+        assertEquals("wrong number of lines", Diagnostics.DEFAULT_LIMIT + 1,
+                     lines.length);
+        assertEquals("wrong note", "900 more 'wrong command' errors not shown",
+                     lines[lines.length - 1]);
+    }
+
+    @Test
+    public void testHugeErrorLimit() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        diagnostics = new Diagnostics(null, new PrintStream(bytes, true),
+                                      false, Integer.MAX_VALUE);
+        Controller cntrl =
+            new Controller(new PageCollector(new ArrayList<>()), null,
+                           diagnostics);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i += 1) {
+            input.append("\\bogus ");
+        }
+        new InputParser(new StringReader(input.toString()), cntrl)
+            .process();
+        assertEquals(1000, diagnostics.count(Diagnostics.WRONG_COMMAND));
+        assertEquals(1000, bytes.toString().split("\r?\n").length);
+    }
+
+    @Test
+    public void testRegisteredCommand() {
+        List<String> lines = new ArrayList<>();
+        diagnostics = new Diagnostics(null, errors, false,
+                                      Diagnostics.DEFAULT_LIMIT);
+        Controller cntrl =
+            new Controller(new PageCollector(lines), null, diagnostics);
+        cntrl.commands().register("twice", (p, out) -> {
+                out.addText(p.argument());
+                out.endWord();
+                out.addText(p.argument());
+            });
+        cntrl.commands().register("indent",
+                                  (p, out) -> out.setIndentation(
+                                      2 * p.intArgument()));
+        new InputParser(new StringReader("\\indent{2}a \\twice{b}"
+                                         + "\\endnote{\\twice{c}}\n\n"),
+                        cntrl).process();
+        assertEquals(0, diagnostics.total());
+        assertEquals(format(new StringReader("\\indent{4}a b b"
+                                             + "\\endnote{c c}\n\n"),
+                            false),
+                     lines);
+    }
+
+    /** Pieces of input from which documents with malformed arguments
+     *  are made. */
+    private static final String[] BRACES = {
+        "\\a{", "\\bc{", "{", "}", "}", "\\{", "\\}", "\\\\", "x", " ",
+        "\n",
+    };
+
+    /** Return the length of the argument of TEXT that starts at FROM,
+     *  found the simplest way, or -1 if it has no closing brace. */
+    private static int argumentLength(String text, int from) {
+        int depth = 0;
+        for (int i = from; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '{') {
+                depth += 1;
+            } else if (c == '}' && depth == 0) {
+                return i - from;
+            } else if (c == '}') {
+                depth -= 1;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testNestedArguments() {
+        Random r = new Random(61);
+        for (int k = 0; k < 300; k += 1) {
+            StringBuilder s = new StringBuilder();
+            for (int n = r.nextInt(200); n > 0; n -= 1) {
+                s.append(BRACES[r.nextInt(BRACES.length)]);
+            }
+            String text = s.toString();
+            for (InputLexer lexer
+                     : new InputLexer[] { new InputLexer(text),
+                                          new InputLexer(
+                                              new TrickleReader(text)) }) {
+                int type;
+                while ((type = lexer.next()) != InputLexer.EOF) {
+                    if (type == InputLexer.COMMAND && lexer.hasArgument()) {
+                        int from = (int) lexer.end();
+                        assertEquals("argument at " + from + " of " + text,
+                                     argumentLength(text, from),
+                                     lexer.scanArgument());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeepArgument() {
+        List<String> lines = new ArrayList<>();
+        diagnostics = new Diagnostics(null, errors, false,
+                                      Diagnostics.DEFAULT_LIMIT);
+        Controller cntrl =
+            new Controller(new PageCollector(lines), null, diagnostics);
+        cntrl.commands().register("text",
+                                  (p, out) -> out.addText(p.argument()));
+        StringBuilder input = new StringBuilder("\\text{");
+        for (int i = 0; i < 5000; i += 1) {
+            input.append("{\\{");
+        }
+        for (int i = 0; i < 5000; i += 1) {
+            input.append("\\}}");
+        }
+        input.append("} \\text{a} {");
+        new InputParser(new StringReader(input.toString()), cntrl).process();
+        assertEquals(1, diagnostics.total());
+        assertEquals(3, lines.size());
+        assertEquals(30003, lines.get(0).length());
+        assertTrue(lines.get(0).endsWith("\\}}"));
+        assertEquals("   a", lines.get(2));
+    }
+
+    @Test
+    public void testNestedEndnotes() {
+        assertEquals(List.of("   Main [1] more.", "[1] outer [2] tail ",
+                             "[2] inner "),
+                     TestDocuments.format("Main \\endnote{outer "
+                                          + "\\endnote{inner} tail} "
+                                          + "more.\n"));
+        assertEquals(List.of("   A[1] B[5].", "[1] x [2] [3] ",
+                             "[2] y [4] ", "[3] v ", "[4] z ", "[5] last "),
+                     TestDocuments.format("A\\endnote{x \\endnote{y "
+                                          + "\\endnote{z}} \\endnote{v}} "
+                                          + "B\\endnote{last}.\n"));
+    }
+
+    @Test
+    public void testArgumentTooLong() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        errors = new PrintStream(bytes, true);
+        List<String> lines = new ArrayList<>();
+        diagnostics = new Diagnostics(null, errors, false,
+                                      Diagnostics.DEFAULT_LIMIT);
+        Controller cntrl =
+            new Controller(new PageCollector(lines), null, diagnostics);
+        cntrl.commands().register("text",
+                                  (p, out) -> out.addText(p.argument()));
+        InputParser parser =
+            new InputParser(new StringReader("a \\text{0123{56}89} b\n"
+                                             + " \\text{0123{56}89x} c"),
+                            cntrl);
+        parser.setMaxArgument(10);
+        parser.process();
+        assertEquals(List.of("   a 0123{56}89 b"), lines);
+        assertEquals("2:2: Wrong arguments. (\\text: too long)\n",
+                     bytes.toString().replace("\r", ""));
+    }
+
+    /** Destination of error messages: nowhere, except in tests that
+     *  check them. */
+    private PrintStream errors =
+        new PrintStream(OutputStream.nullOutputStream());
+    /** Errors reported by the last call to format. */
+    private Diagnostics diagnostics;
+
+}
@@ -1,6 +1,6 @@
 package tex61;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import static tex61.FormatException.error;
 
 /** An object that receives a sequence of words of text and formats
@@ -10,13 +10,23 @@ import static tex61.FormatException.error;
  */
 
 class LineAssembler {
-    /** Stores all words in a line object. */
-    private ArrayList<String> wordArray = new ArrayList<String>();
-    /** Stores all lines in a line object. */
-    private ArrayList<String> lineArray = new ArrayList<String>();
-
-    /** Defaults variables. */
-    private int textHeight = Defaults.TEXT_HEIGHT;
+    /** Characters of the words accumulated for the current line, followed
+     *  by those of the word being built: the words end at
+     *  wordEnds[0 .. wordCount-1], and the current word runs from the end
+     *  of the last of them to charCount. */
+    private char[] wordChars = new char[128];
+    /** End of each accumulated word in wordChars. */
+    private int[] wordEnds = new int[16];
+    /** Width of each accumulated word, for the purposes of filling, as
+     *  measured by _measurer: words added by addWord have width 0. */
+    private int[] wordWidths = new int[16];
+    /** Number of accumulated words. */
+    private int wordCount;
+    /** Number of characters used in wordChars. */
+    private int charCount;
+    /** Buffer in which output lines are built.  Position 0 is reserved
+     *  for a form feed. */
+    private char[] lineChars = new char[128];
     /** default for paragraph skip. */
     private int parSkip = Defaults.PARAGRAPH_SKIP;
     /** default for indentation. */
@@ -26,25 +36,33 @@ class LineAssembler {
     /** default for text width. */
     private int textWidth = Defaults.TEXT_WIDTH;
 
-    /** start of current word. */
-    private String currentWord = "";
     /** keeps track of current character length. */
     private int currentCharLength;
-    /** keeps track of current page. */
-    private boolean currentPage;
     /** keeps track of current paragraph. */
     private boolean currentParagraph;
     /** keeps track of fill mode. */
     private boolean fillMode;
     /** keeps track of justify mode. */
     private boolean justifyMode;
+    /** True iff filled paragraphs are broken by optimalBreaker rather
+     *  than greedily. */
+    private boolean optimalMode;
+    /** True iff words that do not fit on a line are hyphenated, in
+     *  filled paragraphs broken greedily. */
+    private boolean hyphenMode;
+    /** Line breaker for optimal mode, created when first needed. */
+    private OptimalLineBreaker optimalBreaker;
+
+    /** In optimal mode, the greatest number of words held before the
+     *  lines found so far (but the last) are sent on, which bounds the
+     *  lookahead of the line breaker. */
+    static final int MAX_OPTIMAL_WORDS = 1024;
 
 
     /** A new, empty line assembler with default settings of all
      *  parameters, sending finished lines to PAGES. */
     LineAssembler(PageAssembler pages) {
         _pages = pages;
-        textHeight = Defaults.TEXT_HEIGHT;
         parSkip = Defaults.PARAGRAPH_SKIP;
         inDent = Defaults.INDENTATION;
         parIndent = Defaults.PARAGRAPH_INDENTATION;
@@ -52,6 +70,8 @@ class LineAssembler {
         fillMode = true;
         justifyMode = true;
         currentParagraph = true;
+        _initial = parameters();
+        beginParagraphEvent();
     }
 
     /** new lineAssembler object for dealing with end notes.
@@ -65,35 +85,159 @@ class LineAssembler {
             parSkip = Defaults.ENDNOTE_PARAGRAPH_SKIP;
             parIndent = Defaults.ENDNOTE_PARAGRAPH_INDENTATION;
         }
+        _endnote = endNoteOn;
+        _initial = parameters();
+    }
+
+    /** Start again, with no text, at the start of a paragraph, with the
+     *  settings I was created with, keeping the space I have allocated.
+     *  Subtypes that hold text of their own must override this. */
+    void reset() {
+        setParameters(_initial);
+        wordCount = 0;
+        charCount = 0;
+        currentCharLength = 0;
+        currentParagraph = true;
+        _paragraphs = 0;
+        beginParagraphEvent();
+    }
+
+    /** Count what I do in METRICS, or nothing if it is null. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Measure the widths of words with MEASURER, from the next word
+     *  finished on. */
+    void setMeasurer(WidthMeasurer measurer) {
+        _measurer = measurer;
+    }
+
+    /** Return what measures the widths of my words. */
+    WidthMeasurer measurer() {
+        return _measurer;
+    }
+
+    /** Find where words may be hyphenated with HYPHENATOR. */
+    void setHyphenator(Hyphenator hyphenator) {
+        _hyphenator = hyphenator;
     }
 
     /** Add TEXT to the word currently being built. */
     void addText(String text) {
-        currentWord += text;
+        int len = text.length();
+        reserveChars(len);
+        text.getChars(0, len, wordChars, charCount);
+        charCount += len;
+    }
+
+    /** Add BUF[OFF .. OFF+LEN-1] to the word currently being built. */
+    void addText(char[] buf, int off, int len) {
+        reserveChars(len);
+        System.arraycopy(buf, off, wordChars, charCount, len);
+        charCount += len;
+    }
+
+    /** Make room for at least N more characters in wordChars. */
+    private void reserveChars(int n) {
+        if (charCount + n > wordChars.length) {
+            wordChars = Arrays.copyOf(wordChars,
+                                      Math.max(charCount + n,
+                                               2 * wordChars.length));
+        }
+    }
+
+    /** Return the index in wordChars of the end of the accumulated words
+     *  (and so the start of the current word). */
+    private int wordsEnd() {
+        return wordCount == 0 ? 0 : wordEnds[wordCount - 1];
+    }
+
+    /** Return the width of the current word. */
+    private int wordWidth() {
+        int start = wordsEnd();
+        return _measurer.width(wordChars, start, charCount - start);
+    }
+
+    /** Add the current word (possibly empty), of width WIDTH, to the
+     *  accumulated words. */
+    private void commitWord(int width) {
+        if (charCount > wordsEnd()) {
+            _paragraphWords += 1;
+        }
+        currentCharLength += width;
+        addWordEnd(charCount, width);
+    }
+
+    /** Record END as the end of a new accumulated word of width WIDTH. */
+    private void addWordEnd(int end, int width) {
+        if (wordCount == wordEnds.length) {
+            wordEnds = Arrays.copyOf(wordEnds, 2 * wordCount);
+            wordWidths = Arrays.copyOf(wordWidths, 2 * wordCount);
+        }
+        wordEnds[wordCount] = end;
+        wordWidths[wordCount] = width;
+        wordCount += 1;
     }
 
     /** Finish the current word, if any, and add to words being accumulated. */
     void finishWord() {
         int indentNumber = indentSize();
-        if (currentWord == null || currentWord.equals("")) {
+        if (charCount == wordsEnd()) {
             return;
         }
-        if (wordArray.isEmpty()
-            && (currentWord.length() + indentNumber) > textWidth) {
-            wordArray.add(currentWord);
-            currentCharLength += currentWord.length();
-            beginLine(false);
-        } else if ((currentWord.length() + indentNumber
-                    + currentCharLength + wordArray.size()) > textWidth) {
-            String newWord = currentWord;
-            beginLine(false);
-            wordArray.add(newWord);
-            currentCharLength += newWord.length();
+        int wordLength = wordWidth();
+        if (optimalMode && fillMode) {
+            commitWord(wordLength);
+            if (wordCount >= MAX_OPTIMAL_WORDS) {
+                breakOptimally(false, false);
+            }
+        } else if (wordCount == 0
+            && (wordLength + indentNumber) > textWidth) {
+            if (!hyphenate(textWidth - indentNumber)) {
+                commitWord(wordLength);
+                beginLine(false);
+            }
+        } else if ((wordLength + indentNumber
+                    + currentCharLength + wordCount) > textWidth) {
+            if (!hyphenate(textWidth - indentNumber - currentCharLength
+                           - wordCount)) {
+                breakLine(false);
+                commitWord(wordLength);
+            }
         } else {
-            wordArray.add(currentWord);
-            currentCharLength += currentWord.length();
+            commitWord(wordLength);
         }
-        currentWord = "";
+    }
+
+    /** In hyphenation mode, if the current word, which is too wide for
+     *  the current line, has a break point before which it fits in ROOM
+     *  columns with a hyphen, put it there, ending the line, and finish
+     *  the rest of it as a word in turn.  Returns true iff it was
+     *  broken. */
+    private boolean hyphenate(int room) {
+        if (!hyphenMode || !fillMode) {
+            return false;
+        }
+        int start = wordsEnd();
+        int[] breaks = _hyphenator.breaks(wordChars, start, charCount - start);
+        for (int k = breaks.length - 1; k >= 0; k -= 1) {
+            int split = start + breaks[k];
+            int width = _measurer.width(wordChars, start, breaks[k]) + 1;
+            if (width <= room) {
+                reserveChars(1);
+                System.arraycopy(wordChars, split, wordChars, split + 1,
+                                 charCount - split);
+                wordChars[split] = '-';
+                charCount += 1;
+                currentCharLength += width;
+                addWordEnd(split + 1, width);
+                breakLine(false);
+                finishWord();
+                return true;
+            }
+        }
+        return false;
     }
 
     /** return the indentation size. */
@@ -106,40 +250,75 @@ class LineAssembler {
         }
     }
 
-    /** Add WORD to the formatted text. */
+    /** Add WORD to the formatted text, ahead of any word being built.  As
+     *  for a reference mark, its length does not count towards the
+     *  width of the line. */
     void addWord(String word) {
-        wordArray.add(word);
+        int len = word.length();
+        int end = wordsEnd();
+        reserveChars(len);
+        System.arraycopy(wordChars, end, wordChars, end + len,
+                         charCount - end);
+        word.getChars(0, len, wordChars, end);
+        charCount += len;
+        addWordEnd(end + len, 0);
     }
 
     /** Add LINE to our output, with no preceding paragraph skip.  There must
      *  not be an unfinished line pending. */
     void addLine(String line) {
-        if (wordArray.isEmpty()) {
-            appendToLine(line);
+        if (wordCount == 0) {
+            int len = line.length();
+            reserveLine(len);
+            line.getChars(0, len, lineChars, 1);
+            appendToLine(len);
         }
     }
 
-    /** @param line gets added to page. */
-    private void appendToLine(String line) {
-        if (currentParagraph && !lineArray.isEmpty()) {
-            for (int i = 0; i < parSkip; i += 1) {
-                lineArray.add("");
-            }
-            currentParagraph = false;
-        }
-        if (currentPage) {
-            lineArray.add('\f' + line);
-            currentPage = false;
-        } else {
-            lineArray.add(line);
+    /** Make room for a line of N characters in lineChars. */
+    private void reserveLine(int n) {
+        if (n + 1 > lineChars.length) {
+            lineChars = new char[Math.max(n + 1, 2 * lineChars.length)];
         }
-        if (lineArray.size() == textHeight) {
-            currentPage = true;
+    }
+
+    /** Send the line of LEN characters at lineChars[1] to _pages, preceded
+     *  by any paragraph skip that it needs.  The line is final once it is
+     *  passed here, so it is written immediately rather than held until
+     *  finalOutput.  The PageAssembler adds any form feed in lineChars[0].
+     */
+    private void appendToLine(int len) {
+        if (currentParagraph && _pages.lineCount() > 0) {
+            _pages.addBlankLines(parSkip);
+            currentParagraph = false;
         }
+        _pages.addLine(lineChars, 1, len);
+        _paragraphLines += 1;
+    }
+
+    /** Return my current formatting parameters. */
+    Parameters parameters() {
+        return new Parameters(parSkip, inDent, parIndent, textWidth,
+                              fillMode, justifyMode, optimalMode,
+                              hyphenMode);
     }
+
+    /** Set my formatting parameters to PARAMS. */
+    void setParameters(Parameters params) {
+        parSkip = params.parSkip;
+        inDent = params.indentation;
+        parIndent = params.parIndentation;
+        textWidth = params.textWidth;
+        fillMode = params.fill;
+        justifyMode = params.justify;
+        optimalMode = params.optimal;
+        hyphenMode = params.hyphenate;
+    }
+
     /** Set the current indentation to VAL. VAL >= 0. */
     void setIndentation(int val) {
         if (val >= 0) {
+            settle();
             inDent = val;
         } else {
             throw error("error: wrong indentation");
@@ -149,6 +328,7 @@ class LineAssembler {
     /** Set the current paragraph indentation to VAL. VAL >= 0. */
     void setParIndentation(int val) {
         if (val >= 0) {
+            settle();
             parIndent = val;
         } else {
             throw error("error: wrong indentation");
@@ -158,6 +338,7 @@ class LineAssembler {
     /** Set the text width to VAL, where VAL >= 0. */
     void setTextWidth(int val) {
         if (val >= 0) {
+            settle();
             textWidth = val;
         } else {
             throw error("error: wrong width");
@@ -166,6 +347,7 @@ class LineAssembler {
 
     /** Iff ON, set fill mode. */
     void setFill(boolean on) {
+        settle();
         fillMode = on;
         if (!on) {
             justifyMode = false;
@@ -178,9 +360,33 @@ class LineAssembler {
         if (!fillMode) {
             return;
         }
+        settle();
         justifyMode = on;
     }
 
+    /** Iff ON, break filled paragraphs into lines so as to minimize their
+     *  total badness, rather than greedily. */
+    void setOptimal(boolean on) {
+        settle();
+        optimalMode = on;
+    }
+
+    /** Iff ON, hyphenate words that do not fit on a line of a filled
+     *  paragraph broken greedily, where _hyphenator allows. */
+    void setHyphenate(boolean on) {
+        settle();
+        hyphenMode = on;
+    }
+
+    /** In optimal mode, send on all lines of the words accumulated so
+     *  far but the last, so that a change of parameters affects only
+     *  the words that follow it, as in greedy mode. */
+    private void settle() {
+        if (optimalMode && fillMode && wordCount > 1) {
+            breakOptimally(false, false);
+        }
+    }
+
     /** Set paragraph skip to VAL.  VAL >= 0. */
     void setParSkip(int val) {
         if (val >= 0) {
@@ -192,11 +398,7 @@ class LineAssembler {
 
     /** Set page height to VAL > 0. */
     void setTextHeight(int val) {
-        if (val > 0) {
-            textHeight = val;
-        } else {
-            throw error("error: wrong text heigth");
-        }
+        _pages.setTextHeight(val);
     }
 
     /** Process the end of the current input line.  No effect if
@@ -204,8 +406,64 @@ class LineAssembler {
      *  adds a new complete line to the finished line queue and clears
      *  @param startLine the line accumulator. */
     void beginLine(boolean startLine) {
-        if (wordArray.size() > 0) {
-            int wordSize = wordArray.size();
+        if (wordCount > 0) {
+            if (optimalMode && fillMode) {
+                breakOptimally(true, startLine);
+            } else {
+                breakLine(startLine);
+            }
+            charCount = 0;
+        }
+    }
+
+    /** Break the accumulated words into lines with optimalBreaker, and
+     *  send them on, justifying all but the last.  Iff ALL, send the
+     *  last line too, justified unless STARTLINE; otherwise keep its
+     *  words.  An empty last word (as left by endParagraph) always stays
+     *  on the last line, as it does in greedy mode. */
+    private void breakOptimally(boolean all, boolean startLine) {
+        int stage = _metrics == null ? 0 : _metrics.enter(Metrics.LAYOUT);
+        if (optimalBreaker == null) {
+            optimalBreaker = new OptimalLineBreaker();
+        }
+        int first = indentSize();
+        int second = currentParagraph && _pages.lineCount() == 0
+            ? first : inDent;
+        int n = wordCount;
+        if (n > 1 && wordEnds[n - 1] == wordEnds[n - 2]) {
+            n -= 1;
+        }
+        int lines = optimalBreaker.breakLines(wordWidths, n, textWidth,
+                                              first, second, inDent);
+        int done = 0;
+        for (int k = 1; k < lines; k += 1) {
+            int count = optimalBreaker.start(k) - done;
+            int width = 0;
+            for (int i = 0; i < count; i += 1) {
+                width += wordWidths[i];
+            }
+            int indent = indentSize();
+            int spaces = justifyMode ? textWidth - width - indent
+                : count - 1;
+            emitLine(count, indent,
+                     Math.min(spaces, 3 * (count - 1)));
+            done += count;
+        }
+        if (all) {
+            breakLine(startLine);
+        }
+        if (_metrics != null) {
+            _metrics.enter(stage);
+        }
+    }
+
+    /** Output the accumulated words as a line, justified unless STARTLINE,
+     *  keeping any word being built. */
+    private void breakLine(boolean startLine) {
+        if (wordCount > 0) {
+            int stage =
+                _metrics == null ? 0 : _metrics.enter(Metrics.LAYOUT);
+            int wordSize = wordCount;
             int indentNumber = indentSize();
             int totalSpaces = textWidth - currentCharLength - indentNumber;
             if (!justifyMode || startLine) {
@@ -214,58 +472,131 @@ class LineAssembler {
             if (totalSpaces > 3 * (wordSize - 1)) {
                 totalSpaces = 3 * (wordSize - 1);
             }
-            emitLine(indentNumber, totalSpaces);
+            emitLine(wordCount, indentNumber, totalSpaces);
+            if (_metrics != null) {
+                _metrics.enter(stage);
+            }
         }
     }
 
-    /** When finished, sends to output. */
+    /** When finished, sends any pending line to output.  All earlier
+     *  lines have already been written. */
     void finalOutput() {
         beginLine(true);
-        for (String line : lineArray) {
-            _pages.write(line);
-        }
+        paragraphDone();
     }
 
     /** If there is a current unfinished paragraph pending, close it
      *  out and start a new one. */
     public void endParagraph() {
-        wordArray.add(currentWord);
-        currentCharLength += currentWord.length();
+        commitWord(wordWidth());
         beginLine(true);
         currentParagraph = true;
+        paragraphDone();
     }
 
-    /** Transfer contents of _words to _pages, adding INDENT characters of
-     *  indentation, and a total of SPACES spaces between words, evenly
-     *  distributed.  Assumes _words is not empty.  Clears _words and _chars. */
-    private void emitLine(int indent, int spaces) {
-        int moreSpaces = 0;
-        int spacesTotal = 0;
-        String newLine = "";
-        double spacesToDouble = (double) spaces;
+    /** Count the paragraph just finished, if it produced any lines, and
+     *  commit its ParagraphEvent. */
+    private void paragraphDone() {
+        if (_paragraphLines > 0) {
+            _paragraphs += 1;
+            if (_metrics != null) {
+                _metrics.add(Metrics.WORDS, _paragraphWords);
+                _metrics.add(Metrics.PARAGRAPHS, 1);
+            }
+            if (_paragraphEvent != null) {
+                Metrics.ParagraphEvent event = _paragraphEvent;
+                event.number = _paragraphs;
+                event.endnote = _endnote;
+                event.words = _paragraphWords;
+                event.lines = _paragraphLines;
+                event.fill = fillMode;
+                event.optimal = optimalMode;
+                event.commit();
+            }
+            beginParagraphEvent();
+        }
+    }
+
+    /** Start counting the words and lines of a new paragraph, and, if
+     *  JFR records them, start its ParagraphEvent. */
+    private void beginParagraphEvent() {
+        _paragraphWords = 0;
+        _paragraphLines = 0;
+        Metrics.ParagraphEvent event = new Metrics.ParagraphEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            _paragraphEvent = event;
+        } else {
+            _paragraphEvent = null;
+        }
+    }
+
+    /** Transfer the first COUNT accumulated words to _pages, adding
+     *  INDENT characters of indentation, and a total of SPACES spaces
+     *  between words, evenly distributed.  Assumes COUNT > 0.  Moves the
+     *  remaining words, and any word being built, to the start of
+     *  wordChars.  The gap before word K is the rounded value of
+     *  SPACES * K / (COUNT - 1) less the spaces already placed, computed
+     *  in integers. */
+    private void emitLine(int count, int indent, int spaces) {
+        int wordSize = count;
+        int end = wordEnds[count - 1];
+        reserveLine(Math.max(indent, 0) + end + Math.max(spaces, 0));
+        char[] line = lineChars;
+        int len = 1;
         for (int i = 0; i < indent; i += 1) {
-            newLine += " ";
+            line[len] = ' ';
+            len += 1;
         }
-        int wordSize = wordArray.size();
-        newLine += wordArray.get(0);
-        for (int k = 1; k < wordSize; k += 1) {
-            double currentSpaces = 0.5 + spacesToDouble
-                * (double) k / ((double) wordSize - 1.0);
-            moreSpaces = (int) currentSpaces;
-            for (int j = 0; j < moreSpaces - spacesTotal; j += 1) {
-                newLine += " ";
+        int start = 0;
+        long gaps = 2L * (wordSize - 1);
+        int spacesTotal = 0;
+        for (int k = 0; k < wordSize; k += 1) {
+            if (k > 0) {
+                int moreSpaces = (int) ((2L * spaces * k + wordSize - 1)
+                                        / gaps);
+                for (int j = spacesTotal; j < moreSpaces; j += 1) {
+                    line[len] = ' ';
+                    len += 1;
+                }
+                spacesTotal = moreSpaces;
             }
-            newLine += wordArray.get(k);
-            spacesTotal = moreSpaces;
+            int wordEnd = wordEnds[k];
+            System.arraycopy(wordChars, start, line, len, wordEnd - start);
+            len += wordEnd - start;
+            start = wordEnd;
         }
+        appendToLine(len - 1);
+        System.arraycopy(wordChars, end, wordChars, 0, charCount - end);
+        charCount -= end;
         currentCharLength = 0;
-        appendToLine(newLine);
-        currentWord = "";
-        wordArray.clear();
-
+        for (int k = count; k < wordCount; k += 1) {
+            wordEnds[k - count] = wordEnds[k] - end;
+            wordWidths[k - count] = wordWidths[k];
+            currentCharLength += wordWidths[k];
+        }
+        wordCount -= count;
     }
 
     /** Destination given in constructor for formatted lines. */
     private final PageAssembler _pages;
+    /** The settings I was created with. */
+    private Parameters _initial;
+    /** True iff I lay out endnotes. */
+    private boolean _endnote;
+    /** Where I count what I do, or null if I do not. */
+    private Metrics _metrics;
+    /** What measures the widths of words. */
+    private WidthMeasurer _measurer = DisplayWidth.DEFAULT;
+    /** What finds where words may be hyphenated. */
+    private Hyphenator _hyphenator = Hyphenator.DEFAULT;
+    /** Number of paragraphs finished. */
+    private int _paragraphs;
+    /** Number of words and lines of the current paragraph so far. */
+    private int _paragraphWords, _paragraphLines;
+    /** The JFR event of the current paragraph, or null if JFR is not
+     *  recording paragraphs. */
+    private Metrics.ParagraphEvent _paragraphEvent;
 
 }
@@ -0,0 +1,243 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A PageAssembler that holds the lines written to it until they are
+ *  sent on, in order, by drainTo: in memory while they are few, and
+ *  beyond a limit in a temporary file, so that a document with a great
+ *  many endnotes needs no more than the limit's worth of heap for them.
+ *  The file holds the lines' characters as raw UTF-16, each line ended by
+ *  a newline (which formatted lines never contain), and is deleted when
+ *  the lines are drained or discarded.  Errors using the file are thrown
+ *  as UncheckedIOExceptions.
+ */
+class LineSpool extends PageAssembler {
+
+    /** Default number of characters held in memory. */
+    static final int DEFAULT_LIMIT = 1 << 20;
+
+    /** Size of the buffer used for the file. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** A new, empty LineSpool that holds DEFAULT_LIMIT characters in
+     *  memory. */
+    LineSpool() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /** A new, empty LineSpool that holds at most about LIMIT characters
+     *  in memory. */
+    LineSpool(int limit) {
+        _limit = limit;
+    }
+
+    /** Hold LINE. */
+    @Override
+    void write(String line) {
+        _count += 1;
+        if (_file == null) {
+            _lines.add(line);
+            _chars += line.length();
+            if (_chars > _limit) {
+                spill();
+            }
+        } else {
+            for (int i = 0; i < line.length(); i += 1) {
+                put(line.charAt(i));
+            }
+            put('\n');
+        }
+    }
+
+    /** Hold the line in BUF[OFF .. OFF+LEN-1]. */
+    @Override
+    void write(char[] buf, int off, int len) {
+        if (_file == null) {
+            write(new String(buf, off, len));
+        } else {
+            _count += 1;
+            for (int i = off; i < off + len; i += 1) {
+                put(buf[i]);
+            }
+            put('\n');
+        }
+    }
+
+    /** Return the number of lines held. */
+    int size() {
+        return _count;
+    }
+
+    /** Return true iff my lines have been moved to a file. */
+    boolean spilled() {
+        return _file != null;
+    }
+
+    /** Send all my lines, in order, to PAGES's write method, as they
+     *  have already been paginated, and then discard them. */
+    void drainTo(PageAssembler pages) {
+        try {
+            drainTo(pages, Integer.MAX_VALUE);
+        } finally {
+            discard();
+        }
+    }
+
+    /** Send at most MAX of my lines not yet sent, in order, to PAGES's
+     *  write method, and return the number sent, which is less than MAX
+     *  only if all have now been sent.  No lines may be written to me
+     *  once this has been called. */
+    int drainTo(PageAssembler pages, int max) {
+        int n;
+        if (_file == null) {
+            for (n = 0; n < max && _next < _lines.size(); n += 1) {
+                pages.write(_lines.set(_next, null));
+                _next += 1;
+            }
+            return n;
+        }
+        try {
+            if (_in == null) {
+                flushBuffer();
+                _out.close();
+                _out = null;
+                _in = FileChannel.open(_file);
+                _buffer.flip();
+            }
+            n = 0;
+            while (n < max) {
+                if (_buffer.remaining() < 2) {
+                    _buffer.compact();
+                    int k = _in.read(_buffer);
+                    _buffer.flip();
+                    if (k < 0) {
+                        break;
+                    }
+                    continue;
+                }
+                char c = _buffer.getChar();
+                if (c == '\n') {
+                    pages.write(_line, 0, _lineLength);
+                    _lineLength = 0;
+                    n += 1;
+                } else {
+                    if (_lineLength == _line.length) {
+                        _line = Arrays.copyOf(_line, 2 * _lineLength);
+                    }
+                    _line[_lineLength] = c;
+                    _lineLength += 1;
+                }
+            }
+            return n;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Discard my lines, deleting my file, if any. */
+    void discard() {
+        _lines.clear();
+        _chars = 0;
+        _count = 0;
+        _next = 0;
+        _lineLength = 0;
+        try {
+            if (_out != null) {
+                _out.close();
+            }
+            if (_in != null) {
+                _in.close();
+            }
+            if (_file != null) {
+                Files.deleteIfExists(_file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            _out = null;
+            _in = null;
+            _file = null;
+        }
+    }
+
+    /** Discard my lines, and start again as if new. */
+    @Override
+    void reset() {
+        super.reset();
+        discard();
+    }
+
+    /** Move the lines held in memory to a new temporary file, to which
+     *  all further lines go. */
+    private void spill() {
+        try {
+            _file = Files.createTempFile("tex61-endnotes", ".tmp");
+            _out = FileChannel.open(_file, StandardOpenOption.WRITE);
+            _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String line : _lines) {
+            for (int i = 0; i < line.length(); i += 1) {
+                put(line.charAt(i));
+            }
+            put('\n');
+        }
+        _lines.clear();
+        _chars = 0;
+    }
+
+    /** Add C to the file, through my buffer. */
+    private void put(char c) {
+        if (_buffer.remaining() < 2) {
+            flushBuffer();
+        }
+        _buffer.putChar(c);
+    }
+
+    /** Write the contents of my buffer to the file. */
+    private void flushBuffer() {
+        _buffer.flip();
+        try {
+            while (_buffer.hasRemaining()) {
+                _out.write(_buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        _buffer.clear();
+    }
+
+    /** Number of characters held in memory before spilling. */
+    private final int _limit;
+    /** Lines held in memory, until spilled. */
+    private final List<String> _lines = new ArrayList<>();
+    /** Number of characters in _lines. */
+    private long _chars;
+    /** Number of lines held. */
+    private int _count;
+    /** The file holding my lines, or null if they are in memory. */
+    private Path _file;
+    /** Index in _lines of the next line to drain. */
+    private int _next;
+    /** Channel writing _file, while it is being written. */
+    private FileChannel _out;
+    /** Channel reading _file, while it is being drained. */
+    private FileChannel _in;
+    /** The part read so far of the next line to drain from _file. */
+    private char[] _line = new char[128];
+    /** Number of characters in _line. */
+    private int _lineLength;
+    /** Buffer for reading and writing _file. */
+    private ByteBuffer _buffer;
+
+}
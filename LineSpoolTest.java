@@ -0,0 +1,99 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of LineSpool.
+ *  @author Eric Escobar
+ */
+
+public class LineSpoolTest {
+
+    /** Return N test lines, including empty lines, form feeds, and
+     *  characters outside ASCII (one an unpaired surrogate). */
+    private List<String> makeLines(int n) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            switch (i % 5) {
+            case 0:
+                lines.add("");
+                break;
+            case 1:
+                lines.add("\f[" + i + "] r\u00e9sum\u00e9 \u65e5\u672c");
+                break;
+            case 2:
+                lines.add("line " + i + " \ud83d\ude00 \ud83d");
+                break;
+            default:
+                lines.add("x".repeat(i % 300));
+                break;
+            }
+        }
+        return lines;
+    }
+
+    /** Return the lines drained from SPOOL. */
+    private List<String> drain(LineSpool spool) {
+        List<String> result = new ArrayList<>();
+        spool.drainTo(new PageCollector(result));
+        return result;
+    }
+
+    @Test
+    public void testInMemory() {
+        List<String> lines = makeLines(100);
+        LineSpool spool = new LineSpool();
+        for (String line : lines) {
+            spool.write(line);
+        }
+        assertFalse(spool.spilled());
+        assertEquals(100, spool.size());
+        assertEquals(lines, drain(spool));
+        assertEquals(0, spool.size());
+    }
+
+    @Test
+    public void testSpilled() {
+        List<String> lines = makeLines(5000);
+        LineSpool spool = new LineSpool(1000);
+        for (String line : lines) {
+            char[] buf = ("  " + line).toCharArray();
+            spool.write(buf, 2, line.length());
+        }
+        assertTrue(spool.spilled());
+        assertEquals(5000, spool.size());
+        List<String> drained = new ArrayList<>();
+        PageCollector pages = new PageCollector(drained);
+        while (spool.drainTo(pages, 7) == 7) {
+            assertTrue(drained.size() % 7 == 0);
+        }
+        assertEquals(lines, drained);
+        spool.discard();
+        assertFalse(spool.spilled());
+        assertEquals(new ArrayList<String>(), drain(spool));
+    }
+
+    @Test
+    public void testEndnotesSpilled() {
+        int n = 40000;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            text.append("Word \\endnote{note ").append(i)
+                .append(" with a few more words}.\n\n");
+        }
+        List<String> lines = new ArrayList<>();
+        Controller cntrl = new Controller(new PageCollector(lines));
+        new InputParser(text.toString(), cntrl).process();
+        assertEquals(0, cntrl.diagnostics().total());
+        assertEquals(3 * n - 1, lines.size());
+        assertEquals("   Word [" + n + "].", lines.get(2 * n - 2));
+        assertEquals("[1] note 0 with a few more words ",
+                     lines.get(2 * n - 1));
+        assertEquals("[" + n + "] note " + (n - 1)
+                     + " with a few more words ", lines.get(3 * n - 2));
+    }
+
+}
@@ -1,65 +1,574 @@
 package tex61;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.Reader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.nio.file.StandardOpenOption;
 
-import static tex61.FormatException.reportError;
-import static tex61.FormatException.getTotalErrors;
 
 /** 
     Simple Text Formatter. Main entry point.
  */
 public class Main {
 
-    /** Format the file ARGS[0], producing output on the standard
-     *  output if ARGS.length is 1, and otherwise on ARGS[1].  ARGS must
-     *  have length 1 or 2.  Print a usage message otherwise or if the
-     *  files are unreadable or unwritable, respectively. */
+    /** Compression level meaning that output is not gzipped. */
+    private static final int NO_GZIP = -2;
+
+    /** Format the file named by the first of ARGS that is not an option,
+     *  producing output on the standard output if there is no second,
+     *  and otherwise on the file it names.  Options, which precede the
+     *  file names, are
+     *      --mmap          Read INFILE by mapping it into memory.
+     *      --parallel[=N]  Lay out paragraphs on N threads (default: one
+     *                      per processor).
+     *      --pipeline      Parse, lay out, and write on three threads,
+     *                      so that input, layout and output overlap.
+     *      --batch[=N]     Instead, ARGS are SOURCE OUTDIR.  Format each
+     *                      file denoted by SOURCE (a directory, a glob
+     *                      pattern, or @ followed by a file listing one
+     *                      input per line) into the file of the same name
+     *                      in OUTDIR, at most N at a time (default 64),
+     *                      and print a summary.
+     *      --linebreak=optimal  Break filled paragraphs into lines so as
+     *                      to minimize their total badness, as if they
+     *                      started with \linebreak{optimal}.
+     *      --hyphenate[=PATTERNS]  Hyphenate words that do not fit on
+     *                      a line, as if the text and endnotes started
+     *                      with \hyphenate, by the TeX hyphenation
+     *                      patterns in file PATTERNS if given (see
+     *                      Hyphenator), and otherwise by a small built-in
+     *                      set.  Not with --batch or --pages, nor, given
+     *                      PATTERNS, with --parallel, --pipeline or
+     *                      --cache.
+     *      --errors=json   Print errors as JSON lines as they are found,
+     *                      rather than as text at the end.
+     *      --max-errors=N  Print at most N errors of each kind (default
+     *                      100); the rest are only counted.
+     *      --cache=DIR     Keep laid-out paragraphs in a cache in
+     *                      directory DIR, and use those found there.
+     *                      This pays mainly with optimal line breaking.
+     *      --cache-size=N  Keep the cache to about N megabytes (default
+     *                      256).
+     *      --cache-stats   Print the cache's hit rate when done.
+     *      --stats         Count tokens, words, lines, pages, endnotes,
+     *                      and bytes, and time parsing, layout and
+     *                      output, and print a summary when done.  The
+     *                      counts may also be watched over JMX, as the
+     *                      MBean tex61:type=Metrics,name=INFILE.  Not
+     *                      with --parallel, --pipeline, --batch or
+     *                      --cache.
+     *      --pages=N-M     Output only pages N to M (or only page N, given
+     *                      --pages=N) of the main text and endnotes.
+     *                      The layout of the main text is resumed from
+     *                      the nearest page boundary recorded in
+     *                      INFILE.pages, which is made or remade (see
+     *                      PageIndex) whenever it is missing or out of
+     *                      date.  Not with --mmap, --parallel,
+     *                      --pipeline, --batch, --cache or --stats.
+     *      --gzip[=LEVEL]  Write the output gzipped, at compression level
+     *                      LEVEL (0-9, default 6), compressing blocks of
+     *                      it in parallel (see GzipChannel) on the pool of
+     *                      --parallel, or else the common pool.  Implied
+     *                      by an OUTFILE whose name ends in .gz.  Not with
+     *                      --batch.
+     *      --server=SOCKET Instead, with no file names, serve requests
+     *                      to format documents (see FormatServer) on
+     *                      a Unix domain socket at SOCKET until killed,
+     *                      with --linebreak and --max-errors as
+     *                      defaults.  Not with any other option but
+     *                      --errors=text.  See FormatClient.
+     *  Print a usage message if the arguments are wrong or if the files
+     *  are unreadable or unwritable, respectively. */
     public static void main(String[] args) {
-        if (args.length == 0) {
+        boolean mmap = false;
+        ForkJoinPool pool = null;
+        int batch = 0;
+        boolean json = false;
+        boolean optimal = false;
+        boolean hyphenate = false;
+        String patterns = null;
+        int maxErrors = Diagnostics.DEFAULT_LIMIT;
+        String cacheDir = null;
+        long cacheSize = ParagraphCache.DEFAULT_SIZE;
+        boolean cacheStats = false;
+        boolean pipeline = false;
+        boolean stats = false;
+        PageRange range = null;
+        boolean gzip = false;
+        int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+        String socket = null;
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            String option = args[first];
+            int eq = option.indexOf('=');
+            String value = eq == -1 ? null : option.substring(eq + 1);
+            switch (eq == -1 ? option : option.substring(0, eq)) {
+            case "--mmap":
+                mmap = true;
+                break;
+            case "--parallel":
+                pool = value == null ? ForkJoinPool.commonPool()
+                    : new ForkJoinPool(positive(option, value));
+                break;
+            case "--pipeline":
+                pipeline = true;
+                break;
+            case "--batch":
+                batch = value == null ? BatchFormatter.DEFAULT_LIMIT
+                    : positive(option, value);
+                break;
+            case "--errors":
+                if (!"json".equals(value) && !"text".equals(value)) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                json = value.equals("json");
+                break;
+            case "--linebreak":
+                if (!"optimal".equals(value) && !"greedy".equals(value)) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                optimal = value.equals("optimal");
+                break;
+            case "--hyphenate":
+                if (value != null && value.isEmpty()) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                hyphenate = true;
+                patterns = value;
+                break;
+            case "--max-errors":
+                maxErrors = positive(option, value);
+                break;
+            case "--cache":
+                if (value == null || value.isEmpty()) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                cacheDir = value;
+                break;
+            case "--cache-size":
+                cacheSize = (long) positive(option, value) << 20;
+                break;
+            case "--cache-stats":
+                cacheStats = true;
+                break;
+            case "--stats":
+                stats = true;
+                break;
+            case "--pages":
+                try {
+                    range = PageRange.parse(value == null ? "" : value);
+                } catch (IllegalArgumentException e) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                break;
+            case "--gzip":
+                gzip = true;
+                if (value != null) {
+                    gzipLevel = level(option, value);
+                }
+                break;
+            case "--server":
+                if (value == null || value.isEmpty()) {
+                    reportError("bad value for option: %s", option);
+                    usage();
+                    System.exit(1);
+                }
+                socket = value;
+                break;
+            default:
+                reportError("unknown option: %s", option);
+                usage();
+                System.exit(1);
+            }
+        }
+        int nargs = args.length - first;
+
+        if (socket != null) {
+            if (nargs != 0) {
+                reportError("--server takes no file names");
+                usage();
+                System.exit(1);
+            }
+            if (mmap || pool != null || pipeline || batch > 0
+                || cacheDir != null || hyphenate || gzip || range != null
+                || stats || json) {
+                reportError("--server cannot be used with --mmap, "
+                            + "--parallel, --pipeline, --batch, --cache, "
+                            + "--hyphenate, --gzip, --pages, --stats or "
+                            + "--errors=json");
+                usage();
+                System.exit(1);
+            }
+            serve(socket, optimal, maxErrors);
+            return;
+        }
+
+        if (nargs == 0) {
             usage();
             return;
         }
 
-        if (args.length > 2) {
+        if (nargs > 2) {
             reportError("too many command-line arguments");
             usage();
             System.exit(1);
         }
 
+        if (pipeline && (pool != null || batch > 0)) {
+            reportError("--pipeline cannot be used with --parallel or "
+                        + "--batch");
+            usage();
+            System.exit(1);
+        }
+
+        if (stats && (pool != null || pipeline || batch > 0
+                      || cacheDir != null)) {
+            reportError("--stats cannot be used with --parallel, "
+                        + "--pipeline, --batch or --cache");
+            usage();
+            System.exit(1);
+        }
+
+        if (hyphenate && (batch > 0 || range != null)) {
+            reportError("--hyphenate cannot be used with --batch or "
+                        + "--pages");
+            usage();
+            System.exit(1);
+        }
+
+        if (patterns != null && (pool != null || pipeline
+                                 || cacheDir != null)) {
+            reportError("--hyphenate=PATTERNS cannot be used with "
+                        + "--parallel, --pipeline or --cache");
+            usage();
+            System.exit(1);
+        }
+
+        Hyphenator hyphenator = null;
+        if (patterns != null) {
+            try {
+                hyphenator = Hyphenator.load(Paths.get(patterns));
+            } catch (IOException | IllegalArgumentException e) {
+                reportError("cannot use hyphenation patterns: %s", e);
+                System.exit(1);
+            }
+        }
+
+        if (nargs == 2 && args[first + 1].endsWith(".gz")) {
+            gzip = true;
+        }
+
+        if (gzip && batch > 0) {
+            reportError("--gzip cannot be used with --batch");
+            usage();
+            System.exit(1);
+        }
+
+        if (range != null && (mmap || pool != null || pipeline || batch > 0
+                              || cacheDir != null || stats)) {
+            reportError("--pages cannot be used with --mmap, --parallel, "
+                        + "--pipeline, --batch, --cache or --stats");
+            usage();
+            System.exit(1);
+        }
+
+        ParagraphCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = new ParagraphCache(Paths.get(cacheDir), cacheSize);
+            } catch (IOException e) {
+                reportError("cannot use cache: %s", e);
+                System.exit(1);
+            }
+        }
+
+        if (batch > 0) {
+            if (nargs != 2) {
+                reportError("--batch requires SOURCE and OUTDIR");
+                usage();
+                System.exit(1);
+            }
+            int code = batch(args[first], args[first + 1],
+                             new BatchFormatter(batch, mmap, pool, optimal,
+                                                json, maxErrors, System.err,
+                                                cache));
+            closeCache(cache, cacheStats);
+            System.exit(code);
+        }
+
+        if (range != null) {
+            System.exit(pages(range, args[first],
+                              nargs == 2 ? args[first + 1] : null,
+                              gzip ? gzipLevel : NO_GZIP, pool, optimal,
+                              json, maxErrors));
+        }
+
         try {
             Reader input;
-            input = new FileReader(new File(args[0]));
+            File inFile = new File(args[first]);
+            if (mmap) {
+                input = new MappedFileReader(inFile);
+            } else {
+                input = new FileReader(inFile);
+            }
 
-            PrintWriter output;
+            WritableByteChannel output =
+                open(nargs == 2 ? args[first + 1] : null,
+                     gzip ? gzipLevel : NO_GZIP, pool);
 
-            if (args.length == 2) {
-                output = new PrintWriter(new File(args[1]));
+            Diagnostics diagnostics =
+                new Diagnostics(args[first], System.err, json, maxErrors);
+            Metrics metrics = null;
+            PageAssembler pages = new ChannelPagePrinter(output);
+            if (pipeline) {
+                Pipeline stages = new Pipeline(pages, diagnostics, cache);
+                stages.controller().setOptimalDefault(optimal);
+                if (hyphenate) {
+                    stages.controller().setHyphenateDefault(true);
+                }
+                stages.process(new InputParser(input, stages.controller()));
             } else {
-                output = new PrintWriter(System.out);
+                Controller cntrl =
+                    new Controller(pages, pool, diagnostics, cache);
+                cntrl.setOptimalDefault(optimal);
+                if (hyphenate) {
+                    cntrl.setHyphenateDefault(true);
+                }
+                if (hyphenator != null) {
+                    cntrl.setHyphenator(hyphenator);
+                }
+                if (stats) {
+                    metrics = new Metrics();
+                    metrics.add(Metrics.BYTES_IN, inFile.length());
+                    metrics.register(args[first]);
+                    cntrl.setMetrics(metrics);
+                }
+                InputParser src = new InputParser(input, cntrl);
+                src.process();
             }
-
-            Controller cntrl = new Controller(output);
-            InputParser src = new InputParser(input, cntrl);
-            src.process();
+            input.close();
             output.close();
+            closeCache(cache, cacheStats);
+            if (metrics != null) {
+                reportError("%s", metrics.summary());
+            }
+            if (diagnostics.total() > 0) {
+                reportError("%s: %s", args[first], diagnostics.totals());
+            }
+            System.exit(diagnostics.total() == 0 ? 0 : 1);
         } catch (IOException e) {
             reportError(e.getMessage());
             System.exit(1);
             return;
+        } catch (UncheckedIOException e) {
+            reportError(e.getCause().getMessage());
+            System.exit(1);
+            return;
+        }
+    }
+
+    /** Return a channel writing to OUTFILE, or to the standard output if
+     *  it is null, gzipped at level GZIPLEVEL on POOL (or the common pool,
+     *  if it is null) unless GZIPLEVEL is NO_GZIP. */
+    private static WritableByteChannel open(String outFile, int gzipLevel,
+                                            ForkJoinPool pool)
+        throws IOException {
+        WritableByteChannel output = outFile == null
+            ? new FileOutputStream(FileDescriptor.out).getChannel()
+            : FileChannel.open(Paths.get(outFile), StandardOpenOption.WRITE,
+                               StandardOpenOption.CREATE,
+                               StandardOpenOption.TRUNCATE_EXISTING);
+        if (gzipLevel == NO_GZIP) {
+            return output;
+        }
+        return new GzipChannel(output, gzipLevel,
+                               pool == null ? ForkJoinPool.commonPool()
+                               : pool);
+    }
+
+    /** Format the pages in RANGE of INFILE to OUTFILE, or to the standard
+     *  output if it is null, gzipped as for open with GZIPLEVEL and POOL,
+     *  breaking lines optimally by default iff OPTIMAL, and reporting
+     *  errors as JSON iff JSON, at most MAXERRORS of each kind.  Return
+     *  the exit code. */
+    private static int pages(PageRange range, String inFile, String outFile,
+                             int gzipLevel, ForkJoinPool pool,
+                             boolean optimal, boolean json, int maxErrors) {
+        Diagnostics diagnostics =
+            new Diagnostics(inFile, System.err, json, maxErrors);
+        try (WritableByteChannel output = open(outFile, gzipLevel, pool)) {
+            range.render(Paths.get(inFile), new ChannelPagePrinter(output),
+                         diagnostics, optimal);
+        } catch (IOException e) {
+            reportError(e.getMessage());
+            return 1;
+        } catch (UncheckedIOException e) {
+            reportError(e.getCause().getMessage());
+            return 1;
+        }
+        if (diagnostics.total() > 0) {
+            reportError("%s: %s", inFile, diagnostics.totals());
+        }
+        return diagnostics.total() == 0 ? 0 : 1;
+    }
+
+    /** Format the files denoted by SOURCE into OUTDIR with FORMATTER.
+     *  Print a summary and return the exit code. */
+    private static int batch(String source, String outDir,
+                             BatchFormatter formatter) {
+        List<Path> inputs;
+        try {
+            inputs = BatchFormatter.inputs(source);
+            Files.createDirectories(Paths.get(outDir));
+        } catch (IOException e) {
+            reportError(e.toString());
+            return 1;
+        }
+        List<BatchFormatter.Result> results =
+            formatter.run(inputs, Paths.get(outDir));
+        BatchFormatter.summarize(results, System.out);
+        return BatchFormatter.exitCode(results);
+    }
+
+    /** Serve requests on a socket at SOCKET until killed, breaking lines
+     *  optimally by default iff OPTIMAL, and reporting at most MAXERRORS
+     *  errors of each kind. */
+    private static void serve(String socket, boolean optimal,
+                              int maxErrors) {
+        try {
+            FormatServer server =
+                new FormatServer(Paths.get(socket),
+                                 Runtime.getRuntime().availableProcessors(),
+                                 optimal, maxErrors);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                        try {
+                            server.close();
+                        } catch (IOException e) {
+                            /* Exiting anyway. */
+                        }
+                    }));
+            server.serve();
+        } catch (IOException e) {
+            reportError("%s", e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Close CACHE, unless it is null, first printing its statistics
+     *  iff STATS. */
+    private static void closeCache(ParagraphCache cache, boolean stats) {
+        if (cache != null) {
+            cache.close();
+            if (stats) {
+                reportError("%s", cache.statistics());
+            }
         }
+    }
+
+    /** Return the value of OPTION, whose text is VALUE, which must be a
+     *  compression level, from 0 to 9.  Exits with a usage message
+     *  otherwise. */
+    private static int level(String option, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0 && n <= Deflater.BEST_COMPRESSION) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through. */
+        }
+        reportError("bad value for option: %s", option);
+        usage();
+        System.exit(1);
+        return 0;
+    }
+
+    /** Return the value of OPTION, whose text is VALUE, which must be a
+     *  positive integer.  Exits with a usage message otherwise. */
+    private static int positive(String option, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through. */
+        }
+        reportError("bad value for option: %s", option);
+        usage();
+        System.exit(1);
+        return 0;
+    }
 
-        System.exit(getTotalErrors() == 0 ? 0 : 1);
+    /** Print error message formed from arguments FORMAT and ARGS, whose
+     *  meaning is as for printf. */
+    private static void reportError(String format, Object... args) {
+        System.err.printf(format, args);
+        System.err.println();
     }
 
     /** Print usage message. */
     private static void usage() {
-        System.out.printf("Usage: java format.Main INFILE [OUTFILE]%n"
+        System.out.printf("Usage: java format.Main [OPTIONS] INFILE [OUTFILE]%n"
+                          + "       java format.Main --batch[=N] [OPTIONS] "
+                          + "SOURCE OUTDIR%n"
                           + "   Format INFILE, sending output to OUTFILE "
-                          + "(default: standard output).%n");
+                          + "(default: standard output).%n"
+                          + "   --mmap          map INFILE into memory to "
+                          + "read it.%n"
+                          + "   --parallel[=N]  lay out paragraphs on N "
+                          + "threads.%n"
+                          + "   --pipeline      parse, lay out and write "
+                          + "on separate threads.%n"
+                          + "   --batch[=N]     format the files in "
+                          + "SOURCE (directory, glob, or @LIST)%n"
+                          + "                   into OUTDIR, N at a "
+                          + "time.%n"
+                          + "   --linebreak=optimal  break paragraphs "
+                          + "into lines optimally.%n"
+                          + "   --hyphenate[=PATTERNS]  hyphenate words, "
+                          + "by TeX patterns in PATTERNS.%n"
+                          + "   --errors=json   print errors as JSON "
+                          + "lines.%n"
+                          + "   --max-errors=N  print at most N errors of "
+                          + "each kind.%n"
+                          + "   --cache=DIR     cache laid-out paragraphs "
+                          + "in DIR.%n"
+                          + "   --cache-size=N  keep the cache to N "
+                          + "megabytes.%n"
+                          + "   --cache-stats   print the cache's hit "
+                          + "rate.%n"
+                          + "   --stats         print counts and times "
+                          + "(also over JMX).%n"
+                          + "   --pages=N-M     output only pages N to "
+                          + "M, using INFILE.pages.%n"
+                          + "   --gzip[=LEVEL]  gzip the output in "
+                          + "parallel (implied by OUTFILE.gz).%n"
+                          + "   --server=SOCKET serve format requests on "
+                          + "Unix socket SOCKET.%n");
     }
 
 }
@@ -0,0 +1,152 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/** A Reader that decodes a UTF-8 file by mapping it into memory a window
+ *  at a time, so that files of any size (including those over 2GB, the
+ *  limit of a single mapping) can be read.  Characters are decoded
+ *  straight from the mapped bytes into the caller's buffer, with a fast
+ *  path for runs of ASCII.  A window ends at the start of any multi-byte
+ *  sequence that it would split, and the next window begins there, so
+ *  callers (such as InputLexer, which carries partial tokens over from
+ *  one read to the next) never see a window boundary.
+ */
+class MappedFileReader extends Reader {
+
+    /** Default size of a mapped window, in bytes. */
+    static final int WINDOW_SIZE = 1 << 28;
+
+    /** Longest UTF-8 byte sequence. */
+    private static final int MAX_SEQUENCE = 4;
+
+    /** A new MappedFileReader reading FILE. */
+    MappedFileReader(File file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /** A new MappedFileReader reading FILE in windows of WINDOWSIZE
+     *  bytes (at least MAX_SEQUENCE). */
+    MappedFileReader(File file, int windowSize) throws IOException {
+        _file = new RandomAccessFile(file, "r");
+        _channel = _file.getChannel();
+        _size = _channel.size();
+        _windowSize = Math.max(windowSize, MAX_SEQUENCE);
+        _decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+    }
+
+    /** Map the window starting at byte START of the file. */
+    private void map(long start) throws IOException {
+        long size = Math.min(_windowSize, _size - start);
+        _windowStart = start;
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        _lastWindow = start + size == _size;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (_pendingChar >= 0) {
+            cbuf[off] = (char) _pendingChar;
+            _pendingChar = -1;
+            n += 1;
+        }
+        MappedByteBuffer window = _window;
+        while (n < len) {
+            int p = window.position();
+            int end = window.limit();
+            if (!_lastWindow && end - p < MAX_SEQUENCE) {
+                map(_windowStart + p);
+                window = _window;
+                continue;
+            }
+            if (p == end) {
+                break;
+            }
+            int k = off + n;
+            int stop = k + Math.min(len - n, end - p);
+            byte b = 0;
+            while (k < stop && (b = window.get(p)) >= 0) {
+                cbuf[k] = (char) b;
+                k += 1;
+                p += 1;
+            }
+            window.position(p);
+            n = k - off;
+            if (k < stop) {
+                if (!_lastWindow && end - p < MAX_SEQUENCE) {
+                    continue;
+                }
+                int decoded = decode(window, cbuf, k, len - n);
+                if (decoded == 0) {
+                    break;
+                }
+                n += decoded;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /** Decode the non-ASCII characters at the current position of WINDOW
+     *  into CBUF[OFF .. OFF+LEN-1], advancing WINDOW past them.  Return
+     *  the number of characters decoded, which is 0 only at end of
+     *  input. */
+    private int decode(ByteBuffer window, char[] cbuf, int off, int len) {
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        _decoder.decode(window, out, _lastWindow);
+        int n = out.position() - off;
+        if (n == 0 && window.hasRemaining()) {
+            CharBuffer pair = CharBuffer.allocate(2);
+            _decoder.decode(window, pair, _lastWindow);
+            if (pair.position() > 0) {
+                cbuf[off] = pair.get(0);
+                n = 1;
+            }
+            if (pair.position() > 1) {
+                _pendingChar = pair.get(1);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+    /** The file being read. */
+    private final RandomAccessFile _file;
+    /** Channel of _file. */
+    private final FileChannel _channel;
+    /** Size of _file in bytes. */
+    private final long _size;
+    /** Size of mapped windows. */
+    private final int _windowSize;
+    /** Decoder for UTF-8 sequences outside the ASCII fast path. */
+    private final CharsetDecoder _decoder;
+    /** Currently mapped window of _file. */
+    private MappedByteBuffer _window;
+    /** Offset in _file of _window. */
+    private long _windowStart;
+    /** True iff _window reaches the end of _file. */
+    private boolean _lastWindow;
+    /** Second half of a surrogate pair that did not fit in the last read,
+     *  or -1. */
+    private int _pendingChar = -1;
+
+}
@@ -0,0 +1,81 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of MappedFileReader.
+ *  @author Eric Escobar
+ */
+
+public class MappedFileReaderTest {
+
+    /** Text with one-, two-, three- and four-byte UTF-8 sequences. */
+    private static final String TEXT =
+        "caf\u00e9 na\u00efve \u65e5\u672c\u8a9e \ud83d\ude00 plain ascii "
+        + "\\endnote{r\u00e9sum\u00e9}\n\nstra\u00dfe \u00fcber\n";
+
+    /** Return all characters from READER, read CHUNK at a time. */
+    private String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = reader.read(buf, 0, chunk)) != -1) {
+            result.append(buf, 0, n);
+        }
+        reader.close();
+        return result.toString();
+    }
+
+    /** Return a temporary file containing TEXT in UTF-8. */
+    private File makeFile(String text) throws IOException {
+        File file = File.createTempFile("tex61", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testWindowBoundaries() throws IOException {
+        String text = TEXT + TEXT + TEXT;
+        File file = makeFile(text);
+        for (int window = 4; window < 40; window += 1) {
+            for (int chunk = 1; chunk < 9; chunk += 3) {
+                assertEquals("window " + window + ", chunk " + chunk, text,
+                             readAll(new MappedFileReader(file, window),
+                                     chunk));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        assertEquals("", readAll(new MappedFileReader(makeFile("")), 10));
+    }
+
+    @Test
+    public void testTokensAcrossWindows() throws IOException {
+        String text = TEXT + "\\textwidth{20}" + TEXT + TEXT;
+        File file = makeFile(text);
+        List<String> expected = new ArrayList<>();
+        new InputParser(new StringReader(text),
+                        new Controller(new PageCollector(expected)))
+            .process();
+        for (int window = 4; window < 24; window += 1) {
+            List<String> lines = new ArrayList<>();
+            new InputParser(new MappedFileReader(file, window),
+                            new Controller(new PageCollector(lines)))
+                .process();
+            assertEquals("window " + window, expected, lines);
+        }
+    }
+
+}
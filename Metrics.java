@@ -0,0 +1,285 @@
+package tex61;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Counts of what one formatting run has done: tokens of each type,
+ *  words, lines, pages, paragraphs and endnotes, bytes in and out, and
+ *  the time spent in each stage (parsing, layout, and output).  The
+ *  InputParser, Controller, LineAssemblers and PageAssemblers of a run
+ *  share one Metrics, given to the Controller with setMetrics, and each
+ *  counts what it does only if it has one, so that a run without
+ *  metrics pays a test of a null field and no more.
+ *
+ *  Time is charged to one stage at a time: the parser's, until a
+ *  LineAssembler starts to lay out a line, whose stage lasts until the
+ *  line is written, during which the stage is output.  The stages'
+ *  times thus add up to the time since start.  A Metrics is for the
+ *  thread of one run; other threads (such as JMX's) may read it while it
+ *  runs, and see values that are a little out of date.
+ *
+ *  Whether or not there is a Metrics, LineAssemblers and PageAssemblers
+ *  emit the JFR events ParagraphEvent and PageEvent, which cost next to
+ *  nothing unless a flight recording enables them.
+ */
+class Metrics implements MetricsMBean {
+
+    /** Counters.  TOKENS + T counts tokens of InputLexer type T, and
+     *  PAGE_BREAKS the form feeds written between pages. */
+    static final int
+        TOKENS = 0,
+        WORDS = TOKENS + InputLexer.ERROR + 1,
+        LINES = WORDS + 1,
+        PAGE_BREAKS = LINES + 1,
+        PARAGRAPHS = PAGE_BREAKS + 1,
+        ENDNOTES = PARAGRAPHS + 1,
+        BYTES_IN = ENDNOTES + 1,
+        BYTES_OUT = BYTES_IN + 1,
+        PARSE_NANOS = BYTES_OUT + 1,
+        LAYOUT_NANOS = PARSE_NANOS + 1,
+        OUTPUT_NANOS = LAYOUT_NANOS + 1;
+
+    /** Stages, for enter. */
+    static final int PARSE = PARSE_NANOS, LAYOUT = LAYOUT_NANOS,
+        OUTPUT = OUTPUT_NANOS;
+
+    /** Number of counters. */
+    private static final int COUNTERS = OUTPUT_NANOS + 1;
+
+    /** Names of the token types, by type. */
+    private static final String[] TOKEN_NAMES = {
+        "eof", "blank", "newline", "paragraph", "escape", "command", "text",
+        "error",
+    };
+
+    /** New metrics, all zero, with the clock in the parse stage. */
+    Metrics() {
+        _since = System.nanoTime();
+        _stage = PARSE;
+    }
+
+    /** Add N to counter COUNTER. */
+    void add(int counter, long n) {
+        _counts[counter] += n;
+    }
+
+    /** Return the value of counter COUNTER, bringing the time of the
+     *  current stage up to date first. */
+    long get(int counter) {
+        if (counter >= PARSE_NANOS) {
+            enter(_stage);
+        }
+        return _counts[counter];
+    }
+
+    /** Charge the time since the last change of stage to the current
+     *  stage, make STAGE current, and return the stage that was. */
+    int enter(int stage) {
+        long now = System.nanoTime();
+        int previous = _stage;
+        _counts[previous] += now - _since;
+        _since = now;
+        _stage = stage;
+        return previous;
+    }
+
+    /** Register me as the platform MBean named tex61:type=Metrics,
+     *  name=NAME, replacing any registered under that name. */
+    void register(String name) {
+        try {
+            ObjectName objectName =
+                new ObjectName("tex61:type=Metrics,name="
+                               + ObjectName.quote(name));
+            javax.management.MBeanServer server =
+                ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Return a summary of my counts, as printed by --stats. */
+    String summary() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("tokens: %d (", getTokens()));
+        String sep = "";
+        for (int t = InputLexer.BLANK; t <= InputLexer.ERROR; t += 1) {
+            s.append(sep).append(_counts[TOKENS + t]).append(' ')
+                .append(TOKEN_NAMES[t]);
+            sep = ", ";
+        }
+        long parse = get(PARSE_NANOS), layout = get(LAYOUT_NANOS),
+            output = get(OUTPUT_NANOS);
+        s.append(String.format(Locale.ROOT,
+                               ")%nwords: %d, lines: %d, pages: %d, "
+                               + "paragraphs: %d, endnotes: %d%n"
+                               + "bytes: %d in, %d out%n"
+                               + "time: parse %.1f ms, layout %.1f ms, "
+                               + "output %.1f ms",
+                               getWords(), getLines(), getPages(),
+                               getParagraphs(), getEndnotes(), getBytesIn(),
+                               getBytesOut(), parse / 1e6, layout / 1e6,
+                               output / 1e6));
+        return s.toString();
+    }
+
+    @Override
+    public long getTokens() {
+        long n = 0;
+        for (int t = InputLexer.BLANK; t <= InputLexer.ERROR; t += 1) {
+            n += _counts[TOKENS + t];
+        }
+        return n;
+    }
+
+    @Override
+    public long getTextTokens() {
+        return _counts[TOKENS + InputLexer.TEXT];
+    }
+
+    @Override
+    public long getBlankTokens() {
+        return _counts[TOKENS + InputLexer.BLANK];
+    }
+
+    @Override
+    public long getNewlineTokens() {
+        return _counts[TOKENS + InputLexer.EOL];
+    }
+
+    @Override
+    public long getParagraphTokens() {
+        return _counts[TOKENS + InputLexer.EOP];
+    }
+
+    @Override
+    public long getEscapeTokens() {
+        return _counts[TOKENS + InputLexer.ESCAPED];
+    }
+
+    @Override
+    public long getCommandTokens() {
+        return _counts[TOKENS + InputLexer.COMMAND];
+    }
+
+    @Override
+    public long getErrorTokens() {
+        return _counts[TOKENS + InputLexer.ERROR];
+    }
+
+    @Override
+    public long getWords() {
+        return _counts[WORDS];
+    }
+
+    @Override
+    public long getLines() {
+        return _counts[LINES];
+    }
+
+    @Override
+    public long getPages() {
+        return _counts[PAGE_BREAKS] + (_counts[LINES] > 0 ? 1 : 0);
+    }
+
+    @Override
+    public long getParagraphs() {
+        return _counts[PARAGRAPHS];
+    }
+
+    @Override
+    public long getEndnotes() {
+        return _counts[ENDNOTES];
+    }
+
+    @Override
+    public long getBytesIn() {
+        return _counts[BYTES_IN];
+    }
+
+    @Override
+    public long getBytesOut() {
+        return _counts[BYTES_OUT];
+    }
+
+    @Override
+    public long getParseNanos() {
+        return _counts[PARSE_NANOS];
+    }
+
+    @Override
+    public long getLayoutNanos() {
+        return _counts[LAYOUT_NANOS];
+    }
+
+    @Override
+    public long getOutputNanos() {
+        return _counts[OUTPUT_NANOS];
+    }
+
+    /** A JFR event for the layout of one paragraph, from the end of the
+     *  one before it to its own end. */
+    @Name("tex61.Paragraph")
+    @Label("Paragraph")
+    @Category("tex61")
+    @StackTrace(false)
+    @Description("Parsing and layout of one paragraph")
+    static final class ParagraphEvent extends Event {
+        /** Number of the paragraph, from 1, in the main text or in the
+         *  endnotes. */
+        @Label("Number")
+        int number;
+        /** True iff the paragraph is in an endnote. */
+        @Label("Endnote")
+        boolean endnote;
+        /** Number of words. */
+        @Label("Words")
+        int words;
+        /** Number of lines produced. */
+        @Label("Lines")
+        int lines;
+        /** True iff the paragraph ended in fill mode. */
+        @Label("Fill")
+        boolean fill;
+        /** True iff the paragraph ended in optimal line-breaking mode. */
+        @Label("Optimal")
+        boolean optimal;
+    }
+
+    /** A JFR event for one page, from its first line to its last. */
+    @Name("tex61.Page")
+    @Label("Page")
+    @Category("tex61")
+    @StackTrace(false)
+    @Description("Formatting and output of one page")
+    static final class PageEvent extends Event {
+        /** Number of the page, from 1, among those of the main text or
+         *  those of the endnotes. */
+        @Label("Number")
+        int number;
+        /** Number of lines on it, including blank ones. */
+        @Label("Lines")
+        int lines;
+    }
+
+    /** The counters. */
+    private final long[] _counts = new long[COUNTERS];
+    /** The current stage. */
+    private int _stage;
+    /** Time of the last change of stage. */
+    private long _since;
+
+}
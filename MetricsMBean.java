@@ -0,0 +1,61 @@
+package tex61;
+
+/** The management interface of Metrics, through which JMX clients see a
+ *  formatting run's counts. */
+public interface MetricsMBean {
+
+    /** Return the number of tokens parsed. */
+    long getTokens();
+
+    /** Return the number of text tokens parsed. */
+    long getTextTokens();
+
+    /** Return the number of runs of blanks parsed. */
+    long getBlankTokens();
+
+    /** Return the number of single ends of line parsed. */
+    long getNewlineTokens();
+
+    /** Return the number of ends of paragraph parsed. */
+    long getParagraphTokens();
+
+    /** Return the number of escaped characters parsed. */
+    long getEscapeTokens();
+
+    /** Return the number of commands parsed. */
+    long getCommandTokens();
+
+    /** Return the number of wrong characters parsed. */
+    long getErrorTokens();
+
+    /** Return the number of words laid out. */
+    long getWords();
+
+    /** Return the number of lines written, including blank ones. */
+    long getLines();
+
+    /** Return the number of pages of output. */
+    long getPages();
+
+    /** Return the number of paragraphs finished. */
+    long getParagraphs();
+
+    /** Return the number of endnotes. */
+    long getEndnotes();
+
+    /** Return the number of bytes of input. */
+    long getBytesIn();
+
+    /** Return the number of bytes of output written. */
+    long getBytesOut();
+
+    /** Return the nanoseconds spent parsing. */
+    long getParseNanos();
+
+    /** Return the nanoseconds spent laying out lines. */
+    long getLayoutNanos();
+
+    /** Return the nanoseconds spent writing lines. */
+    long getOutputNanos();
+
+}
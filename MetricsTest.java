@@ -0,0 +1,99 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Metrics.
+ *  @author Eric Escobar
+ */
+
+public class MetricsTest {
+
+    /** Return the output of formatting INPUT, counting in METRICS unless
+     *  it is null. */
+    private static String format(String input, Metrics metrics) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Controller cntrl =
+            new Controller(new ChannelPagePrinter(Channels.newChannel(out)),
+                           null, new Diagnostics());
+        cntrl.setMetrics(metrics);
+        new InputParser(input, cntrl).process();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Return the number of occurrences of C in S. */
+    private static int count(String s, char c) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == c) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testCounts() {
+        Metrics metrics = new Metrics();
+        String input = "one two three\n\nfour \\endnote{five six} seven\n";
+        String output = format(input, metrics);
+        assertEquals(format(input, null), output);
+        assertEquals(15, metrics.getTokens());
+        assertEquals(7, metrics.getTextTokens());
+        assertEquals(5, metrics.getBlankTokens());
+        assertEquals(1, metrics.getNewlineTokens());
+        assertEquals(1, metrics.getParagraphTokens());
+        assertEquals(1, metrics.getCommandTokens());
+        assertEquals(0, metrics.getErrorTokens());
+        assertEquals(8, metrics.getWords());
+        assertEquals(3, metrics.getParagraphs());
+        assertEquals(1, metrics.getEndnotes());
+        assertEquals(count(output, '\n'), metrics.getLines());
+        assertEquals(1, metrics.getPages());
+        assertEquals(output.getBytes(StandardCharsets.UTF_8).length,
+                     metrics.getBytesOut());
+    }
+
+    @Test
+    public void testPagesAndTime() {
+        StringBuilder input = new StringBuilder("\\textheight{3}");
+        for (int i = 0; i < 50; i += 1) {
+            input.append("a paragraph of several words, ").append(i)
+                .append("\\endnote{and a note}\n\n");
+        }
+        Metrics metrics = new Metrics();
+        String output = format(input.toString(), metrics);
+        assertEquals(count(output, '\f') + 1, metrics.getPages());
+        assertEquals(count(output, '\n'), metrics.getLines());
+        assertEquals(50, metrics.getEndnotes());
+        assertEquals(100, metrics.getParagraphs());
+        long parse = metrics.get(Metrics.PARSE_NANOS);
+        assertTrue(parse > 0);
+        assertTrue(metrics.get(Metrics.LAYOUT_NANOS) > 0);
+        assertTrue(metrics.get(Metrics.OUTPUT_NANOS) > 0);
+        assertTrue(metrics.get(Metrics.PARSE_NANOS) >= parse);
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.add(Metrics.BYTES_IN, 61);
+        metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name =
+            new ObjectName("tex61:type=Metrics,name=\"test\"");
+        assertEquals(61L, server.getAttribute(name, "BytesIn"));
+        new Metrics().register("test");
+        assertEquals(0L, server.getAttribute(name, "BytesIn"));
+        server.unregisterMBean(name);
+    }
+
+}
@@ -0,0 +1,124 @@
+package tex61;
+
+import java.util.Arrays;
+
+/** Chooses where to break a paragraph into lines so as to minimize its
+ *  total badness, in the manner of Knuth and Plass's total-fit
+ *  algorithm, rather than filling each line as full as possible in
+ *  turn.  The badness of a line is the square of the number of spaces
+ *  that justification would have to add to it.  Lines that would need
+ *  more than three spaces per gap (which LineAssembler will not add)
+ *  cost ten times as much, and the last line costs nothing.
+ *
+ *  The candidate starts of a line ending at a given word are only those
+ *  that fit within the text width, so the work is proportional to the
+ *  number of words times the number of words on a line.  All state is
+ *  kept in primitive arrays that are reused from one paragraph to the
+ *  next.
+ */
+class OptimalLineBreaker {
+
+    /** Factor by which the badness of a line that cannot be fully
+     *  justified is multiplied. */
+    private static final long UNDERFULL_FACTOR = 10;
+
+    /** Number of distinct line positions, for the purposes of
+     *  indentation: the first line, the second, and all the rest. */
+    private static final int POSITIONS = 3;
+
+    /** Compute the best breaks for the N words whose widths are
+     *  WIDTHS[0 .. N-1], separated by single spaces, in lines of width
+     *  TEXTWIDTH.  The first line is indented by INDENT0, the second by
+     *  INDENT1, and the rest by INDENT2.  A word too wide for any line
+     *  goes on a line by itself.  Returns the number of lines, L; their
+     *  starts are then start(0) = 0 < start(1) < ... < start(L-1) < N. */
+    int breakLines(int[] widths, int n, int textWidth,
+                   int indent0, int indent1, int indent2) {
+        reserve(n);
+        long[] cost = _cost;
+        int[] from = _from;
+        Arrays.fill(cost, 0, POSITIONS * (n + 1), Long.MAX_VALUE);
+        cost[0] = 0;
+        for (int j = 1; j <= n; j += 1) {
+            boolean last = j == n;
+            for (int p = 0; p < POSITIONS; p += 1) {
+                int avail = textWidth
+                    - (p == 0 ? indent0 : p == 1 ? indent1 : indent2);
+                int next = Math.min(p + 1, POSITIONS - 1);
+                int width = -1;
+                for (int i = j - 1; i >= 0; i -= 1) {
+                    width += widths[i] + 1;
+                    int words = j - i;
+                    if (width > avail && words > 1) {
+                        break;
+                    }
+                    long before = cost[p * (n + 1) + i];
+                    if (before == Long.MAX_VALUE) {
+                        continue;
+                    }
+                    long total = before + badness(avail - width, words, last);
+                    int k = next * (n + 1) + j;
+                    if (total < cost[k]) {
+                        cost[k] = total;
+                        from[k] = p * (n + 1) + i;
+                    }
+                }
+            }
+        }
+        int best = n;
+        for (int p = 1; p < POSITIONS; p += 1) {
+            if (cost[p * (n + 1) + n] < cost[best]) {
+                best = p * (n + 1) + n;
+            }
+        }
+        int lines = 0;
+        for (int k = best; k != 0; k = from[k]) {
+            _starts[lines] = from[k] % (n + 1);
+            lines += 1;
+        }
+        for (int a = 0, b = lines - 1; a < b; a += 1, b -= 1) {
+            int t = _starts[a];
+            _starts[a] = _starts[b];
+            _starts[b] = t;
+        }
+        return lines;
+    }
+
+    /** Return the index of the first word of line K of the last result of
+     *  breakLines. */
+    int start(int k) {
+        return _starts[k];
+    }
+
+    /** Return the badness of a line of WORDS words with SLACK columns to
+     *  spare, which is the last of its paragraph iff LAST. */
+    private static long badness(int slack, int words, boolean last) {
+        if (last || slack <= 0) {
+            return 0;
+        }
+        long b = (long) slack * slack;
+        return slack > 2 * (words - 1) ? b * UNDERFULL_FACTOR : b;
+    }
+
+    /** Make room for a paragraph of N words. */
+    private void reserve(int n) {
+        int size = POSITIONS * (n + 1);
+        if (_cost.length < size) {
+            _cost = new long[Math.max(size, 2 * _cost.length)];
+            _from = new int[_cost.length];
+        }
+        if (_starts.length < n) {
+            _starts = new int[Math.max(n, 2 * _starts.length)];
+        }
+    }
+
+    /** Least total badness of breaking before each word, for each line
+     *  position: the entry for word J at position P is at
+     *  P * (N + 1) + J. */
+    private long[] _cost = new long[POSITIONS * 64];
+    /** The entry of _cost from which each best entry was reached. */
+    private int[] _from = new int[POSITIONS * 64];
+    /** Starts of the lines found by breakLines. */
+    private int[] _starts = new int[64];
+
+}
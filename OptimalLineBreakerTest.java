@@ -0,0 +1,97 @@
+package tex61;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of OptimalLineBreakers.
+ *  @author Eric Escobar
+ */
+
+public class OptimalLineBreakerTest {
+
+    /** Return the badness of a line of WORDS words of total width
+     *  WIDTH in AVAIL columns, the last of its paragraph iff LAST, or -1
+     *  if it does not fit. */
+    private long badness(int width, int words, int avail, boolean last) {
+        int slack = avail - width - (words - 1);
+        if (slack < 0) {
+            return words == 1 ? 0 : -1;
+        } else if (last) {
+            return 0;
+        }
+        long b = (long) slack * slack;
+        return slack > 2 * (words - 1) ? 10 * b : b;
+    }
+
+    /** Return the least total badness of breaking WIDTHS[I .. N-1] into
+     *  lines, the first being the Pth of its paragraph, with text width
+     *  WIDTH and indentations INDENTS, found by trying every choice. */
+    private long best(int[] widths, int i, int n, int p, int width,
+                      int[] indents) {
+        if (i == n) {
+            return 0;
+        }
+        long least = Long.MAX_VALUE;
+        int sum = 0;
+        for (int j = i + 1; j <= n; j += 1) {
+            sum += widths[j - 1];
+            long b = badness(sum, j - i, width - indents[Math.min(p, 2)],
+                             j == n);
+            if (b < 0) {
+                break;
+            }
+            long rest = best(widths, j, n, p + 1, width, indents);
+            if (rest != Long.MAX_VALUE) {
+                least = Math.min(least, b + rest);
+            }
+        }
+        return least;
+    }
+
+    @Test
+    public void testMatchesExhaustiveSearch() {
+        OptimalLineBreaker breaker = new OptimalLineBreaker();
+        Random r = new Random(61);
+        for (int k = 0; k < 500; k += 1) {
+            int n = 1 + r.nextInt(16);
+            int[] widths = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                widths[i] = r.nextInt(10) == 0 ? 0 : 1 + r.nextInt(12);
+            }
+            int width = 10 + r.nextInt(30);
+            int[] indents = { r.nextInt(6), r.nextInt(6), r.nextInt(6) };
+            int lines = breaker.breakLines(widths, n, width, indents[0],
+                                           indents[1], indents[2]);
+            assertEquals("first line", 0, breaker.start(0));
+            long total = 0;
+            for (int j = 0; j < lines; j += 1) {
+                int start = breaker.start(j);
+                int end = j + 1 < lines ? breaker.start(j + 1) : n;
+                assertTrue("empty line", start < end);
+                int sum = 0;
+                for (int i = start; i < end; i += 1) {
+                    sum += widths[i];
+                }
+                long b = badness(sum, end - start,
+                                 width - indents[Math.min(j, 2)],
+                                 end == n);
+                assertTrue("line too long", b >= 0);
+                total += b;
+            }
+            assertEquals("not optimal",
+                         best(widths, 0, n, 0, width, indents), total);
+        }
+    }
+
+    @Test
+    public void testLongWordsStandAlone() {
+        OptimalLineBreaker breaker = new OptimalLineBreaker();
+        int[] widths = { 3, 30, 4, 4 };
+        assertEquals(3, breaker.breakLines(widths, 4, 20, 0, 0, 0));
+        assertEquals(1, breaker.start(1));
+        assertEquals(2, breaker.start(2));
+    }
+
+}
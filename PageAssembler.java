@@ -13,6 +13,19 @@ import static tex61.FormatException.error;
 abstract class PageAssembler {
     /** text height of current page. */
     private int textHeight;
+    /** Number of lines (including blank separating lines) added so far. */
+    private int lineCount;
+    /** Number of the current page, from 1 (0 before the first line). */
+    private int _page;
+    /** Number of lines, including blank lines, on the current page. */
+    private int _pageLines;
+    /** The JFR event of the current page, or null if JFR is not
+     *  recording pages. */
+    private Metrics.PageEvent _pageEvent;
+    /** Where I count what I do, or null if I do not. */
+    private Metrics _metrics;
+    /** Where I report the start of each page, or null if nowhere. */
+    private PageIndex.Builder _index;
 
     /** Create a new PageAssember. Initially, its text height is unlimited.
         It prepends a form feed character to the first line of each page
@@ -21,7 +34,8 @@ abstract class PageAssembler {
         textHeight = Defaults.TEXT_HEIGHT;
     }
 
-    /** Set text height to VAL, where VAL > 0. */
+    /** Set text height to VAL, where VAL > 0.  If the current page
+     *  already has VAL lines or more, the next line starts a new page. */
     void setTextHeight(int val) {
         if (val > 0) {
             textHeight = val;
@@ -30,8 +44,234 @@ abstract class PageAssembler {
         }
     }
 
+    /** Return the number of lines added so far. */
+    int lineCount() {
+        return lineCount;
+    }
+
+    /** Return the number of the current page, from 1, or 0 if no line has
+     *  been added. */
+    int page() {
+        return _page;
+    }
+
+    /** Return my place in my pages, which together with the lines that
+     *  follow determines where their form feeds fall.  It does not
+     *  include the number of the current page. */
+    Position position() {
+        return new Position(textHeight, lineCount > 0, _pageLines);
+    }
+
+    /** Continue from POSITION, as returned by position(), as if the
+     *  lines that led to it had been added to me.  The number of the
+     *  current page is unchanged (see setPage). */
+    void setPosition(Position position) {
+        textHeight = position.textHeight;
+        lineCount = position.started ? 1 : 0;
+        _pageLines = position.pageLines;
+    }
+
+    /** Make PAGE the number of the current page. */
+    void setPage(int page) {
+        _page = page;
+    }
+
+    /** Start again, as if new, at the top of the first page, with the
+     *  default text height.  Subtypes that hold lines must override this
+     *  to discard them. */
+    void reset() {
+        textHeight = Defaults.TEXT_HEIGHT;
+        lineCount = 0;
+        _page = 0;
+        _pageLines = 0;
+        _pageEvent = null;
+    }
+
+    /** Count the lines and pages I add, and the time spent writing them,
+     *  in METRICS, or nothing if it is null. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Return where I count what I do, or null if I do not. */
+    Metrics metrics() {
+        return _metrics;
+    }
+
+    /** Report the start of each page to INDEX, or to nothing if it is
+     *  null. */
+    void setIndex(PageIndex.Builder index) {
+        _index = index;
+    }
+
+    /** Return true iff the current page is full, so that the next line
+     *  starts a new one. */
+    private boolean pageFull() {
+        return lineCount > 0 && _pageLines >= textHeight;
+    }
+
+    /** Add the line in BUF[OFF .. OFF+LEN-1], preceded by a form feed if
+     *  it starts a new page.  If OFF > 0, BUF[OFF-1] may be overwritten
+     *  to make room for the form feed. */
+    void addLine(char[] buf, int off, int len) {
+        int stage = _metrics == null ? 0 : _metrics.enter(Metrics.OUTPUT);
+        if (lineCount == 0) {
+            startPage();
+            write(buf, off, len);
+        } else if (pageFull()) {
+            startPage();
+            if (off > 0) {
+                buf[off - 1] = '\f';
+                write(buf, off - 1, len + 1);
+            } else {
+                write('\f' + new String(buf, off, len));
+            }
+        } else {
+            write(buf, off, len);
+        }
+        lineAdded(stage);
+    }
+
+    /** Add LINE, as for addLine(char[], int, int). */
+    void addLine(String line) {
+        int stage = _metrics == null ? 0 : _metrics.enter(Metrics.OUTPUT);
+        if (lineCount == 0) {
+            startPage();
+            write(line);
+        } else if (pageFull()) {
+            startPage();
+            write('\f' + line);
+        } else {
+            write(line);
+        }
+        lineAdded(stage);
+    }
+
+    /** Count the line just written, and go back to stage STAGE of my
+     *  Metrics, if any. */
+    private void lineAdded(int stage) {
+        lineCount += 1;
+        _pageLines += 1;
+        if (_metrics != null) {
+            _metrics.add(Metrics.LINES, 1);
+            _metrics.enter(stage);
+        }
+    }
+
+    /** Add N blank lines, as used to separate paragraphs.  These never
+     *  start a page or go beyond the end of one: those that would are
+     *  left out. */
+    void addBlankLines(int n) {
+        if (lineCount == 0 || pageFull()) {
+            return;
+        }
+        n = Math.min(n, textHeight - _pageLines);
+        int stage = _metrics == null ? 0 : _metrics.enter(Metrics.OUTPUT);
+        for (int i = 0; i < n; i += 1) {
+            write("");
+        }
+        lineCount += n;
+        _pageLines += n;
+        if (_metrics != null) {
+            _metrics.add(Metrics.LINES, n);
+            _metrics.enter(stage);
+        }
+    }
+
+    /** Note the start of a new page: count its form feed, if it has one,
+     *  report it to my index, if any, end the PageEvent of the page
+     *  before, and start its own, if JFR records pages. */
+    private void startPage() {
+        endPage();
+        if (_metrics != null && lineCount > 0) {
+            _metrics.add(Metrics.PAGE_BREAKS, 1);
+        }
+        _page += 1;
+        _pageLines = 0;
+        if (_index != null) {
+            _index.pageStarted(_page);
+        }
+        Metrics.PageEvent event = new Metrics.PageEvent();
+        if (event.isEnabled()) {
+            event.number = _page;
+            event.begin();
+            _pageEvent = event;
+        }
+    }
+
+    /** Commit the PageEvent of the current page, if there is one, as
+     *  when the last line of the last page has been added. */
+    void endPage() {
+        if (_pageEvent != null) {
+            _pageEvent.lines = _pageLines;
+            _pageEvent.commit();
+            _pageEvent = null;
+        }
+    }
+
     /** Perform final disposition of LINE, as determined by the
      *  concrete subtype. */
     abstract void write(String line);
 
+    /** Perform final disposition of the line in BUF[OFF .. OFF+LEN-1].
+     *  By default, passes it to write(String); subtypes that can use the
+     *  characters directly may override this to avoid making a String. */
+    void write(char[] buf, int off, int len) {
+        write(new String(buf, off, len));
+    }
+
+    /** Complete the disposition of all lines written so far, for
+     *  subtypes that buffer them.  By default, does nothing. */
+    void flush() {
+    }
+
+    /** A PageAssembler's text height, whether any lines have been added
+     *  to it, and how many are on its current page. */
+    static final class Position {
+        /** The Position with text height TEXTHEIGHT, after some lines iff
+         *  STARTED, with PAGELINES lines on the current page. */
+        Position(int textHeight, boolean started, int pageLines) {
+            this.textHeight = textHeight;
+            this.started = started;
+            this.pageLines = pageLines;
+        }
+
+        /** Return my text height. */
+        int textHeight() {
+            return textHeight;
+        }
+
+        /** Return true iff I follow some lines. */
+        boolean started() {
+            return started;
+        }
+
+        /** Return the number of lines on my current page. */
+        int pageLines() {
+            return pageLines;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+            Position p = (Position) obj;
+            return textHeight == p.textHeight && started == p.started
+                && pageLines == p.pageLines;
+        }
+
+        @Override
+        public int hashCode() {
+            return (textHeight * 31 + pageLines) * 2 + (started ? 1 : 0);
+        }
+
+        /** Text height. */
+        private final int textHeight;
+        /** True iff some lines have been added. */
+        private final boolean started;
+        /** Lines on the current page. */
+        private final int pageLines;
+    }
+
 }
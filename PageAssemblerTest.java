@@ -4,6 +4,9 @@ import java.util.List;
 import java.util.ArrayList;
 import java.io.StringWriter;
 import java.io.PrintWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -46,6 +49,9 @@ public class PageAssemblerTest {
         makeTestLines(20);
         setupWriter();
         pages = new PagePrinter(writer);
+        for (String L : testLines) {
+            pages.write(L);
+        }
         writer.close();
         assertEquals("wrong contents: printer", joinLines(), output.toString());
     }
@@ -55,9 +61,64 @@ public class PageAssemblerTest {
         makeTestLines(20);
         setupCollector();
         pages = new PageCollector(outList);
+        for (String L : testLines) {
+            pages.write(L);
+        }
         assertEquals("wrong contents: collector", testLines, outList);
     }
 
+    @Test
+    public void testChannelContents1() {
+        makeTestLines(200);
+        testLines.set(7, "\f" + testLines.get(7));
+        testLines.set(9, "caf\u00e9 \u65e5\u672c \ud83d\ude00");
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 20000; i += 1) {
+            longLine.append(i % 3 == 0 ? "\u00e9" : "xy");
+        }
+        testLines.set(50, longLine.toString());
+        for (int i = 60; i < 200; i += 10) {
+            testLines.set(i, "\f" + testLines.get(i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        pages = new ChannelPagePrinter(Channels.newChannel(bytes), 2, 100);
+        for (String L : testLines) {
+            pages.write(L);
+        }
+        pages.flush();
+        assertEquals("wrong contents: channel", joinLines(),
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPagination() {
+        setupCollector();
+        pages = new PageCollector(outList);
+        pages.setTextHeight(3);
+        pages.addBlankLines(2);
+        pages.addLine("a");
+        pages.addBlankLines(1);
+        pages.addLine("b");
+        pages.addBlankLines(2);
+        pages.addLine("c");
+        pages.addLine("d");
+        pages.addLine("e");
+        pages.addBlankLines(1);
+        pages.setTextHeight(2);
+        pages.addLine("f");
+        assertEquals(List.of("a", "", "b", "\fc", "d", "e", "\ff"),
+                     outList);
+        assertEquals(3, pages.page());
+        assertEquals(7, pages.lineCount());
+        PageAssembler.Position position = pages.position();
+        List<String> rest = new ArrayList<>();
+        PageAssembler more = new PageCollector(rest);
+        more.setPosition(position);
+        more.addLine("g");
+        more.addLine("h");
+        assertEquals(List.of("g", "\fh"), rest);
+    }
+
     /** Collects output to a PrintWriter. */
     private StringWriter output;
     /** Collects output from a PageAssembler. */
@@ -0,0 +1,356 @@
+package tex61;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** An index of the pages of the main text of a document, from which any
+ *  of them can be laid out without laying out those before.  For each
+ *  page, it holds a Checkpoint: the state of the formatter at the start
+ *  of the paragraph in which the page starts, which is all that
+ *  determines the layout from there on (as in IncrementalFormatter),
+ *  together with where that paragraph starts in the input.  An index is
+ *  made by a Builder as the document is formatted, and kept beside it in
+ *  a file (see sidecar), along with the size, modification time and
+ *  character set of the document and the default line-breaking mode, so
+ *  that an index that no longer fits its document can be recognized.
+ *
+ *  Pages of endnotes, which follow the main text, are not indexed: their
+ *  layout depends on all the endnotes before them.
+ */
+class PageIndex {
+
+    /** Suffix of the name of an index file. */
+    static final String SUFFIX = ".pages";
+
+    /** First word of an index file: "T61P". */
+    private static final int MAGIC = 0x50313654;
+    /** Version of the format of index files. */
+    private static final int VERSION = 2;
+    /** Size in bytes of a Checkpoint in an index file. */
+    private static final int CHECKPOINT_SIZE = 80;
+
+    /** The formatter's state at the start of a paragraph, from which the
+     *  layout of the rest of a document can continue. */
+    static final class Checkpoint {
+        /** The Checkpoint for the paragraph at character OFFSET and byte
+         *  BYTEOFFSET of the input, which starts at line LINE, after
+         *  page PAGE (the current page when it starts; 0 if none) at
+         *  POSITION, with parameters MAIN and ENDNOTES for the main text
+         *  and endnotes, and REFNUM as the number of its first
+         *  endnote. */
+        Checkpoint(long offset, long byteOffset, int line, int page,
+                   PageAssembler.Position position, Parameters main,
+                   Parameters endnotes, int refNum) {
+            this.offset = offset;
+            this.byteOffset = byteOffset;
+            this.line = line;
+            this.page = page;
+            this.position = position;
+            this.main = main;
+            this.endnotes = endnotes;
+            this.refNum = refNum;
+        }
+
+        /** Return this Checkpoint, but at byte BYTEOFFSET. */
+        Checkpoint at(long byteOffset) {
+            return new Checkpoint(offset, byteOffset, line, page, position,
+                                  main, endnotes, refNum);
+        }
+
+        /** Offset of the paragraph in characters. */
+        final long offset;
+        /** Offset of the paragraph in bytes, or -1 if not yet known. */
+        final long byteOffset;
+        /** Line of the input on which the paragraph starts. */
+        final int line;
+        /** Number of the current page at its start. */
+        final int page;
+        /** Page position at its start. */
+        final PageAssembler.Position position;
+        /** Parameters of the main text and endnotes at its start. */
+        final Parameters main, endnotes;
+        /** Number of the next endnote at its start. */
+        final int refNum;
+    }
+
+    /** Records Checkpoints as a document is formatted, and makes them into
+     *  a PageIndex.  It is told of the start of each paragraph of the main
+     *  text by the InputParser that parses it (see
+     *  InputParser.setIndex), and of the start of each page by the
+     *  PageAssembler that paginates it. */
+    static final class Builder {
+        /** A Builder for the document formatted by CNTRL, whose main text
+         *  is paginated by PAGES, from its start. */
+        Builder(Controller cntrl, PageAssembler pages) {
+            _cntrl = cntrl;
+            _pages = pages;
+            pages.setIndex(this);
+            paragraphStarted(0, 1);
+        }
+
+        /** Note that a paragraph of the main text starts at character
+         *  OFFSET of the input, on line LINE. */
+        void paragraphStarted(long offset, int line) {
+            _last = new Checkpoint(offset, -1, line, _pages.page(),
+                                   _pages.position(), _cntrl.parameters(),
+                                   _cntrl.endnoteParameters(),
+                                   _cntrl.nextEndnote());
+        }
+
+        /** Note that page PAGE of the main text has started. */
+        void pageStarted(int page) {
+            assert page == _checkpoints.size() + 1;
+            _checkpoints.add(_last);
+        }
+
+        /** Return the index of the pages started so far, in the document
+         *  SOURCE, read in CHARSET, formatted with optimal line breaking
+         *  by default iff OPTIMAL. */
+        PageIndex finish(Path source, Charset charset, boolean optimal)
+            throws IOException {
+            long[] bytes = byteOffsets(source, charset, _checkpoints);
+            List<Checkpoint> checkpoints = new ArrayList<>();
+            for (int i = 0; i < bytes.length; i += 1) {
+                checkpoints.add(_checkpoints.get(i).at(bytes[i]));
+            }
+            return new PageIndex(Files.size(source),
+                                 Files.getLastModifiedTime(source)
+                                 .toMillis(),
+                                 charset.name(), optimal, checkpoints);
+        }
+
+        /** The Controller formatting the document. */
+        private final Controller _cntrl;
+        /** The PageAssembler paginating it. */
+        private final PageAssembler _pages;
+        /** The state at the start of the last paragraph. */
+        private Checkpoint _last;
+        /** The Checkpoints of the pages started so far. */
+        private final List<Checkpoint> _checkpoints = new ArrayList<>();
+    }
+
+    /** The index of a document of SIZE bytes, last modified at MODIFIED
+     *  (in milliseconds), read in the character set named CHARSET, and
+     *  formatted with optimal line breaking by default iff OPTIMAL, whose
+     *  Kth page starts in the paragraph of CHECKPOINTS[K-1]. */
+    PageIndex(long size, long modified, String charset, boolean optimal,
+              List<Checkpoint> checkpoints) {
+        _size = size;
+        _modified = modified;
+        _charset = charset;
+        _optimal = optimal;
+        _checkpoints = checkpoints;
+    }
+
+    /** Return the name of the file holding the index of SOURCE. */
+    static Path sidecar(Path source) {
+        return source.resolveSibling(source.getFileName() + SUFFIX);
+    }
+
+    /** Return the number of pages of main text indexed. */
+    int pages() {
+        return _checkpoints.size();
+    }
+
+    /** Return the Checkpoint from which page PAGE, 1 <= PAGE <= pages(),
+     *  can be laid out. */
+    Checkpoint checkpoint(int page) {
+        return _checkpoints.get(page - 1);
+    }
+
+    /** Return true iff I am the index of SOURCE as it is now, read in
+     *  CHARSET and formatted with optimal line breaking by default iff
+     *  OPTIMAL. */
+    boolean matches(Path source, Charset charset, boolean optimal)
+        throws IOException {
+        return _optimal == optimal && _charset.equals(charset.name())
+            && _size == Files.size(source)
+            && _modified == Files.getLastModifiedTime(source).toMillis();
+    }
+
+    /** Return my contents as bytes, from which fromBytes can rebuild
+     *  me. */
+    byte[] toBytes() {
+        byte[] charset = _charset.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buf =
+            ByteBuffer.allocate(32 + charset.length
+                                + CHECKPOINT_SIZE * _checkpoints.size())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(_size).putLong(_modified)
+            .putInt(_optimal ? 1 : 0).putInt(charset.length).put(charset);
+        for (Checkpoint cp : _checkpoints) {
+            buf.putLong(cp.offset).putLong(cp.byteOffset).putInt(cp.line)
+                .putInt(cp.page).putInt(cp.position.textHeight())
+                .putInt(cp.position.started() ? 1 : 0)
+                .putInt(cp.position.pageLines()).putInt(cp.refNum);
+            putParameters(buf, cp.main);
+            putParameters(buf, cp.endnotes);
+        }
+        return buf.array();
+    }
+
+    /** Return the PageIndex in BYTES, as produced by toBytes.  Throws
+     *  IllegalArgumentException if they are malformed. */
+    static PageIndex fromBytes(ByteBuffer bytes) {
+        try {
+            ByteBuffer buf = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new IllegalArgumentException("bad page index");
+            }
+            long size = buf.getLong(), modified = buf.getLong();
+            boolean optimal = buf.getInt() != 0;
+            byte[] charset = new byte[buf.getInt()];
+            buf.get(charset);
+            if (buf.remaining() % CHECKPOINT_SIZE != 0) {
+                throw new IllegalArgumentException("bad page index");
+            }
+            List<Checkpoint> checkpoints = new ArrayList<>();
+            while (buf.hasRemaining()) {
+                long offset = buf.getLong(), byteOffset = buf.getLong();
+                int line = buf.getInt(), page = buf.getInt(),
+                    textHeight = buf.getInt();
+                boolean started = buf.getInt() != 0;
+                int pageLines = buf.getInt(), refNum = buf.getInt();
+                Parameters main = getParameters(buf),
+                    endnotes = getParameters(buf);
+                if (offset < 0 || byteOffset < 0 || line < 1 || page < 0
+                    || textHeight <= 0 || pageLines < 0 || refNum < 1) {
+                    throw new IllegalArgumentException("bad page index");
+                }
+                checkpoints.add(new Checkpoint(offset, byteOffset, line,
+                                               page,
+                                               new PageAssembler.Position(
+                                                   textHeight, started,
+                                                   pageLines),
+                                               main, endnotes, refNum));
+            }
+            return new PageIndex(size, modified,
+                                 new String(charset,
+                                            StandardCharsets.US_ASCII),
+                                 optimal, checkpoints);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("bad page index");
+        }
+    }
+
+    /** Return the index in FILE, or null if there is none or it is
+     *  malformed. */
+    static PageIndex read(Path file) throws IOException {
+        try {
+            return fromBytes(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Write me to FILE, replacing it as a whole. */
+    void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + "."
+                                        + ProcessHandle.current().pid()
+                                        + ".tmp");
+        try {
+            Files.write(temp, toBytes());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Put PARAMS into BUF, in 20 bytes. */
+    private static void putParameters(ByteBuffer buf, Parameters params) {
+        buf.putInt(params.parSkip).putInt(params.indentation)
+            .putInt(params.parIndentation).putInt(params.textWidth)
+            .putInt((params.hyphenate ? 8 : 0) + (params.fill ? 4 : 0)
+                    + (params.justify ? 2 : 0) + (params.optimal ? 1 : 0));
+    }
+
+    /** Return the Parameters put into BUF by putParameters. */
+    private static Parameters getParameters(ByteBuffer buf) {
+        int parSkip = buf.getInt(), indentation = buf.getInt(),
+            parIndentation = buf.getInt(), textWidth = buf.getInt(),
+            flags = buf.getInt();
+        if ((flags & ~15) != 0) {
+            throw new IllegalArgumentException("bad page index");
+        }
+        return new Parameters(parSkip, indentation, parIndentation,
+                              textWidth, (flags & 4) != 0, (flags & 2) != 0,
+                              (flags & 1) != 0, (flags & 8) != 0);
+    }
+
+    /** Return a decoder for CHARSET that, like an InputStreamReader,
+     *  replaces malformed input rather than rejecting it. */
+    static CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** Return the byte offsets in SOURCE, read in CHARSET, of the
+     *  character offsets of CHECKPOINTS, which are in increasing order
+     *  and fall between characters. */
+    private static long[] byteOffsets(Path source, Charset charset,
+                                      List<Checkpoint> checkpoints)
+        throws IOException {
+        long[] result = new long[checkpoints.size()];
+        CharsetDecoder decoder = decoder(charset);
+        ByteBuffer bytes = ByteBuffer.allocate(1 << 16);
+        bytes.flip();
+        CharBuffer chars = CharBuffer.allocate(1 << 16);
+        long base = 0, decoded = 0;
+        boolean eof = false;
+        try (FileChannel in = FileChannel.open(source)) {
+            for (int k = 0; k < result.length; k += 1) {
+                long target = checkpoints.get(k).offset;
+                while (decoded < target) {
+                    chars.clear();
+                    chars.limit((int) Math.min(chars.capacity(),
+                                               target - decoded));
+                    decoder.decode(bytes, chars, eof);
+                    decoded += chars.position();
+                    if (chars.position() > 0) {
+                        continue;
+                    } else if (eof) {
+                        throw new IOException(source + " changed while "
+                                              + "being indexed");
+                    }
+                    base += bytes.position();
+                    bytes.compact();
+                    eof = in.read(bytes) < 0;
+                    bytes.flip();
+                }
+                result[k] = base + bytes.position();
+            }
+        }
+        return result;
+    }
+
+    /** Size of the document in bytes. */
+    private final long _size;
+    /** Its modification time in milliseconds. */
+    private final long _modified;
+    /** Name of the character set in which it was read. */
+    private final String _charset;
+    /** True iff it was formatted with optimal line breaking by
+     *  default. */
+    private final boolean _optimal;
+    /** The Checkpoint of each page. */
+    private final List<Checkpoint> _checkpoints;
+
+}
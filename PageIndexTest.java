@@ -0,0 +1,182 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of PageIndex and PageRange: pages formatted from an index
+ *  against the same pages of the whole document.
+ *  @author Eric Escobar
+ */
+
+public class PageIndexTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, words that are not ASCII, more ends of paragraph, and other
+     *  settings of the page. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("caf\u00e9", "\u65e5\u672c", "\n\n",
+                                 "\\textwidth{20}", "\\textwidth{40}",
+                                 "\\parskip{0}", "\\textheight{3}",
+                                 "\\linebreak{greedy}", "\r\n");
+
+    /** Return a random string of N PIECES, using R, that can be
+     *  written in the default character set. */
+    private static String makeInput(Random r, int n) {
+        String text = TestDocuments.makeInput(r, n, PIECES);
+        if (!Charset.defaultCharset().newEncoder().canEncode(text)) {
+            text = text.replace("caf\u00e9", "cafe")
+                .replace("\u65e5\u672c", "nihon");
+        }
+        return text;
+    }
+
+    /** Return the output of formatting INPUT all at once, breaking lines
+     *  optimally by default iff OPTIMAL. */
+    private static String format(String input, boolean optimal) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Controller cntrl =
+            new Controller(new ChannelPagePrinter(Channels.newChannel(out)),
+                           null, new Diagnostics());
+        cntrl.setOptimalDefault(optimal);
+        new InputParser(input, cntrl).process();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Return pages FIRST to LAST of OUTPUT, the output of format. */
+    private static String pages(String output, int first, int last) {
+        String[] pages = output.split("\f", -1);
+        if (first > pages.length) {
+            return "";
+        }
+        return String.join("\f", Arrays.copyOfRange(pages, first - 1,
+                                                    Math.min(last,
+                                                             pages.length)));
+    }
+
+    /** Return pages FIRST to LAST of the document in _source, as
+     *  rendered by a PageRange, breaking lines optimally by default iff
+     *  OPTIMAL.  Sets _indexed to true iff it used an index. */
+    private String render(int first, int last, boolean optimal)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        _indexed = new PageRange(first, last)
+            .render(_source,
+                    new ChannelPagePrinter(Channels.newChannel(out)),
+                    new Diagnostics(), optimal);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Write TEXT to _source, in the default character set. */
+    private void write(String text) throws IOException {
+        Files.write(_source, text.getBytes(Charset.defaultCharset()));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        _source = Files.createTempFile("tex61", ".tex");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_source);
+        Files.deleteIfExists(PageIndex.sidecar(_source));
+    }
+
+    @Test
+    public void testRangesMatchFormatting() throws IOException {
+        Random r = new Random(61);
+        int resumed = 0;
+        for (int k = 0; k < 40; k += 1) {
+            String text = makeInput(r, 100 + r.nextInt(k < 20 ? 200 : 2000));
+            boolean optimal = r.nextBoolean();
+            String output = format(text, optimal);
+            int pages = output.split("\f", -1).length;
+            Files.deleteIfExists(PageIndex.sidecar(_source));
+            write(text);
+            for (int e = 0; e < 10; e += 1) {
+                int first = 1 + r.nextInt(pages + 1);
+                int last = first + r.nextInt(3);
+                assertEquals("pages " + first + "-" + last + " of "
+                             + text.replace("\n", "\\n"),
+                             pages(output, first, last),
+                             render(first, last, optimal));
+                if (_indexed) {
+                    resumed += 1;
+                }
+            }
+        }
+        assertTrue(resumed > 100);
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException {
+        StringBuilder text = new StringBuilder("\\textheight{2}");
+        for (int i = 0; i < 20; i += 1) {
+            text.append("paragraph ").append(i).append("\n\n");
+        }
+        write(text.toString());
+        assertEquals(pages(format(text.toString(), false), 3, 4),
+                     render(3, 4, false));
+        assertFalse(_indexed);
+        assertEquals(pages(format(text.toString(), false), 3, 4),
+                     render(3, 4, false));
+        assertTrue(_indexed);
+        render(3, 4, true);
+        assertFalse(_indexed);
+        text.insert(0, "preface\n\n");
+        write(text.toString());
+        Files.setLastModifiedTime(_source, FileTime.fromMillis(0));
+        assertEquals(pages(format(text.toString(), true), 3, 4),
+                     render(3, 4, true));
+        assertFalse(_indexed);
+        render(3, 4, true);
+        assertTrue(_indexed);
+    }
+
+    @Test
+    public void testBytes() throws IOException {
+        write("\\textheight{1}one\n\ntwo\n\n\\endnote{x}three\n\nfour\n");
+        render(1, 1, false);
+        PageIndex index = PageIndex.read(PageIndex.sidecar(_source));
+        assertEquals(4, index.pages());
+        PageIndex.Checkpoint cp = index.checkpoint(4);
+        assertEquals(42, cp.offset);
+        assertEquals(42, cp.byteOffset);
+        assertEquals(7, cp.line);
+        assertEquals(3, cp.page);
+        assertEquals(2, cp.refNum);
+        assertEquals(1, cp.position.textHeight());
+        byte[] bytes = index.toBytes();
+        assertArrayEquals(bytes,
+                          PageIndex.fromBytes(ByteBuffer.wrap(bytes))
+                          .toBytes());
+        try {
+            PageIndex.fromBytes(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+            fail("truncated index accepted");
+        } catch (IllegalArgumentException e) {
+            /* OK */
+        }
+        Files.write(PageIndex.sidecar(_source), new byte[] { 1, 2, 3 });
+        assertNull(PageIndex.read(PageIndex.sidecar(_source)));
+    }
+
+    /** The document. */
+    private Path _source;
+    /** True iff the last render used an index. */
+    private boolean _indexed;
+
+}
@@ -19,6 +19,12 @@ class PagePrinter extends PageAssembler {
     /** Print LINE to my output. */
     @Override
     void write(String line) {
-        System.out.println(line);
+        outPut.println(line);
+    }
+
+    /** Flush my output. */
+    @Override
+    void flush() {
+        outPut.flush();
     }
 }
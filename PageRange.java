@@ -0,0 +1,203 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/** A range of pages of a document, from FIRST to LAST, and the means to
+ *  format only those.  The main text is laid out from the Checkpoint of
+ *  the first page in the document's PageIndex, when it has a current
+ *  one, and only as far as the last; otherwise the whole document is
+ *  formatted, and its PageIndex made along the way.
+ *  @author Eric Escobar
+ */
+class PageRange {
+
+    /** The pages FIRST to LAST, where 1 <= FIRST <= LAST. */
+    PageRange(int first, int last) {
+        if (first < 1 || last < first) {
+            throw new IllegalArgumentException("bad page range");
+        }
+        _first = first;
+        _last = last;
+    }
+
+    /** Return the PageRange denoted by SPEC, which is N (page N alone) or
+     *  N-M (pages N to M).  Throws IllegalArgumentException if it is
+     *  malformed. */
+    static PageRange parse(String spec) {
+        int dash = spec.indexOf('-');
+        try {
+            if (dash == -1) {
+                int page = Integer.parseInt(spec);
+                return new PageRange(page, page);
+            }
+            return new PageRange(Integer.parseInt(spec.substring(0, dash)),
+                                 Integer.parseInt(spec.substring(dash + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad page range");
+        }
+    }
+
+    /** Return my first page. */
+    int first() {
+        return _first;
+    }
+
+    /** Return my last page. */
+    int last() {
+        return _last;
+    }
+
+    /** Format my pages of SOURCE, read in the default character set, to
+     *  OUT, reporting errors to DIAGNOSTICS, and breaking lines optimally
+     *  by default iff OPTIMAL.  Uses the PageIndex beside SOURCE if it is
+     *  current and covers my pages, and otherwise formats all of SOURCE
+     *  and writes its index, if that can be done.  Errors are reported
+     *  only for what is formatted.  Returns true iff the index was
+     *  used. */
+    boolean render(Path source, PageAssembler out, Diagnostics diagnostics,
+                   boolean optimal) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        Path sidecar = PageIndex.sidecar(source);
+        PageIndex index = PageIndex.read(sidecar);
+        boolean current =
+            index != null && index.matches(source, charset, optimal);
+        if (current && _last < index.pages()) {
+            resume(source, charset, index.checkpoint(_first), out,
+                   diagnostics);
+            return true;
+        }
+        Selector selector = new Selector(out, 0);
+        Controller cntrl = new Controller(selector, null, diagnostics);
+        cntrl.setOptimalDefault(optimal);
+        PageIndex.Builder builder =
+            current ? null : new PageIndex.Builder(cntrl, selector);
+        try (FileChannel in = FileChannel.open(source);
+             Reader input =
+                 Channels.newReader(in, PageIndex.decoder(charset), -1)) {
+            InputParser parser = new InputParser(input, cntrl);
+            parser.setIndex(builder);
+            finish(parser, selector, cntrl, builder == null);
+        }
+        if (builder != null) {
+            try {
+                builder.finish(source, charset, optimal).write(sidecar);
+            } catch (IOException e) {
+                /* The index only saves time; do without it. */
+            }
+        }
+        return false;
+    }
+
+    /** Format my pages of SOURCE, read in CHARSET, to OUT, reporting
+     *  errors to DIAGNOSTICS, starting from CHECKPOINT, that of my first
+     *  page. */
+    private void resume(Path source, Charset charset,
+                        PageIndex.Checkpoint checkpoint, PageAssembler out,
+                        Diagnostics diagnostics) throws IOException {
+        Selector selector = new Selector(out, checkpoint.page);
+        selector.setPosition(checkpoint.position);
+        selector.setPage(checkpoint.page);
+        Controller cntrl = new Controller(selector, null, diagnostics);
+        cntrl.restore(checkpoint.main, checkpoint.endnotes,
+                      checkpoint.refNum);
+        try (FileChannel in = FileChannel.open(source);
+             Reader input =
+                 Channels.newReader(in.position(checkpoint.byteOffset),
+                                    PageIndex.decoder(charset), -1)) {
+            finish(new InputParser(input, cntrl, checkpoint.line, 1),
+                   selector, cntrl, true);
+        }
+    }
+
+    /** Format the input of PARSER through CNTRL, whose main text goes to
+     *  SELECTOR, and close CNTRL, stopping after my last page iff EARLY,
+     *  and otherwise at the end of input. */
+    private void finish(InputParser parser, Selector selector,
+                        Controller cntrl, boolean early) throws IOException {
+        while (!(early && selector.done()) && parser.step()) {
+            continue;
+        }
+        cntrl.close();
+        if (parser.ioException() != null) {
+            throw parser.ioException();
+        }
+    }
+
+    /** A PageAssembler that paginates its lines, and passes those on my
+     *  pages, with their form feeds, to another, except for the form feed
+     *  of the first. */
+    private final class Selector extends PageAssembler {
+        /** A Selector passing lines to OUT, whose current page is PAGE
+         *  (0 before the first). */
+        Selector(PageAssembler out, int page) {
+            _out = out;
+            _current = page;
+        }
+
+        /** Return true iff all my pages have been passed on. */
+        boolean done() {
+            return _current > _last;
+        }
+
+        @Override
+        void write(String line) {
+            if (startsPage(!line.isEmpty() && line.charAt(0) == '\f')) {
+                _out.write(_passed ? line : line.substring(1));
+            } else if (inRange()) {
+                _out.write(line);
+            } else {
+                return;
+            }
+            _passed = true;
+        }
+
+        @Override
+        void write(char[] buf, int off, int len) {
+            if (startsPage(len > 0 && buf[off] == '\f') && !_passed) {
+                _out.write(buf, off + 1, len - 1);
+            } else if (inRange()) {
+                _out.write(buf, off, len);
+            } else {
+                return;
+            }
+            _passed = true;
+        }
+
+        /** Count a new page if the line about to be written starts one,
+         *  as it does iff FORMFEED or it is the first.  Returns true iff
+         *  it starts one of my pages and has a form feed. */
+        private boolean startsPage(boolean formFeed) {
+            if (formFeed || _current == 0) {
+                _current += 1;
+                return formFeed && inRange();
+            }
+            return false;
+        }
+
+        /** Return true iff the current page is one of mine. */
+        private boolean inRange() {
+            return _current >= _first && _current <= _last;
+        }
+
+        @Override
+        void flush() {
+            _out.flush();
+        }
+
+        /** Where my pages go. */
+        private final PageAssembler _out;
+        /** Number of the current page, from 1, or 0 before the first. */
+        private int _current;
+        /** True once a line has been passed on. */
+        private boolean _passed;
+    }
+
+    /** First and last page. */
+    private final int _first, _last;
+
+}
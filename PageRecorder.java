@@ -0,0 +1,187 @@
+package tex61;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/** A PageAssembler that paginates nothing itself, but records the lines,
+ *  paragraph skips, and text-height changes sent to it, so that they can
+ *  later be replayed, in order, into another PageAssembler that does the
+ *  pagination.  This lets a paragraph be laid out apart from (and
+ *  concurrently with) the pages that it will end up on.
+ */
+class PageRecorder extends PageAssembler {
+
+    /** Record codes. */
+    private static final int LINE = 0, BLANKS = 1, HEIGHT = 2;
+
+    /** A new PageRecorder.  Iff FOLLOWS, the lines recorded will follow
+     *  other lines on their pages, so that lineCount() is never 0. */
+    PageRecorder(boolean follows) {
+        _follows = follows;
+    }
+
+    @Override
+    int lineCount() {
+        return _lines + (_follows ? 1 : 0);
+    }
+
+    /** Record the line in BUF[OFF .. OFF+LEN-1]. */
+    @Override
+    void addLine(char[] buf, int off, int len) {
+        reserveChars(len + 1);
+        System.arraycopy(buf, off, _chars, _charCount + 1, len);
+        addRecord(LINE, _charCount + 1, len);
+        _charCount += len + 1;
+        _lines += 1;
+    }
+
+    /** Record LINE. */
+    @Override
+    void addLine(String line) {
+        int len = line.length();
+        reserveChars(len + 1);
+        line.getChars(0, len, _chars, _charCount + 1);
+        addRecord(LINE, _charCount + 1, len);
+        _charCount += len + 1;
+        _lines += 1;
+    }
+
+    /** Record N blank lines. */
+    @Override
+    void addBlankLines(int n) {
+        addRecord(BLANKS, n, 0);
+        _lines += n;
+    }
+
+    /** Record a change of text height to VAL > 0. */
+    @Override
+    void setTextHeight(int val) {
+        super.setTextHeight(val);
+        addRecord(HEIGHT, val, 0);
+    }
+
+    /** Record LINE. */
+    @Override
+    void write(String line) {
+        addLine(line);
+    }
+
+    /** Return the number of lines recorded, including blank lines. */
+    int recordedLines() {
+        return _lines;
+    }
+
+    /** Return true iff nothing has been recorded. */
+    boolean isEmpty() {
+        return _count == 0;
+    }
+
+    /** Send everything recorded to PAGES, in order. */
+    void replay(PageAssembler pages) {
+        for (int i = 0; i < _count; i += 3) {
+            int a = _records[i + 1], b = _records[i + 2];
+            switch (_records[i]) {
+            case LINE:
+                pages.addLine(_chars, a, b);
+                break;
+            case BLANKS:
+                pages.addBlankLines(a);
+                break;
+            default:
+                pages.setTextHeight(a);
+                break;
+            }
+        }
+    }
+
+    /** Return my records as bytes, from which fromBytes can rebuild
+     *  them. */
+    byte[] toBytes() {
+        ByteBuffer buf =
+            ByteBuffer.allocate(12 + 4 * _count + 2 * _charCount)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(_lines).putInt(_count).putInt(_charCount);
+        buf.asIntBuffer().put(_records, 0, _count);
+        buf.position(buf.position() + 4 * _count);
+        buf.asCharBuffer().put(_chars, 0, _charCount);
+        return buf.array();
+    }
+
+    /** Return a PageRecorder holding the records in the remaining bytes
+     *  of BYTES, as produced by toBytes, whose lines follow others iff
+     *  FOLLOWS.  Throws IllegalArgumentException if they are
+     *  malformed. */
+    static PageRecorder fromBytes(ByteBuffer bytes, boolean follows) {
+        PageRecorder result = new PageRecorder(follows);
+        try {
+            ByteBuffer buf = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+            int size = buf.remaining();
+            int lines = buf.getInt(), count = buf.getInt(),
+                charCount = buf.getInt();
+            if (lines < 0 || count < 0 || count % 3 != 0 || charCount < 0
+                || size != 12 + 4L * count + 2L * charCount) {
+                throw new IllegalArgumentException("bad page record");
+            }
+            result._records = new int[Math.max(count, 3)];
+            buf.asIntBuffer().get(result._records, 0, count);
+            buf.position(buf.position() + 4 * count);
+            result._chars = new char[Math.max(charCount, 1)];
+            buf.asCharBuffer().get(result._chars, 0, charCount);
+            result._lines = lines;
+            result._count = count;
+            result._charCount = charCount;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("bad page record");
+        }
+        for (int i = 0; i < result._count; i += 3) {
+            int code = result._records[i], a = result._records[i + 1],
+                b = result._records[i + 2];
+            boolean ok = code == LINE
+                ? a >= 1 && b >= 0 && a + b <= result._charCount
+                : code == BLANKS ? a >= 0 : code == HEIGHT && a > 0;
+            if (!ok) {
+                throw new IllegalArgumentException("bad page record");
+            }
+        }
+        return result;
+    }
+
+    /** Append record CODE with operands A and B. */
+    private void addRecord(int code, int a, int b) {
+        if (_count + 3 > _records.length) {
+            _records = Arrays.copyOf(_records, 2 * _records.length);
+        }
+        _records[_count] = code;
+        _records[_count + 1] = a;
+        _records[_count + 2] = b;
+        _count += 3;
+    }
+
+    /** Make room for N more characters in _chars. */
+    private void reserveChars(int n) {
+        if (_charCount + n > _chars.length) {
+            _chars = Arrays.copyOf(_chars,
+                                   Math.max(_charCount + n,
+                                            2 * _chars.length));
+        }
+    }
+
+    /** True iff my lines follow others on the page. */
+    private final boolean _follows;
+    /** Number of lines recorded. */
+    private int _lines;
+    /** Records, three ints each: code and two operands.  A LINE's
+     *  operands are its start in _chars and its length; each line is
+     *  preceded by a spare character, which replay lets the destination
+     *  overwrite with a form feed. */
+    private int[] _records = new int[24];
+    /** Number of ints used in _records. */
+    private int _count;
+    /** Characters of recorded lines. */
+    private char[] _chars = new char[256];
+    /** Number of characters used in _chars. */
+    private int _charCount;
+
+}
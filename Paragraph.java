@@ -0,0 +1,238 @@
+package tex61;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/** The input to one paragraph of a LineAssembler: the formatting
+ *  parameters in effect when it starts, and the calls made on the
+ *  assembler from then until its end, recorded so that they can be
+ *  replayed later (possibly on another thread) on a fresh LineAssembler.
+ *  A paragraph ends with a call to endParagraph or finalOutput, after
+ *  which the assembler has no words pending, so nothing else carries over
+ *  from one paragraph to the next.
+ */
+class Paragraph {
+
+    /** Operation codes.  Those marked (V) take an int operand; those
+     *  marked (T) take text. */
+    static final int
+        /** addText (T). */
+        ADD_TEXT = 0,
+        /** addWord (T). */
+        ADD_WORD = 1,
+        /** addLine (T). */
+        ADD_LINE = 2,
+        /** finishWord. */
+        FINISH_WORD = 3,
+        /** beginLine (V: 1 for true, 0 for false). */
+        BEGIN_LINE = 4,
+        /** endParagraph. */
+        END_PARAGRAPH = 5,
+        /** finalOutput. */
+        FINAL_OUTPUT = 6,
+        /** setIndentation (V). */
+        SET_INDENTATION = 7,
+        /** setParIndentation (V). */
+        SET_PAR_INDENTATION = 8,
+        /** setTextWidth (V). */
+        SET_TEXT_WIDTH = 9,
+        /** setParSkip (V). */
+        SET_PAR_SKIP = 10,
+        /** setFill (V). */
+        SET_FILL = 11,
+        /** setJustify (V). */
+        SET_JUSTIFY = 12,
+        /** setTextHeight (V). */
+        SET_TEXT_HEIGHT = 13,
+        /** setOptimal (V: 1 for true, 0 for false). */
+        SET_OPTIMAL = 14,
+        /** setHyphenate (V: 1 for true, 0 for false). */
+        SET_HYPHENATE = 15;
+
+    /** A new, empty paragraph starting with parameters PARAMS.  Iff
+     *  FOLLOWS, it is not the first paragraph of its assembler. */
+    Paragraph(Parameters params, boolean follows) {
+        _params = params;
+        _follows = follows;
+    }
+
+    /** Return the parameters in effect at my start. */
+    Parameters parameters() {
+        return _params;
+    }
+
+    /** Return true iff I am not the first paragraph of my assembler. */
+    boolean follows() {
+        return _follows;
+    }
+
+    /** Return the number of characters of text recorded. */
+    int textLength() {
+        return _charCount;
+    }
+
+    /** Record operation OP, which takes no operand. */
+    void add(int op) {
+        add(op, 0);
+    }
+
+    /** Record operation OP with operand VAL. */
+    void add(int op, int val) {
+        reserveOps(2);
+        _ops[_opCount] = op;
+        _ops[_opCount + 1] = val;
+        _opCount += 2;
+    }
+
+    /** Record operation OP with the text in BUF[OFF .. OFF+LEN-1]. */
+    void add(int op, char[] buf, int off, int len) {
+        reserveChars(len);
+        System.arraycopy(buf, off, _chars, _charCount, len);
+        addText(op, len);
+    }
+
+    /** Record operation OP with text TEXT. */
+    void add(int op, String text) {
+        int len = text.length();
+        reserveChars(len);
+        text.getChars(0, len, _chars, _charCount);
+        addText(op, len);
+    }
+
+    /** Record OP, whose text is the LEN characters at _charCount. */
+    private void addText(int op, int len) {
+        reserveOps(3);
+        _ops[_opCount] = op;
+        _ops[_opCount + 1] = _charCount;
+        _ops[_opCount + 2] = len;
+        _opCount += 3;
+        _charCount += len;
+    }
+
+    /** Replay my operations on a new LineAssembler, returning the
+     *  PageRecorder holding the resulting lines. */
+    PageRecorder layout() {
+        PageRecorder pages = new PageRecorder(_follows);
+        LineAssembler assembler = new LineAssembler(pages);
+        assembler.setParameters(_params);
+        replay(assembler);
+        return pages;
+    }
+
+    /** Replay my operations on ASSEMBLER. */
+    void replay(LineAssembler assembler) {
+        int[] ops = _ops;
+        for (int i = 0; i < _opCount; ) {
+            int op = ops[i];
+            int val = ops[i + 1];
+            switch (op) {
+            case ADD_TEXT:
+                assembler.addText(_chars, val, ops[i + 2]);
+                i += 3;
+                continue;
+            case ADD_WORD:
+                assembler.addWord(new String(_chars, val, ops[i + 2]));
+                i += 3;
+                continue;
+            case ADD_LINE:
+                assembler.addLine(new String(_chars, val, ops[i + 2]));
+                i += 3;
+                continue;
+            case FINISH_WORD:
+                assembler.finishWord();
+                break;
+            case BEGIN_LINE:
+                assembler.beginLine(val != 0);
+                break;
+            case END_PARAGRAPH:
+                assembler.endParagraph();
+                break;
+            case FINAL_OUTPUT:
+                assembler.finalOutput();
+                break;
+            case SET_INDENTATION:
+                assembler.setIndentation(val);
+                break;
+            case SET_PAR_INDENTATION:
+                assembler.setParIndentation(val);
+                break;
+            case SET_TEXT_WIDTH:
+                assembler.setTextWidth(val);
+                break;
+            case SET_PAR_SKIP:
+                assembler.setParSkip(val);
+                break;
+            case SET_FILL:
+                assembler.setFill(val != 0);
+                break;
+            case SET_JUSTIFY:
+                assembler.setJustify(val != 0);
+                break;
+            case SET_TEXT_HEIGHT:
+                assembler.setTextHeight(val);
+                break;
+            case SET_OPTIMAL:
+                assembler.setOptimal(val != 0);
+                break;
+            case SET_HYPHENATE:
+                assembler.setHyphenate(val != 0);
+                break;
+            default:
+                throw new IllegalStateException("bad paragraph operation");
+            }
+            i += 2;
+        }
+    }
+
+    /** Add everything that determines my layout to DIGEST: my starting
+     *  parameters, whether I follow another paragraph, and my recorded
+     *  operations and text. */
+    void digest(MessageDigest digest) {
+        ByteBuffer buf =
+            ByteBuffer.allocate(4 * (_opCount + 7) + 2 * _charCount)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(_params.parSkip).putInt(_params.indentation)
+            .putInt(_params.parIndentation).putInt(_params.textWidth)
+            .putInt((_params.hyphenate ? 16 : 0)
+                    + (_params.fill ? 8 : 0) + (_params.justify ? 4 : 0)
+                    + (_params.optimal ? 2 : 0) + (_follows ? 1 : 0))
+            .putInt(_opCount);
+        buf.asIntBuffer().put(_ops, 0, _opCount);
+        buf.position(buf.position() + 4 * _opCount);
+        buf.putInt(_charCount);
+        buf.asCharBuffer().put(_chars, 0, _charCount);
+        digest.update(buf.array());
+    }
+
+    /** Make room for N more ints in _ops. */
+    private void reserveOps(int n) {
+        if (_opCount + n > _ops.length) {
+            _ops = Arrays.copyOf(_ops, 2 * _ops.length + n);
+        }
+    }
+
+    /** Make room for N more characters in _chars. */
+    private void reserveChars(int n) {
+        if (_charCount + n > _chars.length) {
+            _chars = Arrays.copyOf(_chars,
+                                   Math.max(_charCount + n,
+                                            2 * _chars.length));
+        }
+    }
+
+    /** Parameters at my start. */
+    private final Parameters _params;
+    /** True iff I follow another paragraph. */
+    private final boolean _follows;
+    /** Recorded operations and their operands. */
+    private int[] _ops = new int[32];
+    /** Number of ints used in _ops. */
+    private int _opCount;
+    /** Text operands of _ops. */
+    private char[] _chars = new char[128];
+    /** Number of characters used in _chars. */
+    private int _charCount;
+
+}
@@ -0,0 +1,524 @@
+package tex61;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A cache of laid-out paragraphs, kept in a directory so that it lasts
+ *  from one run to the next.  A paragraph is looked up by the SHA-256
+ *  digest of everything that determines its layout (see
+ *  Paragraph.digest): its starting parameters and the calls made on its
+ *  LineAssembler, which include its text.  The value stored is the
+ *  PageRecorder of the paragraph's lines, as bytes.
+ *
+ *  Entries are kept in segment files, which are never changed once
+ *  written: the entries, then an index of their keys and positions, then
+ *  a trailer.  Opening a cache reads the indices of all its segments
+ *  into memory and maps the segments, so that a hit costs no system
+ *  calls.  New entries go into a segment of this cache's own, written
+ *  under a temporary name and renamed into place when it is full or the
+ *  cache is closed, so other processes see whole segments or none.
+ *  Several threads and processes may thus share a cache; entries stored
+ *  by one process are seen by those that open the cache after it closes
+ *  its segment.
+ *
+ *  The cache is kept to a maximum size by deleting the least recently
+ *  written segments, under a lock file, whenever this cache has written
+ *  an eighth of the maximum since it last checked, and when it is
+ *  closed.  A hit on an entry in the older half of the cache copies the
+ *  entry to the current segment, so that entries still in use are kept
+ *  and eviction approximates least-recently-used.  Problems with the
+ *  files are never errors: an entry that cannot be read is a miss, and
+ *  one that cannot be written is not stored.
+ */
+class ParagraphCache {
+
+    /** Default maximum size of a cache, in bytes. */
+    static final long DEFAULT_SIZE = 256L << 20;
+
+    /** Version of the layout and of the segment format, included in each
+     *  digest so that a change to either can invalidate old entries. */
+    private static final int VERSION = 2;
+
+    /** Last eight bytes of each segment. */
+    private static final long MAGIC = 0x7465783631736567L;
+
+    /** Sizes in bytes of an index entry (key, offset, length) and of a
+     *  segment's trailer (count, index offset, MAGIC). */
+    private static final int INDEX_ENTRY = 28, TRAILER = 20;
+
+    /** Largest size of a segment, in bytes. */
+    private static final long SEGMENT_SIZE = 32L << 20;
+
+    /** Age in milliseconds after which an unfinished segment is taken to
+     *  be left by a process that died, and deleted. */
+    private static final long STALE = 24L * 60 * 60 * 1000;
+
+    /** Fraction of the maximum size to which eviction reduces a cache. */
+    private static final double LOW_WATER = 0.9;
+
+    /** Suffixes of finished and unfinished segment files. */
+    private static final String SEGMENT = ".seg", PARTIAL = ".part";
+
+    /** Each thread's SHA-256 digest, which is costly to look up. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+    /** A cache in DIRECTORY, which is created if needed, holding at most
+     *  about MAXSIZE bytes. */
+    ParagraphCache(Path directory, long maxSize) throws IOException {
+        _directory = Files.createDirectories(directory);
+        _maxSize = maxSize;
+        _segmentLimit = Math.max(1, Math.min(SEGMENT_SIZE, maxSize / 8));
+        List<Segment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+             Files.newDirectoryStream(_directory, "*" + SEGMENT)) {
+            for (Path file : files) {
+                Segment segment = Segment.open(file);
+                if (segment != null) {
+                    segments.add(segment);
+                }
+            }
+        }
+        segments.sort((a, b) -> Long.compare(b.time, a.time));
+        long newer = 0;
+        for (Segment segment : segments) {
+            segment.old = newer >= maxSize / 2;
+            newer += segment.size;
+        }
+        for (int i = segments.size() - 1; i >= 0; i -= 1) {
+            segments.get(i).addTo(_index);
+        }
+    }
+
+    /** Return the lines of PARAGRAPH, from the cache if it holds them,
+     *  and otherwise by laying it out and storing the result. */
+    PageRecorder layout(Paragraph paragraph) {
+        Key key = key(paragraph);
+        Location location;
+        synchronized (this) {
+            location = _index.get(key);
+        }
+        if (location != null) {
+            ByteBuffer bytes = location.bytes();
+            try {
+                PageRecorder result =
+                    PageRecorder.fromBytes(bytes, paragraph.follows());
+                _hits.incrementAndGet();
+                if (location.segment != null && location.segment.old) {
+                    byte[] copy = new byte[bytes.remaining()];
+                    bytes.get(copy);
+                    add(key, copy);
+                    _kept.incrementAndGet();
+                }
+                return result;
+            } catch (IllegalArgumentException e) {
+                synchronized (this) {
+                    _index.remove(key, location);
+                }
+            }
+        }
+        _misses.incrementAndGet();
+        PageRecorder result = paragraph.layout();
+        add(key, result.toBytes());
+        return result;
+    }
+
+    /** Finish the current segment, if any, making its entries visible to
+     *  caches opened afterwards, and evict segments if the cache is over
+     *  its maximum size.  I may still be used afterwards. */
+    synchronized void close() {
+        if (_out != null) {
+            finishSegment();
+            evict();
+        }
+    }
+
+    /** Return the number of paragraphs found in the cache. */
+    long hits() {
+        return _hits.get();
+    }
+
+    /** Return the number of paragraphs not found in the cache. */
+    long misses() {
+        return _misses.get();
+    }
+
+    /** Return the number of entries copied from old segments to keep
+     *  them in the cache. */
+    long kept() {
+        return _kept.get();
+    }
+
+    /** Return the number of segments this process has evicted. */
+    long evictions() {
+        return _evictions.get();
+    }
+
+    /** Return a one-line summary of my use. */
+    String statistics() {
+        long hits = hits(), total = hits + misses();
+        return String.format("paragraph cache: %d hits, %d misses "
+                             + "(%.1f%% hit rate), %d kept, "
+                             + "%d segments evicted",
+                             hits, total - hits,
+                             total == 0 ? 0.0 : 100.0 * hits / total,
+                             kept(), evictions());
+    }
+
+    /** Return the key of PARAGRAPH: the first 128 bits of its digest. */
+    private static Key key(Paragraph paragraph) {
+        MessageDigest digest = DIGEST.get();
+        digest.update((byte) VERSION);
+        paragraph.digest(digest);
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new Key(hash.getLong(), hash.getLong());
+    }
+
+    /** Store BYTES under KEY in the current segment, starting one if
+     *  there is none. */
+    private synchronized void add(Key key, byte[] bytes) {
+        try {
+            if (_out == null) {
+                _partial = Files.createTempFile(_directory, "seg", PARTIAL);
+                _out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(_partial), 1 << 16));
+                _outSize = 0;
+            }
+            _out.write(bytes);
+        } catch (IOException e) {
+            abandonSegment();
+            return;
+        }
+        Location location = new Location(bytes, _outSize);
+        _pendingKeys.add(key);
+        _pending.add(location);
+        _index.put(key, location);
+        _outSize += bytes.length;
+        if (_outSize >= _segmentLimit) {
+            finishSegment();
+        }
+    }
+
+    /** Write the index and trailer of the current segment, rename it into
+     *  place, and look up its entries in the finished segment from now
+     *  on. */
+    private void finishSegment() {
+        try {
+            for (int i = 0; i < _pending.size(); i += 1) {
+                Key key = _pendingKeys.get(i);
+                Location location = _pending.get(i);
+                _out.writeLong(key.hi);
+                _out.writeLong(key.lo);
+                _out.writeLong(location.offset);
+                _out.writeInt(location.length);
+            }
+            _out.writeInt(_pending.size());
+            _out.writeLong(_outSize);
+            _out.writeLong(MAGIC);
+            _out.close();
+            _out = null;
+            String name = _partial.getFileName().toString();
+            Path file = _directory.resolve(
+                name.substring(0, name.length() - PARTIAL.length())
+                + SEGMENT);
+            try {
+                Files.move(_partial, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(_partial, file);
+            }
+            _partial = null;
+            Segment segment = Segment.open(file);
+            for (int i = 0; segment != null && i < _pending.size(); i += 1) {
+                Location location = _pending.get(i);
+                _index.replace(_pendingKeys.get(i), location,
+                               new Location(segment, location.offset,
+                                            location.length));
+            }
+            _pendingKeys.clear();
+            _pending.clear();
+            _written += _outSize;
+            if (_written >= _maxSize / 8) {
+                evict();
+            }
+        } catch (IOException e) {
+            abandonSegment();
+        }
+    }
+
+    /** Give up on the current segment after an error writing it.  Its
+     *  entries stay in memory, for the rest of my use. */
+    private void abandonSegment() {
+        try {
+            if (_out != null) {
+                _out.close();
+            }
+        } catch (IOException e) {
+            /* Ignore. */
+        }
+        _out = null;
+        if (_partial != null) {
+            delete(_partial);
+            _partial = null;
+        }
+        _pendingKeys.clear();
+        _pending.clear();
+    }
+
+    /** Delete the least recently written segments until the cache is
+     *  within LOW_WATER of its maximum size, if it is over that size, and
+     *  delete stale unfinished segments.  Only one process at a time does
+     *  this, holding a lock on the lock file (released when it is
+     *  closed); others skip it meanwhile.  A process that has mapped a
+     *  deleted segment can still read it. */
+    private void evict() {
+        _written = 0;
+        try (FileChannel lockFile =
+                 FileChannel.open(_directory.resolve("lock"),
+                                  StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE)) {
+            if (lockFile.tryLock() == null) {
+                return;
+            }
+            List<Entry> entries = new ArrayList<>();
+            long total = 0;
+            long now = System.currentTimeMillis();
+            try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(_directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    try {
+                        BasicFileAttributes attrs =
+                            Files.readAttributes(file,
+                                                 BasicFileAttributes.class);
+                        long time = attrs.lastModifiedTime().toMillis();
+                        if (name.endsWith(SEGMENT)) {
+                            entries.add(new Entry(file, time, attrs.size()));
+                            total += attrs.size();
+                        } else if (name.endsWith(PARTIAL)
+                                   && now - time > STALE) {
+                            delete(file);
+                        }
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                }
+            }
+            if (total <= _maxSize) {
+                return;
+            }
+            entries.sort((a, b) -> Long.compare(a.time, b.time));
+            long target = (long) (_maxSize * LOW_WATER);
+            for (Entry entry : entries) {
+                if (total <= target) {
+                    break;
+                }
+                if (delete(entry.path)) {
+                    _evictions.incrementAndGet();
+                }
+                total -= entry.size;
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            return;
+        }
+    }
+
+    /** Delete FILE, returning true iff this call deleted it. */
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** The key of an entry: 128 bits of its digest. */
+    private static final class Key {
+        /** The key whose bits are HI followed by LO. */
+        Key(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).hi == hi
+                && ((Key) obj).lo == lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) hi;
+        }
+
+        /** The bits of the key. */
+        private final long hi, lo;
+    }
+
+    /** Where an entry is: in a finished segment, or in memory. */
+    private static final class Location {
+        /** The entry of LENGTH bytes at OFFSET in SEGMENT. */
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.pending = null;
+        }
+
+        /** The entry BYTES, being written at OFFSET in the current
+         *  segment. */
+        Location(byte[] bytes, long offset) {
+            this.segment = null;
+            this.offset = offset;
+            this.length = bytes.length;
+            this.pending = bytes;
+        }
+
+        /** Return the bytes of the entry. */
+        ByteBuffer bytes() {
+            if (pending != null) {
+                return ByteBuffer.wrap(pending);
+            }
+            return segment.map.slice((int) offset, length);
+        }
+
+        /** The segment holding the entry, or null. */
+        private final Segment segment;
+        /** Position of the entry in its segment. */
+        private final long offset;
+        /** Length of the entry. */
+        private final int length;
+        /** The entry, if its segment is not finished. */
+        private final byte[] pending;
+    }
+
+    /** A finished segment file, mapped into memory. */
+    private static final class Segment {
+        /** The segment mapped as MAP, of SIZE bytes, last modified at
+         *  TIME. */
+        private Segment(MappedByteBuffer map, long size, long time) {
+            this.map = map;
+            this.size = size;
+            this.time = time;
+        }
+
+        /** Return the segment in FILE, or null if it cannot be read.  A
+         *  malformed segment is deleted: since segments are complete when
+         *  renamed into place, it can only have been damaged. */
+        static Segment open(Path file) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                long size = channel.size();
+                if (size >= TRAILER && size <= Integer.MAX_VALUE) {
+                    MappedByteBuffer map =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    int end = (int) size - TRAILER;
+                    long count = map.getInt(end);
+                    long index = map.getLong(end + 4);
+                    if (map.getLong(end + 12) == MAGIC && count >= 0
+                        && index >= 0 && index + count * INDEX_ENTRY == end) {
+                        return new Segment(map, size,
+                                           Files.getLastModifiedTime(file)
+                                           .toMillis());
+                    }
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                return null;
+            }
+            delete(file);
+            return null;
+        }
+
+        /** Add my entries to INDEX, replacing any there with the same
+         *  keys. */
+        void addTo(HashMap<Key, Location> index) {
+            int end = (int) size - TRAILER;
+            int count = map.getInt(end);
+            int p = (int) map.getLong(end + 4);
+            int entries = p;
+            for (int i = 0; i < count; i += 1, p += INDEX_ENTRY) {
+                long offset = map.getLong(p + 16);
+                int length = map.getInt(p + 24);
+                if (offset >= 0 && length >= 0 && offset + length <= entries) {
+                    index.put(new Key(map.getLong(p), map.getLong(p + 8)),
+                              new Location(this, offset, length));
+                }
+            }
+        }
+
+        /** The contents of the segment. */
+        private final MappedByteBuffer map;
+        /** Size of the segment in bytes. */
+        private final long size;
+        /** When the segment was written, in milliseconds. */
+        private final long time;
+        /** True iff the segment is in the older half of the cache. */
+        private boolean old;
+    }
+
+    /** A segment file, as seen by evict. */
+    private static class Entry {
+        /** The segment at PATH, last modified at TIME, of SIZE bytes. */
+        Entry(Path path, long time, long size) {
+            this.path = path;
+            this.time = time;
+            this.size = size;
+        }
+
+        /** Where the segment is. */
+        private final Path path;
+        /** When it was written, in milliseconds. */
+        private final long time;
+        /** Its size in bytes. */
+        private final long size;
+    }
+
+    /** Directory holding the cache. */
+    private final Path _directory;
+    /** Maximum total size of segments. */
+    private final long _maxSize;
+    /** Size at which the current segment is finished. */
+    private final long _segmentLimit;
+    /** Where each entry is. */
+    private final HashMap<Key, Location> _index = new HashMap<>();
+    /** The current segment, or null if there is none. */
+    private DataOutputStream _out;
+    /** The file holding the current segment. */
+    private Path _partial;
+    /** Bytes of entries written to the current segment. */
+    private long _outSize;
+    /** Keys of the entries in the current segment. */
+    private final List<Key> _pendingKeys = new ArrayList<>();
+    /** Locations of the entries in the current segment. */
+    private final List<Location> _pending = new ArrayList<>();
+    /** Bytes written in segments since the last eviction check. */
+    private long _written;
+    /** Statistics. */
+    private final AtomicLong _hits = new AtomicLong(),
+        _misses = new AtomicLong(), _kept = new AtomicLong(),
+        _evictions = new AtomicLong();
+
+}
@@ -0,0 +1,125 @@
+package tex61;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of ParagraphCaches.
+ *  @author Eric Escobar
+ */
+
+public class ParagraphCacheTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, and a command without its blank. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("\\nofill");
+
+    /** Return the lines formatted from INPUT, looking up paragraphs in
+     *  CACHE (unless null) and laying them out on POOL (unless null). */
+    private List<String> format(String input, ParagraphCache cache,
+                                ForkJoinPool pool) {
+        return TestDocuments.format(input, pool, TestDocuments.quiet(),
+                                    cache);
+    }
+
+    /** Return the total size of the files under DIR. */
+    private long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                .mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    public void testCachedMatchesUncached() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Random r = new Random(61);
+            for (int k = 0; k < 30; k += 1) {
+                String input =
+                    TestDocuments.makeInput(r, 1 + r.nextInt(300), PIECES);
+                List<String> expected = format(input, null, null);
+                ParagraphCache cache =
+                    new ParagraphCache(dir, ParagraphCache.DEFAULT_SIZE);
+                assertEquals(expected, format(input, cache, null));
+                long misses = cache.misses();
+                assertEquals(expected, format(input, cache, null));
+                assertEquals(expected, format(input, cache, pool));
+                assertEquals("second pass should hit", misses,
+                             cache.misses());
+                cache.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEditedDocument() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 100; i += 1) {
+            s.append("Paragraph ").append(i).append(" of the text.\n\n");
+        }
+        String text = s.toString();
+        ParagraphCache cache = new ParagraphCache(dir, 1 << 20);
+        format(text, cache, null);
+        assertEquals(0, cache.hits());
+        cache.close();
+        cache = new ParagraphCache(dir, 1 << 20);
+        String edited = text.replace("Paragraph 50 ", "Paragraph fifty ");
+        assertEquals(format(edited, null, null), format(edited, cache, null));
+        assertEquals(1, cache.misses());
+        assertEquals(101, cache.hits());
+        assertTrue(cache.statistics().contains("(99.0% hit rate)"));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        long max = 16 << 10;
+        ParagraphCache cache = new ParagraphCache(dir, max);
+        Random r = new Random(61);
+        for (int k = 0; k < 20; k += 1) {
+            format(TestDocuments.makeInput(r, 500, PIECES), cache, null);
+        }
+        cache.close();
+        assertTrue("nothing evicted", cache.evictions() > 0);
+        assertTrue("cache too big", size(dir) <= max);
+    }
+
+    @Test
+    public void testDamagedEntry() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        String input = "A single paragraph of text.";
+        List<String> expected = format(input, null, null);
+        ParagraphCache cache = new ParagraphCache(dir, 1 << 20);
+        format(input, cache, null);
+        cache.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)
+                    && !file.getFileName().toString().equals("lock")) {
+                    Files.write(file, new byte[] { 1, 2, 3 });
+                }
+            }
+        }
+        cache = new ParagraphCache(dir, 1 << 20);
+        assertEquals(expected, format(input, cache, null));
+        assertEquals(0, cache.hits());
+        cache.close();
+        cache = new ParagraphCache(dir, 1 << 20);
+        assertEquals(expected, format(input, cache, null));
+        assertEquals(cache.hits() + cache.misses(), cache.hits());
+    }
+
+}
@@ -0,0 +1,116 @@
+package tex61;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** A LineAssembler that lays out its paragraphs in parallel.  It records
+ *  the calls made on it as Paragraphs (see RecordingLineAssembler).
+ *  Batches of Paragraphs are laid out on a ForkJoinPool, each into its
+ *  own PageRecorder.  Finished batches are then replayed in order into
+ *  the real PageAssembler, which adds paragraph skips, form feeds and
+ *  text-height changes exactly as if one LineAssembler had done all the
+ *  work.  At most a few batches per worker are in flight at once, so
+ *  memory stays bounded however long the document.
+ */
+class ParallelLineAssembler extends RecordingLineAssembler {
+
+    /** Number of characters of text that fill a batch. */
+    private static final int BATCH_SIZE = 1 << 14;
+
+    /** A new ParallelLineAssembler with default settings, sending
+     *  finished lines to PAGES, using default endnote settings iff
+     *  ENDNOTES, and laying out paragraphs on POOL. */
+    ParallelLineAssembler(PageAssembler pages, boolean endnotes,
+                          ForkJoinPool pool) {
+        this(pages, endnotes, pool, null);
+    }
+
+    /** A new ParallelLineAssembler as above, but that first looks up each
+     *  paragraph in CACHE, unless it is null. */
+    ParallelLineAssembler(PageAssembler pages, boolean endnotes,
+                          ForkJoinPool pool, ParagraphCache cache) {
+        super(endnotes);
+        _pages = pages;
+        _pool = pool;
+        _cache = cache;
+        _maxPending = 2 * pool.getParallelism() + 1;
+    }
+
+    @Override
+    void finish(Paragraph paragraph, boolean last) {
+        _batch.add(paragraph);
+        _batchSize += paragraph.textLength();
+        if (last) {
+            submitBatch();
+            while (!_pending.isEmpty()) {
+                replayBatch();
+            }
+        } else if (_batchSize >= BATCH_SIZE) {
+            submitBatch();
+            while (_pending.size() > _maxPending) {
+                replayBatch();
+            }
+        }
+    }
+
+    /** Start laying out the current batch of paragraphs. */
+    private void submitBatch() {
+        final List<Paragraph> batch = _batch;
+        final PageRecorder[] results = new PageRecorder[batch.size()];
+        final ParagraphCache cache = _cache;
+        ForkJoinTask<?> task = _pool.submit(() -> {
+            for (int i = 0; i < results.length; i += 1) {
+                Paragraph paragraph = batch.get(i);
+                results[i] = cache == null ? paragraph.layout()
+                    : cache.layout(paragraph);
+            }
+        });
+        _pending.add(new Batch(task, results));
+        _batch = new ArrayList<>();
+        _batchSize = 0;
+    }
+
+    /** Wait for the oldest batch to be laid out, and send its lines to my
+     *  PageAssembler. */
+    private void replayBatch() {
+        Batch batch = _pending.remove();
+        batch.task.join();
+        for (PageRecorder result : batch.results) {
+            result.replay(_pages);
+        }
+    }
+
+    /** A batch of paragraphs being laid out. */
+    private static class Batch {
+        /** A Batch whose layout is done by TASK, leaving its lines in
+         *  RESULTS. */
+        Batch(ForkJoinTask<?> task, PageRecorder[] results) {
+            this.task = task;
+            this.results = results;
+        }
+
+        /** The layout task. */
+        private final ForkJoinTask<?> task;
+        /** The laid-out paragraphs. */
+        private final PageRecorder[] results;
+    }
+
+    /** Destination of finished lines. */
+    private final PageAssembler _pages;
+    /** Pool on which paragraphs are laid out. */
+    private final ForkJoinPool _pool;
+    /** Where paragraphs are looked up first, or null. */
+    private final ParagraphCache _cache;
+    /** Maximum number of batches in flight. */
+    private final int _maxPending;
+    /** Finished paragraphs not yet submitted. */
+    private List<Paragraph> _batch = new ArrayList<>();
+    /** Characters of text in _batch. */
+    private int _batchSize;
+    /** Batches submitted, oldest first. */
+    private final ArrayDeque<Batch> _pending = new ArrayDeque<>();
+
+}
@@ -0,0 +1,49 @@
+package tex61;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of ParallelLineAssemblers: parallel layout against
+ *  ordinary, sequential layout.
+ *  @author Eric Escobar
+ */
+
+public class ParallelLineAssemblerTest {
+
+    /** Pieces of input from which test documents are made: the usual
+     *  ones, with more settings, some of them wrong, and greedy line
+     *  breaking. */
+    private static final String[] PIECES = TestDocuments.piecesWith(
+        "\\nofill", "\\parindent{-2}", "\\textwidth{72}", "\\parskip{0}",
+        "\\textheight{40}", "\\indent{-1}", "\\linebreak{greedy}");
+
+    @Test
+    public void testParallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Random r = new Random(61);
+            for (int k = 0; k < 40; k += 1) {
+                String input =
+                    TestDocuments.makeInput(r, 1 + r.nextInt(k < 30 ? 300
+                                                             : 40000),
+                                            PIECES);
+                Diagnostics diagnostics = TestDocuments.quiet();
+                List<String> expected =
+                    TestDocuments.format(input, null, diagnostics);
+                int errors1 = diagnostics.total();
+                diagnostics = TestDocuments.quiet();
+                assertEquals("wrong lines: " + input.length(), expected,
+                             TestDocuments.format(input, pool, diagnostics));
+                assertEquals("wrong error count", errors1,
+                             diagnostics.total());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package tex61;
+
+/** The formatting parameters of a LineAssembler that determine how it
+ *  breaks a paragraph into lines: the values of \parskip, \indent,
+ *  \parindent, and \textwidth, and the fill, justify, line-breaking
+ *  and hyphenation modes.  A Parameters is immutable, so it may be
+ *  shared between threads.
+ */
+final class Parameters {
+
+    /** Paragraph skip. */
+    final int parSkip;
+    /** Indentation. */
+    final int indentation;
+    /** Paragraph indentation. */
+    final int parIndentation;
+    /** Text width. */
+    final int textWidth;
+    /** Fill mode. */
+    final boolean fill;
+    /** Justify mode. */
+    final boolean justify;
+    /** Optimal line-breaking mode. */
+    final boolean optimal;
+    /** Hyphenation mode. */
+    final boolean hyphenate;
+
+    /** A Parameters with paragraph skip PARSKIP, indentation INDENTATION,
+     *  paragraph indentation PARINDENTATION, text width TEXTWIDTH, and
+     *  fill, justify, optimal line-breaking and hyphenation modes FILL,
+     *  JUSTIFY, OPTIMAL, and HYPHENATE. */
+    Parameters(int parSkip, int indentation, int parIndentation,
+               int textWidth, boolean fill, boolean justify,
+               boolean optimal, boolean hyphenate) {
+        this.parSkip = parSkip;
+        this.indentation = indentation;
+        this.parIndentation = parIndentation;
+        this.textWidth = textWidth;
+        this.fill = fill;
+        this.justify = justify;
+        this.optimal = optimal;
+        this.hyphenate = hyphenate;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Parameters)) {
+            return false;
+        }
+        Parameters p = (Parameters) obj;
+        return parSkip == p.parSkip && indentation == p.indentation
+            && parIndentation == p.parIndentation
+            && textWidth == p.textWidth && fill == p.fill
+            && justify == p.justify && optimal == p.optimal
+            && hyphenate == p.hyphenate;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = parSkip;
+        h = 31 * h + indentation;
+        h = 31 * h + parIndentation;
+        h = 31 * h + textWidth;
+        return 16 * h + (hyphenate ? 8 : 0) + (fill ? 4 : 0)
+            + (justify ? 2 : 0) + (optimal ? 1 : 0);
+    }
+
+}
@@ -0,0 +1,135 @@
+package tex61;
+
+import java.io.Reader;
+import java.util.Scanner;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/** A parser of formatter input that finds its tokens with a regular
+ *  expression and a Scanner, as InputParser once did.  It may buffer and
+ *  rescan the rest of the input for each command argument, and allows
+ *  arguments nested at most one deep, so it serves only as a reference
+ *  for tests of InputParser: for arguments no deeper than that, the
+ *  lines and errors of the two are the same.  The commands themselves
+ *  are carried out by an InputParser.
+ *  @author Eric Escobar
+ */
+
+final class PatternParser {
+
+    /** Matches text between { } in a command, including the last
+     *  }, but not the opening {.  When matched, group 1 is the matched
+     *  text.  Always matches at least one character against a non-empty
+     *  string or input source. If it matches and group 1 is null, the
+     *  argument was not well-formed (the final } was missing or the
+     *  argument list was nested too deeply). */
+    private static final Pattern BALANCED_TEXT =
+        Pattern.compile("(?s)((?:\\\\.|[^\\\\{}]"
+                        + "|[{](?:\\\\.|[^\\\\{}])*[}])*)"
+                        + "\\}"
+                        + "|.");
+
+    /** Matches input to the text formatter.  Always matches something
+     *  in a non-empty string or input source.  After matching, one or
+     *  more of the groups described by *_TOKEN declarations will
+     *  be non-null. */
+    private static final Pattern INPUT_PATTERN =
+        Pattern.compile("(?s)(\\p{Blank}+)"
+                        + "|(\\r?\\n((?:\\r?\\n)+)?)"
+                        + "|\\\\([\\p{Blank}{}\\\\])"
+                        + "|\\\\(\\p{Alpha}+)([{]?)"
+                        + "|((?:[^\\p{Blank}\\r\\n\\\\{}]+))"
+                        + "|(.)");
+
+    /** Symbolic names for the groups in INPUT_PATTERN. */
+    private static final int
+        /** Blank or tab. */
+        BLANK_TOKEN = 1,
+        /** End of line or paragraph. */
+        EOL_TOKEN = 2,
+        /** End of paragraph (>1 newline). EOL_TOKEN group will also
+         *  be present. */
+        EOP_TOKEN = 3,
+        /** \{, \}, \\, or \ .  .group(ESCAPED_CHAR_TOKEN) will be the
+         *  character after the backslash. */
+        ESCAPED_CHAR_TOKEN = 4,
+        /** Command (\<alphabetic characters>).  .group(COMMAND_TOKEN)
+         *  will be the characters after the backslash.  */
+        COMMAND_TOKEN = 5,
+        /** A '{' immediately following a command. When this group is
+         *  present, .group(COMMAND_TOKEN) will also be present. */
+        COMMAND_ARG_TOKEN = 6,
+        /** Segment of other text (none of the above, not including
+         *  any of the special characters \, {, or }). */
+        TEXT_TOKEN = 7,
+        /** A character that should not be here. */
+        ERROR_TOKEN = 8;
+
+    /** A new PatternParser taking input from READER and sending tokens
+     *  to OUT. */
+    PatternParser(Reader reader, Controller out) {
+        _input = new Scanner(reader);
+        _out = out;
+        _commands = new InputParser("", out);
+    }
+
+    /** Break all input source text into tokens, and send them to our
+     *  output controller.  Finishes by calling .close on the controller.
+     */
+    void process() {
+        while (_input.findWithinHorizon(INPUT_PATTERN, 0) != null) {
+            MatchResult mat = _input.match();
+            if (mat.group(BLANK_TOKEN) != null) {
+                _out.endWord();
+            } else if (mat.group(EOP_TOKEN) != null) {
+                _out.endParagraph();
+            } else if (mat.group(EOL_TOKEN) != null) {
+                _out.endWord();
+            } else if (mat.group(ESCAPED_CHAR_TOKEN) != null) {
+                _out.addText("\\" + mat.group(ESCAPED_CHAR_TOKEN));
+            } else if (mat.group(COMMAND_TOKEN) != null) {
+                String command = mat.group(COMMAND_TOKEN);
+                if (mat.group(COMMAND_ARG_TOKEN).isEmpty()) {
+                    execute("\\" + command);
+                } else {
+                    String arg = null;
+                    if (_input.findWithinHorizon(BALANCED_TEXT, 0) != null) {
+                        arg = _input.match().group(1);
+                    }
+                    if (arg == null || arg.isEmpty()) {
+                        report(Diagnostics.WRONG_ARGUMENTS, "\\" + command);
+                    } else {
+                        execute("\\" + command + "{" + arg + "}");
+                    }
+                }
+            } else if (mat.group(TEXT_TOKEN) != null) {
+                _out.addText(mat.group(TEXT_TOKEN));
+            } else if (mat.group(ERROR_TOKEN) != null) {
+                report(Diagnostics.WRONG_INPUT, null);
+                break;
+            }
+        }
+        _out.close();
+    }
+
+    /** Carry out COMMAND, a command and its well-formed argument, if
+     *  any. */
+    private void execute(String command) {
+        _commands.reset(command, 1, 1);
+        _commands.parse();
+    }
+
+    /** Report an error of kind KIND, with detail DETAIL (if not null),
+     *  at an unknown position. */
+    private void report(int kind, String detail) {
+        _out.diagnostics().report(kind, 0, 0, detail);
+    }
+
+    /** My input source. */
+    private final Scanner _input;
+    /** The Controller to which I send input tokens. */
+    private final Controller _out;
+    /** Parser that carries out commands. */
+    private final InputParser _commands;
+
+}
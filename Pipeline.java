@@ -0,0 +1,286 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Formats a document in three stages, each on its own thread, so that
+ *  reading the input, laying it out, and writing the output overlap.
+ *  The parser runs on the thread that calls process, with a Controller
+ *  whose main text is recorded as Paragraphs (see
+ *  RecordingLineAssembler).  The layout thread lays out each Paragraph
+ *  and paginates its lines.  The writer thread sends them to the real
+ *  PageAssembler's write method.  Adjacent stages are linked by SpscRings
+ *  of batches (of paragraphs, and of lines), so that the cost of passing
+ *  items between threads is spread over many, and memory is bounded by
+ *  the capacity of the rings.  Endnotes are laid out by the parser, as
+ *  usual, and follow the main text through both rings.
+ *
+ *  The output is exactly that of a single Controller.  An exception in
+ *  any stage cancels the rings, which stops the others, and is thrown
+ *  again by process once all have stopped.
+ */
+class Pipeline {
+
+    /** Number of characters of text that fill a batch of paragraphs, or
+     *  of lines. */
+    private static final int BATCH_SIZE = 1 << 14;
+
+    /** Number of batches each ring holds. */
+    private static final int RING_SIZE = 32;
+
+    /** Marks the end of the items passed through each ring. */
+    private static final Object END = new Object();
+
+    /** A pipeline that sends its formatted output to PAGES, reporting
+     *  errors in its input to DIAGNOSTICS. */
+    Pipeline(PageAssembler pages, Diagnostics diagnostics) {
+        this(pages, diagnostics, null);
+    }
+
+    /** A pipeline as above, that first looks up each paragraph in CACHE,
+     *  unless it is null. */
+    Pipeline(PageAssembler pages, Diagnostics diagnostics,
+             ParagraphCache cache) {
+        _pages = pages;
+        _cache = cache;
+        _controller = new Controller(new Recorder(), new Front(),
+                                     diagnostics);
+    }
+
+    /** Return the Controller to which the parser is to send its
+     *  input. */
+    Controller controller() {
+        return _controller;
+    }
+
+    /** Run PARSER, which sends its input to controller(), on this thread,
+     *  while the other stages run on theirs, and return when all are
+     *  done.  Throws the first exception thrown by any stage. */
+    void process(InputParser parser) {
+        Thread layout = new Thread(this::layOut, "tex61-layout");
+        Thread writer = new Thread(this::write, "tex61-writer");
+        layout.setDaemon(true);
+        writer.setDaemon(true);
+        layout.start();
+        writer.start();
+        try {
+            parser.process();
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+        join(layout);
+        join(writer);
+        Throwable failure = _failure.get();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+    }
+
+    /** The layout stage: lay out and paginate each paragraph, and pass on
+     *  each line of endnotes, until the end of the input. */
+    private void layOut() {
+        try {
+            Batcher lines = new Batcher();
+            while (true) {
+                Object[] batch = _paragraphs.take();
+                for (Object item : batch) {
+                    if (item == END) {
+                        lines.send();
+                        _lines.put(END);
+                        return;
+                    } else if (item instanceof Paragraph) {
+                        Paragraph paragraph = (Paragraph) item;
+                        PageRecorder result = _cache == null
+                            ? paragraph.layout() : _cache.layout(paragraph);
+                        result.replay(lines);
+                    } else {
+                        lines.write((String) item);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    /** The writer stage: write each line, until the end of the input,
+     *  and then flush the output. */
+    private void write() {
+        try {
+            while (true) {
+                Object item = _lines.take();
+                if (item == END) {
+                    _pages.flush();
+                    return;
+                }
+                LineBatch batch = (LineBatch) item;
+                for (int i = 0, start = 0; i < batch.count; i += 1) {
+                    int end = batch.ends[i];
+                    _pages.write(batch.chars, start, end - start);
+                    start = end;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    /** Record E as the failure of the pipeline, unless there already is
+     *  one, and stop all stages. */
+    private void fail(Throwable e) {
+        _failure.compareAndSet(null, e);
+        _paragraphs.cancel();
+        _lines.cancel();
+    }
+
+    /** Wait for THREAD to finish. */
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Add ITEM, a Paragraph, a line, or END, whose text has LENGTH
+     *  characters, to the current batch of paragraphs, sending the batch
+     *  to the layout stage if it is full or ITEM is END.  Only for the
+     *  parser's thread. */
+    private void add(Object item, int length) {
+        _batch.add(item);
+        _batchSize += length;
+        if (_batchSize >= BATCH_SIZE || item == END) {
+            _paragraphs.put(_batch.toArray());
+            _batch.clear();
+            _batchSize = 0;
+        }
+    }
+
+    /** The main text's LineAssembler, which passes each paragraph to the
+     *  layout stage. */
+    private class Recorder extends RecordingLineAssembler {
+        /** A new Recorder, with default settings. */
+        Recorder() {
+            super(false);
+        }
+
+        @Override
+        void finish(Paragraph paragraph, boolean last) {
+            add(paragraph, paragraph.textLength());
+        }
+    }
+
+    /** The Controller's PageAssembler, which receives the lines of the
+     *  endnotes after the main text, and passes them to the layout stage,
+     *  followed by END. */
+    private class Front extends PageAssembler {
+        @Override
+        void write(String line) {
+            add(line, line.length());
+        }
+
+        @Override
+        void flush() {
+            add(END, 0);
+        }
+    }
+
+    /** The layout stage's PageAssembler, which paginates lines and
+     *  passes them to the writer stage in LineBatches. */
+    private class Batcher extends PageAssembler {
+        @Override
+        void write(String line) {
+            int len = line.length();
+            reserve(len);
+            line.getChars(0, len, _current.chars, _current.length);
+            end(len);
+        }
+
+        @Override
+        void write(char[] buf, int off, int len) {
+            reserve(len);
+            System.arraycopy(buf, off, _current.chars, _current.length, len);
+            end(len);
+        }
+
+        /** Send the current batch, if it holds any lines, to the writer
+         *  stage. */
+        void send() {
+            if (_current.count > 0) {
+                _lines.put(_current);
+                _current = new LineBatch();
+            }
+        }
+
+        /** Make room for a line of LEN characters in the current
+         *  batch. */
+        private void reserve(int len) {
+            if (_current.length + len > _current.chars.length) {
+                send();
+                if (len > _current.chars.length) {
+                    _current.chars = new char[len];
+                }
+            }
+        }
+
+        /** Record the end of a line of LEN characters just added to the
+         *  current batch, sending the batch on if it is full. */
+        private void end(int len) {
+            LineBatch batch = _current;
+            batch.length += len;
+            if (batch.count == batch.ends.length) {
+                batch.ends = Arrays.copyOf(batch.ends, 2 * batch.count);
+            }
+            batch.ends[batch.count] = batch.length;
+            batch.count += 1;
+            if (batch.length >= BATCH_SIZE) {
+                send();
+            }
+        }
+
+        /** The batch being filled. */
+        private LineBatch _current = new LineBatch();
+    }
+
+    /** A batch of lines, held as one array of characters. */
+    private static class LineBatch {
+        /** The characters of the lines. */
+        private char[] chars = new char[BATCH_SIZE + 256];
+        /** Number of characters used. */
+        private int length;
+        /** ENDS[I] is the end of line I in CHARS. */
+        private int[] ends = new int[256];
+        /** Number of lines. */
+        private int count;
+    }
+
+    /** Where the output goes. */
+    private final PageAssembler _pages;
+    /** Where paragraphs are looked up first, or null. */
+    private final ParagraphCache _cache;
+    /** The parser's Controller. */
+    private final Controller _controller;
+    /** Batches of paragraphs and endnote lines, from parser to layout. */
+    private final SpscRing<Object[]> _paragraphs = new SpscRing<>(RING_SIZE);
+    /** Batches of lines, from layout to writer. */
+    private final SpscRing<Object> _lines = new SpscRing<>(RING_SIZE);
+    /** The batch of paragraphs being filled by the parser. */
+    private final List<Object> _batch = new ArrayList<>();
+    /** Characters of text in _batch. */
+    private int _batchSize;
+    /** The first exception thrown by a stage, if any. */
+    private final AtomicReference<Throwable> _failure =
+        new AtomicReference<>();
+
+}
@@ -0,0 +1,89 @@
+package tex61;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Pipelines and SpscRings.
+ *  @author Eric Escobar
+ */
+
+public class PipelineTest {
+
+    /** Pieces of input from which test documents are made: the shared
+     *  ones, a command without its blank, and pages of a few lines. */
+    private static final String[] PIECES =
+        TestDocuments.piecesWith("\\nofill", "\\textheight{3}");
+
+    /** Return the lines formatted from INPUT by a Pipeline. */
+    private List<String> pipeline(String input) {
+        List<String> lines = new ArrayList<>();
+        Pipeline stages =
+            new Pipeline(new PageCollector(lines), TestDocuments.quiet());
+        stages.process(new InputParser(new StringReader(input),
+                                       stages.controller()));
+        return lines;
+    }
+
+    @Test
+    public void testMatchesController() {
+        Random r = new Random(61);
+        for (int k = 0; k < 50; k += 1) {
+            String input =
+                TestDocuments.makeInput(r, r.nextInt(k < 40 ? 500 : 50000),
+                                        PIECES);
+            assertEquals(TestDocuments.format(input), pipeline(input));
+        }
+    }
+
+    @Test
+    public void testWriterFailure() {
+        String input =
+            TestDocuments.makeInput(new Random(61), 100000, PIECES);
+        int[] written = new int[1];
+        PageAssembler pages = new PageAssembler() {
+            @Override
+            void write(String line) {
+                written[0] += 1;
+                if (written[0] == 1000) {
+                    throw new IllegalStateException("disk full");
+                }
+            }
+        };
+        Pipeline stages = new Pipeline(pages, TestDocuments.quiet());
+        try {
+            stages.process(new InputParser(input, stages.controller()));
+            fail("no exception");
+        } catch (IllegalStateException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals(1000, written[0]);
+    }
+
+    @Test
+    public void testRing() throws InterruptedException {
+        SpscRing<Integer> ring = new SpscRing<>(5);
+        for (int i = 0; i < 8; i += 1) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(8));
+        assertEquals(Integer.valueOf(0), ring.poll());
+        int n = 200000;
+        Thread producer = new Thread(() -> {
+            for (int i = 8; i < n; i += 1) {
+                ring.put(i);
+            }
+        });
+        producer.start();
+        for (int i = 1; i < n; i += 1) {
+            assertEquals(i, (int) ring.take());
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+
+}
@@ -0,0 +1,132 @@
+package tex61;
+
+import java.util.ArrayList;
+
+/** A LineAssembler that does no formatting as calls arrive, but records
+ *  them as Paragraphs, split at each endParagraph, each with the
+ *  parameters in effect at its start.  Subtypes decide how each finished
+ *  Paragraph is laid out and where its lines go, by overriding
+ *  finish. */
+abstract class RecordingLineAssembler extends LineAssembler {
+
+    /** A new RecordingLineAssembler with default settings, using default
+     *  endnote settings iff ENDNOTES. */
+    RecordingLineAssembler(boolean endnotes) {
+        super(new PageCollector(new ArrayList<String>()), endnotes);
+        _current = new Paragraph(parameters(), false);
+    }
+
+    @Override
+    void addText(String text) {
+        _current.add(Paragraph.ADD_TEXT, text);
+    }
+
+    @Override
+    void addText(char[] buf, int off, int len) {
+        _current.add(Paragraph.ADD_TEXT, buf, off, len);
+    }
+
+    @Override
+    void finishWord() {
+        _current.add(Paragraph.FINISH_WORD);
+    }
+
+    @Override
+    void addWord(String word) {
+        _current.add(Paragraph.ADD_WORD, word);
+    }
+
+    @Override
+    void addLine(String line) {
+        _current.add(Paragraph.ADD_LINE, line);
+    }
+
+    @Override
+    void beginLine(boolean startLine) {
+        _current.add(Paragraph.BEGIN_LINE, startLine ? 1 : 0);
+    }
+
+    /* The setters check and record VAL in this object's own parameters,
+     * which thus always hold the values that the next paragraph starts
+     * with. */
+
+    @Override
+    void setIndentation(int val) {
+        super.setIndentation(val);
+        _current.add(Paragraph.SET_INDENTATION, val);
+    }
+
+    @Override
+    void setParIndentation(int val) {
+        super.setParIndentation(val);
+        _current.add(Paragraph.SET_PAR_INDENTATION, val);
+    }
+
+    @Override
+    void setTextWidth(int val) {
+        super.setTextWidth(val);
+        _current.add(Paragraph.SET_TEXT_WIDTH, val);
+    }
+
+    @Override
+    void setFill(boolean on) {
+        super.setFill(on);
+        _current.add(Paragraph.SET_FILL, on ? 1 : 0);
+    }
+
+    @Override
+    void setJustify(boolean on) {
+        super.setJustify(on);
+        _current.add(Paragraph.SET_JUSTIFY, on ? 1 : 0);
+    }
+
+    @Override
+    void setOptimal(boolean on) {
+        super.setOptimal(on);
+        _current.add(Paragraph.SET_OPTIMAL, on ? 1 : 0);
+    }
+
+    @Override
+    void setHyphenate(boolean on) {
+        super.setHyphenate(on);
+        _current.add(Paragraph.SET_HYPHENATE, on ? 1 : 0);
+    }
+
+    @Override
+    void setParSkip(int val) {
+        super.setParSkip(val);
+        _current.add(Paragraph.SET_PAR_SKIP, val);
+    }
+
+    @Override
+    void setTextHeight(int val) {
+        super.setTextHeight(val);
+        _current.add(Paragraph.SET_TEXT_HEIGHT, val);
+    }
+
+    @Override
+    public void endParagraph() {
+        _current.add(Paragraph.END_PARAGRAPH);
+        Paragraph paragraph = _current;
+        _current = new Paragraph(parameters(), true);
+        finish(paragraph, false);
+    }
+
+    /** Lay out all remaining paragraphs and send them on. */
+    @Override
+    void finalOutput() {
+        _current.add(Paragraph.FINAL_OUTPUT);
+        Paragraph paragraph = _current;
+        _current = new Paragraph(parameters(), true);
+        finish(paragraph, true);
+    }
+
+    /** Lay out PARAGRAPH, which has just ended, and send its lines on,
+     *  now or later, in order.  Iff LAST, it ended with finalOutput, and
+     *  all lines must be sent on before returning. */
+    abstract void finish(Paragraph paragraph, boolean last);
+
+    /** Paragraph being recorded. */
+    private Paragraph _current;
+
+}
@@ -0,0 +1,112 @@
+package tex61;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded queue for exactly one producer thread and one consumer
+ *  thread, without locks: a ring of slots with a head index, advanced
+ *  only by the consumer, and a tail index, advanced only by the
+ *  producer.  Each index is published with an ordered write after its
+ *  slot is filled or cleared, which is all the two threads need to see
+ *  each other's items.  A thread that must wait for room or for an item
+ *  spins briefly, then yields, then parks for short intervals, so that
+ *  waiting costs little even with fewer processors than threads.
+ *  Waiting ends with a CancellationException once the ring is
+ *  cancelled, so that a failure in one stage of a pipeline stops the
+ *  others.
+ */
+class SpscRing<T> {
+
+    /** Number of times a waiting thread spins before yielding. */
+    private static final int SPINS = 128;
+    /** Number of times a waiting thread yields before parking. */
+    private static final int YIELDS = 16;
+    /** Time a waiting thread parks for, in nanoseconds. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** A new, empty ring holding at most CAPACITY items, which is rounded
+     *  up to a power of 2. */
+    SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        _items = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Add ITEM, which is not null, if there is room, returning true iff
+     *  there was.  Only for the producer. */
+    boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _head.get() == _items.length) {
+            return false;
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Remove and return the oldest item, or null if there is none.
+     *  Only for the consumer. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.get();
+        if (head == _tail.get()) {
+            return null;
+        }
+        int slot = (int) head & _mask;
+        T item = (T) _items[slot];
+        _items[slot] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Add ITEM, which is not null, waiting for room if need be.  Only for
+     *  the producer.  Throws CancellationException if the ring is
+     *  cancelled while waiting. */
+    void put(T item) {
+        for (int k = 0; !offer(item); k += 1) {
+            await(k);
+        }
+    }
+
+    /** Remove and return the oldest item, waiting for one if need be.
+     *  Only for the consumer.  Throws CancellationException if the ring
+     *  is cancelled while waiting. */
+    T take() {
+        T item;
+        for (int k = 0; (item = poll()) == null; k += 1) {
+            await(k);
+        }
+        return item;
+    }
+
+    /** Make threads waiting on me, now or later, give up. */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /** Wait a little, after K previous waits for the same thing. */
+    private void await(int k) {
+        if (_cancelled) {
+            throw new CancellationException("pipeline stopped");
+        } else if (k < SPINS) {
+            Thread.onSpinWait();
+        } else if (k < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** The slots. */
+    private final Object[] _items;
+    /** Mask giving the slot of an index. */
+    private final int _mask;
+    /** Index of the next item to remove. */
+    private final AtomicLong _head = new AtomicLong();
+    /** Index of the next item to add. */
+    private final AtomicLong _tail = new AtomicLong();
+    /** True once the ring is cancelled. */
+    private volatile boolean _cancelled;
+
+}
@@ -0,0 +1,91 @@
+package tex61;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** Random documents for tests that check one way of formatting against
+ *  another, and the plain, sequential way of formatting them.
+ *  @author Eric Escobar
+ */
+
+final class TestDocuments {
+
+    /** Pieces of input from which test documents are made: words,
+     *  blanks, line and paragraph ends, and well-formed commands. */
+    static final String[] PIECES = {
+        "the", "quick", "brown", "fox", "supercalifragilistic", "a.",
+        " ", "  ", "\n", "\n\n", "\n\n\n", " ", " ", " ", "jumped", "over",
+        "\\fill ", "\\nofill ", "\\justify ", "\\nojustify\n",
+        "\\indent{2}", "\\parindent{5}", "\\textwidth{30}", "\\parskip{2}",
+        "\\textheight{7}", "\\endnote{an endnote}",
+        "\\endnote{two\n\nparagraphs}", "\\linebreak{optimal}",
+    };
+
+    /** Where quiet Diagnostics print: nowhere. */
+    static final PrintStream NOWHERE =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /** Not instantiable. */
+    private TestDocuments() {
+    }
+
+    /** Return PIECES followed by MORE. */
+    static String[] piecesWith(String... more) {
+        String[] pieces = Arrays.copyOf(PIECES, PIECES.length + more.length);
+        System.arraycopy(more, 0, pieces, PIECES.length, more.length);
+        return pieces;
+    }
+
+    /** Return a random document of N PIECES, using R. */
+    static String makeInput(Random r, int n) {
+        return makeInput(r, n, PIECES);
+    }
+
+    /** Return a random document of N of the strings in PIECES, using
+     *  R. */
+    static String makeInput(Random r, int n, String[] pieces) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            s.append(pieces[r.nextInt(pieces.length)]);
+        }
+        return s.toString();
+    }
+
+    /** Return a Diagnostics that only counts errors. */
+    static Diagnostics quiet() {
+        return new Diagnostics(null, NOWHERE, false, 0);
+    }
+
+    /** Return the lines formatted from INPUT, sequentially, counting its
+     *  errors in a quiet Diagnostics. */
+    static List<String> format(String input) {
+        return format(input, null, quiet());
+    }
+
+    /** Return the lines formatted from INPUT, laying out paragraphs on
+     *  POOL, or sequentially if it is null, and reporting errors to
+     *  DIAGNOSTICS. */
+    static List<String> format(String input, ForkJoinPool pool,
+                               Diagnostics diagnostics) {
+        return format(input, pool, diagnostics, null);
+    }
+
+    /** Return the lines formatted from INPUT as for format(INPUT, POOL,
+     *  DIAGNOSTICS), looking up paragraphs in CACHE unless it is
+     *  null. */
+    static List<String> format(String input, ForkJoinPool pool,
+                               Diagnostics diagnostics,
+                               ParagraphCache cache) {
+        List<String> lines = new ArrayList<>();
+        Controller cntrl = new Controller(new PageCollector(lines), pool,
+                                          diagnostics, cache);
+        new InputParser(input, cntrl).process();
+        return lines;
+    }
+
+}
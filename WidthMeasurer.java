@@ -0,0 +1,19 @@
+package tex61;
+
+/** A measure of the width of a word as it is displayed, in columns, by
+ *  which a LineAssembler fills and justifies its lines.  A
+ *  WidthMeasurer may be shared by LineAssemblers on several threads, so
+ *  it must be safe to use from them at once.
+ */
+interface WidthMeasurer {
+
+    /** Measures a word by its number of chars, as LineAssemblers once
+     *  did: right for ASCII text, but not for wide characters, combining
+     *  marks, or characters outside the Basic Multilingual Plane. */
+    WidthMeasurer CHARS = (buf, off, len) -> len;
+
+    /** Return the number of columns taken by the text in
+     *  BUF[OFF .. OFF+LEN-1]. */
+    int width(char[] buf, int off, int len);
+
+}
@@ -0,0 +1,84 @@
+package tex61;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Reading command arguments from adversarial input with an InputLexer,
+ *  apart from parsing and formatting: one argument nested to half the
+ *  size of the input (nested), commands whose arguments are never
+ *  closed (unclosed), and one endnote as long as the input (endnote).
+ *  Every argument is read, as InputParser does.  One op is one pass
+ *  over the input. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ArgumentBenchmark {
+
+    /** Kind of input. */
+    @Param({ "nested", "unclosed", "endnote" })
+    public String corpus;
+
+    /** Approximate size of the input, in characters. */
+    @Param({ "65536", "1048576", "4194304" })
+    public int size;
+
+    /** The input. */
+    private String _text;
+
+    @Setup
+    public void setup() {
+        StringBuilder text = new StringBuilder();
+        switch (corpus) {
+        case "nested":
+            text.append("\\endnote{");
+            for (int i = 0; i < size / 2; i += 1) {
+                text.append('{');
+            }
+            for (int i = 0; i < size / 2; i += 1) {
+                text.append('}');
+            }
+            text.append('}');
+            break;
+        case "unclosed":
+            while (text.length() < size) {
+                text.append("\\indent{two words ");
+            }
+            break;
+        default:
+            text.append("\\endnote{");
+            text.append(Corpus.plain(size));
+            text.append('}');
+            break;
+        }
+        _text = text.toString();
+    }
+
+    @Benchmark
+    public long scan() {
+        InputLexer lexer = new InputLexer(new StringReader(_text));
+        long total = 0;
+        int type;
+        while ((type = lexer.next()) != InputLexer.EOF) {
+            if (type == InputLexer.COMMAND && lexer.hasArgument()) {
+                total += lexer.scanArgument();
+            }
+        }
+        return total;
+    }
+
+}
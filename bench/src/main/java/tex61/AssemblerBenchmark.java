@@ -0,0 +1,98 @@
+package tex61;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** LineAssembler.finishWord and line output (emitLine) at several text
+ *  widths, with and without justification, with greedy and optimal line
+ *  breaking.  One op is one 150-word paragraph, whose lines are
+ *  discarded. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssemblerBenchmark {
+
+    /** Words per paragraph. */
+    private static final int WORDS = 150;
+
+    /** Text width. */
+    @Param({ "30", "72", "120" })
+    public int width;
+
+    /** Justify mode. */
+    @Param({ "true", "false" })
+    public boolean justify;
+
+    /** Line-breaking mode. */
+    @Param({ "greedy", "optimal" })
+    public String breaking;
+
+    /** A PageAssembler that discards its lines. */
+    static class NullPages extends PageAssembler {
+        @Override
+        void write(String line) {
+        }
+
+        @Override
+        void write(char[] buf, int off, int len) {
+        }
+    }
+
+    /** Characters of the words, one after another. */
+    private char[] _chars;
+    /** Start of each word in _chars, and the end of the last. */
+    private int[] _starts;
+    /** The assembler. */
+    private LineAssembler _assembler;
+    /** Next word. */
+    private int _next;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(61);
+        int n = WORDS * 64;
+        _starts = new int[n + 1];
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            _starts[i] = s.length();
+            for (int k = 1 + r.nextInt(4) + r.nextInt(6); k > 0; k -= 1) {
+                s.append((char) ('a' + r.nextInt(26)));
+            }
+        }
+        _starts[n] = s.length();
+        _chars = s.toString().toCharArray();
+        _assembler = new LineAssembler(new NullPages());
+        _assembler.setTextWidth(width);
+        _assembler.setJustify(justify);
+        _assembler.setOptimal(breaking.equals("optimal"));
+    }
+
+    @Benchmark
+    public void paragraph() {
+        LineAssembler assembler = _assembler;
+        int w = _next;
+        for (int i = 0; i < WORDS; i += 1) {
+            assembler.addText(_chars, _starts[w], _starts[w + 1] - _starts[w]);
+            assembler.finishWord();
+            w = w + 2 == _starts.length ? 0 : w + 1;
+        }
+        assembler.endParagraph();
+        _next = w;
+    }
+
+}
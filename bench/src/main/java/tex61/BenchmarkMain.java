@@ -0,0 +1,24 @@
+package tex61;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Entry point of the benchmark jar.  Takes the same arguments as JMH's
+ *  own main program, but always adds the GC profiler, so that results
+ *  include bytes allocated per operation (gc.alloc.rate.norm) beside
+ *  ops/s. */
+public class BenchmarkMain {
+
+    /** Run the benchmarks selected by ARGS. */
+    public static void main(String[] args)
+        throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(cmd)
+                   .addProfiler(GCProfiler.class).build()).run();
+    }
+
+}
@@ -0,0 +1,78 @@
+package tex61;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Formatting a document whose paragraphs are all in a ParagraphCache,
+ *  against formatting it without one, with each way of breaking lines. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "1048576" })
+    public int size;
+
+    /** How lines are broken: "greedy" or "optimal". */
+    @Param({ "greedy", "optimal" })
+    public String linebreak;
+
+    /** The document. */
+    private String _text;
+    /** A cache holding the document's paragraphs. */
+    private ParagraphCache _cache;
+
+    @Setup
+    public void setup() throws IOException {
+        _text = "\\linebreak{" + linebreak + "}" + Corpus.plain(size);
+        _cache = new ParagraphCache(Files.createTempDirectory("cache"),
+                                    ParagraphCache.DEFAULT_SIZE);
+        format(_cache);
+        _cache.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        _cache.close();
+    }
+
+    /** Return the lines of the document, using CACHE (unless null). */
+    private List<String> format(ParagraphCache cache) {
+        List<String> lines = new ArrayList<>();
+        Controller cntrl = new Controller(new PageCollector(lines), null,
+                                          new Diagnostics(), cache);
+        new InputParser(_text, cntrl).process();
+        return lines;
+    }
+
+    @Benchmark
+    public List<String> cached() {
+        return format(_cache);
+    }
+
+    @Benchmark
+    public List<String> uncached() {
+        return format(null);
+    }
+
+}
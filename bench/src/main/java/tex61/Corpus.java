@@ -0,0 +1,74 @@
+package tex61;
+
+import java.util.Random;
+
+/** Generators of formatter input for the benchmarks.  Each produces the
+ *  same text for the same arguments. */
+class Corpus {
+
+    /** Words from which text is made. */
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "a", "lazy",
+        "dog", "formatter", "paragraph", "of", "to", "in", "justification",
+        "supercalifragilistic", "is", "it", "typesetting", "and",
+    };
+
+    /** Commands scattered through text by commands(). */
+    private static final String[] COMMANDS = {
+        "\\indent{2}", "\\indent{0}", "\\parindent{5}", "\\parindent{3}",
+        "\\textwidth{60}", "\\textwidth{72}", "\\nojustify", "\\justify",
+        "\\parskip{0}", "\\parskip{1}", "\\{", "\\}",
+    };
+
+    /** Return about SIZE characters of plain text: paragraphs of 20-200
+     *  words, separated by blank lines. */
+    static String plain(int size) {
+        return generate(size, 0, 0);
+    }
+
+    /** Return about SIZE characters of text in which about one word in
+     *  eight is a command. */
+    static String commands(int size) {
+        return generate(size, 8, 0);
+    }
+
+    /** Return about SIZE characters of text in which about every other
+     *  word is a command, as in heavily styled input. */
+    static String dense(int size) {
+        return generate(size, 2, 0);
+    }
+
+    /** Return about SIZE characters of text in which about one word in
+     *  sixteen is followed by an endnote. */
+    static String endnotes(int size) {
+        return generate(size, 0, 16);
+    }
+
+    /** Return about SIZE characters of text with a command after about
+     *  one word in COMMANDEVERY and an endnote after about one word in
+     *  ENDNOTEEVERY (none if 0). */
+    private static String generate(int size, int commandEvery,
+                                   int endnoteEvery) {
+        Random r = new Random(61);
+        StringBuilder s = new StringBuilder(size + 256);
+        while (s.length() < size) {
+            for (int n = 20 + r.nextInt(180); n > 0; n -= 1) {
+                s.append(WORDS[r.nextInt(WORDS.length)]);
+                if (commandEvery > 0 && r.nextInt(commandEvery) == 0) {
+                    s.append(' ').append(COMMANDS[r.nextInt(COMMANDS.length)]);
+                }
+                if (endnoteEvery > 0 && r.nextInt(endnoteEvery) == 0) {
+                    s.append("\\endnote{");
+                    for (int k = 3 + r.nextInt(20); k > 0; k -= 1) {
+                        s.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+                    }
+                    s.append('}');
+                }
+                s.append(r.nextInt(12) == 0 ? '\n' : ' ');
+            }
+            s.append("\n\n");
+        }
+        return s.toString();
+    }
+
+}
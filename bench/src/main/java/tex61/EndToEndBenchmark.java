@@ -0,0 +1,105 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Whole runs, as Main does them, over generated files: read INFILE
+ *  (through a FileReader or a MappedFileReader), parse, format, and
+ *  write OUTFILE through a ChannelPagePrinter.  One op is one file. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EndToEndBenchmark {
+
+    /** Kind of document. */
+    @Param({ "plain", "commands", "endnotes" })
+    public String corpus;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "1048576" })
+    public int size;
+
+    /** True iff input files are mapped into memory (--mmap). */
+    @Param({ "false", "true" })
+    public boolean mmap;
+
+    /** True iff the run is counted in a Metrics (--stats). */
+    @Param({ "false", "true" })
+    public boolean stats;
+
+    /** Input file. */
+    private Path _input;
+    /** Output file. */
+    private Path _output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String text;
+        switch (corpus) {
+        case "commands":
+            text = Corpus.commands(size);
+            break;
+        case "endnotes":
+            text = Corpus.endnotes(size);
+            break;
+        default:
+            text = Corpus.plain(size);
+            break;
+        }
+        _input = Files.createTempFile("tex61", ".in");
+        _output = Files.createTempFile("tex61", ".out");
+        Files.write(_input, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_input);
+        Files.deleteIfExists(_output);
+    }
+
+    @Benchmark
+    public int run() throws IOException {
+        File inFile = _input.toFile();
+        Diagnostics diagnostics = new Diagnostics();
+        try (Reader input = mmap ? new MappedFileReader(inFile)
+                 : new FileReader(inFile);
+             FileChannel output =
+                 FileChannel.open(_output, StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            Controller cntrl =
+                new Controller(new ChannelPagePrinter(output), null,
+                               diagnostics);
+            if (stats) {
+                cntrl.setMetrics(new Metrics());
+            }
+            new InputParser(input, cntrl).process();
+        }
+        return diagnostics.total();
+    }
+
+}
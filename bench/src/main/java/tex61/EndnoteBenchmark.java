@@ -0,0 +1,51 @@
+package tex61;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Formatting endnote-heavy input, in which about one word in sixteen
+ *  has an endnote, each parsed by Controller.formatEndnote.  One op is
+ *  one document, formatted into a list of lines. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EndnoteBenchmark {
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "65536", "1048576" })
+    public int size;
+
+    /** The document. */
+    private String _text;
+
+    @Setup
+    public void setup() {
+        _text = Corpus.endnotes(size);
+    }
+
+    @Benchmark
+    public List<String> format() {
+        List<String> lines = new ArrayList<>();
+        Controller cntrl = new Controller(new PageCollector(lines));
+        new InputParser(new StringReader(_text), cntrl).process();
+        return lines;
+    }
+
+}
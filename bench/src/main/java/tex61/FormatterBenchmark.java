@@ -0,0 +1,77 @@
+package tex61;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Formatting documents with one Formatter shared by 1, 2, 4 and 8
+ *  threads at once (threads1 .. threads8), whose total throughput
+ *  should grow with the threads up to the number of cores; and with a
+ *  new Formatter, and so new Controller and buffers, for each document
+ *  (unpooled).  One op is one document, formatted to a list of lines. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatterBenchmark {
+
+    /** Approximate size of each document, in characters. */
+    @Param({ "4096", "65536" })
+    public int size;
+
+    /** The shared Formatter. */
+    private Formatter _formatter;
+    /** The document. */
+    private String _text;
+
+    @Setup
+    public void setup() {
+        _formatter = new Formatter();
+        _text = Corpus.commands(size);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> threads1() {
+        return _formatter.format(_text).lines();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public List<String> threads2() {
+        return _formatter.format(_text).lines();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<String> threads4() {
+        return _formatter.format(_text).lines();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<String> threads8() {
+        return _formatter.format(_text).lines();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> unpooled() {
+        return new Formatter().format(_text).lines();
+    }
+
+}
@@ -0,0 +1,99 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Gzipping formatted output (--gzip): a GzipChannel on a pool of
+ *  THREADS workers (parallel), against a GZIPOutputStream (serial).  The
+ *  output is written in pieces of 8K, as ChannelPagePrinter writes it,
+ *  and the compressed stream is discarded.  One op is the whole
+ *  output. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GzipBenchmark {
+
+    /** Number of compressing threads. */
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    /** Compression level. */
+    @Param({ "1", "6" })
+    public int level;
+
+    /** Approximate size of the input, in characters. */
+    @Param({ "4194304" })
+    public int size;
+
+    /** The formatted output. */
+    private byte[] _output;
+    /** Pool of compressing threads. */
+    private ForkJoinPool _pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Controller cntrl =
+            new Controller(new ChannelPagePrinter(Channels.newChannel(out)),
+                           null, new Diagnostics());
+        new InputParser(Corpus.plain(size), cntrl).process();
+        _output = out.toByteArray();
+        _pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _pool.shutdown();
+    }
+
+    /** Write my output to OUT in pieces of 8K, and close it. */
+    private void copy(WritableByteChannel out) throws IOException {
+        for (int i = 0; i < _output.length; i += 8192) {
+            out.write(ByteBuffer.wrap(_output, i,
+                                      Math.min(8192, _output.length - i)));
+        }
+        out.close();
+    }
+
+    @Benchmark
+    public void parallel() throws IOException {
+        copy(new GzipChannel(
+                 Channels.newChannel(OutputStream.nullOutputStream()),
+                 level, _pool));
+    }
+
+    @Benchmark
+    public void serial() throws IOException {
+        copy(Channels.newChannel(
+                 new GZIPOutputStream(OutputStream.nullOutputStream(), 8192) {
+                     {
+                         def.setLevel(level);
+                     }
+                 }));
+    }
+
+}
@@ -0,0 +1,125 @@
+package tex61;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Hyphenation: finding the break points of words with the default
+ *  Hyphenator (words), drawn from a vocabulary of 2000 words, most of
+ *  which its memo keeps, or of 200000, most of which it does not; and
+ *  formatting 256K of plain text at two text widths, hyphenated and
+ *  not (format).  One op of words is one word, so that its score is
+ *  words per second; one op of format is the whole text, whose lines
+ *  are discarded. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HyphenationBenchmark {
+
+    /** Words per call of words(). */
+    private static final int WORDS = 1000;
+
+    /** Words to hyphenate. */
+    @State(Scope.Thread)
+    public static class Words {
+        /** Number of distinct words. */
+        @Param({ "2000", "200000" })
+        public int vocabulary;
+
+        /** Characters of the words, one after another. */
+        char[] chars;
+        /** Start of each word in chars, and the end of the last. */
+        int[] starts;
+        /** Next word. */
+        int next;
+
+        @Setup
+        public void setup() {
+            Random r = new Random(61);
+            String[] suffixes = {
+                "tion", "ment", "ness", "less", "ful", "ting", "ning", "ing",
+                "s", "", "", "",
+            };
+            String[] words = new String[vocabulary];
+            for (int i = 0; i < words.length; i += 1) {
+                StringBuilder word = new StringBuilder();
+                for (int k = 2 + r.nextInt(4) + r.nextInt(6); k > 0;
+                     k -= 1) {
+                    word.append((char) ('a' + r.nextInt(26)));
+                }
+                words[i] = word.append(suffixes[r.nextInt(suffixes.length)])
+                    .toString();
+            }
+            int n = Math.max(vocabulary, 20 * WORDS);
+            starts = new int[n + 1];
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < n; i += 1) {
+                starts[i] = s.length();
+                s.append(words[r.nextInt(words.length)]);
+            }
+            starts[n] = s.length();
+            chars = s.toString().toCharArray();
+        }
+    }
+
+    /** A document to format. */
+    @State(Scope.Thread)
+    public static class Text {
+        /** Text width. */
+        @Param({ "30", "72" })
+        public int width;
+
+        /** True iff the document is hyphenated. */
+        @Param({ "false", "true" })
+        public boolean hyphenate;
+
+        /** The document. */
+        String text;
+
+        @Setup
+        public void setup() {
+            text = String.format("\\textwidth{%d}%s", width,
+                                 hyphenate ? "\\hyphenate " : "")
+                + Corpus.plain(1 << 18);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public int words(Words words) {
+        Hyphenator hyphenator = Hyphenator.DEFAULT;
+        int[] starts = words.starts;
+        int total = 0;
+        int w = words.next;
+        for (int i = 0; i < WORDS; i += 1) {
+            total += hyphenator.breaks(words.chars, starts[w],
+                                       starts[w + 1] - starts[w]).length;
+            w = w + 2 == starts.length ? 0 : w + 1;
+        }
+        words.next = w;
+        return total;
+    }
+
+    @Benchmark
+    public void format(Text text) {
+        Controller cntrl =
+            new Controller(new AssemblerBenchmark.NullPages(), null,
+                           new Diagnostics());
+        new InputParser(text.text, cntrl).process();
+    }
+
+}
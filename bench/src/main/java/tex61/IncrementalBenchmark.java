@@ -0,0 +1,69 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Reformatting a document after a small edit in its middle, as an editor
+ *  would on each keystroke: incrementally, with an IncrementalFormatter,
+ *  and from scratch.  One op of edit is typing a word and deleting it
+ *  again; one op of reformat is formatting the whole document once. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IncrementalBenchmark {
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "65536", "1048576" })
+    public int size;
+
+    /** Kind of document: "plain" or "endnotes". */
+    @Param({ "plain", "endnotes" })
+    public String corpus;
+
+    /** The document. */
+    private String _text;
+    /** The document, kept formatted. */
+    private IncrementalFormatter _doc;
+    /** Where the edit is made. */
+    private int _pos;
+
+    @Setup
+    public void setup() {
+        _text = corpus.equals("plain") ? Corpus.plain(size)
+            : Corpus.endnotes(size);
+        _doc = new IncrementalFormatter(_text);
+        _pos = _text.indexOf(' ', _text.length() / 2) + 1;
+    }
+
+    @Benchmark
+    public int edit() {
+        _doc.edit(_pos, _pos, "word ");
+        _doc.edit(_pos, _pos + "word ".length(), "");
+        return _doc.laidOut();
+    }
+
+    @Benchmark
+    public List<String> reformat() {
+        List<String> lines = new ArrayList<>();
+        Controller cntrl = new Controller(new PageCollector(lines));
+        new InputParser(_text, cntrl).process();
+        return lines;
+    }
+
+}
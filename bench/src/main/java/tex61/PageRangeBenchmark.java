@@ -0,0 +1,102 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Formatting two pages near the end of a generated file (--pages): from
+ *  its PageIndex (indexed), the first time, when the index is made
+ *  (build), and against formatting the whole file (full).  One op is one
+ *  run. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PageRangeBenchmark {
+
+    /** Kind of document. */
+    @Param({ "plain", "endnotes" })
+    public String corpus;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "1048576" })
+    public int size;
+
+    /** True iff lines are broken optimally (--linebreak=optimal). */
+    @Param({ "false", "true" })
+    public boolean optimal;
+
+    /** Input file. */
+    private Path _input;
+    /** The pages formatted. */
+    private PageRange _range;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String text = corpus.equals("plain") ? Corpus.plain(size)
+            : Corpus.endnotes(size);
+        _input = Files.createTempFile("tex61", ".in");
+        Files.write(_input, text.getBytes(Charset.defaultCharset()));
+        new PageRange(1, 1).render(_input, output(), new Diagnostics(),
+                                   optimal);
+        int pages = PageIndex.read(PageIndex.sidecar(_input)).pages();
+        _range = new PageRange(pages - 2, pages - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(_input);
+        Files.deleteIfExists(PageIndex.sidecar(_input));
+    }
+
+    /** Return a PageAssembler that discards what it is given. */
+    private static PageAssembler output() {
+        return new ChannelPagePrinter(
+            Channels.newChannel(OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    public boolean indexed() throws IOException {
+        return _range.render(_input, output(), new Diagnostics(), optimal);
+    }
+
+    @Benchmark
+    public boolean build() throws IOException {
+        Files.delete(PageIndex.sidecar(_input));
+        return _range.render(_input, output(), new Diagnostics(), optimal);
+    }
+
+    @Benchmark
+    public int full() throws IOException {
+        Diagnostics diagnostics = new Diagnostics();
+        try (Reader input = Files.newBufferedReader(
+                 _input, Charset.defaultCharset())) {
+            Controller cntrl = new Controller(output(), null, diagnostics);
+            cntrl.setOptimalDefault(optimal);
+            new InputParser(input, cntrl).process();
+        }
+        return diagnostics.total();
+    }
+
+}
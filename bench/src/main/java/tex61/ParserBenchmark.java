@@ -0,0 +1,117 @@
+package tex61;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Token throughput of InputParser.process, apart from formatting: the
+ *  parser sends its tokens to a Controller that only counts them.  One
+ *  op is one pass over a 1 MB document. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    /** Kind of document parsed. */
+    @Param({ "plain", "commands", "dense" })
+    public String corpus;
+
+    /** The document. */
+    private String _text;
+
+    /** A Controller that counts the calls made on it and does nothing
+     *  else. */
+    static class CountingController extends Controller {
+        /** A new CountingController. */
+        CountingController() {
+            super(new PageCollector(new ArrayList<String>()));
+        }
+
+        @Override
+        void addText(String text) {
+            tokens += 1;
+        }
+
+        @Override
+        void addText(char[] buf, int off, int len) {
+            tokens += 1;
+        }
+
+        @Override
+        void endWord() {
+            tokens += 1;
+        }
+
+        @Override
+        void endParagraph() {
+            tokens += 1;
+        }
+
+        @Override
+        void setIndentation(int val) {
+            tokens += 1;
+        }
+
+        @Override
+        void setParIndentation(int val) {
+            tokens += 1;
+        }
+
+        @Override
+        void setTextWidth(int val) {
+            tokens += 1;
+        }
+
+        @Override
+        void setParSkip(int val) {
+            tokens += 1;
+        }
+
+        @Override
+        void setFill(boolean on) {
+            tokens += 1;
+        }
+
+        @Override
+        void setJustify(boolean on) {
+            tokens += 1;
+        }
+
+        @Override
+        void close() {
+        }
+
+        /** Number of calls made. */
+        int tokens;
+    }
+
+    @Setup
+    public void setup() {
+        _text = corpus.equals("plain") ? Corpus.plain(1 << 20)
+            : corpus.equals("commands") ? Corpus.commands(1 << 20)
+            : Corpus.dense(1 << 20);
+    }
+
+    @Benchmark
+    public int parse() {
+        CountingController out = new CountingController();
+        new InputParser(new StringReader(_text), out).process();
+        return out.tokens;
+    }
+
+}
@@ -0,0 +1,113 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Latency of formatting a small document with a FormatServer, as seen
+ *  by a client: one op sends the document and reads the whole response.
+ *  Sample mode reports percentiles (p0.50, p0.99, ...). */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerBenchmark {
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "2048", "16384" })
+    public int size;
+
+    /** True iff each op opens a connection of its own. */
+    @Param({ "false", "true" })
+    public boolean connect;
+
+    /** Discards the formatted text. */
+    private static final WritableByteChannel NOWHERE =
+        Channels.newChannel(OutputStream.nullOutputStream());
+
+    /** Directory holding the socket. */
+    private Path _dir;
+    /** The server's address. */
+    private UnixDomainSocketAddress _address;
+    /** The server. */
+    private FormatServer _server;
+    /** The document, in UTF-8. */
+    private ByteBuffer _document;
+    /** The connection, unless CONNECT. */
+    private SocketChannel _channel;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        _dir = Files.createTempDirectory("tex61-server");
+        Path socket = _dir.resolve("socket");
+        _address = UnixDomainSocketAddress.of(socket);
+        _server = new FormatServer(socket, 2, false,
+                                   Diagnostics.DEFAULT_LIMIT);
+        Thread thread = new Thread(() -> {
+                try {
+                    _server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+        _document = ByteBuffer.wrap(Corpus.commands(size)
+                                    .getBytes(StandardCharsets.UTF_8));
+        _channel = open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        _channel.close();
+        _server.close();
+        Files.deleteIfExists(_dir);
+    }
+
+    /** Return a new connection to the server. */
+    private SocketChannel open() throws IOException {
+        SocketChannel channel =
+            SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(_address);
+        return channel;
+    }
+
+    @Benchmark
+    public int format() throws IOException {
+        _document.rewind();
+        if (connect) {
+            try (SocketChannel channel = open()) {
+                return FormatClient.format(channel, "", _document, NOWHERE,
+                                           OutputStream.nullOutputStream());
+            }
+        }
+        return FormatClient.format(_channel, "", _document, NOWHERE,
+                                   OutputStream.nullOutputStream());
+    }
+
+}
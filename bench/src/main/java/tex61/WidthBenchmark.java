@@ -0,0 +1,105 @@
+package tex61;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measuring the widths of words: by their length, as LineAssemblers
+ *  once did (chars), with DisplayWidth (display), and cluster by
+ *  cluster without its cache (uncached), on ASCII words (latin), words
+ *  with some accented letters (accented), and Japanese (cjk), drawn
+ *  from a vocabulary of 2000 words.  One op is 1000 words. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WidthBenchmark {
+
+    /** Words per op. */
+    private static final int WORDS = 1000;
+
+    /** Kind of text. */
+    @Param({ "latin", "accented", "cjk" })
+    public String corpus;
+
+    /** Characters of the words, one after another. */
+    private char[] _chars;
+    /** Start of each word in _chars, and the end of the last. */
+    private int[] _starts;
+    /** The measurer. */
+    private DisplayWidth _display;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(61);
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i += 1) {
+            StringBuilder word = new StringBuilder();
+            for (int k = 1 + r.nextInt(4) + r.nextInt(6); k > 0; k -= 1) {
+                switch (corpus) {
+                case "latin":
+                    word.append((char) ('a' + r.nextInt(26)));
+                    break;
+                case "accented":
+                    word.append(r.nextInt(8) == 0
+                                ? (char) (0xe0 + r.nextInt(28))
+                                : (char) ('a' + r.nextInt(26)));
+                    break;
+                default:
+                    word.append((char) (0x3041 + r.nextInt(80)));
+                    k -= 1;
+                    break;
+                }
+            }
+            vocabulary[i] = word.toString();
+        }
+        StringBuilder s = new StringBuilder();
+        _starts = new int[WORDS + 1];
+        for (int i = 0; i < WORDS; i += 1) {
+            _starts[i] = s.length();
+            s.append(vocabulary[r.nextInt(vocabulary.length)]);
+        }
+        _starts[WORDS] = s.length();
+        _chars = s.toString().toCharArray();
+        _display = new DisplayWidth(4096);
+    }
+
+    @Benchmark
+    public int chars() {
+        return measure(WidthMeasurer.CHARS);
+    }
+
+    @Benchmark
+    public int display() {
+        return measure(_display);
+    }
+
+    @Benchmark
+    public int uncached() {
+        return measure(DisplayWidth::measure);
+    }
+
+    /** Return the total width of my words, as measured by MEASURER. */
+    private int measure(WidthMeasurer measurer) {
+        int total = 0;
+        for (int i = 0; i < WORDS; i += 1) {
+            total += measurer.width(_chars, _starts[i],
+                                    _starts[i + 1] - _starts[i]);
+        }
+        return total;
+    }
+
+}